@@ -1,8 +1,33 @@
 
 import org.dunzo.sde2.test.AbstractTest;
+import org.dunzo.sde2.test.BatchBrewTest;
+import org.dunzo.sde2.test.BrewTimeTest;
+import org.dunzo.sde2.test.CapacityPlanTest;
+import org.dunzo.sde2.test.ConsumptionForecastTest;
+import org.dunzo.sde2.test.HistoryTest;
+import org.dunzo.sde2.test.HttpLoadTest;
+import org.dunzo.sde2.test.IngredientLotTest;
+import org.dunzo.sde2.test.InventoryTransactionTest;
+import org.dunzo.sde2.test.LockProfileTest;
+import org.dunzo.sde2.test.MachineEventTest;
+import org.dunzo.sde2.test.MachineLoggerTest;
+import org.dunzo.sde2.test.MenuIndexTest;
+import org.dunzo.sde2.test.MultiOrderTest;
+import org.dunzo.sde2.test.OrderDedupTest;
+import org.dunzo.sde2.test.OrderLogReplayTest;
+import org.dunzo.sde2.test.OrderProtocolBenchmark;
+import org.dunzo.sde2.test.OrderProtocolTest;
+import org.dunzo.sde2.test.OrderQueueTest;
+import org.dunzo.sde2.test.OrderSequencerTest;
+import org.dunzo.sde2.test.OrderTimeoutTest;
+import org.dunzo.sde2.test.OutletDispatchTest;
+import org.dunzo.sde2.test.OutletPipelineTest;
+import org.dunzo.sde2.test.RegistryTest;
 import org.dunzo.sde2.test.Test1;
 import org.dunzo.sde2.test.Test2;
 import org.dunzo.sde2.test.Test3;
+import org.dunzo.sde2.test.WorkloadReportTest;
+import org.dunzo.sde2.test.WorkloadTest;
 
 public class Main {
 	public static void main(String[] args) throws Exception {
@@ -16,5 +41,81 @@ public class Main {
 ////		
 //		AbstractTest t3 = new Test3();
 //		t3.run(filePath);
+//
+//		AbstractTest batchBrewTest = new BatchBrewTest();
+//		batchBrewTest.run("./inputs/load_machine.json");
+//
+//		AbstractTest brewTimeTest = new BrewTimeTest();
+//		brewTimeTest.run("./inputs/load_machine.json");
+//
+//		AbstractTest capacityPlanTest = new CapacityPlanTest();
+//		capacityPlanTest.run(filePath);
+//
+//		AbstractTest consumptionForecastTest = new ConsumptionForecastTest();
+//		consumptionForecastTest.run(filePath);
+//
+//		AbstractTest ingredientLotTest = new IngredientLotTest();
+//		ingredientLotTest.run("./inputs/load_machine.json");
+//
+//		AbstractTest inventoryTransactionTest = new InventoryTransactionTest();
+//		inventoryTransactionTest.run("./inputs/load_machine.json");
+//
+//		AbstractTest lockProfileTest = new LockProfileTest();
+//		lockProfileTest.run("./inputs/load_machine.json");
+//
+//		AbstractTest machineEventTest = new MachineEventTest();
+//		machineEventTest.run(filePath);
+//
+//		AbstractTest machineLoggerTest = new MachineLoggerTest();
+//		machineLoggerTest.run(filePath);
+//
+//		AbstractTest menuIndexTest = new MenuIndexTest();
+//		menuIndexTest.run("./inputs/load_machine.json");
+//
+//		AbstractTest multiOrderTest = new MultiOrderTest();
+//		multiOrderTest.run("./inputs/load_machine.json");
+//
+//		AbstractTest orderDedupTest = new OrderDedupTest();
+//		orderDedupTest.run("./inputs/load_machine.json");
+//
+//		AbstractTest orderQueueTest = new OrderQueueTest();
+//		orderQueueTest.run("./inputs/load_machine.json");
+//
+//		AbstractTest orderSequencerTest = new OrderSequencerTest();
+//		orderSequencerTest.run("./inputs/load_machine.json");
+//
+//		AbstractTest orderTimeoutTest = new OrderTimeoutTest();
+//		orderTimeoutTest.run("./inputs/load_machine.json");
+//
+//		AbstractTest outletDispatchTest = new OutletDispatchTest();
+//		outletDispatchTest.run("./inputs/load_machine.json");
+//
+//		AbstractTest outletPipelineTest = new OutletPipelineTest();
+//		outletPipelineTest.run("./inputs/load_machine.json");
+//
+//		AbstractTest registryTest = new RegistryTest();
+//		registryTest.run("./inputs/load_machine.json");
+//
+//		AbstractTest httpLoadTest = new HttpLoadTest();
+//		httpLoadTest.run("./inputs/load_machine.json");
+//
+//		AbstractTest orderProtocolBenchmark = new OrderProtocolBenchmark();
+//		orderProtocolBenchmark.run("./inputs/load_machine.json");
+//
+//		AbstractTest orderProtocolTest = new OrderProtocolTest();
+//		orderProtocolTest.run("./inputs/load_machine.json");
+//
+//		AbstractTest workloadTest = new WorkloadTest();
+//		workloadTest.run("./inputs/workload_poisson.json");
+//		workloadTest.run("./inputs/workload_bursty.json");
+//
+//		AbstractTest workloadReportTest = new WorkloadReportTest();
+//		workloadReportTest.run("./inputs/workload_poisson.json");
+//
+//		AbstractTest orderLogReplayTest = new OrderLogReplayTest();
+//		orderLogReplayTest.run("./inputs/workload_bursty.json");
+//
+//		AbstractTest historyTest = new HistoryTest();
+//		historyTest.run("./inputs/workload_poisson.json");
 	}
 }
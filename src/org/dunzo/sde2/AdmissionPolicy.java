@@ -0,0 +1,33 @@
+package org.dunzo.sde2;
+
+/**
+ * AdmissionPolicy --- Defines what the Coffee Machine does with a new order
+ * when its order queue is already full.
+ * 
+ * @author Atul Shanbhag
+ *
+ */
+public enum AdmissionPolicy {
+	// Reject the new order right away.
+	REJECT_NEW,
+
+	// Drop the order waiting the longest in the queue to make room for the new one.
+	DROP_OLDEST,
+
+	// Wait for a queue slot to free up until a timeout, then reject the new order.
+	BLOCK;
+
+	/**
+	 * Returns the policy for a name used in the JSON metadata, e.g. "reject_new".
+	 * 
+	 * @param name
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	public static AdmissionPolicy fromName(String name) throws IllegalArgumentException {
+		if (name == null) {
+			throw new IllegalArgumentException("Admission policy is not defined!");
+		}
+		return AdmissionPolicy.valueOf(name.trim().toUpperCase());
+	}
+}
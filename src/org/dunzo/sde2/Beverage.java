@@ -13,6 +13,14 @@ package org.dunzo.sde2;
 public class Beverage {
 	private String name;
 	private Recipe recipe;
+	private double price;
+
+	// Why the beverage can never be prepared with the machine's ingredients, or
+	// null if it can.
+	private volatile String unservableReason;
+
+	// Price of beverages that don't define one.
+	public final static double DEFAULT_PRICE = 1.0;
 
 	/**
 	 * @param name
@@ -21,6 +29,7 @@ public class Beverage {
 	public Beverage(String name, Recipe recipe) {
 		this.name = name;
 		this.recipe = recipe;
+		this.price = DEFAULT_PRICE;
 	}
 
 	/**
@@ -32,6 +41,55 @@ public class Beverage {
 		return name;
 	}
 
+	/**
+	 * Returns price of the beverage.
+	 * 
+	 * @return
+	 */
+	public double getPrice() {
+		return price;
+	}
+
+	/**
+	 * Sets price of the beverage.
+	 * 
+	 * @param price
+	 * @throws IllegalArgumentException
+	 */
+	public void setPrice(double price) throws IllegalArgumentException {
+		if (price < 0) {
+			throw new IllegalArgumentException("Price of " + name + " cannot be negative!");
+		}
+		this.price = price;
+	}
+
+	/**
+	 * Returns true unless an ingredient of the recipe is missing from the machine.
+	 * 
+	 * @return
+	 */
+	public boolean isServable() {
+		return unservableReason == null;
+	}
+
+	/**
+	 * Returns why the beverage can never be prepared, or null if it can.
+	 * 
+	 * @return
+	 */
+	public String getUnservableReason() {
+		return unservableReason;
+	}
+
+	/**
+	 * Sets why the beverage can never be prepared, or null if it can.
+	 * 
+	 * @param unservableReason
+	 */
+	void setUnservableReason(String unservableReason) {
+		this.unservableReason = unservableReason;
+	}
+
 	/**
 	 * Returns the recipe object for the beverage. Throws an exception if recipe is
 	 * not defined for whatever reason.
@@ -0,0 +1,57 @@
+package org.dunzo.sde2;
+
+/**
+ * BrewTimeModel --- Derives the preparation time of a recipe from the total
+ * volume of it's ingredients, for recipes that don't define their own.
+ * 
+ * @author Atul Shanbhag
+ *
+ */
+public class BrewTimeModel {
+	private int baseTime;
+	private double timePerUnit;
+
+	/**
+	 * @param baseTime
+	 * @param timePerUnit
+	 * @throws IllegalArgumentException
+	 */
+	public BrewTimeModel(int baseTime, double timePerUnit) throws IllegalArgumentException {
+		if (baseTime < 0 || timePerUnit < 0) {
+			throw new IllegalArgumentException("Brew time model cannot have negative times!");
+		}
+		if (baseTime == 0 && timePerUnit == 0) {
+			throw new IllegalArgumentException("Brew time model must have a positive base time or time per unit!");
+		}
+		this.baseTime = baseTime;
+		this.timePerUnit = timePerUnit;
+	}
+
+	/**
+	 * Returns fixed time in millis taken by every recipe.
+	 * 
+	 * @return
+	 */
+	public int getBaseTime() {
+		return baseTime;
+	}
+
+	/**
+	 * Returns time in millis taken per unit of ingredient quantity.
+	 * 
+	 * @return
+	 */
+	public double getTimePerUnit() {
+		return timePerUnit;
+	}
+
+	/**
+	 * Returns preparation time in millis of the recipe based on it's volume.
+	 * 
+	 * @param recipe
+	 * @return
+	 */
+	public int getPrepareTime(Recipe recipe) {
+		return Math.max(1, (int) Math.round(baseTime + timePerUnit * recipe.getTotalQuantity()));
+	}
+}
@@ -0,0 +1,168 @@
+package org.dunzo.sde2;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CapacityPlan --- Result of planning the servings of a forecast mix of
+ * beverages with the stock of a Coffee Machine. Holds the planned servings of
+ * each beverage, the bottleneck ingredients and how much refilling each of them
+ * unlocks.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class CapacityPlan {
+	private Map<String, Integer> servings;
+	private List<String> bottlenecks;
+	private Map<String, Integer> leftover;
+	private Map<String, Integer> unlockedServings;
+	private Map<String, Integer> unlockRefills;
+	private Map<String, Double> demandPerServing;
+	private Map<String, Integer> stock;
+
+	/**
+	 * @param servings
+	 * @param bottlenecks
+	 * @param leftover
+	 * @param unlockedServings
+	 * @param unlockRefills
+	 * @param demandPerServing
+	 * @param stock
+	 */
+	public CapacityPlan(Map<String, Integer> servings, List<String> bottlenecks, Map<String, Integer> leftover,
+			Map<String, Integer> unlockedServings, Map<String, Integer> unlockRefills,
+			Map<String, Double> demandPerServing, Map<String, Integer> stock) {
+		this.servings = servings;
+		this.bottlenecks = bottlenecks;
+		this.leftover = leftover;
+		this.unlockedServings = unlockedServings;
+		this.unlockRefills = unlockRefills;
+		this.demandPerServing = demandPerServing;
+		this.stock = stock;
+	}
+
+	/**
+	 * Returns planned no. of servings of each beverage in the mix.
+	 *
+	 * @return
+	 */
+	public Map<String, Integer> getServings() {
+		return Collections.unmodifiableMap(servings);
+	}
+
+	/**
+	 * Returns planned no. of servings of all the beverages.
+	 *
+	 * @return
+	 */
+	public int getTotalServings() {
+		int total = 0;
+		for (int count : servings.values()) {
+			total += count;
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the ingredients that run out first and limit the servings.
+	 *
+	 * @return
+	 */
+	public List<String> getBottlenecks() {
+		return Collections.unmodifiableList(bottlenecks);
+	}
+
+	/**
+	 * Returns quantity of each ingredient left after the planned servings.
+	 *
+	 * @return
+	 */
+	public Map<String, Integer> getLeftover() {
+		return Collections.unmodifiableMap(leftover);
+	}
+
+	/**
+	 * Returns the no. of extra servings unlocked by refilling each bottleneck
+	 * ingredient till another ingredient runs out. Bottlenecks that run out
+	 * together with another ingredient unlock nothing on their own and are left
+	 * out.
+	 *
+	 * @return
+	 */
+	public Map<String, Integer> getUnlockedServings() {
+		return Collections.unmodifiableMap(unlockedServings);
+	}
+
+	/**
+	 * Returns the quantity of each bottleneck ingredient to refill to unlock it's
+	 * extra servings.
+	 *
+	 * @return
+	 */
+	public Map<String, Integer> getUnlockRefills() {
+		return Collections.unmodifiableMap(unlockRefills);
+	}
+
+	/**
+	 * Returns the bottleneck ingredient whose refill unlocks the most servings, or
+	 * null if no single refill unlocks any.
+	 *
+	 * @return
+	 */
+	public String getBestRefill() {
+		String best = null;
+		for (Map.Entry<String, Integer> entry : unlockedServings.entrySet()) {
+			if (best == null || entry.getValue() > unlockedServings.get(best)) {
+				best = entry.getKey();
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Returns the quantity of each ingredient to refill so that the given no. of
+	 * servings of the mix can be served. Ingredients already sufficient are left
+	 * out.
+	 *
+	 * @param totalServings
+	 * @return
+	 */
+	public Map<String, Integer> getRefillPlan(int totalServings) {
+		Map<String, Integer> refills = new LinkedHashMap<String, Integer>();
+		for (Map.Entry<String, Double> entry : demandPerServing.entrySet()) {
+			String ingredientName = entry.getKey();
+			long needed = (long) Math.ceil(entry.getValue() * totalServings);
+			long available = stock.get(ingredientName);
+			if (needed > available) {
+				refills.put(ingredientName, (int) Math.min(Integer.MAX_VALUE, needed - available));
+			}
+		}
+		return refills;
+	}
+
+	/**
+	 * Return a string representation for CapacityPlan object.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+
+		sb.append("CAPACITY_PLAN(total = " + getTotalServings() + ")").append("\n");
+		for (Map.Entry<String, Integer> entry : servings.entrySet()) {
+			sb.append("\t").append(entry.getKey() + " x " + entry.getValue()).append("\n");
+		}
+		for (String bottleneck : bottlenecks) {
+			sb.append("\t").append("Bottleneck " + bottleneck);
+			if (unlockedServings.containsKey(bottleneck)) {
+				sb.append(", refill " + unlockRefills.get(bottleneck) + " for " + unlockedServings.get(bottleneck)
+						+ " more servings");
+			}
+			sb.append("\n");
+		}
+
+		return sb.toString();
+	}
+}
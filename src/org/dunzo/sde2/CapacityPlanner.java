@@ -0,0 +1,293 @@
+package org.dunzo.sde2;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CapacityPlanner --- Plans how many of each beverage can be served from a
+ * snapshot of the stock, e.g. before a shift.
+ *
+ * Serving the most beverages in a forecast mix is an integer program. The
+ * planner solves it's relaxation exactly, by scaling the mix up till the first
+ * ingredient runs out, and then rounds down and fills the cups lost to rounding
+ * greedily by largest remainder. The ingredients that run out first are the
+ * bottlenecks, and refilling them is what unlocks more servings. Any other
+ * no. of servings of each beverage can be checked against the stock. A plan costs
+ * O(recipe entries + beverages log beverages), so menus with thousands of
+ * beverages are planned in milliseconds.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class CapacityPlanner {
+	// Ingredients running out within this fraction of the first one are
+	// bottlenecks too.
+	private final static double BOTTLENECK_SLACK = 0.05;
+
+	// Rounds servings down a little more so that float error never plans more
+	// than the stock holds. Cups lost this way are filled back by remainder.
+	private final static double ROUNDING_SLACK = 1e-9;
+
+	private final List<String> beverageNames;
+	private final Map<String, Integer> beverageIndex;
+	private final List<String> ingredientNames;
+	private final int[] stock;
+
+	// Ingredient indices and quantities of each beverage's recipe.
+	private final int[][] recipeIngredients;
+	private final int[][] recipeQuantities;
+
+	/**
+	 * @param beverages
+	 * @param stock
+	 * @throws IllegalArgumentException
+	 */
+	public CapacityPlanner(Collection<Beverage> beverages, Map<String, Integer> stock)
+			throws IllegalArgumentException {
+		if (beverages == null || stock == null) {
+			throw new IllegalArgumentException("Capacity planner needs the beverages and the stock!");
+		}
+		this.beverageNames = new ArrayList<String>(beverages.size());
+		this.beverageIndex = new HashMap<String, Integer>();
+		this.ingredientNames = new ArrayList<String>(stock.keySet());
+		Map<String, Integer> ingredientIndex = new HashMap<String, Integer>();
+		for (int i = 0; i < ingredientNames.size(); i++) {
+			ingredientIndex.put(ingredientNames.get(i), i);
+		}
+
+		this.recipeIngredients = new int[beverages.size()][];
+		this.recipeQuantities = new int[beverages.size()][];
+		int b = 0;
+		for (Beverage beverage : beverages) {
+			beverageIndex.put(beverage.getName(), b);
+			beverageNames.add(beverage.getName());
+			Collection<Ingredient> recipe = beverage.getRecipe().getIngredients().values();
+			recipeIngredients[b] = new int[recipe.size()];
+			recipeQuantities[b] = new int[recipe.size()];
+			int r = 0;
+			for (Ingredient ingredient : recipe) {
+				// Ingredients missing from the stock are tracked with no quantity.
+				Integer i = ingredientIndex.get(ingredient.getName());
+				if (i == null) {
+					i = ingredientNames.size();
+					ingredientNames.add(ingredient.getName());
+					ingredientIndex.put(ingredient.getName(), i);
+				}
+				recipeIngredients[b][r] = i;
+				recipeQuantities[b][r] = ingredient.getQuantity();
+				r++;
+			}
+			b++;
+		}
+
+		this.stock = new int[ingredientNames.size()];
+		for (int i = 0; i < stock.size(); i++) {
+			this.stock[i] = Math.max(0, stock.get(ingredientNames.get(i)));
+		}
+	}
+
+	/**
+	 * Returns the max no. of servings of each beverage if only that beverage is
+	 * served.
+	 *
+	 * @return
+	 */
+	public Map<String, Integer> getMaxServings() {
+		Map<String, Integer> maxServings = new LinkedHashMap<String, Integer>();
+		for (int b = 0; b < beverageNames.size(); b++) {
+			int servings = Integer.MAX_VALUE;
+			for (int r = 0; r < recipeIngredients[b].length; r++) {
+				if (recipeQuantities[b][r] > 0) {
+					servings = Math.min(servings, stock[recipeIngredients[b][r]] / recipeQuantities[b][r]);
+				}
+			}
+			maxServings.put(beverageNames.get(b), servings);
+		}
+		return maxServings;
+	}
+
+	/**
+	 * Plans the servings of each beverage that follow the forecast mix as closely
+	 * as possible while serving the most beverages. The mix maps beverage names to
+	 * their relative share of orders.
+	 *
+	 * @param mix
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	public CapacityPlan plan(Map<String, Double> mix) throws IllegalArgumentException {
+		if (mix == null || mix.isEmpty()) {
+			throw new IllegalArgumentException("Forecast mix of beverages is not defined!");
+		}
+		int[] mixed = new int[mix.size()];
+		double[] weights = new double[mix.size()];
+		double totalWeight = 0;
+		int m = 0;
+		for (Map.Entry<String, Double> entry : mix.entrySet()) {
+			Integer b = beverageIndex.get(entry.getKey());
+			if (b == null) {
+				throw new IllegalArgumentException(entry.getKey() + " is not a supported beverage!");
+			}
+			if (entry.getValue() == null || !(entry.getValue() >= 0)) {
+				throw new IllegalArgumentException("Share of " + entry.getKey() + " in the mix cannot be negative!");
+			}
+			mixed[m] = b;
+			weights[m] = entry.getValue();
+			totalWeight += weights[m];
+			m++;
+		}
+		if (!(totalWeight > 0)) {
+			throw new IllegalArgumentException("Forecast mix of beverages has no orders!");
+		}
+
+		// Quantity of each ingredient used per serving of the mix.
+		double[] demand = new double[stock.length];
+		for (m = 0; m < mixed.length; m++) {
+			weights[m] /= totalWeight;
+			int b = mixed[m];
+			for (int r = 0; r < recipeIngredients[b].length; r++) {
+				demand[recipeIngredients[b][r]] += weights[m] * recipeQuantities[b][r];
+			}
+		}
+
+		// Relaxed optimum, the no. of servings at which the first ingredient runs out.
+		double scale = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < stock.length; i++) {
+			if (demand[i] > 0) {
+				scale = Math.min(scale, stock[i] / demand[i]);
+			}
+		}
+		if (Double.isInfinite(scale)) {
+			throw new IllegalArgumentException("Beverages in the forecast mix don't use any ingredient!");
+		}
+
+		// Round down, then fill the cups lost to rounding by largest remainder.
+		int[] servings = new int[mixed.length];
+		int[] remaining = stock.clone();
+		List<Integer> byRemainder = new ArrayList<Integer>(mixed.length);
+		for (m = 0; m < mixed.length; m++) {
+			servings[m] = (int) Math.floor(scale * weights[m] * (1 - ROUNDING_SLACK));
+			consume(mixed[m], servings[m], remaining);
+			byRemainder.add(m);
+		}
+		final double s = scale;
+		final double[] w = weights;
+		byRemainder.sort((x, y) -> Double.compare(s * w[y] - Math.floor(s * w[y]), s * w[x] - Math.floor(s * w[x])));
+		for (int x : byRemainder) {
+			if (weights[x] > 0 && fits(mixed[x], remaining)) {
+				consume(mixed[x], 1, remaining);
+				servings[x]++;
+			}
+		}
+
+		// Bottlenecks run out first. Refilling one unlocks servings till the next
+		// ingredient runs out.
+		List<String> bottlenecks = new ArrayList<String>();
+		Map<String, Integer> unlockedServings = new LinkedHashMap<String, Integer>();
+		Map<String, Integer> unlockRefills = new LinkedHashMap<String, Integer>();
+		for (int i = 0; i < stock.length; i++) {
+			if (!(demand[i] > 0 && stock[i] / demand[i] <= scale * (1 + BOTTLENECK_SLACK))) {
+				continue;
+			}
+			String bottleneck = ingredientNames.get(i);
+			bottlenecks.add(bottleneck);
+			double nextScale = Double.POSITIVE_INFINITY;
+			for (int j = 0; j < stock.length; j++) {
+				if (j != i && demand[j] > 0) {
+					nextScale = Math.min(nextScale, stock[j] / demand[j]);
+				}
+			}
+			// Nothing is unlocked if another ingredient runs out at the same time.
+			int unlocked = Double.isInfinite(nextScale) ? 0 : (int) Math.floor(nextScale) - (int) Math.floor(scale);
+			if (unlocked > 0) {
+				unlockedServings.put(bottleneck, unlocked);
+				unlockRefills.put(bottleneck, (int) Math.ceil(nextScale * demand[i]) - stock[i]);
+			}
+		}
+
+		Map<String, Integer> plannedServings = new LinkedHashMap<String, Integer>();
+		for (m = 0; m < mixed.length; m++) {
+			plannedServings.put(beverageNames.get(mixed[m]), servings[m]);
+		}
+		Map<String, Integer> leftover = new LinkedHashMap<String, Integer>();
+		Map<String, Double> demandPerServing = new LinkedHashMap<String, Double>();
+		Map<String, Integer> stockSnapshot = new LinkedHashMap<String, Integer>();
+		for (int i = 0; i < stock.length; i++) {
+			leftover.put(ingredientNames.get(i), remaining[i]);
+			stockSnapshot.put(ingredientNames.get(i), stock[i]);
+			if (demand[i] > 0) {
+				demandPerServing.put(ingredientNames.get(i), demand[i]);
+			}
+		}
+		return new CapacityPlan(plannedServings, bottlenecks, leftover, unlockedServings, unlockRefills,
+				demandPerServing, stockSnapshot);
+	}
+
+	/**
+	 * Returns true if the stock covers the given no. of servings of each
+	 * beverage at the same time.
+	 *
+	 * @param servings
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	public boolean isFeasible(Map<String, Integer> servings) throws IllegalArgumentException {
+		if (servings == null) {
+			throw new IllegalArgumentException("Servings to check are not defined!");
+		}
+		long[] used = new long[stock.length];
+		for (Map.Entry<String, Integer> entry : servings.entrySet()) {
+			Integer b = beverageIndex.get(entry.getKey());
+			if (b == null) {
+				throw new IllegalArgumentException(entry.getKey() + " is not a supported beverage!");
+			}
+			if (entry.getValue() == null || entry.getValue() < 0) {
+				throw new IllegalArgumentException("Servings of " + entry.getKey() + " cannot be negative!");
+			}
+			for (int r = 0; r < recipeIngredients[b].length; r++) {
+				used[recipeIngredients[b][r]] += (long) entry.getValue() * recipeQuantities[b][r];
+			}
+		}
+		for (int i = 0; i < stock.length; i++) {
+			if (used[i] > stock[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true if the remaining quantities cover one more serving of the
+	 * beverage.
+	 *
+	 * @param b
+	 * @param remaining
+	 * @return
+	 */
+	private boolean fits(int b, int[] remaining) {
+		for (int r = 0; r < recipeIngredients[b].length; r++) {
+			if (remaining[recipeIngredients[b][r]] < recipeQuantities[b][r]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Takes the quantities for the given no. of servings of the beverage out of
+	 * the remaining quantities.
+	 *
+	 * @param b
+	 * @param servings
+	 * @param remaining
+	 */
+	private void consume(int b, int servings, int[] remaining) {
+		for (int r = 0; r < recipeIngredients[b].length; r++) {
+			remaining[recipeIngredients[b][r]] -= servings * recipeQuantities[b][r];
+		}
+	}
+}
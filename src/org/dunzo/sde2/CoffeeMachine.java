@@ -1,15 +1,22 @@
 package org.dunzo.sde2;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
+import org.dunzo.sde2.history.OrderHistory;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -29,13 +36,38 @@ public class CoffeeMachine extends ICoffeeMachine {
 	// simultaneously.
 	private ExecutorService executor;
 
+	// Holds orders placed for a fixed time till they are due.
+	private OrderScheduler scheduler;
+
+	// Sweeps expired lots of ingredients out of the stock while the machine runs.
+	private ScheduledExecutorService sweeper;
+
+	// Interval in millis at which idle workers check if the machine is turning off.
+	private final static long DISPATCH_POLL_INTERVAL = 100;
+
+	// Interval in millis at which queued orders are checked for their timeout.
+	private final static long TIMEOUT_SWEEP_INTERVAL = 50;
+
+	// Max time in millis an order waits for the stock lock before it's rejected.
+	// Critical sections on the stock are short, so this is only hit under heavy
+	// contention.
+	private final static long LOCK_TIMEOUT = 50;
+
+	private final static MachineLogger LOG = MachineLogger.get();
+
 	/**
 	 * @param description
 	 */
 	public CoffeeMachine(String description) {
 		super(description);
 		this.initialized = false;
-		this.lock = new ReentrantLock();
+		this.lock = new ProfiledLock();
+		this.dedupCache = new OrderDedupCache(DEFAULT_DEDUP_CAPACITY, DEFAULT_DEDUP_TTL);
+		this.forecaster = new ConsumptionForecaster(DEFAULT_FORECAST_INTERVAL, DEFAULT_FORECAST_BUCKETS,
+				DEFAULT_FORECAST_ALPHA, DEFAULT_REFILL_LEAD_TIME);
+		this.events = new MachineEventPublisher(DEFAULT_EVENT_RING_CAPACITY);
+		this.tracer = new OrderTracer(DEFAULT_TRACE_SAMPLE_RATE, DEFAULT_TRACE_BUFFER_CAPACITY,
+				DEFAULT_SLOW_TRACE_THRESHOLD);
 	}
 
 	/**
@@ -47,6 +79,15 @@ public class CoffeeMachine extends ICoffeeMachine {
 		return (executor != null && !executor.isTerminated());
 	}
 
+	/**
+	 * Check if the machine is running and still accepting new orders.
+	 * 
+	 * @return
+	 */
+	private boolean isAccepting() {
+		return (isRunning() && !executor.isShutdown());
+	}
+
 	/**
 	 * Turn the machine on if it isn't turned on or running already.
 	 */
@@ -55,10 +96,266 @@ public class CoffeeMachine extends ICoffeeMachine {
 		if (isRunning()) {
 			throw new RuntimeException("Coffee Machine is already turned on and running!");
 		}
-		executor = Executors.newFixedThreadPool(2 * nOutlets);
+		// Keep a worker for every slot of every outlet, so that every outlet can
+		// fill it's pipeline without waiting for workers busy at other outlets.
+		int nWorkers = 0;
+		for (Outlet outlet : outlets.values()) {
+			nWorkers += outlet.getCapacity();
+		}
+		orderQueue = new OrderQueue(queueCapacity, admissionPolicy, blockTimeout);
+		if (sequencingWindow > 0) {
+			orderQueue.setSequencer(new OrderSequencer(sequencingWindow, maxBypass, sequencingObjective, ingredients));
+		}
+		executor = Executors.newFixedThreadPool(nWorkers);
+		for (Outlet outlet : outlets.values()) {
+			for (int i = 0; i < outlet.getCapacity(); i++) {
+				executor.submit(() -> dispatchOrders(outlet));
+			}
+		}
+		scheduler = new OrderScheduler(this);
+		scheduler.start();
+		sweeper = Executors.newSingleThreadScheduledExecutor();
+		sweeper.scheduleWithFixedDelay(sweep("expired lots", this::removeExpiredLots), expirySweepInterval,
+				expirySweepInterval, TimeUnit.MILLISECONDS);
+		// Orders timing out while their outlet is busy finish without waiting for it.
+		OrderQueue queue = orderQueue;
+		sweeper.scheduleWithFixedDelay(
+				sweep("timed out orders", () -> queue.removeTimedOut(System.currentTimeMillis())),
+				TIMEOUT_SWEEP_INTERVAL, TIMEOUT_SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
+		LOG.flush();
 		System.out.println("Turned on Coffee Machine!");
 	}
 
+	/**
+	 * Wraps a periodic sweep so that a failed run is logged instead of cancelling
+	 * every run after it.
+	 * 
+	 * @param what
+	 * @param sweep
+	 * @return
+	 */
+	private static Runnable sweep(String what, Runnable sweep) {
+		return () -> {
+			try {
+				sweep.run();
+			} catch (RuntimeException e) {
+				LOG.error("Failed to sweep " + what + "! {}", e);
+			}
+		};
+	}
+
+	/**
+	 * Configures the bound on the order queue and the policy applied to new orders
+	 * when it is full. Takes effect the next time the machine is turned on.
+	 */
+	@Override
+	public void setAdmissionControl(int capacity, AdmissionPolicy policy, long blockTimeout)
+			throws IllegalArgumentException {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Order queue capacity must be positive!");
+		}
+		if (policy == null) {
+			throw new IllegalArgumentException("Admission policy is not defined!");
+		}
+		if (blockTimeout < 0) {
+			throw new IllegalArgumentException("Admission block timeout cannot be negative!");
+		}
+		if (isRunning()) {
+			throw new RuntimeException("Coffee Machine is running! Turn it off before changing admission control!");
+		}
+		this.queueCapacity = capacity;
+		this.admissionPolicy = policy;
+		this.blockTimeout = blockTimeout;
+	}
+
+	/**
+	 * Sets the default max time in millis an order may wait from intake till it's
+	 * outlet starts brewing it.
+	 */
+	@Override
+	public void setOrderTimeout(long orderTimeout) throws IllegalArgumentException {
+		if (orderTimeout < 0) {
+			throw new IllegalArgumentException("Order timeout cannot be negative!");
+		}
+		this.orderTimeout = orderTimeout;
+	}
+
+	/**
+	 * Configures the no. of recently placed orders remembered to dedup client
+	 * retries, and the time in millis for which each is remembered. Orders placed
+	 * earlier are forgotten.
+	 */
+	@Override
+	public void setDedupCache(int capacity, long ttl) throws IllegalArgumentException {
+		if (isRunning()) {
+			throw new RuntimeException("Coffee Machine is running! Turn it off before changing the dedup cache!");
+		}
+		this.dedupCache = new OrderDedupCache(capacity, ttl);
+	}
+
+	/**
+	 * Configures the forecast of ingredient consumption. Consumption tracked so
+	 * far is forgotten.
+	 */
+	@Override
+	public void setConsumptionForecast(long interval, int nBuckets, double alpha, long leadTime)
+			throws IllegalArgumentException {
+		if (isRunning()) {
+			throw new RuntimeException(
+					"Coffee Machine is running! Turn it off before changing the consumption forecast!");
+		}
+		this.forecaster = new ConsumptionForecaster(interval, nBuckets, alpha, leadTime);
+	}
+
+	/**
+	 * Sets the listener told when an ingredient needs a refill.
+	 */
+	@Override
+	public void setRefillListener(Consumer<RefillEvent> refillListener) {
+		this.refillListener = refillListener;
+	}
+
+	/**
+	 * Configures the sample of order traces kept. Traces kept so far are
+	 * forgotten.
+	 */
+	@Override
+	public void setTracing(double sampleRate, int capacity, long slowThreshold) throws IllegalArgumentException {
+		if (isRunning()) {
+			throw new RuntimeException("Coffee Machine is running! Turn it off before changing tracing!");
+		}
+		this.tracer = new OrderTracer(sampleRate, capacity, slowThreshold);
+	}
+
+	/**
+	 * Starts recording orders placed to a new order log file.
+	 */
+	@Override
+	public synchronized void startRecording(Path file) throws IOException {
+		if (recorder != null) {
+			throw new RuntimeException("Coffee Machine is already recording orders to " + recorder.getFile() + "!");
+		}
+		this.recorder = new OrderLogRecorder(file);
+		LOG.info("Recording orders to {}.", file);
+	}
+
+	/**
+	 * Starts keeping finished orders in the order history in the directory.
+	 */
+	@Override
+	public synchronized void openHistory(Path directory) throws IOException {
+		if (history != null) {
+			throw new RuntimeException("Coffee Machine already keeps it's order history in "
+					+ history.getDirectory() + "!");
+		}
+		this.history = OrderHistory.open(directory);
+		LOG.info("Keeping order history in {}.", directory);
+	}
+
+	/**
+	 * Stops keeping finished orders and closes the order history.
+	 */
+	@Override
+	public synchronized void closeHistory() throws IOException {
+		OrderHistory orderHistory = history;
+		if (orderHistory != null) {
+			history = null;
+			orderHistory.close();
+			LOG.info("Closed order history in {}.", orderHistory.getDirectory());
+		}
+	}
+
+	/**
+	 * Stops recording orders and writes out the rest of the order log.
+	 */
+	@Override
+	public synchronized void stopRecording() {
+		OrderLogRecorder logRecorder = recorder;
+		if (logRecorder != null) {
+			recorder = null;
+			logRecorder.close();
+			LOG.info("Stopped recording orders to {}.", logRecorder.getFile());
+		}
+	}
+
+	/**
+	 * Returns the predicted time in millis till the ingredient runs out.
+	 */
+	@Override
+	public long getTimeToEmpty(String ingredientName) throws IllegalArgumentException {
+		Ingredient ingredient = getIngredient(ingredientName);
+		if (ingredient == null) {
+			throw new IllegalArgumentException(ingredientName + " is not an ingredient in the machine!");
+		}
+		return forecaster.getTimeToEmpty(ingredientName, ingredient.getQuantity(), System.currentTimeMillis());
+	}
+
+	/**
+	 * Tells the refill listener that an ingredient needs a refill, or prints it if
+	 * no listener is set.
+	 * 
+	 * @param event
+	 */
+	private void raiseRefill(RefillEvent event) {
+		if (event == null) {
+			return;
+		}
+		MachineEventPublisher publisher = events;
+		if (publisher.hasSubscribers()) {
+			publisher.publish(MachineEvent.refillNeeded(event));
+		}
+		Consumer<RefillEvent> listener = refillListener;
+		if (listener != null) {
+			// Refills are raised on the thread taking the order, which mustn't fail for it.
+			try {
+				listener.accept(event);
+			} catch (RuntimeException e) {
+				LOG.error("Refill listener failed for " + event.getIngredientName() + "! {}", e);
+			}
+		} else if (event.getQuantity() <= 0) {
+			LOG.warn("Refill {} now! It has run out.", event.getIngredientName());
+		} else if (LOG.isEnabled(MachineLogger.Level.WARN)) {
+			LOG.warn("Refill {} soon! It runs out in {} seconds at {} per second.", event.getIngredientName(),
+					String.format("%.1f", event.getTimeToEmpty() / 1000.0), String.format("%.1f", event.getRate()));
+		}
+	}
+
+	/**
+	 * Configures sequencing of queued orders by stock. Takes effect the next time
+	 * the machine is turned on.
+	 */
+	@Override
+	public void setSequencing(int window, int maxBypass, OrderSequencer.Objective objective)
+			throws IllegalArgumentException {
+		if (window < 0) {
+			throw new IllegalArgumentException("Sequencing window cannot be negative!");
+		}
+		if (maxBypass < 0) {
+			throw new IllegalArgumentException("Max no. of times an order can be passed over cannot be negative!");
+		}
+		if (objective == null) {
+			throw new IllegalArgumentException("Sequencing objective is not defined!");
+		}
+		if (isRunning()) {
+			throw new RuntimeException("Coffee Machine is running! Turn it off before changing sequencing!");
+		}
+		this.sequencingWindow = window;
+		this.maxBypass = maxBypass;
+		this.sequencingObjective = objective;
+	}
+
+	/**
+	 * Sets the time in millis between sweeps of expired lots. Takes effect the
+	 * next time the machine is turned on.
+	 */
+	@Override
+	public void setExpirySweepInterval(long interval) throws IllegalArgumentException {
+		if (interval <= 0) {
+			throw new IllegalArgumentException("Expiry sweep interval must be positive!");
+		}
+		this.expirySweepInterval = interval;
+	}
+
 	/**
 	 * Turn the machine off if it isn't turned off or terminated already.
 	 */
@@ -67,6 +364,12 @@ public class CoffeeMachine extends ICoffeeMachine {
 		if (!isRunning()) {
 			throw new RuntimeException("Coffee Machine is already turned off!");
 		}
+		// Scheduled orders not released yet can't be prepared anymore.
+		for (Order order : scheduler.close()) {
+			order.update(OrderStatus.FAILED, "Coffee Machine was turned off before " + order.getBeverage().getName()
+					+ " could be prepared!");
+		}
+		sweeper.shutdownNow();
 		executor.shutdown();
 		try {
 			if (!executor.awaitTermination(60, TimeUnit.SECONDS)) {
@@ -82,6 +385,21 @@ public class CoffeeMachine extends ICoffeeMachine {
 				executor.shutdownNow();
 			}
 		}
+		stopRecording();
+		// Orders finished in this run can be queried once the machine is off.
+		OrderHistory orderHistory = history;
+		if (orderHistory != null) {
+			try {
+				orderHistory.flush();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		// Complete the event stream of this run, the next run gets a new one.
+		MachineEventPublisher stream = events;
+		events = new MachineEventPublisher(DEFAULT_EVENT_RING_CAPACITY);
+		stream.close();
+		LOG.flush();
 		System.out.println("Turned off Coffee Machine!");
 	}
 
@@ -94,6 +412,14 @@ public class CoffeeMachine extends ICoffeeMachine {
 	 *
 	 */
 	private static class CoffeeMachineJSONLoader {
+		// Key in a recipe object defining it's preparation time instead of an
+		// ingredient.
+		private final static String PREPARE_TIME_KEY = "prepare_time_ms";
+
+		// Key in a recipe object defining the beverage's price instead of an
+		// ingredient.
+		private final static String PRICE_KEY = "price";
+
 		/**
 		 * Initialize the outlets in Coffee Machine.
 		 * 
@@ -110,9 +436,35 @@ public class CoffeeMachine extends ICoffeeMachine {
 			}
 
 			machine.nOutlets = outlets.getInt("count_n");
-			machine.outlets = new HashMap<Integer, Outlet>();
+			machine.outlets = new ConcurrentHashMap<Integer, Outlet>();
+
+			// Throughput factor is optional, either one for all outlets or one per outlet.
+			JSONArray throughputFactors = outlets.optJSONArray("throughput");
+			double throughputFactor = outlets.optDouble("throughput", 1.0);
+			if (throughputFactors != null && throughputFactors.length() != machine.nOutlets) {
+				throw new IllegalArgumentException(
+						"Error in initializing outlets for Coffee Machine! Expected a throughput for each outlet!");
+			}
+			// Pipeline stages are optional, and every outlet gets stages of the same setup.
+			List<OutletStage> stages = new ArrayList<OutletStage>();
+			JSONArray stagesArr = outlets.optJSONArray("stages");
+			if (stagesArr != null) {
+				for (int i = 0; i < stagesArr.length(); i++) {
+					JSONObject stageObj = stagesArr.getJSONObject(i);
+					stages.add(new OutletStage(stageObj.getString("name"), stageObj.optInt("capacity", 1),
+							stageObj.getDouble("share")));
+				}
+			}
+
+			// Batching is optional, outlets brew one cup at a time without it.
+			JSONObject batch = outlets.optJSONObject("batch");
+
 			for (int i = 0; i < machine.nOutlets; i++) {
-				Outlet outlet = new Outlet();
+				double factor = (throughputFactors != null) ? throughputFactors.getDouble(i) : throughputFactor;
+				Outlet outlet = new Outlet(i + 1, factor, stages);
+				if (batch != null) {
+					outlet.setBatching(batch.getInt("capacity"), batch.optDouble("extra_cup_share", 1.0));
+				}
 				machine.outlets.put(outlet.getId(), outlet);
 			}
 		}
@@ -132,7 +484,7 @@ public class CoffeeMachine extends ICoffeeMachine {
 						"Error in initializing ingredients for Coffee Machine with given JSON object!");
 			}
 
-			machine.ingredients = new HashMap<String, Ingredient>();
+			machine.ingredients = new ConcurrentHashMap<String, Ingredient>();
 			Iterator<String> itemsIterator = totalItems.keys();
 			while (itemsIterator.hasNext()) {
 				String itemName = itemsIterator.next();
@@ -142,19 +494,58 @@ public class CoffeeMachine extends ICoffeeMachine {
 			}
 		}
 
+		/**
+		 * Initialize the lots of ingredients that expire, e.g. {"milk": [{"quantity":
+		 * 200, "expires_in_ms": 60000}]}, on top of the quantities that never
+		 * expire. The JSON object is optional.
+		 * 
+		 * @param machine
+		 * @param ingredientLots
+		 * @throws IllegalArgumentException
+		 * @throws JSONException
+		 */
+		private static void initializeIngredientLots(CoffeeMachine machine, JSONObject ingredientLots)
+				throws IllegalArgumentException, JSONException {
+			if (ingredientLots == null) {
+				return;
+			}
+
+			long now = System.currentTimeMillis();
+			Iterator<String> itemsIterator = ingredientLots.keys();
+			while (itemsIterator.hasNext()) {
+				String itemName = itemsIterator.next();
+				Ingredient ingredient = machine.ingredients.get(itemName);
+				if (ingredient == null) {
+					ingredient = new Ingredient(itemName, 0);
+					machine.ingredients.put(itemName, ingredient);
+				}
+				JSONArray lots = ingredientLots.getJSONArray(itemName);
+				for (int i = 0; i < lots.length(); i++) {
+					JSONObject lot = lots.getJSONObject(i);
+					long expiresIn = lot.getLong("expires_in_ms");
+					if (expiresIn <= 0) {
+						throw new IllegalArgumentException("Lot of " + itemName + " must expire in the future!");
+					}
+					ingredient.addLot(lot.getInt("quantity"), now + expiresIn);
+				}
+			}
+		}
+
 		/**
 		 * Initialize the recipe object for given Beverage to be added to the Coffee
-		 * Machine.
+		 * Machine. The preparation time is taken from the recipe if defined, else
+		 * derived from the recipe volume if the machine has a brew time model.
 		 * 
 		 * @param machine
 		 * @param beverageName
 		 * @param recipeObj
+		 * @param brewTimeModel
 		 * @return
 		 * @throws IllegalArgumentException
 		 * @throws JSONException
 		 */
-		private static Recipe getBeverageRecipe(CoffeeMachine machine, String beverageName, JSONObject recipeObj)
-				throws IllegalArgumentException, JSONException {
+		private static Recipe getBeverageRecipe(CoffeeMachine machine, String beverageName, JSONObject recipeObj,
+				BrewTimeModel brewTimeModel) throws IllegalArgumentException, JSONException {
 			if (recipeObj == null) {
 				throw new IllegalArgumentException(
 						"Error in initializing beverages for Coffee Machine with given recipe JSON object!");
@@ -165,12 +556,21 @@ public class CoffeeMachine extends ICoffeeMachine {
 			Iterator<String> recipeIterator = recipeObj.keys();
 			while (recipeIterator.hasNext()) {
 				String ingredientName = recipeIterator.next();
+				if (PREPARE_TIME_KEY.equals(ingredientName) || PRICE_KEY.equals(ingredientName)) {
+					continue;
+				}
 				int ingredientQuantity = recipeObj.getInt(ingredientName);
 
 				Ingredient ingredient = new Ingredient(ingredientName, ingredientQuantity);
 				recipe.addIngredient(ingredient);
 			}
 
+			if (recipeObj.has(PREPARE_TIME_KEY)) {
+				recipe.setPrepareTime(recipeObj.getInt(PREPARE_TIME_KEY));
+			} else if (brewTimeModel != null) {
+				recipe.setPrepareTime(brewTimeModel.getPrepareTime(recipe));
+			}
+
 			return recipe;
 		}
 
@@ -179,29 +579,200 @@ public class CoffeeMachine extends ICoffeeMachine {
 		 * 
 		 * @param machine
 		 * @param beverages
+		 * @param brewTime
 		 * @throws IllegalArgumentException
 		 * @throws JSONException
 		 */
-		private static void initializeBeverages(CoffeeMachine machine, JSONObject beverages)
+		private static void initializeBeverages(CoffeeMachine machine, JSONObject beverages, JSONObject brewTime)
 				throws IllegalArgumentException, JSONException {
 			if (beverages == null) {
 				throw new IllegalArgumentException(
 						"Error in initializing beverages for Coffee Machine with given JSON object!");
 			}
 
-			machine.beverages = new HashMap<String, Beverage>();
+			// Brew time model is optional, recipes take the default time without it.
+			BrewTimeModel brewTimeModel = null;
+			if (brewTime != null) {
+				brewTimeModel = new BrewTimeModel(brewTime.optInt("base_ms", 0), brewTime.optDouble("ms_per_unit", 0));
+			}
+
+			machine.beverages = new ConcurrentHashMap<String, Beverage>();
 			Iterator<String> beveragesIterator = beverages.keys();
 			while (beveragesIterator.hasNext()) {
 				String beverageName = beveragesIterator.next();
 				JSONObject recipeObj = beverages.getJSONObject(beverageName);
 
-				Recipe recipe = getBeverageRecipe(machine, beverageName, recipeObj);
+				Recipe recipe = getBeverageRecipe(machine, beverageName, recipeObj, brewTimeModel);
 
 				Beverage beverage = new Beverage(beverageName, recipe);
+				if (recipeObj.has(PRICE_KEY)) {
+					beverage.setPrice(recipeObj.getDouble(PRICE_KEY));
+				}
 				machine.beverages.put(beverageName, beverage);
 			}
 		}
 
+		/**
+		 * Precompile the menu of the Coffee Machine. Resolves every recipe against
+		 * the ingredients in stock and reports beverages that can never be prepared,
+		 * so that orders for them are rejected right away.
+		 * 
+		 * @param machine
+		 */
+		private static void initializeMenu(CoffeeMachine machine) {
+			machine.menu = new MenuIndex(machine.beverages, machine.ingredients);
+			for (Beverage beverage : machine.beverages.values()) {
+				machine.menu.compile(beverage);
+			}
+
+			Map<String, String> unservable = machine.menu.getUnservable();
+			if (!unservable.isEmpty()) {
+				System.out.println("Following beverages can never be prepared with the ingredients in stock");
+				for (String reason : unservable.values()) {
+					System.out.println("\t" + reason);
+				}
+			}
+		}
+
+		/**
+		 * Initialize the admission control for the order queue of Coffee Machine. The
+		 * JSON object is optional and defaults are kept when it's missing.
+		 * 
+		 * @param machine
+		 * @param admission
+		 * @throws IllegalArgumentException
+		 * @throws JSONException
+		 */
+		private static void initializeAdmission(CoffeeMachine machine, JSONObject admission)
+				throws IllegalArgumentException, JSONException {
+			if (admission == null) {
+				return;
+			}
+
+			int capacity = admission.optInt("queue_capacity", DEFAULT_QUEUE_CAPACITY);
+			AdmissionPolicy policy = AdmissionPolicy.fromName(admission.optString("policy", "reject_new"));
+			long blockTimeout = admission.optLong("block_timeout_ms", DEFAULT_BLOCK_TIMEOUT);
+			machine.setAdmissionControl(capacity, policy, blockTimeout);
+			machine.setOrderTimeout(admission.optLong("order_timeout_ms", Order.NO_TIMEOUT));
+
+			JSONObject dedup = admission.optJSONObject("dedup");
+			if (dedup != null) {
+				// The cache is sized for the expected order rate unless a capacity is given.
+				long ttl = dedup.optLong("ttl_ms", DEFAULT_DEDUP_TTL);
+				int dedupCapacity = dedup.has("orders_per_minute")
+						? OrderDedupCache.getCapacityFor(dedup.getInt("orders_per_minute"), ttl)
+						: DEFAULT_DEDUP_CAPACITY;
+				machine.setDedupCache(dedup.optInt("capacity", dedupCapacity), ttl);
+			}
+		}
+
+		/**
+		 * Initialize the forecast of ingredient consumption. The JSON object is
+		 * optional and defaults are kept when it's missing.
+		 * 
+		 * @param machine
+		 * @param forecast
+		 * @throws IllegalArgumentException
+		 * @throws JSONException
+		 */
+		private static void initializeForecast(CoffeeMachine machine, JSONObject forecast)
+				throws IllegalArgumentException, JSONException {
+			if (forecast == null) {
+				return;
+			}
+
+			machine.setConsumptionForecast(forecast.optLong("interval_ms", DEFAULT_FORECAST_INTERVAL),
+					forecast.optInt("buckets", DEFAULT_FORECAST_BUCKETS),
+					forecast.optDouble("alpha", DEFAULT_FORECAST_ALPHA),
+					forecast.optLong("refill_lead_time_ms", DEFAULT_REFILL_LEAD_TIME));
+		}
+
+		/**
+		 * Initialize sequencing of queued orders by stock. The JSON object is optional
+		 * and orders are taken strictly by urgency when it's missing.
+		 * 
+		 * @param machine
+		 * @param sequencing
+		 * @throws IllegalArgumentException
+		 * @throws JSONException
+		 */
+		private static void initializeSequencing(CoffeeMachine machine, JSONObject sequencing)
+				throws IllegalArgumentException, JSONException {
+			if (sequencing == null) {
+				return;
+			}
+
+			machine.setSequencing(sequencing.optInt("window", DEFAULT_SEQUENCING_WINDOW),
+					sequencing.optInt("max_bypass", DEFAULT_MAX_BYPASS),
+					OrderSequencer.Objective.fromName(sequencing.optString("objective", "orders")));
+		}
+
+		/**
+		 * Initialize the level of messages logged by the Coffee Machine. The JSON
+		 * object is optional and info messages and above are logged when it's
+		 * missing.
+		 * 
+		 * @param machine
+		 * @param logging
+		 * @throws IllegalArgumentException
+		 * @throws JSONException
+		 */
+		private static void initializeLogging(CoffeeMachine machine, JSONObject logging)
+				throws IllegalArgumentException, JSONException {
+			if (logging == null) {
+				return;
+			}
+
+			LOG.setLevel(MachineLogger.Level.fromName(logging.optString("level", "info")));
+		}
+
+		/**
+		 * Initialize the sample of order traces kept by the Coffee Machine. The JSON
+		 * object is optional and the default sample is kept when it's missing.
+		 * 
+		 * @param machine
+		 * @param tracing
+		 * @throws IllegalArgumentException
+		 * @throws JSONException
+		 */
+		private static void initializeTracing(CoffeeMachine machine, JSONObject tracing)
+				throws IllegalArgumentException, JSONException {
+			if (tracing == null) {
+				return;
+			}
+
+			machine.setTracing(tracing.optDouble("sample_rate", DEFAULT_TRACE_SAMPLE_RATE),
+					tracing.optInt("buffer_capacity", DEFAULT_TRACE_BUFFER_CAPACITY),
+					tracing.optLong("slow_threshold_ms", DEFAULT_SLOW_TRACE_THRESHOLD));
+		}
+
+		/**
+		 * Initialize the order history finished orders are kept in, e.g.
+		 * {"directory": "./history", "segment_bytes": 8388608, "zone":
+		 * "Asia/Kolkata"}. The JSON object is optional and no history is kept when
+		 * it's missing.
+		 * 
+		 * @param machine
+		 * @param history
+		 * @throws IllegalArgumentException
+		 * @throws JSONException
+		 */
+		private static void initializeHistory(CoffeeMachine machine, JSONObject history)
+				throws IllegalArgumentException, JSONException {
+			if (history == null) {
+				return;
+			}
+
+			String directory = history.getString("directory");
+			try {
+				machine.history = OrderHistory.open(Path.of(directory),
+						history.optLong("segment_bytes", OrderHistory.DEFAULT_SEGMENT_SIZE),
+						ZoneId.of(history.optString("zone", ZoneId.systemDefault().getId())));
+			} catch (IOException e) {
+				throw new IllegalArgumentException("Cannot open order history in " + directory + "! " + e.getMessage());
+			}
+		}
+
 		/**
 		 * Initialize the Coffee Machine based on it's metadata parsed from a JSON
 		 * object.
@@ -221,14 +792,40 @@ public class CoffeeMachine extends ICoffeeMachine {
 			}
 
 			JSONObject data = jsonObj.getJSONObject("machine");
+			JSONObject logging = data.optJSONObject("logging");
+			initializeLogging(machine, logging);
+
 			JSONObject outlets = data.getJSONObject("outlets");
 			initializeOutlets(machine, outlets);
 
 			JSONObject totalItemsQuantity = data.getJSONObject("total_items_quantity");
 			initializeIngredients(machine, totalItemsQuantity);
 
+			JSONObject ingredientLots = data.optJSONObject("ingredient_lots");
+			initializeIngredientLots(machine, ingredientLots);
+			if (data.has("expiry_sweep_ms")) {
+				machine.setExpirySweepInterval(data.getLong("expiry_sweep_ms"));
+			}
+
 			JSONObject beverages = data.getJSONObject("beverages");
-			initializeBeverages(machine, beverages);
+			JSONObject brewTime = data.optJSONObject("brew_time");
+			initializeBeverages(machine, beverages, brewTime);
+			initializeMenu(machine);
+
+			JSONObject admission = data.optJSONObject("admission");
+			initializeAdmission(machine, admission);
+
+			JSONObject sequencing = data.optJSONObject("sequencing");
+			initializeSequencing(machine, sequencing);
+
+			JSONObject forecast = data.optJSONObject("forecast");
+			initializeForecast(machine, forecast);
+
+			JSONObject tracing = data.optJSONObject("tracing");
+			initializeTracing(machine, tracing);
+
+			JSONObject history = data.optJSONObject("history");
+			initializeHistory(machine, history);
 		}
 	}
 
@@ -255,6 +852,7 @@ public class CoffeeMachine extends ICoffeeMachine {
 			throw new RuntimeException("This Coffee Machine was not initialized! Cannot display details yet!");
 		}
 
+		LOG.flush();
 		System.out.println("Name = " + description + "\n");
 
 		System.out.println("Outlets = " + nOutlets);
@@ -285,16 +883,23 @@ public class CoffeeMachine extends ICoffeeMachine {
 	 */
 	@Override
 	public void addIngredient(String name, int quantity) throws IllegalArgumentException {
-		if (ingredients.containsKey(name)) {
-			throw new IllegalArgumentException(
-					"This ingredient already exists! Cannot create a new one! Please add quantity instead!");
-		}
 		Ingredient ing = new Ingredient(name, quantity);
-		ingredients.put(name, ing);
-		System.out.println("Added " + ing + " to the machine!");
-	}
-
-	/**
+		lock.lock();
+		try {
+			if (ingredients.containsKey(name)) {
+				throw new IllegalArgumentException(
+						"This ingredient already exists! Cannot create a new one! Please add quantity instead!");
+			}
+			ingredients.put(name, ing);
+			menu.ingredientChanged(name);
+			publishStock(MachineEvent.Type.REFILLED, name, quantity, quantity);
+		} finally {
+			lock.unlock();
+		}
+		LOG.info("Added {} to the machine!", ing.toString());
+	}
+
+	/**
 	 * Adds a quantity of the ingredient to the stock.
 	 */
 	@Override
@@ -303,8 +908,15 @@ public class CoffeeMachine extends ICoffeeMachine {
 		if (ingredient == null) {
 			throw new IllegalArgumentException("Ingredient is not defined! Cannot add quantity to this ingredient!");
 		}
-		ingredient.addQuantity(quantity);
-		System.out.println("Added " + quantity + " to " + ingredient.getName() + "!");
+		lock.lock();
+		try {
+			ingredient.addQuantity(quantity);
+			publishStock(MachineEvent.Type.REFILLED, ingredient.getName(), quantity, ingredient.getQuantity());
+		} finally {
+			lock.unlock();
+		}
+		LOG.info("Added {} to {}!", quantity, ingredient.getName());
+		raiseRefill(forecaster.check(ingredient.getName(), ingredient.getQuantity(), System.currentTimeMillis()));
 	}
 
 	/**
@@ -318,6 +930,159 @@ public class CoffeeMachine extends ICoffeeMachine {
 		addIngredientQuantity(ingredient, quantity);
 	}
 
+	/**
+	 * Adds a lot of the ingredient to the stock that expires at the given time.
+	 */
+	@Override
+	public void addIngredientLot(String ingredientName, int quantity, long expiresAt)
+			throws IllegalArgumentException {
+		Ingredient ingredient = getIngredient(ingredientName);
+		if (ingredient == null) {
+			throw new IllegalArgumentException(ingredientName + " is not an ingredient in the machine!");
+		}
+		if (expiresAt <= System.currentTimeMillis()) {
+			throw new IllegalArgumentException("Lot of " + ingredientName + " has already expired!");
+		}
+		lock.lock();
+		try {
+			ingredient.addLot(quantity, expiresAt);
+			publishStock(MachineEvent.Type.REFILLED, ingredient.getName(), quantity, ingredient.getQuantity());
+		} finally {
+			lock.unlock();
+		}
+		LOG.info("Added a lot of {} {} to the machine!", quantity, ingredientName);
+		raiseRefill(forecaster.check(ingredient.getName(), ingredient.getQuantity(), System.currentTimeMillis()));
+	}
+
+	/**
+	 * Removes the expired lots of all ingredients from the stock. Each ingredient
+	 * is swept holding the lock on it's own, so orders wait at most for one.
+	 */
+	@Override
+	public Map<String, Integer> removeExpiredLots() {
+		Map<String, Integer> removed = new HashMap<String, Integer>();
+		for (Ingredient ingredient : ingredients.values()) {
+			long now = System.currentTimeMillis();
+			// Checked without the lock first since most ingredients have nothing expired.
+			// The next expiry is volatile, so a lot added meanwhile is seen by the next
+			// sweep at the latest.
+			if (ingredient.getNextExpiry() > now) {
+				continue;
+			}
+			lock.lock();
+			try {
+				int expired = removeExpired(ingredient, now);
+				if (expired > 0) {
+					removed.put(ingredient.getName(), expired);
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		long now = System.currentTimeMillis();
+		for (String ingredientName : removed.keySet()) {
+			Ingredient ingredient = getIngredient(ingredientName);
+			if (ingredient != null) {
+				raiseRefill(forecaster.check(ingredientName, ingredient.getQuantity(), now));
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * Removes the expired lots of an ingredient holding the lock, and returns the
+	 * quantity removed.
+	 * 
+	 * @param ingredient
+	 * @param now
+	 * @return
+	 */
+	private int removeExpired(Ingredient ingredient, long now) {
+		int expired = ingredient.removeExpired(now);
+		if (expired > 0) {
+			publishStock(MachineEvent.Type.EXPIRED, ingredient.getName(), -expired, ingredient.getQuantity());
+			LOG.warn("Threw away {} of {} that expired!", expired, ingredient.getName());
+		}
+		return expired;
+	}
+
+	/**
+	 * Applies all the changes in the transaction to the stock while holding the
+	 * lock, so orders see either none or all of them. Everything is validated
+	 * before anything is changed.
+	 */
+	@Override
+	public void applyInventory(InventoryTransaction transaction) throws IllegalArgumentException {
+		if (transaction == null) {
+			throw new IllegalArgumentException("Inventory transaction is not defined! Cannot apply it!");
+		}
+		if (transaction.isEmpty()) {
+			return;
+		}
+		Map<String, Integer> registered = transaction.getRegistered();
+		Map<String, Long> deltas = transaction.getDeltas();
+
+		// Create the new ingredients before taking the lock to keep it short.
+		Map<String, Ingredient> created = new HashMap<String, Ingredient>();
+		for (Map.Entry<String, Integer> entry : registered.entrySet()) {
+			created.put(entry.getKey(), new Ingredient(entry.getKey(), entry.getValue()));
+		}
+
+		Map<String, Integer> quantities = new HashMap<String, Integer>();
+		lock.lock();
+		try {
+			for (String ingredientName : registered.keySet()) {
+				if (ingredients.containsKey(ingredientName)) {
+					throw new IllegalArgumentException(ingredientName
+							+ " already exists! Cannot register it again! Please add quantity instead!");
+				}
+			}
+			for (Map.Entry<String, Long> entry : deltas.entrySet()) {
+				String ingredientName = entry.getKey();
+				Ingredient ingredient = created.containsKey(ingredientName) ? created.get(ingredientName)
+						: getIngredient(ingredientName);
+				if (ingredient == null) {
+					throw new IllegalArgumentException(ingredientName + " is not an ingredient in the machine!");
+				}
+				long quantity = ingredient.getQuantity() + entry.getValue();
+				if (quantity < 0) {
+					throw new IllegalArgumentException("You can remove at most " + ingredient.getQuantity() + " of "
+							+ ingredientName + "!");
+				}
+				if (quantity > Integer.MAX_VALUE) {
+					throw new IllegalArgumentException("Cannot hold more than " + Integer.MAX_VALUE + " of "
+							+ ingredientName + "!");
+				}
+				quantities.put(ingredientName, (int) quantity);
+			}
+
+			ingredients.putAll(created);
+			for (Ingredient ingredient : created.values()) {
+				menu.ingredientChanged(ingredient.getName());
+				publishStock(MachineEvent.Type.REFILLED, ingredient.getName(), ingredient.getQuantity(),
+						ingredient.getQuantity());
+			}
+			for (Map.Entry<String, Long> entry : deltas.entrySet()) {
+				Ingredient ingredient = getIngredient(entry.getKey());
+				if (entry.getValue() > 0) {
+					ingredient.addQuantity(entry.getValue().intValue());
+				} else {
+					ingredient.consumeQuantity((int) -entry.getValue());
+				}
+				publishStock(MachineEvent.Type.ADJUSTED, entry.getKey(), entry.getValue().intValue(),
+						ingredient.getQuantity());
+			}
+		} finally {
+			lock.unlock();
+		}
+		LOG.info("Applied {} to the machine!", transaction.toString());
+
+		long now = System.currentTimeMillis();
+		for (Map.Entry<String, Integer> entry : quantities.entrySet()) {
+			raiseRefill(forecaster.check(entry.getKey(), entry.getValue(), now));
+		}
+	}
+
 	/**
 	 * Adds a new beverage to the Coffee Machine if not supported before.
 	 * 
@@ -330,11 +1095,59 @@ public class CoffeeMachine extends ICoffeeMachine {
 			throw new IllegalArgumentException("Beverage is not defined! Cannot add this beverage to the machine!");
 		}
 		String beverageName = beverage.getName();
-		if (beverages.containsKey(beverageName)) {
-			throw new IllegalArgumentException("This beverage already exists! Cannot add a new one!");
+		// Compile the beverage holding the lock so it's resolved against a consistent
+		// set of ingredients.
+		lock.lock();
+		try {
+			if (beverages.putIfAbsent(beverageName, beverage) != null) {
+				throw new IllegalArgumentException("This beverage already exists! Cannot add a new one!");
+			}
+			menu.compile(beverage);
+		} finally {
+			lock.unlock();
+		}
+		LOG.info("Added {} to the machine!", beverageName);
+		if (!beverage.isServable()) {
+			LOG.warn(beverage.getUnservableReason());
+		}
+	}
+
+	/**
+	 * Removes a beverage from the Coffee Machine.
+	 */
+	@Override
+	public void removeBeverage(String beverageName) throws IllegalArgumentException {
+		Beverage removed = (beverageName == null) ? null : beverages.remove(beverageName);
+		if (removed == null) {
+			throw new IllegalArgumentException(
+					"This beverage is not being served by the Coffee Machine! Cannot remove it!");
+		}
+		menu.remove(removed);
+		LOG.info("Removed {} from the machine!", beverageName);
+	}
+
+	/**
+	 * Removes an ingredient and it's stock from the Coffee Machine. Done holding
+	 * the lock so that no order is validated or mixed against a half removed
+	 * ingredient.
+	 */
+	@Override
+	public void removeIngredient(String ingredientName) throws IllegalArgumentException {
+		Ingredient removed;
+		lock.lock();
+		try {
+			removed = (ingredientName == null) ? null : ingredients.remove(ingredientName);
+			if (removed != null) {
+				menu.ingredientChanged(ingredientName);
+				publishStock(MachineEvent.Type.ADJUSTED, ingredientName, -removed.getQuantity(), 0);
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (removed == null) {
+			throw new IllegalArgumentException(ingredientName + " is not an ingredient in the machine! Cannot remove it!");
 		}
-		beverages.put(beverageName, beverage);
-		System.out.println("Added " + beverageName + " to the machine!");
+		LOG.info("Removed {} from the machine!", removed);
 	}
 
 	/**
@@ -389,42 +1202,437 @@ public class CoffeeMachine extends ICoffeeMachine {
 		}
 	}
 
+	/**
+	 * Returns no. of cups of the beverage, up to the given no. of cups, that the
+	 * ingredients in stock are sufficient for.
+	 * 
+	 * @param beverage
+	 * @param cups
+	 * @return
+	 */
+	private int getMixableCups(Beverage beverage, int cups) {
+		Map<String, Ingredient> bevIngredients = beverage.getRecipe().getIngredients();
+		for (String ingredientName : bevIngredients.keySet()) {
+			Ingredient stockIngredient = getIngredient(ingredientName);
+			int bevIngredientQuantity = bevIngredients.get(ingredientName).getQuantity();
+			if (stockIngredient == null) {
+				return 0;
+			}
+			if (bevIngredientQuantity > 0) {
+				cups = Math.min(cups, stockIngredient.getQuantity() / bevIngredientQuantity);
+			}
+		}
+		return Math.max(0, cups);
+	}
+
 	/**
 	 * Picks quantities of beverage recipe ingredients from stock ingredient
-	 * quantities.
+	 * quantities for as many cups as the stock allows, up to the given no. of
+	 * cups, in one step holding the lock. Returns no. of cups the ingredients were
+	 * picked for.
 	 * 
 	 * @param beverage
+	 * @param cups
+	 * @return
 	 */
-	private void mixIngredients(Outlet outlet, Beverage beverage) {
-		Recipe bevRecipe = beverage.getRecipe();
-		Map<String, Ingredient> bevIngredients = bevRecipe.getIngredients();
+	private int mixIngredients(Beverage beverage, int cups) {
+		Map<String, Integer> quantities = new HashMap<String, Integer>();
+		lock.lock();
+		try {
+			cups = takeIngredients(beverage, cups, quantities);
+		} finally {
+			lock.unlock();
+		}
+		recordConsumption(beverage, cups, quantities);
+		return cups;
+	}
+
+	/**
+	 * Takes quantities of beverage recipe ingredients out of stock for as many
+	 * cups as the stock allows, up to the given no. of cups, and puts the stock
+	 * quantities left into the given map. Must be called holding the lock.
+	 * Returns no. of cups the ingredients were taken for.
+	 * 
+	 * @param beverage
+	 * @param cups
+	 * @param quantities
+	 * @return
+	 */
+	private int takeIngredients(Beverage beverage, int cups, Map<String, Integer> quantities) {
+		Map<String, Ingredient> bevIngredients = beverage.getRecipe().getIngredients();
+		// Expired lots are never mixed, even if the sweep hasn't removed them yet.
+		long now = System.currentTimeMillis();
+		for (String ingredientName : bevIngredients.keySet()) {
+			Ingredient stockIngredient = getIngredient(ingredientName);
+			if (stockIngredient != null && stockIngredient.getNextExpiry() <= now) {
+				removeExpired(stockIngredient, now);
+			}
+		}
+		cups = getMixableCups(beverage, cups);
+		if (cups <= 0) {
+			return 0;
+		}
 		for (String ingredientName : bevIngredients.keySet()) {
-			Ingredient bevIngredient = bevIngredients.get(ingredientName);
 			Ingredient stockIngredient = getIngredient(ingredientName);
+			int bevIngredientQuantity = bevIngredients.get(ingredientName).getQuantity();
+			stockIngredient.consumeQuantity(bevIngredientQuantity * cups);
+			quantities.put(ingredientName, stockIngredient.getQuantity());
+			publishStock(MachineEvent.Type.CONSUMED, ingredientName, -bevIngredientQuantity * cups,
+					stockIngredient.getQuantity());
+		}
+		return cups;
+	}
 
-			int bevIngredientQuantity = bevIngredient.getQuantity();
-			stockIngredient.consumeQuantity(bevIngredientQuantity);
+	/**
+	 * Records ingredients taken for cups of the beverage with the consumption
+	 * forecaster, and raises refills for the ones running out. Called after the
+	 * lock is released.
+	 * 
+	 * @param beverage
+	 * @param cups
+	 * @param quantities
+	 */
+	private void recordConsumption(Beverage beverage, int cups, Map<String, Integer> quantities) {
+		if (cups <= 0) {
+			return;
+		}
+		Map<String, Ingredient> bevIngredients = beverage.getRecipe().getIngredients();
+		ConsumptionForecaster consumption = forecaster;
+		long now = System.currentTimeMillis();
+		for (String ingredientName : bevIngredients.keySet()) {
+			raiseRefill(consumption.record(ingredientName, bevIngredients.get(ingredientName).getQuantity() * cups,
+					quantities.get(ingredientName), now));
+		}
+	}
+
+	/**
+	 * Marks ingredients taken for the order as reserved for it, and returns them
+	 * to stock right away if the order finished in the meantime.
+	 * 
+	 * @param order
+	 */
+	private void holdReservation(Order order) {
+		order.reserve();
+		if (order.getStatus().isFinal() && order.releaseReservation()) {
+			releaseIngredients(order.getBeverage());
 		}
 	}
 
 	/**
-	 * After validations, run this method to assign an outlet to the beverage and
-	 * prepare and serve it.
+	 * Returns the ingredients still reserved for an order that finished without
+	 * being brewed to stock.
 	 */
 	@Override
-	protected void prepareBeverage(Outlet outlet, Beverage beverage) {
-		if (!isRunning()) {
-			throw new RuntimeException("Coffee Machine is not turned on! Cannot prepare " + beverage.getName() + "!");
+	void returnIngredients(Order order) {
+		if (order.releaseReservation()) {
+			releaseIngredients(order.getBeverage());
 		}
-		// Prepare beverage at outlet and run this process in a separate thread.
-		executor.submit(() -> {
+	}
+
+	/**
+	 * Workers running on the executor for an outlet keep taking a free slot in
+	 * the first stage of the outlet and then the most urgent order queued for it,
+	 * and prepare the order holding the slot, till the machine is turned off and
+	 * the queue of the outlet is drained. Orders are only taken once the outlet
+	 * can start them, so their place in the queue decides when they are brewed.
+	 * 
+	 * @param outlet
+	 */
+	private void dispatchOrders(Outlet outlet) {
+		while (true) {
+			Order order;
 			try {
-				mixIngredients(outlet, beverage);
-				outlet.prepareBeverage(beverage, ingredients);
+				if (!outlet.acquireSlot(DISPATCH_POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+					if (executor.isShutdown() && orderQueue.size(outlet) == 0) {
+						return;
+					}
+					continue;
+				}
+				order = orderQueue.poll(outlet, DISPATCH_POLL_INTERVAL, TimeUnit.MILLISECONDS);
 			} catch (InterruptedException e) {
-				e.printStackTrace();
+				return;
+			}
+			if (order == null) {
+				outlet.releaseSlot();
+				if (executor.isShutdown()) {
+					return;
+				}
+				continue;
+			}
+			order.getTrace().enter(OrderTrace.Phase.RESERVATION);
+			try {
+				prepareOrder(order);
+			} catch (RuntimeException e) {
+				// Keep the worker for the outlet whatever goes wrong with one order.
+				LOG.error("Worker at " + outlet + " failed to finish an order! {}", e);
+			}
+		}
+	}
+
+	/**
+	 * Checks if a queued order can still be prepared, and drops it otherwise.
+	 * 
+	 * @param order
+	 * @param now
+	 * @return
+	 */
+	private boolean isPreparable(Order order, long now) {
+		String target = order.getBeverage().getName() + " at " + order.getOutlet();
+		// Skip orders whose customer has already left before reserving ingredients.
+		if (order.isExpired(now)) {
+			if (order.update(OrderStatus.QUEUED, OrderStatus.EXPIRED, target + " expired before it could be prepared!")) {
+				LOG.warn(order.getMessage());
+			}
+			return false;
+		}
+		if (order.isTimedOut(now)) {
+			if (order.update(OrderStatus.QUEUED, OrderStatus.TIMED_OUT,
+					target + " timed out before it could be prepared!")) {
+				LOG.warn(order.getMessage());
 			}
-		});
+			return false;
+		}
+		return order.getStatus() == OrderStatus.QUEUED;
+	}
+
+	/**
+	 * Mixes the ingredients for the order and prepares it at it's outlet, holding
+	 * a slot in the first stage of the outlet. If the outlet brews in batches,
+	 * queued orders for the same beverage at the same outlet are coalesced into
+	 * one brew with the order. If anything goes wrong the orders fail and the slot is given up, so that the
+	 * worker carries on with the next order.
+	 * 
+	 * @param head
+	 */
+	private void prepareOrder(Order head) {
+		Outlet outlet = head.getOutlet();
+		Beverage beverage = head.getBeverage();
+
+		List<Order> group = new ArrayList<Order>();
+		group.add(head);
+		List<Order> reserved;
+		try {
+			reserved = reserveOrders(head, group);
+		} catch (RuntimeException e) {
+			outlet.releaseSlot();
+			String reason = "Failed to prepare " + beverage.getName() + " at " + outlet + "! " + e;
+			failOrders(group, reason);
+			LOG.error(reason);
+			return;
+		}
+		if (reserved.isEmpty()) {
+			outlet.releaseSlot();
+			return;
+		}
+
+		// The outlet gives up the slot itself once it starts preparing.
+		String failure = null;
+		try {
+			outlet.prepareBeverages(reserved);
+		} catch (InterruptedException e) {
+			failure = "Interrupted while preparing " + beverage.getName() + "!";
+			Thread.currentThread().interrupt();
+		} catch (RuntimeException e) {
+			failure = "Failed to prepare " + beverage.getName() + " at " + outlet + "! " + e;
+			LOG.error(failure);
+		}
+		if (failure != null) {
+			failOrders(reserved, failure);
+			return;
+		}
+
+		// Fan the result of the brew back out to every order.
+		for (Order order : reserved) {
+			order.update(OrderStatus.BREWING, OrderStatus.SERVED, null);
+		}
+	}
+
+	/**
+	 * Takes queued orders to brew with the order into the group if it's outlet
+	 * brews in batches, and moves the ones that can still be prepared on to
+	 * PREPARING. Ingredients of orders sequenced by stock are reserved here, as
+	 * they aren't when such orders are admitted. Returns the PREPARING orders.
+	 * 
+	 * @param head
+	 * @param group
+	 * @return
+	 */
+	private List<Order> reserveOrders(Order head, List<Order> group) {
+		Outlet outlet = head.getOutlet();
+		Beverage beverage = head.getBeverage();
+		if (outlet.getBatchCapacity() > 1) {
+			orderQueue.drainMatching(head, outlet.getBatchCapacity() - 1, group);
+			for (int i = 1; i < group.size(); i++) {
+				group.get(i).getTrace().enter(OrderTrace.Phase.RESERVATION);
+			}
+		}
+
+		long now = System.currentTimeMillis();
+		List<Order> preparable = new ArrayList<Order>(group.size());
+		for (Order order : group) {
+			if (isPreparable(order, now)) {
+				preparable.add(order);
+			}
+		}
+		if (preparable.isEmpty()) {
+			return preparable;
+		}
+
+		// Reserve ingredients for the unreserved orders of the group at once, and
+		// fail the ones the stock can't cover anymore.
+		int unreserved = 0;
+		for (Order order : preparable) {
+			if (!order.isReserved()) {
+				unreserved++;
+			}
+		}
+		int cups = (unreserved == 0) ? 0 : mixIngredients(beverage, unreserved);
+		List<Order> reserved = new ArrayList<Order>(preparable.size());
+		for (Order order : preparable) {
+			if (!order.isReserved()) {
+				if (cups-- <= 0) {
+					order.update(OrderStatus.FAILED, beverage.getName() + " cannot be prepared at " + outlet
+							+ " because ingredient(s) are not sufficient anymore!");
+					LOG.warn(order.getMessage());
+					continue;
+				}
+				holdReservation(order);
+			}
+			// Orders cancelled in the meantime give their ingredients back themselves.
+			if (order.update(OrderStatus.QUEUED, OrderStatus.PREPARING, null)) {
+				reserved.add(order);
+			}
+		}
+		return reserved;
+	}
+
+	/**
+	 * Fails the orders a worker couldn't prepare. Ingredients reserved for orders
+	 * that never started brewing are returned to stock as they finish, orders
+	 * failing while brewing fail with their ingredients used up.
+	 * 
+	 * @param orders
+	 * @param reason
+	 */
+	private void failOrders(List<Order> orders, String reason) {
+		for (Order order : orders) {
+			order.update(OrderStatus.FAILED, reason);
+		}
+	}
+
+	/**
+	 * Returns quantities of beverage recipe ingredients reserved for an order that
+	 * was never brewed back to the stock. Quantities of ingredients removed from
+	 * the machine since are dropped.
+	 * 
+	 * @param beverage
+	 */
+	private void releaseIngredients(Beverage beverage) {
+		Map<String, Ingredient> bevIngredients = beverage.getRecipe().getIngredients();
+		Map<String, Integer> quantities = new HashMap<String, Integer>();
+		lock.lock();
+		try {
+			for (String ingredientName : bevIngredients.keySet()) {
+				Ingredient stockIngredient = getIngredient(ingredientName);
+				if (stockIngredient != null) {
+					stockIngredient.returnQuantity(bevIngredients.get(ingredientName).getQuantity());
+					quantities.put(ingredientName, stockIngredient.getQuantity());
+					publishStock(MachineEvent.Type.RETURNED, ingredientName,
+							bevIngredients.get(ingredientName).getQuantity(), stockIngredient.getQuantity());
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		ConsumptionForecaster consumption = forecaster;
+		long now = System.currentTimeMillis();
+		for (Map.Entry<String, Integer> entry : quantities.entrySet()) {
+			consumption.record(entry.getKey(), -bevIngredients.get(entry.getKey()).getQuantity(), entry.getValue(),
+					now);
+		}
+	}
+
+	/**
+	 * Cancels an order if it's outlet hasn't started brewing it yet. Queued and
+	 * scheduled orders are removed right away so their slot goes to other orders,
+	 * and ingredients reserved for the order are returned to stock as it
+	 * finishes.
+	 */
+	@Override
+	public boolean cancelOrder(Order order) throws IllegalArgumentException {
+		if (order == null) {
+			throw new IllegalArgumentException("Order is not defined! Cannot cancel order!");
+		}
+		String reason = "Cancelled " + order.getBeverage().getName() + " at " + order.getOutlet() + ".";
+		// Retry if the order moves to the next status while being cancelled.
+		while (true) {
+			OrderStatus current = order.getStatus();
+			switch (current) {
+			case SCHEDULED:
+				scheduler.cancel(order);
+				break;
+			case QUEUED:
+				// A worker may have taken the order already, in which case it notices the
+				// cancellation before preparing it.
+				orderQueue.remove(order);
+				break;
+			case PREPARING:
+				break;
+			default:
+				return false;
+			}
+			if (order.update(current, OrderStatus.CANCELLED, reason)) {
+				LOG.info(reason);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * After validations, run this method to queue the order for it's outlet to
+	 * prepare and serve it. Orders not admitted by the order queue are rejected.
+	 */
+	@Override
+	protected void prepareBeverage(Order order) {
+		if (!isAccepting()) {
+			throw new RuntimeException(
+					"Coffee Machine is not turned on! Cannot prepare " + order.getBeverage().getName() + "!");
+		}
+		// Orders cancelled before they reach the queue don't take up a slot.
+		if (order.getStatus().isFinal()) {
+			return;
+		}
+		// Checked before queueing, as a worker may take the order right away.
+		boolean busy = order.getOutlet().isBusy();
+		boolean accepted;
+		try {
+			accepted = orderQueue.offer(order);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			accepted = false;
+		}
+		if (!accepted) {
+			order.update(OrderStatus.REJECTED, "Cannot accept " + order.getBeverage().getName() + " at "
+					+ order.getOutlet() + " because the order queue is full! Please try again later.");
+			LOG.warn(order.getMessage());
+		} else if (busy) {
+			// Show a message if the order has to wait for it's outlet.
+			LOG.info("Somebody already preparing a beverage at {}.", order.getOutlet());
+		}
+	}
+
+	/**
+	 * Rejects the order with the given reason and displays it.
+	 * 
+	 * @param order
+	 * @param reason
+	 * @return
+	 */
+	private Order reject(Order order, String reason) {
+		order.update(OrderStatus.REJECTED, reason);
+		LOG.warn(reason);
+		return order;
 	}
 
 	/**
@@ -432,54 +1640,415 @@ public class CoffeeMachine extends ICoffeeMachine {
 	 * beverages and outlets, and the required ingredients for the beverage recipes.
 	 */
 	@Override
-	public void serveBeverage(int outletNo, String beverageName) throws IllegalArgumentException {
+	public Order serveBeverage(int outletNo, String beverageName) throws IllegalArgumentException {
+		return serveBeverage(outletNo, beverageName, OrderPriority.NORMAL, Order.NO_DEADLINE);
+	}
+
+	/**
+	 * Method to serve beverage at a particular outlet with a priority class and a
+	 * deadline. Runs the same validations as a regular order.
+	 */
+	@Override
+	public Order serveBeverage(int outletNo, String beverageName, OrderPriority priority, long deadline)
+			throws IllegalArgumentException {
+		return serveBeverage(outletNo, beverageName, priority, deadline, orderTimeout);
+	}
+
+	/**
+	 * Method to serve beverage at a particular outlet with a priority class, a
+	 * deadline and a timeout. Runs the same validations as a regular order.
+	 */
+	@Override
+	public Order serveBeverage(int outletNo, String beverageName, OrderPriority priority, long deadline,
+			long timeout) throws IllegalArgumentException {
+		return serveBeverage(null, outletNo, beverageName, priority, deadline, timeout);
+	}
+
+	/**
+	 * Method to serve beverage at a particular outlet with an order id given by
+	 * the client. A retry with the same id returns the order placed earlier.
+	 */
+	@Override
+	public Order serveBeverage(String clientOrderId, int outletNo, String beverageName)
+			throws IllegalArgumentException {
+		return serveBeverage(clientOrderId, outletNo, beverageName, OrderPriority.NORMAL, Order.NO_DEADLINE,
+				orderTimeout);
+	}
+
+	/**
+	 * Method to serve beverage at a particular outlet with an order id given by
+	 * the client, a priority class, a deadline and a timeout. Orders without a
+	 * client order id are never deduped.
+	 */
+	@Override
+	public Order serveBeverage(String clientOrderId, int outletNo, String beverageName, OrderPriority priority,
+			long deadline, long timeout) throws IllegalArgumentException {
 		if (!initialized) {
 			throw new RuntimeException("Coffee Machine was not setup! Cannot serve any beverages yet!");
 		}
 
-		if (!isRunning()) {
-			throw new RuntimeException("Coffee Machine was not setup! Cannot serve any beverages yet!");
+		if (!isAccepting()) {
+			throw new RuntimeException("Coffee Machine is not accepting orders! Cannot serve any beverages right now!");
+		}
+
+		Beverage beverage = validateOrderTarget(outletNo, beverageName);
+
+		if (priority == null) {
+			throw new IllegalArgumentException("Order priority is not defined! Enter a valid priority!");
+		}
+
+		Outlet outlet = getOutlet(outletNo);
+		Order order = new Order(outlet, beverage, priority, deadline);
+		order.setTimeout(timeout);
+		order.setClientOrderId(clientOrderId);
+
+		// Retries are recorded too, so that a replay dedups them the same way.
+		OrderLogRecorder logRecorder = recorder;
+		if (logRecorder != null) {
+			order.logSequence = logRecorder.recordOrder(order);
+		}
+
+		// Return the order placed earlier if this is a retry of the same client order.
+		if (clientOrderId != null) {
+			Order existing = dedupCache.putIfAbsent(clientOrderId, order, order.getCreatedAt());
+			if (existing != null) {
+				LOG.info("Order {} was already placed as {}!", clientOrderId, existing.toString());
+				return existing;
+			}
 		}
+		return placeOrder(order);
+	}
 
-		if (outletNo > nOutlets) {
+	/**
+	 * Validate that the outlet and beverage of an order exist in the machine, and
+	 * return the beverage. Throw an exception if there is any discrepancy. The
+	 * beverage is looked up once since it may be removed concurrently.
+	 * 
+	 * @param outletNo
+	 * @param beverageName
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	private Beverage validateOrderTarget(int outletNo, String beverageName) throws IllegalArgumentException {
+		if (outletNo < 1 || outletNo > nOutlets) {
 			throw new IllegalArgumentException(
 					"Choose a valid outlet among the " + nOutlets + " available for this Coffee Machine!");
 		}
 
-		if (!beverages.containsKey(beverageName)) {
+		Beverage beverage = (beverageName == null) ? null : getBeverage(beverageName);
+		if (beverage == null) {
 			throw new IllegalArgumentException(
 					"This beverage is not being served by the Coffee Machine! Enter a valid beverage!");
 		}
+		return beverage;
+	}
 
-		Outlet outlet = getOutlet(outletNo);
-		Beverage beverage = getBeverage(beverageName);
+	/**
+	 * Validates the stock for an order and queues it if validations were
+	 * successful.
+	 * 
+	 * @param order
+	 * @return
+	 */
+	private Order placeOrder(Order order) {
+		Beverage beverage = order.getBeverage();
+		order.setMachine(this);
 
-		// Acquire a lock before preparing beverages.
-		if (lock.tryLock()) {
+		// Reject beverages that can never be prepared without touching the lock.
+		if (!beverage.isServable()) {
+			return reject(order, beverage.getUnservableReason());
+		}
+
+		// Cups of a multi-cup order are validated and reserved for all at once.
+		if (!order.isReserved() && !validateAndReserve(order)) {
+			return order;
+		}
+
+		// Queue beverage for given outlet if validations were successful. This is
+		// done outside the lock since admission may wait for a free queue slot.
+		order.getTrace().enter(OrderTrace.Phase.QUEUE_WAIT);
+		prepareBeverage(order);
+		return order;
+	}
+
+	/**
+	 * Validates the stock for an order holding the lock, and reserves it's
+	 * ingredients in the same step, so that orders admitted later never take
+	 * them. Orders sequenced by stock are reserved for once a worker takes them
+	 * instead. Rejects the order and returns false if validations fail.
+	 * 
+	 * @param order
+	 * @return
+	 */
+	private boolean validateAndReserve(Order order) {
+		Outlet outlet = order.getOutlet();
+		Beverage beverage = order.getBeverage();
+
+		// Acquire a lock before validating the stock for beverages. Critical sections
+		// on the stock are short, so the wait for it is bounded.
+		OrderTrace trace = order.getTrace();
+		trace.enter(OrderTrace.Phase.LOCK_WAIT);
+		boolean locked;
+		try {
+			locked = lock.tryLock(LOCK_TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			locked = false;
+		}
+		if (!locked) {
+			order.update(OrderStatus.REJECTED, "Coffee Machine is busy! Cannot accept " + beverage.getName()
+					+ " at " + outlet + " right now.");
+			return false;
+		}
+		trace.enter(OrderTrace.Phase.VALIDATION);
+		int cups = 0;
+		Map<String, Integer> quantities = new HashMap<String, Integer>();
+		try {
+			// Validate if all ingredients in recipe are available in stock.
 			try {
-				// Validate if all ingredients in recipe are available in stock.
-				try {
-					validateIngredientsAvailable(beverage, outlet);
-				} catch (IllegalArgumentException e) {
-					System.out.println(e.getMessage());
-					return;
+				validateIngredientsAvailable(beverage, outlet);
+			} catch (IllegalArgumentException e) {
+				reject(order, e.getMessage());
+				return false;
+			}
+
+			// Validate if all ingredients in recipe are sufficient in stock.
+			try {
+				validateIngredientsSufficient(beverage, outlet);
+			} catch (Exception e) {
+				reject(order, e.getMessage());
+				return false;
+			}
+
+			if (sequencingWindow <= 0) {
+				cups = takeIngredients(beverage, 1, quantities);
+				if (cups == 0) {
+					reject(order, beverage.getName() + " cannot be prepared at " + outlet
+							+ " because ingredient(s) are not sufficient!");
+					return false;
 				}
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (cups > 0) {
+			holdReservation(order);
+			recordConsumption(beverage, cups, quantities);
+		}
+		return true;
+	}
 
-				// Validate if all ingredients in recipe are sufficient in stock.
-				try {
-					validateIngredientsSufficient(beverage, outlet);
-				} catch (Exception e) {
-					System.out.println(e.getMessage());
-					return;
+	/**
+	 * Method to serve several cups of a beverage, split across the outlets of the
+	 * machine.
+	 */
+	@Override
+	public MultiOrder serveBeverages(String beverageName, int quantity) throws IllegalArgumentException {
+		return serveBeverages(beverageName, quantity, OrderPriority.NORMAL, Order.NO_DEADLINE);
+	}
+
+	/**
+	 * Method to serve several cups of a beverage with a priority class and a
+	 * deadline. Each cup is assigned to the outlet where it would finish the
+	 * earliest given the current queues, which minimizes the time till the last
+	 * cup is done. The whole order is rejected if the stock isn't sufficient for
+	 * every cup.
+	 */
+	@Override
+	public MultiOrder serveBeverages(String beverageName, int quantity, OrderPriority priority, long deadline)
+			throws IllegalArgumentException {
+		if (!initialized) {
+			throw new RuntimeException("Coffee Machine was not setup! Cannot serve any beverages yet!");
+		}
+
+		if (!isAccepting()) {
+			throw new RuntimeException("Coffee Machine is not accepting orders! Cannot serve any beverages right now!");
+		}
+
+		if (quantity <= 0) {
+			throw new IllegalArgumentException("Enter a positive no. of cups to serve!");
+		}
+
+		Beverage beverage = (beverageName == null) ? null : getBeverage(beverageName);
+		if (beverage == null) {
+			throw new IllegalArgumentException(
+					"This beverage is not being served by the Coffee Machine! Enter a valid beverage!");
+		}
+
+		if (priority == null) {
+			throw new IllegalArgumentException("Order priority is not defined! Enter a valid priority!");
+		}
+
+		// Assign each cup to the outlet where it would finish the earliest, and keep
+		// track of when each outlet frees up for the next cup.
+		long now = System.currentTimeMillis();
+		List<Outlet> outletList = new ArrayList<Outlet>(outlets.values());
+		long[] availableAt = new long[outletList.size()];
+		for (int i = 0; i < availableAt.length; i++) {
+			availableAt[i] = outletList.get(i).getAvailableAt(now);
+		}
+		List<Order> orders = new ArrayList<Order>(quantity);
+		long makespan = 0;
+		for (int cup = 0; cup < quantity; cup++) {
+			int best = 0;
+			long bestFinish = Long.MAX_VALUE;
+			for (int i = 0; i < availableAt.length; i++) {
+				long finish = availableAt[i] + outletList.get(i).getPrepareTime(beverage);
+				if (finish < bestFinish) {
+					best = i;
+					bestFinish = finish;
+				}
+			}
+			Outlet outlet = outletList.get(best);
+			availableAt[best] += outlet.getCycleTime(beverage);
+			makespan = Math.max(makespan, bestFinish - now);
+
+			Order order = new Order(outlet, beverage, priority, deadline);
+			order.setTimeout(orderTimeout);
+			order.setMachine(this);
+			orders.add(order);
+		}
+		MultiOrder multiOrder = new MultiOrder(beverage, orders, makespan);
+
+		OrderLogRecorder logRecorder = recorder;
+		if (logRecorder != null) {
+			long sequence = logRecorder.recordBatch(multiOrder, priority, deadline);
+			if (sequence >= 0) {
+				for (Order order : orders) {
+					order.logSequence = sequence++;
 				}
+			}
+		}
 
-				// Prepare beverage at given outlet if validations were successful.
-				prepareBeverage(outlet, beverage);
+		// Reject every cup if the stock isn't sufficient for all of them, and reserve
+		// them all in the same step otherwise.
+		int mixableCups = 0;
+		int reservedCups = 0;
+		Map<String, Integer> quantities = new HashMap<String, Integer>();
+		if (beverage.isServable()) {
+			lock.lock();
+			try {
+				mixableCups = getMixableCups(beverage, quantity);
+				if (mixableCups == quantity && sequencingWindow <= 0) {
+					reservedCups = takeIngredients(beverage, quantity, quantities);
+				}
 			} finally {
 				lock.unlock();
 			}
 		}
+		if (mixableCups < quantity) {
+			String reason = !beverage.isServable() ? beverage.getUnservableReason()
+					: quantity + " x " + beverageName
+							+ " cannot be prepared because ingredient(s) are not sufficient for all of them!";
+			for (Order order : orders) {
+				order.update(OrderStatus.REJECTED, reason);
+			}
+			LOG.warn(reason);
+			return multiOrder;
+		}
+
+		// Cups left unreserved, if expired lots were dropped meanwhile, are validated
+		// one by one.
+		for (int i = 0; i < reservedCups; i++) {
+			holdReservation(orders.get(i));
+		}
+		recordConsumption(beverage, reservedCups, quantities);
+		for (Order order : orders) {
+			placeOrder(order);
+		}
+		return multiOrder;
+	}
+
+	/**
+	 * Method to order a beverage at a particular outlet to be ready at the given
+	 * time in millis. The order is held by the order scheduler and released into
+	 * the regular serve path ahead of time, based on the preparation time of the
+	 * beverage and the current load of the machine.
+	 */
+	@Override
+	public Order scheduleBeverage(int outletNo, String beverageName, long readyAt) throws IllegalArgumentException {
+		if (!initialized) {
+			throw new RuntimeException("Coffee Machine was not setup! Cannot schedule any beverages yet!");
+		}
+
+		if (!isAccepting()) {
+			throw new RuntimeException("Coffee Machine is not turned on! Cannot schedule any beverages yet!");
+		}
+
+		Beverage beverage = validateOrderTarget(outletNo, beverageName);
+
+		Order order = Order.scheduled(getOutlet(outletNo), beverage, readyAt);
+		order.setMachine(this);
+		if (orderTimeout != Order.NO_TIMEOUT) {
+			// Scheduled orders start their timeout from the time they are due.
+			order.setTimeout(Math.max(0, readyAt - order.getCreatedAt()) + orderTimeout);
+		}
+		order.publish();
+		scheduler.schedule(order);
+		return order;
+	}
+
+	/**
+	 * Releases a scheduled order into the regular serve path.
+	 * 
+	 * @param order
+	 */
+	void releaseOrder(Order order) {
+		if (!order.update(OrderStatus.QUEUED, null)) {
+			return;
+		}
+		// Time spent held by the scheduler isn't part of the order's intake.
+		order.getTrace().enter(OrderTrace.Phase.INTAKE);
+		if (!isAccepting()) {
+			order.update(OrderStatus.FAILED, "Coffee Machine was turned off before " + order.getBeverage().getName()
+					+ " could be prepared!");
+			return;
+		}
+		placeOrder(order);
+	}
+
+	/**
+	 * Displays throughput and utilization of every stage of every outlet, marking
+	 * the bottleneck stage of each outlet.
+	 */
+	@Override
+	public void showOutletStats() {
+		if (!initialized) {
+			throw new RuntimeException("This Coffee Machine was not initialized! Cannot display outlet stats yet!");
+		}
+
+		LOG.flush();
+		for (Outlet outlet : outlets.values()) {
+			System.out.println(outlet);
+			OutletStage bottleneck = outlet.getBottleneckStage();
+			for (OutletStage stage : outlet.getStages()) {
+				System.out.println(String.format("\t%s: completed = %d, throughput = %.3f/s, utilization = %.1f%%, "
+						+ "blocked = %.1f%%%s", stage, stage.getCompleted(), stage.getThroughput(),
+						100 * stage.getUtilization(), 100 * stage.getBlockedRatio(),
+						(stage == bottleneck && stage.getCompleted() > 0) ? " <- bottleneck" : ""));
+			}
+		}
+	}
 
+	/**
+	 * Displays contention for the machine lock and the stages of every outlet.
+	 */
+	@Override
+	public void showLockStats() {
+		LOG.flush();
+		for (Map.Entry<String, LockProfile> entry : getLockProfiles().entrySet()) {
+			System.out.println(entry.getKey() + ": " + entry.getValue());
+		}
+	}
+
+	/**
+	 * Displays the time orders spend in each phase, from the sample of traces
+	 * kept.
+	 */
+	@Override
+	public void showTraceBreakdown() {
+		LOG.flush();
+		tracer.showBreakdown();
 	}
 
 	/**
@@ -487,22 +2056,31 @@ public class CoffeeMachine extends ICoffeeMachine {
 	 */
 	@Override
 	public void showLowQuantityIngredients() {
+		LOG.flush();
 		// Display low quantities when not serving any beverages.
 		if (lock.tryLock()) {
 			try {
+				// An ingredient is low if it's below the minimum, or if at it's current
+				// rate it runs out before a refill could arrive.
 				List<Ingredient> lowQuantityIngredients = new ArrayList<Ingredient>();
+				List<Long> timesToEmpty = new ArrayList<Long>();
+				long now = System.currentTimeMillis();
 				for (Ingredient ingredient : ingredients.values()) {
 					int quantity = ingredient.getQuantity();
-					if (quantity < MINIMUM_INGREDIENT_QUANTITY) {
+					long timeToEmpty = forecaster.getTimeToEmpty(ingredient.getName(), quantity, now);
+					if (quantity < MINIMUM_INGREDIENT_QUANTITY || timeToEmpty < forecaster.getLeadTime()) {
 						lowQuantityIngredients.add(ingredient);
+						timesToEmpty.add(timeToEmpty);
 					}
 				}
 				if (lowQuantityIngredients.isEmpty()) {
 					System.out.println("Coffee Machine has enough quantity of each ingredient!");
 				} else {
 					System.out.println("Following ingredients are low in quantity");
-					for (Ingredient ingredient : lowQuantityIngredients) {
-						System.out.println("\t" + ingredient);
+					for (int i = 0; i < lowQuantityIngredients.size(); i++) {
+						long timeToEmpty = timesToEmpty.get(i);
+						System.out.println("\t" + lowQuantityIngredients.get(i) + ((timeToEmpty == Long.MAX_VALUE) ? ""
+								: " (runs out in " + String.format("%.1f", timeToEmpty / 1000.0) + " seconds)"));
 					}
 				}
 			} finally {
@@ -510,4 +2088,93 @@ public class CoffeeMachine extends ICoffeeMachine {
 			}
 		}
 	}
+
+	/**
+	 * Returns a snapshot of the stock taken holding the lock, so that it never
+	 * shows a transaction half applied.
+	 */
+	@Override
+	public Map<String, Integer> getStockSnapshot() {
+		if (!initialized) {
+			throw new RuntimeException("This Coffee Machine was not initialized! Cannot show the stock yet!");
+		}
+		Map<String, Integer> stock = new HashMap<String, Integer>();
+		lock.lock();
+		try {
+			for (Ingredient ingredient : ingredients.values()) {
+				stock.put(ingredient.getName(), ingredient.getQuantity());
+			}
+		} finally {
+			lock.unlock();
+		}
+		return stock;
+	}
+
+	/**
+	 * Returns the lots of the ingredient that expire, copied holding the lock.
+	 */
+	@Override
+	public List<Ingredient.Lot> getIngredientLots(String ingredientName) throws IllegalArgumentException {
+		Ingredient ingredient = getIngredient(ingredientName);
+		if (ingredient == null) {
+			throw new IllegalArgumentException(ingredientName + " is not an ingredient in the machine!");
+		}
+		lock.lock();
+		try {
+			return ingredient.getLots();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the beverages that can never be prepared because an ingredient is
+	 * missing from the machine.
+	 */
+	@Override
+	public Map<String, String> getUnservableBeverages() {
+		if (!initialized) {
+			throw new RuntimeException("This Coffee Machine was not initialized! Cannot check the menu yet!");
+		}
+		return menu.getUnservable();
+	}
+
+	/**
+	 * Returns the max no. of servings of each beverage with the current stock, if
+	 * only that beverage is served.
+	 */
+	@Override
+	public Map<String, Integer> getMaxServings() {
+		return newCapacityPlanner().getMaxServings();
+	}
+
+	/**
+	 * Plans the servings of a forecast mix of beverages with the current stock.
+	 */
+	@Override
+	public CapacityPlan planCapacity(Map<String, Double> mix) throws IllegalArgumentException {
+		return newCapacityPlanner().plan(mix);
+	}
+
+	/**
+	 * Returns true if the current stock covers the given no. of servings of each
+	 * beverage at the same time.
+	 */
+	@Override
+	public boolean canServe(Map<String, Integer> servings) throws IllegalArgumentException {
+		return newCapacityPlanner().isFeasible(servings);
+	}
+
+	/**
+	 * Creates a capacity planner over a snapshot of the stock, so that planning
+	 * doesn't hold up serving.
+	 * 
+	 * @return
+	 */
+	private CapacityPlanner newCapacityPlanner() {
+		if (!initialized) {
+			throw new RuntimeException("This Coffee Machine was not initialized! Cannot plan capacity yet!");
+		}
+		return new CapacityPlanner(beverages.values(), getStockSnapshot());
+	}
 }
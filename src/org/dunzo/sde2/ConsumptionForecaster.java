@@ -0,0 +1,290 @@
+package org.dunzo.sde2;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ConsumptionForecaster --- Tracks the rate at which each ingredient is used
+ * and predicts when it runs out, so that a refill can be ordered before orders
+ * start being rejected for insufficient stock.
+ *
+ * Consumption of each ingredient is summed into fixed intervals held in a ring
+ * buffer of fixed size. Every time an interval closes, the rate is updated as
+ * an exponentially weighted moving average of the interval totals. A refill is
+ * raised once when the predicted time to empty drops below the refill lead
+ * time, and raised again only after it's back above the lead time, e.g. after
+ * a refill. No time to empty is forecast till a few intervals have closed, so
+ * that the first orders after the machine is turned on don't look like a rush.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class ConsumptionForecaster {
+	// No. of intervals that must close before the rate is used for a forecast.
+	private final static int MIN_INTERVALS = 3;
+
+	private final long interval;
+	private final int nBuckets;
+	private final double alpha;
+	private final long leadTime;
+	private final ConcurrentHashMap<String, Tracker> trackers;
+
+	/**
+	 * Tracker --- Consumption history and rate of one ingredient.
+	 */
+	private class Tracker {
+		private final long[] buckets = new long[nBuckets];
+		private int head;
+		private long bucketStart;
+
+		// Forecast consumption per milli, valid once the first interval closed, and
+		// no. of intervals closed so far.
+		private double rate;
+		private boolean primed;
+		private long closedIntervals;
+
+		// Set once a refill was raised, till the time to empty is back above the
+		// lead time.
+		private boolean raised;
+
+		/**
+		 * @param now
+		 */
+		private Tracker(long now) {
+			this.bucketStart = now;
+		}
+
+		/**
+		 * Closes all the intervals that ended by the given time.
+		 *
+		 * @param now
+		 */
+		private void roll(long now) {
+			long closed = (now - bucketStart) / interval;
+			if (closed <= 0) {
+				return;
+			}
+			// Only the last rotation of the ring holds any consumption, the intervals
+			// before it were empty and just decay the rate.
+			if (closed > nBuckets) {
+				close(buckets[head]);
+				rate *= Math.pow(1 - alpha, closed - 1);
+				closedIntervals += closed - 1;
+				Arrays.fill(buckets, 0);
+			} else {
+				for (long i = 0; i < closed; i++) {
+					close(buckets[head]);
+					head = (head + 1) % nBuckets;
+					buckets[head] = 0;
+				}
+			}
+			bucketStart += closed * interval;
+		}
+
+		/**
+		 * Updates the rate with the total of an interval that closed.
+		 *
+		 * @param total
+		 */
+		private void close(long total) {
+			double intervalRate = (double) total / interval;
+			rate = primed ? alpha * intervalRate + (1 - alpha) * rate : intervalRate;
+			primed = true;
+			closedIntervals++;
+		}
+	}
+
+	/**
+	 * @param interval
+	 * @param nBuckets
+	 * @param alpha
+	 * @param leadTime
+	 * @throws IllegalArgumentException
+	 */
+	public ConsumptionForecaster(long interval, int nBuckets, double alpha, long leadTime)
+			throws IllegalArgumentException {
+		if (interval <= 0) {
+			throw new IllegalArgumentException("Consumption forecast interval must be positive!");
+		}
+		if (nBuckets <= 0) {
+			throw new IllegalArgumentException("No. of consumption forecast intervals kept must be positive!");
+		}
+		if (!(alpha > 0 && alpha <= 1)) {
+			throw new IllegalArgumentException("Consumption forecast smoothing must be in (0, 1]!");
+		}
+		if (leadTime < 0) {
+			throw new IllegalArgumentException("Refill lead time cannot be negative!");
+		}
+		this.interval = interval;
+		this.nBuckets = nBuckets;
+		this.alpha = alpha;
+		this.leadTime = leadTime;
+		this.trackers = new ConcurrentHashMap<String, Tracker>();
+	}
+
+	/**
+	 * Returns the time in millis a refill takes to arrive.
+	 *
+	 * @return
+	 */
+	public long getLeadTime() {
+		return leadTime;
+	}
+
+	/**
+	 * Records quantity of the ingredient used at the given time. A negative
+	 * quantity records an unused quantity returned to stock. Returns a refill event
+	 * if the ingredient, with the given quantity left in stock, is now predicted to
+	 * run out within the lead time, else null.
+	 *
+	 * @param ingredientName
+	 * @param used
+	 * @param quantity
+	 * @param now
+	 * @return
+	 */
+	public RefillEvent record(String ingredientName, int used, int quantity, long now) {
+		Tracker tracker = trackers.computeIfAbsent(ingredientName, name -> new Tracker(now));
+		synchronized (tracker) {
+			tracker.roll(now);
+			tracker.buckets[tracker.head] = Math.max(0, tracker.buckets[tracker.head] + used);
+			return check(ingredientName, tracker, quantity, now);
+		}
+	}
+
+	/**
+	 * Returns a refill event if the ingredient, with the given quantity left in
+	 * stock, is predicted to run out within the lead time and no refill was raised
+	 * for it yet, else null.
+	 *
+	 * @param ingredientName
+	 * @param quantity
+	 * @param now
+	 * @return
+	 */
+	public RefillEvent check(String ingredientName, int quantity, long now) {
+		Tracker tracker = trackers.get(ingredientName);
+		if (tracker == null) {
+			return null;
+		}
+		synchronized (tracker) {
+			tracker.roll(now);
+			return check(ingredientName, tracker, quantity, now);
+		}
+	}
+
+	/**
+	 * Returns the forecast consumption of the ingredient per second.
+	 *
+	 * @param ingredientName
+	 * @param now
+	 * @return
+	 */
+	public double getRate(String ingredientName, long now) {
+		Tracker tracker = trackers.get(ingredientName);
+		if (tracker == null) {
+			return 0;
+		}
+		synchronized (tracker) {
+			tracker.roll(now);
+			return rate(tracker) * 1000;
+		}
+	}
+
+	/**
+	 * Returns the quantity of the ingredient used over the intervals kept,
+	 * including the current one.
+	 *
+	 * @param ingredientName
+	 * @param now
+	 * @return
+	 */
+	public long getRecentConsumption(String ingredientName, long now) {
+		Tracker tracker = trackers.get(ingredientName);
+		if (tracker == null) {
+			return 0;
+		}
+		synchronized (tracker) {
+			tracker.roll(now);
+			long total = 0;
+			for (long bucket : tracker.buckets) {
+				total += bucket;
+			}
+			return total;
+		}
+	}
+
+	/**
+	 * Returns the predicted time in millis till the ingredient with the given
+	 * quantity left in stock runs out, or Long.MAX_VALUE if it isn't being used.
+	 *
+	 * @param ingredientName
+	 * @param quantity
+	 * @param now
+	 * @return
+	 */
+	public long getTimeToEmpty(String ingredientName, int quantity, long now) {
+		Tracker tracker = trackers.get(ingredientName);
+		if (tracker == null) {
+			return Long.MAX_VALUE;
+		}
+		synchronized (tracker) {
+			tracker.roll(now);
+			return timeToEmpty(rate(tracker), quantity);
+		}
+	}
+
+	/**
+	 * Raises a refill for the ingredient if it's due. Must be called holding the
+	 * tracker's lock.
+	 *
+	 * @param ingredientName
+	 * @param tracker
+	 * @param quantity
+	 * @param now
+	 * @return
+	 */
+	private RefillEvent check(String ingredientName, Tracker tracker, int quantity, long now) {
+		double rate = rate(tracker);
+		long timeToEmpty = timeToEmpty(rate, quantity);
+		if (timeToEmpty >= leadTime) {
+			tracker.raised = false;
+			return null;
+		}
+		if (tracker.raised) {
+			return null;
+		}
+		tracker.raised = true;
+		return new RefillEvent(ingredientName, quantity, rate * 1000, timeToEmpty, leadTime, now);
+	}
+
+	/**
+	 * Returns the forecast consumption per milli, or 0 till enough intervals have
+	 * closed to tell a steady rate from the first few orders. Must be called
+	 * holding the tracker's lock.
+	 *
+	 * @param tracker
+	 * @return
+	 */
+	private double rate(Tracker tracker) {
+		return (tracker.closedIntervals < MIN_INTERVALS) ? 0 : tracker.rate;
+	}
+
+	/**
+	 * Returns the time in millis till the quantity runs out at the given rate per
+	 * milli.
+	 *
+	 * @param rate
+	 * @param quantity
+	 * @return
+	 */
+	private static long timeToEmpty(double rate, int quantity) {
+		if (quantity <= 0) {
+			return 0;
+		}
+		if (!(rate > 0)) {
+			return Long.MAX_VALUE;
+		}
+		return (long) Math.min(Long.MAX_VALUE, quantity / rate);
+	}
+}
@@ -1,8 +1,17 @@
 package org.dunzo.sde2;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 import java.util.concurrent.locks.ReentrantLock;
 
+import org.dunzo.sde2.history.OrderHistory;
+
 /**
  * ICoffeeMachine --- Defines an abstraction over the CoffeeMachine class.
  * Contains all the necessary features in a Coffee Machine to be implemented by
@@ -18,18 +27,93 @@ public abstract class ICoffeeMachine {
 	// Stores all the outlets keyed by it's outlet no. as id
 	protected Map<Integer, Outlet> outlets;
 
-	// Stores all beverages that the machine can prepare and serve
+	// Stores all beverages that the machine can prepare and serve. Concurrent so
+	// that beverages are looked up without a lock while others are registered.
 	protected Map<String, Beverage> beverages;
 
-	// Stores all ingredients that the machine has in stock
+	// Stores all ingredients that the machine has in stock. Concurrent so that
+	// ingredients are looked up without a lock, but registered and removed holding
+	// the lock so stock checks see a consistent set.
 	protected Map<String, Ingredient> ingredients;
 
+	// Beverages indexed by the ingredients they use, with the ones that can never
+	// be prepared marked
+	protected MenuIndex menu;
+
 	// Defines a quantity to trigger running low indicator for any ingredient
 	protected final static int MINIMUM_INGREDIENT_QUANTITY = 50;
 
 	// Lock stock ingredients before updating or querying them
 	protected ReentrantLock lock;
 
+	// Default bound and admission policy for orders waiting for an outlet
+	protected final static int DEFAULT_QUEUE_CAPACITY = 64;
+	protected final static long DEFAULT_BLOCK_TIMEOUT = 1000;
+
+	// Bounded queue of accepted orders waiting to be prepared
+	protected OrderQueue orderQueue;
+	protected int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+	protected AdmissionPolicy admissionPolicy = AdmissionPolicy.REJECT_NEW;
+	protected long blockTimeout = DEFAULT_BLOCK_TIMEOUT;
+
+	// Default max time in millis an order may wait till it's outlet starts brewing
+	protected long orderTimeout = Order.NO_TIMEOUT;
+
+	// Default bound and expiry in millis of recently placed orders kept to dedup
+	// client retries, enough for about 30000 orders per minute
+	protected final static int DEFAULT_DEDUP_CAPACITY = 1 << 17;
+	protected final static long DEFAULT_DEDUP_TTL = 60 * 1000;
+
+	// Recently placed orders keyed by client order id
+	protected volatile OrderDedupCache dedupCache;
+
+	// Default no. of most urgent orders looked ahead at, and no. of times an
+	// order can be passed over, when sequencing orders by stock
+	protected final static int DEFAULT_SEQUENCING_WINDOW = 8;
+	protected final static int DEFAULT_MAX_BYPASS = 3;
+
+	// Sequencing of queued orders by stock, disabled when the window is 0
+	protected int sequencingWindow = 0;
+	protected int maxBypass = DEFAULT_MAX_BYPASS;
+	protected OrderSequencer.Objective sequencingObjective = OrderSequencer.Objective.ORDERS;
+
+	// Default interval in millis and no. of intervals over which consumption is
+	// tracked, smoothing of the forecast rate and time in millis a refill takes
+	protected final static long DEFAULT_FORECAST_INTERVAL = 1000;
+	protected final static int DEFAULT_FORECAST_BUCKETS = 60;
+	protected final static double DEFAULT_FORECAST_ALPHA = 0.3;
+	protected final static long DEFAULT_REFILL_LEAD_TIME = 5 * 60 * 1000;
+
+	// Default time in millis between sweeps of expired lots of ingredients
+	protected final static long DEFAULT_EXPIRY_SWEEP_INTERVAL = 1000;
+	protected volatile long expirySweepInterval = DEFAULT_EXPIRY_SWEEP_INTERVAL;
+
+	// Forecasts when each ingredient runs out, and is told when to refill one
+	protected volatile ConsumptionForecaster forecaster;
+	protected volatile Consumer<RefillEvent> refillListener;
+
+	// Default no. of events held by the ring buffer of the event stream
+	protected final static int DEFAULT_EVENT_RING_CAPACITY = 1 << 14;
+
+	// Stream of order and stock events, one per run of the machine
+	protected volatile MachineEventPublisher events;
+
+	// Default fraction of order traces kept, no. of traces held and time in
+	// millis above which a trace is always kept
+	protected final static double DEFAULT_TRACE_SAMPLE_RATE = 0.01;
+	protected final static int DEFAULT_TRACE_BUFFER_CAPACITY = 1024;
+	protected final static long DEFAULT_SLOW_TRACE_THRESHOLD = 10 * 1000;
+
+	// Keeps a sample of the traces of finished orders
+	protected volatile OrderTracer tracer;
+
+	// Records orders placed and their outcomes to an order log, null if not
+	// recording
+	protected volatile OrderLogRecorder recorder;
+
+	// Keeps finished orders on disk, null if not kept
+	protected volatile OrderHistory history;
+
 	/**
 	 * @param description
 	 */
@@ -55,6 +139,64 @@ public abstract class ICoffeeMachine {
 		return description;
 	}
 
+	/**
+	 * Returns no. of recently placed orders forgotten by the dedup cache before
+	 * their expiry, whose retries would be brewed again. A growing count means the
+	 * cache is too small for the order rate.
+	 * 
+	 * @return
+	 */
+	public long getDedupEvictions() {
+		OrderDedupCache cache = dedupCache;
+		return (cache == null) ? 0 : cache.getEvictions();
+	}
+
+	/**
+	 * Returns no. of orders waiting in the order queue.
+	 * 
+	 * @return
+	 */
+	public int getQueueDepth() {
+		return (orderQueue == null) ? 0 : orderQueue.size();
+	}
+
+	/**
+	 * Returns an estimate in millis of how long a new order waits before the
+	 * least busy outlet starts preparing it.
+	 * 
+	 * @return
+	 */
+	public long getEstimatedWaitTime() {
+		if (orderQueue == null || nOutlets == 0) {
+			return 0;
+		}
+		long now = System.currentTimeMillis();
+		long waitTime = Long.MAX_VALUE;
+		for (Outlet outlet : outlets.values()) {
+			waitTime = Math.min(waitTime, outlet.getAvailableAt(now) - now);
+		}
+		return waitTime;
+	}
+
+	/**
+	 * Returns an estimate in millis of how long a new order at the given outlet
+	 * waits before the outlet starts preparing it, after the beverage it's working
+	 * on and the orders queued for it.
+	 * 
+	 * @param outletNo
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	public long getEstimatedWaitTime(int outletNo) throws IllegalArgumentException {
+		Outlet outlet = getOutlet(outletNo);
+		if (outlet == null) {
+			throw new IllegalArgumentException("Choose a valid outlet among the " + nOutlets
+					+ " available for this Coffee Machine!");
+		}
+		long now = System.currentTimeMillis();
+		return outlet.getAvailableAt(now) - now;
+	}
+
 	/**
 	 * Returns the Outlet for the given outlet no.
 	 * 
@@ -75,6 +217,129 @@ public abstract class ICoffeeMachine {
 		return beverages.get(beverageName);
 	}
 
+	/**
+	 * Returns all the beverages the machine serves.
+	 * 
+	 * @return
+	 */
+	public Collection<Beverage> getMenu() {
+		return Collections.unmodifiableCollection(beverages.values());
+	}
+
+	/**
+	 * Returns the stream of order and stock events of the machine. The stream
+	 * completes when the machine is turned off, after which a new one is
+	 * returned.
+	 * 
+	 * @return
+	 */
+	public MachineEventPublisher getEvents() {
+		return events;
+	}
+
+	/**
+	 * Publishes the current status of the order if anyone is subscribed.
+	 * 
+	 * @param order
+	 */
+	void publishOrder(Order order) {
+		MachineEventPublisher publisher = events;
+		if (publisher != null && publisher.hasSubscribers()) {
+			publisher.publish(MachineEvent.order(order));
+		}
+	}
+
+	/**
+	 * Returns the contention statistics of the machine lock, if it's profiled, and
+	 * of the stages of every outlet, keyed by "machine" and "OUTLET(n)/stage".
+	 * 
+	 * @return
+	 */
+	public Map<String, LockProfile> getLockProfiles() {
+		Map<String, LockProfile> profiles = new LinkedHashMap<String, LockProfile>();
+		if (lock instanceof ProfiledLock) {
+			profiles.put("machine", ((ProfiledLock) lock).getProfile());
+		}
+		if (outlets != null) {
+			for (Outlet outlet : outlets.values()) {
+				for (OutletStage stage : outlet.getStages()) {
+					profiles.put(outlet + "/" + stage.getName(), stage.getProfile());
+				}
+			}
+		}
+		return profiles;
+	}
+
+	/**
+	 * Returns the sample of traces of finished orders kept by the machine, oldest
+	 * first.
+	 * 
+	 * @return
+	 */
+	public List<OrderTrace> getTraces() {
+		return tracer.getTraces();
+	}
+
+	/**
+	 * Returns the ingredients still reserved for an order that finished without
+	 * being brewed to stock.
+	 * 
+	 * @param order
+	 */
+	abstract void returnIngredients(Order order);
+
+	/**
+	 * Records the trace of an order that just finished, it's outcome if the order
+	 * is in the order log being recorded, and the order in the order history.
+	 * 
+	 * @param order
+	 */
+	void finishOrder(Order order) {
+		tracer.record(order.getTrace());
+		OrderLogRecorder logRecorder = recorder;
+		if (logRecorder != null && order.logSequence >= 0) {
+			logRecorder.recordOutcome(order.logSequence, order.getStatus());
+		}
+		OrderHistory orderHistory = history;
+		if (orderHistory != null) {
+			orderHistory.record(order);
+		}
+	}
+
+	/**
+	 * Returns the order history finished orders are kept in, or null if they are
+	 * not kept.
+	 * 
+	 * @return
+	 */
+	public OrderHistory getHistory() {
+		return history;
+	}
+
+	/**
+	 * Returns true if orders placed are being recorded to an order log.
+	 * 
+	 * @return
+	 */
+	public boolean isRecording() {
+		return recorder != null;
+	}
+
+	/**
+	 * Publishes a change in quantity of an ingredient if anyone is subscribed.
+	 * 
+	 * @param type
+	 * @param ingredientName
+	 * @param delta
+	 * @param quantity
+	 */
+	protected void publishStock(MachineEvent.Type type, String ingredientName, int delta, int quantity) {
+		MachineEventPublisher publisher = events;
+		if (publisher != null && publisher.hasSubscribers()) {
+			publisher.publish(MachineEvent.stock(type, ingredientName, delta, quantity));
+		}
+	}
+
 	/**
 	 * Returns the Ingredient for the given ingredient name.
 	 * 
@@ -100,6 +365,129 @@ public abstract class ICoffeeMachine {
 	 */
 	public abstract void showDetails();
 
+	/**
+	 * Configures the bound on the order queue and the policy applied to new orders
+	 * when it is full.
+	 * 
+	 * @param capacity
+	 * @param policy
+	 * @param blockTimeout
+	 * @throws IllegalArgumentException
+	 */
+	public abstract void setAdmissionControl(int capacity, AdmissionPolicy policy, long blockTimeout)
+			throws IllegalArgumentException;
+
+	/**
+	 * Sets the default max time in millis an order may wait from intake till it's
+	 * outlet starts brewing it. Zero means orders wait as long as their outlet
+	 * allows.
+	 * 
+	 * @param orderTimeout
+	 * @throws IllegalArgumentException
+	 */
+	public abstract void setOrderTimeout(long orderTimeout) throws IllegalArgumentException;
+
+	/**
+	 * Configures the no. of recently placed orders remembered to dedup client
+	 * retries, and the time in millis for which each is remembered.
+	 * 
+	 * @param capacity
+	 * @param ttl
+	 * @throws IllegalArgumentException
+	 */
+	public abstract void setDedupCache(int capacity, long ttl) throws IllegalArgumentException;
+
+	/**
+	 * Configures the forecast of ingredient consumption. Consumption is tracked
+	 * over the given no. of intervals of the given length in millis, and smoothed
+	 * by the given factor in (0, 1]. A refill is raised when an ingredient is
+	 * predicted to run out within the lead time in millis.
+	 * 
+	 * @param interval
+	 * @param nBuckets
+	 * @param alpha
+	 * @param leadTime
+	 * @throws IllegalArgumentException
+	 */
+	public abstract void setConsumptionForecast(long interval, int nBuckets, double alpha, long leadTime)
+			throws IllegalArgumentException;
+
+	/**
+	 * Sets the listener told when an ingredient needs a refill, or null to print
+	 * refills.
+	 * 
+	 * @param refillListener
+	 */
+	public abstract void setRefillListener(Consumer<RefillEvent> refillListener);
+
+	/**
+	 * Configures the sample of order traces kept, with the fraction of orders
+	 * sampled, the no. of traces held and the time in millis above which a trace
+	 * is always kept. Traces kept so far are forgotten.
+	 * 
+	 * @param sampleRate
+	 * @param capacity
+	 * @param slowThreshold
+	 * @throws IllegalArgumentException
+	 */
+	public abstract void setTracing(double sampleRate, int capacity, long slowThreshold)
+			throws IllegalArgumentException;
+
+	/**
+	 * Starts recording every order placed, and the status it finishes in, to a
+	 * new order log file so the same orders can be replayed later.
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	public abstract void startRecording(Path file) throws IOException;
+
+	/**
+	 * Stops recording orders and writes out the rest of the order log. Outcomes
+	 * of orders still open are not recorded.
+	 */
+	public abstract void stopRecording();
+
+	/**
+	 * Starts keeping every order that reaches a final status in the order history
+	 * in the directory, creating it if it doesn't exist.
+	 * 
+	 * @param directory
+	 * @throws IOException
+	 */
+	public abstract void openHistory(Path directory) throws IOException;
+
+	/**
+	 * Stops keeping finished orders, and writes out and closes the order history.
+	 * 
+	 * @throws IOException
+	 */
+	public abstract void closeHistory() throws IOException;
+
+	/**
+	 * Returns the predicted time in millis till the ingredient runs out at it's
+	 * current rate of consumption, or Long.MAX_VALUE if it isn't being used.
+	 * 
+	 * @param ingredientName
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	public abstract long getTimeToEmpty(String ingredientName) throws IllegalArgumentException;
+
+	/**
+	 * Configures sequencing of queued orders by stock. The next order is picked
+	 * among the given no. of most urgent orders to maximize the objective, and no
+	 * order is passed over more than the given no. of times. A window of 0 turns
+	 * sequencing off.
+	 * 
+	 * @param window
+	 * @param maxBypass
+	 * @param objective
+	 * @throws IllegalArgumentException
+	 */
+	public abstract void setSequencing(int window, int maxBypass, OrderSequencer.Objective objective)
+			throws IllegalArgumentException;
+
 	/**
 	 * Adds a new ingredient to the stock if not added before.
 	 * 
@@ -129,6 +517,36 @@ public abstract class ICoffeeMachine {
 	 */
 	public abstract void addIngredientQuantity(String ingredientName, int quantity) throws InterruptedException;
 
+	/**
+	 * Adds a lot of the ingredient to the stock that expires at the given time in
+	 * millis. Quantity is consumed from the lot that expires first, and expired
+	 * quantity is removed from the stock.
+	 * 
+	 * @param ingredientName
+	 * @param quantity
+	 * @param expiresAt
+	 * @throws IllegalArgumentException
+	 */
+	public abstract void addIngredientLot(String ingredientName, int quantity, long expiresAt)
+			throws IllegalArgumentException;
+
+	/**
+	 * Removes the expired lots of all ingredients from the stock, and returns the
+	 * quantity removed of each ingredient that had any.
+	 * 
+	 * @return
+	 */
+	public abstract Map<String, Integer> removeExpiredLots();
+
+	/**
+	 * Sets the time in millis between sweeps of expired lots while the machine is
+	 * running. Takes effect the next time the machine is turned on.
+	 * 
+	 * @param interval
+	 * @throws IllegalArgumentException
+	 */
+	public abstract void setExpirySweepInterval(long interval) throws IllegalArgumentException;
+
 	/**
 	 * Adds a new beverage to the Coffee Machine if not supported before.
 	 * 
@@ -137,6 +555,33 @@ public abstract class ICoffeeMachine {
 	 */
 	public abstract void addBeverage(Beverage beverage) throws IllegalArgumentException;
 
+	/**
+	 * Removes a beverage from the Coffee Machine. Orders already placed for it are
+	 * still prepared.
+	 * 
+	 * @param beverageName
+	 * @throws IllegalArgumentException
+	 */
+	public abstract void removeBeverage(String beverageName) throws IllegalArgumentException;
+
+	/**
+	 * Removes an ingredient and it's stock from the Coffee Machine. Beverages
+	 * using it can't be prepared till it's added again.
+	 * 
+	 * @param ingredientName
+	 * @throws IllegalArgumentException
+	 */
+	public abstract void removeIngredient(String ingredientName) throws IllegalArgumentException;
+
+	/**
+	 * Applies all the changes in the transaction to the stock as one step. Nothing
+	 * is changed if any of them fails.
+	 * 
+	 * @param transaction
+	 * @throws IllegalArgumentException
+	 */
+	public abstract void applyInventory(InventoryTransaction transaction) throws IllegalArgumentException;
+
 	/**
 	 * Validate that all the ingredients required for the beverage are in stock and
 	 * available. Throw an exception if there is any discrepancy.
@@ -160,26 +605,212 @@ public abstract class ICoffeeMachine {
 			throws IllegalArgumentException;
 
 	/**
-	 * After validations, run this method to assign an outlet to the beverage and
+	 * After validations, run this method to queue the order for it's outlet to
 	 * prepare and serve it.
 	 * 
-	 * @param outlet
-	 * @param beverage
+	 * @param order
 	 */
-	protected abstract void prepareBeverage(Outlet outlet, Beverage beverage);
+	protected abstract void prepareBeverage(Order order);
 
 	/**
 	 * Method to serve beverage at a particular outlet. Runs validations for
 	 * beverages and outlets, and the required ingredients for the beverage recipes.
 	 * 
+	 * Returns the order placed, which may already be rejected.
+	 * 
+	 * @param outletNo
+	 * @param beverageName
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	public abstract Order serveBeverage(int outletNo, String beverageName) throws IllegalArgumentException;
+
+	/**
+	 * Method to serve beverage at a particular outlet with a priority class and a
+	 * deadline in millis by which it must be picked up. Orders are prepared
+	 * earliest deadline first within each priority class, and dropped if their
+	 * deadline passes before they are prepared.
+	 * 
+	 * @param outletNo
+	 * @param beverageName
+	 * @param priority
+	 * @param deadline
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	public abstract Order serveBeverage(int outletNo, String beverageName, OrderPriority priority, long deadline)
+			throws IllegalArgumentException;
+
+	/**
+	 * Method to serve beverage at a particular outlet with a priority class, a
+	 * deadline, and a timeout in millis after which the order is given up if it's
+	 * outlet hasn't started brewing it.
+	 * 
+	 * @param outletNo
+	 * @param beverageName
+	 * @param priority
+	 * @param deadline
+	 * @param timeout
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	public abstract Order serveBeverage(int outletNo, String beverageName, OrderPriority priority, long deadline,
+			long timeout) throws IllegalArgumentException;
+
+	/**
+	 * Method to serve beverage at a particular outlet with an order id given by
+	 * the client. A retry with the same id returns the order placed earlier
+	 * instead of brewing the beverage again.
+	 * 
+	 * @param clientOrderId
+	 * @param outletNo
+	 * @param beverageName
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	public abstract Order serveBeverage(String clientOrderId, int outletNo, String beverageName)
+			throws IllegalArgumentException;
+
+	/**
+	 * Method to serve beverage at a particular outlet with an order id given by
+	 * the client, a priority class, a deadline and a timeout. A retry with the
+	 * same id returns the order placed earlier instead of brewing the beverage
+	 * again.
+	 * 
+	 * @param clientOrderId
 	 * @param outletNo
 	 * @param beverageName
+	 * @param priority
+	 * @param deadline
+	 * @param timeout
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	public abstract Order serveBeverage(String clientOrderId, int outletNo, String beverageName,
+			OrderPriority priority, long deadline, long timeout) throws IllegalArgumentException;
+
+	/**
+	 * Method to serve several cups of a beverage, split across the outlets of the
+	 * machine so that all of them are done as early as possible.
+	 * 
+	 * @param beverageName
+	 * @param quantity
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	public abstract MultiOrder serveBeverages(String beverageName, int quantity) throws IllegalArgumentException;
+
+	/**
+	 * Method to serve several cups of a beverage with a priority class and a
+	 * deadline, split across the outlets of the machine so that all of them are
+	 * done as early as possible.
+	 * 
+	 * @param beverageName
+	 * @param quantity
+	 * @param priority
+	 * @param deadline
+	 * @return
 	 * @throws IllegalArgumentException
 	 */
-	public abstract void serveBeverage(int outletNo, String beverageName) throws IllegalArgumentException;
+	public abstract MultiOrder serveBeverages(String beverageName, int quantity, OrderPriority priority,
+			long deadline) throws IllegalArgumentException;
+
+	/**
+	 * Method to order a beverage at a particular outlet to be ready at the given
+	 * time in millis. The order is released into the regular serve path early
+	 * enough to be ready by then.
+	 * 
+	 * @param outletNo
+	 * @param beverageName
+	 * @param readyAt
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	public abstract Order scheduleBeverage(int outletNo, String beverageName, long readyAt)
+			throws IllegalArgumentException;
+
+	/**
+	 * Cancels an order if it's outlet hasn't started brewing it yet, returning
+	 * reserved ingredients to stock. Returns true if the order was cancelled.
+	 * 
+	 * @param order
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	public abstract boolean cancelOrder(Order order) throws IllegalArgumentException;
 
 	/**
 	 * Displays all ingredients running low on quantity.
 	 */
 	public abstract void showLowQuantityIngredients();
+
+	/**
+	 * Returns a consistent snapshot of the quantity of each ingredient in stock.
+	 * 
+	 * @return
+	 */
+	public abstract Map<String, Integer> getStockSnapshot();
+
+	/**
+	 * Returns the lots of the ingredient in stock that expire, soonest first.
+	 * 
+	 * @param ingredientName
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	public abstract List<Ingredient.Lot> getIngredientLots(String ingredientName) throws IllegalArgumentException;
+
+	/**
+	 * Returns the beverages that can never be prepared because an ingredient is
+	 * missing from the machine, with the reason for each.
+	 * 
+	 * @return
+	 */
+	public abstract Map<String, String> getUnservableBeverages();
+
+	/**
+	 * Returns the max no. of servings of each beverage with the current stock, if
+	 * only that beverage is served.
+	 * 
+	 * @return
+	 */
+	public abstract Map<String, Integer> getMaxServings();
+
+	/**
+	 * Plans the servings of a forecast mix of beverages with the current stock.
+	 * The mix maps beverage names to their relative share of orders.
+	 * 
+	 * @param mix
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	public abstract CapacityPlan planCapacity(Map<String, Double> mix) throws IllegalArgumentException;
+
+	/**
+	 * Returns true if the current stock covers the given no. of servings of each
+	 * beverage at the same time.
+	 * 
+	 * @param servings
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	public abstract boolean canServe(Map<String, Integer> servings) throws IllegalArgumentException;
+
+	/**
+	 * Displays throughput and utilization of every stage of every outlet, marking
+	 * the bottleneck stage of each outlet.
+	 */
+	public abstract void showOutletStats();
+
+	/**
+	 * Displays contention for the locks of the machine: attempts, waits, failed
+	 * attempts and wait and hold time percentiles.
+	 */
+	public abstract void showLockStats();
+
+	/**
+	 * Displays the time orders spend in each phase, from the sample of traces
+	 * kept, and the phases the slowest orders lost their time in.
+	 */
+	public abstract void showTraceBreakdown();
 }
@@ -1,13 +1,82 @@
 package org.dunzo.sde2;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
 /**
  * Ingredient --- Class representing recipe ingredients.
  * 
+ * Stock ingredients can hold lots that expire, e.g. milk delivered on different
+ * days. Lots are kept in a priority queue by expiry and quantity is consumed
+ * from the lot that expires first, then from quantity that never expires. The
+ * total quantity and the next expiry are kept alongside the lots so that
+ * reading them stays O(1) and needs no lock. Changes to the lots are made
+ * holding the machine lock, like every other change to the stock.
+ * 
  * @author Atul Shanbhag
  */
 public class Ingredient {
+	// Expiry of quantity that never expires.
+	public final static long NO_EXPIRY = Long.MAX_VALUE;
+
+	/**
+	 * Lot --- A quantity of the ingredient that expires at the same time.
+	 */
+	public static class Lot {
+		private final long expiresAt;
+		private int quantity;
+
+		/**
+		 * @param expiresAt
+		 * @param quantity
+		 */
+		private Lot(long expiresAt, int quantity) {
+			this.expiresAt = expiresAt;
+			this.quantity = quantity;
+		}
+
+		/**
+		 * Returns time in millis the lot expires at.
+		 * 
+		 * @return
+		 */
+		public long getExpiresAt() {
+			return expiresAt;
+		}
+
+		/**
+		 * Returns quantity left in the lot.
+		 * 
+		 * @return
+		 */
+		public int getQuantity() {
+			return quantity;
+		}
+
+		/**
+		 * Return a string representation for Lot object.
+		 */
+		@Override
+		public String toString() {
+			return "LOT(" + quantity + ", expires at " + expiresAt + ")";
+		}
+	}
+
+	private final static Comparator<Lot> BY_EXPIRY = Comparator.comparingLong(Lot::getExpiresAt);
+
 	private String name;
-	private int quantity;
+	// Read without the machine lock by validations, so changes must be visible.
+	// Includes the quantity in lots.
+	private volatile int quantity;
+
+	// Lots that expire, soonest first, created with the first one.
+	private PriorityQueue<Lot> lots;
+
+	// Expiry of the lot that expires first, read without the machine lock by the
+	// expiry sweep.
+	private volatile long nextExpiry = NO_EXPIRY;
 
 	/**
 	 * @param name
@@ -49,8 +118,47 @@ public class Ingredient {
 	}
 
 	/**
-	 * Consumes given quantity from total quantity. Throws an error if consumed
-	 * quantity is more than initial quantity.
+	 * Adds a lot of the ingredient that expires at the given time in millis.
+	 * 
+	 * @param q
+	 * @param expiresAt
+	 * @throws IllegalArgumentException
+	 */
+	public void addLot(int q, long expiresAt) throws IllegalArgumentException {
+		if (q < 0) {
+			throw new IllegalArgumentException("Cannot add a negative amount of quantity to the ingredient!");
+		}
+		if (expiresAt == NO_EXPIRY) {
+			addQuantity(q);
+			return;
+		}
+		if (lots == null) {
+			lots = new PriorityQueue<Lot>(BY_EXPIRY);
+		}
+		lots.add(new Lot(expiresAt, q));
+		quantity += q;
+		nextExpiry = lots.peek().expiresAt;
+	}
+
+	/**
+	 * Puts back quantity consumed for something that was never made. It goes into
+	 * quantity that never expires, since the lots it was consumed from may have
+	 * been used up or have expired since, and crediting another lot would change
+	 * when that lot expires.
+	 * 
+	 * @param q
+	 * @throws IllegalArgumentException
+	 */
+	public void returnQuantity(int q) throws IllegalArgumentException {
+		if (q < 0) {
+			throw new IllegalArgumentException("Cannot return a negative amount of quantity to the ingredient!");
+		}
+		quantity += q;
+	}
+
+	/**
+	 * Consumes given quantity from total quantity, from the lots that expire
+	 * first. Throws an error if consumed quantity is more than initial quantity.
 	 * 
 	 * @param q
 	 */
@@ -61,7 +169,71 @@ public class Ingredient {
 		if (q > quantity) {
 			throw new IllegalArgumentException("You can consume at most " + quantity + " of " + name + "!");
 		}
+		int left = q;
+		while (left > 0 && lots != null && !lots.isEmpty()) {
+			Lot first = lots.peek();
+			int taken = Math.min(left, first.quantity);
+			first.quantity -= taken;
+			left -= taken;
+			if (first.quantity == 0) {
+				lots.poll();
+			}
+		}
 		quantity -= q;
+		updateNextExpiry();
+	}
+
+	/**
+	 * Removes the lots expired by the given time in millis and returns the
+	 * quantity removed. Only looks at the lot that expires first when nothing
+	 * expired.
+	 * 
+	 * @param now
+	 * @return
+	 */
+	public int removeExpired(long now) {
+		int expired = 0;
+		while (lots != null && !lots.isEmpty() && lots.peek().expiresAt <= now) {
+			expired += lots.poll().quantity;
+		}
+		quantity -= expired;
+		updateNextExpiry();
+		return expired;
+	}
+
+	/**
+	 * Returns time in millis the next lot expires at, or NO_EXPIRY if no lot
+	 * expires. Safe to call without the machine lock.
+	 * 
+	 * @return
+	 */
+	public long getNextExpiry() {
+		return nextExpiry;
+	}
+
+	/**
+	 * Sets the next expiry from the lot that expires first after the lots
+	 * changed.
+	 */
+	private void updateNextExpiry() {
+		Lot first = (lots == null) ? null : lots.peek();
+		nextExpiry = (first == null) ? NO_EXPIRY : first.expiresAt;
+	}
+
+	/**
+	 * Returns copies of the lots that expire, soonest first.
+	 * 
+	 * @return
+	 */
+	public List<Lot> getLots() {
+		List<Lot> copies = new ArrayList<Lot>();
+		if (lots != null) {
+			for (Lot lot : lots) {
+				copies.add(new Lot(lot.expiresAt, lot.quantity));
+			}
+			copies.sort(BY_EXPIRY);
+		}
+		return copies;
 	}
 
 	/**
@@ -0,0 +1,135 @@
+package org.dunzo.sde2;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * InventoryTransaction --- Set of changes to the stock of a Coffee Machine that
+ * are applied together, e.g. a refill of several ingredients. Either all the
+ * changes are applied or none of them, and orders never see the stock half way
+ * through.
+ *
+ * Changes to the same ingredient are combined into one, so the machine applies
+ * the whole transaction in one short critical section.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class InventoryTransaction {
+	// New ingredients with their initial quantity.
+	private final Map<String, Integer> registered;
+
+	// Net quantity added to (or removed from, if negative) each ingredient.
+	private final Map<String, Long> deltas;
+
+	public InventoryTransaction() {
+		this.registered = new LinkedHashMap<String, Integer>();
+		this.deltas = new LinkedHashMap<String, Long>();
+	}
+
+	/**
+	 * Registers a new ingredient with an initial quantity. Fails when applied if
+	 * the ingredient already exists.
+	 *
+	 * @param ingredientName
+	 * @param quantity
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	public InventoryTransaction register(String ingredientName, int quantity) throws IllegalArgumentException {
+		if (ingredientName == null) {
+			throw new IllegalArgumentException("Ingredient name is not defined! Cannot register this ingredient!");
+		}
+		if (quantity < 0) {
+			throw new IllegalArgumentException("Cannot register " + ingredientName + " with a negative quantity!");
+		}
+		if (registered.containsKey(ingredientName)) {
+			throw new IllegalArgumentException(ingredientName + " is already registered in this transaction!");
+		}
+		registered.put(ingredientName, quantity);
+		return this;
+	}
+
+	/**
+	 * Adds a quantity of an ingredient.
+	 *
+	 * @param ingredientName
+	 * @param quantity
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	public InventoryTransaction add(String ingredientName, int quantity) throws IllegalArgumentException {
+		if (quantity < 0) {
+			throw new IllegalArgumentException("Cannot add a negative amount of quantity to the ingredient!");
+		}
+		return change(ingredientName, quantity);
+	}
+
+	/**
+	 * Removes a quantity of an ingredient. Fails when applied if the stock
+	 * doesn't have that much.
+	 *
+	 * @param ingredientName
+	 * @param quantity
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	public InventoryTransaction remove(String ingredientName, int quantity) throws IllegalArgumentException {
+		if (quantity < 0) {
+			throw new IllegalArgumentException("Cannot remove a negative amount of quantity from the ingredient!");
+		}
+		return change(ingredientName, -quantity);
+	}
+
+	/**
+	 * Returns true if the transaction doesn't change anything.
+	 *
+	 * @return
+	 */
+	public boolean isEmpty() {
+		return registered.isEmpty() && deltas.isEmpty();
+	}
+
+	/**
+	 * Returns the new ingredients with their initial quantity.
+	 *
+	 * @return
+	 */
+	public Map<String, Integer> getRegistered() {
+		return Collections.unmodifiableMap(registered);
+	}
+
+	/**
+	 * Returns the net quantity added to each ingredient, negative if removed.
+	 *
+	 * @return
+	 */
+	public Map<String, Long> getDeltas() {
+		return Collections.unmodifiableMap(deltas);
+	}
+
+	/**
+	 * Combines a change of quantity into the net change for the ingredient.
+	 *
+	 * @param ingredientName
+	 * @param delta
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	private InventoryTransaction change(String ingredientName, long delta) throws IllegalArgumentException {
+		if (ingredientName == null) {
+			throw new IllegalArgumentException("Ingredient name is not defined! Cannot change it's quantity!");
+		}
+		deltas.merge(ingredientName, delta, Long::sum);
+		return this;
+	}
+
+	/**
+	 * Return a string representation for InventoryTransaction object.
+	 */
+	@Override
+	public String toString() {
+		return "INVENTORY_TRANSACTION(registered = " + registered + ", changes = " + deltas + ")";
+	}
+}
@@ -0,0 +1,290 @@
+package org.dunzo.sde2;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LockProfile --- Contention statistics of a lock of the Coffee Machine: the
+ * no. of attempts to acquire it, how many of them had to wait and how many gave
+ * up, and histograms of the time spent waiting for it and holding it.
+ *
+ * Histograms have a bucket per power of 2 nanos, so percentiles are accurate
+ * to within a factor of 2, which is plenty to tell a microsecond from a
+ * millisecond. Counters are striped so threads recording at once don't contend
+ * on them, and recording takes no locks.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class LockProfile {
+	// No. of histogram buckets, the last one holding everything above ~9 minutes.
+	private final static int N_BUCKETS = 40;
+
+	private final LongAdder attempts;
+	private final LongAdder contended;
+	private final LongAdder failures;
+	private final LongAdder totalWait;
+	private final LongAdder holds;
+	private final LongAdder totalHold;
+	private final AtomicLong maxWait;
+	private final AtomicLong maxHold;
+	private final LongAdder[] waitBuckets;
+	private final LongAdder[] holdBuckets;
+
+	/**
+	 * 
+	 */
+	public LockProfile() {
+		this.attempts = new LongAdder();
+		this.contended = new LongAdder();
+		this.failures = new LongAdder();
+		this.totalWait = new LongAdder();
+		this.holds = new LongAdder();
+		this.totalHold = new LongAdder();
+		this.maxWait = new AtomicLong();
+		this.maxHold = new AtomicLong();
+		this.waitBuckets = newBuckets();
+		this.holdBuckets = newBuckets();
+	}
+
+	/**
+	 * Returns empty histogram buckets.
+	 *
+	 * @return
+	 */
+	private static LongAdder[] newBuckets() {
+		LongAdder[] buckets = new LongAdder[N_BUCKETS];
+		for (int i = 0; i < N_BUCKETS; i++) {
+			buckets[i] = new LongAdder();
+		}
+		return buckets;
+	}
+
+	/**
+	 * Returns the histogram bucket for a time in nanos.
+	 *
+	 * @param nanos
+	 * @return
+	 */
+	private static int bucket(long nanos) {
+		return Math.min(N_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(Math.max(0, nanos)));
+	}
+
+	/**
+	 * Raises the max to the value if it's larger, without writing otherwise.
+	 *
+	 * @param max
+	 * @param value
+	 */
+	private static void raise(AtomicLong max, long value) {
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * Records an attempt that acquired the lock at once.
+	 */
+	public void recordUncontended() {
+		attempts.increment();
+		waitBuckets[0].increment();
+	}
+
+	/**
+	 * Records an attempt that acquired the lock after waiting for the given time
+	 * in nanos.
+	 *
+	 * @param waitTime
+	 */
+	public void recordAcquired(long waitTime) {
+		attempts.increment();
+		contended.increment();
+		recordWait(waitTime);
+	}
+
+	/**
+	 * Records an attempt that gave up on the lock after waiting for the given
+	 * time in nanos.
+	 *
+	 * @param waitTime
+	 */
+	public void recordFailed(long waitTime) {
+		attempts.increment();
+		contended.increment();
+		failures.increment();
+		recordWait(waitTime);
+	}
+
+	/**
+	 * Records time in nanos spent waiting for the lock.
+	 *
+	 * @param waitTime
+	 */
+	private void recordWait(long waitTime) {
+		totalWait.add(waitTime);
+		waitBuckets[bucket(waitTime)].increment();
+		raise(maxWait, waitTime);
+	}
+
+	/**
+	 * Records time in nanos the lock was held for before being released.
+	 *
+	 * @param holdTime
+	 */
+	public void recordHold(long holdTime) {
+		holds.increment();
+		totalHold.add(holdTime);
+		holdBuckets[bucket(holdTime)].increment();
+		raise(maxHold, holdTime);
+	}
+
+	/**
+	 * Returns no. of attempts to acquire the lock.
+	 *
+	 * @return
+	 */
+	public long getAttempts() {
+		return attempts.sum();
+	}
+
+	/**
+	 * Returns no. of attempts that found the lock taken and had to wait.
+	 *
+	 * @return
+	 */
+	public long getContended() {
+		return contended.sum();
+	}
+
+	/**
+	 * Returns no. of attempts that gave up waiting for the lock.
+	 *
+	 * @return
+	 */
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	/**
+	 * Returns total time in nanos spent waiting for the lock.
+	 *
+	 * @return
+	 */
+	public long getTotalWaitTime() {
+		return totalWait.sum();
+	}
+
+	/**
+	 * Returns the longest time in nanos spent waiting for the lock.
+	 *
+	 * @return
+	 */
+	public long getMaxWaitTime() {
+		return maxWait.get();
+	}
+
+	/**
+	 * Returns no. of times the lock was held and released.
+	 *
+	 * @return
+	 */
+	public long getHolds() {
+		return holds.sum();
+	}
+
+	/**
+	 * Returns total time in nanos the lock was held for.
+	 *
+	 * @return
+	 */
+	public long getTotalHoldTime() {
+		return totalHold.sum();
+	}
+
+	/**
+	 * Returns the longest time in nanos the lock was held for.
+	 *
+	 * @return
+	 */
+	public long getMaxHoldTime() {
+		return maxHold.get();
+	}
+
+	/**
+	 * Returns an upper bound in nanos of the given percentile of wait times, from
+	 * 0 to 100.
+	 *
+	 * @param percentile
+	 * @return
+	 */
+	public long getWaitPercentile(double percentile) {
+		return Math.min(percentile(waitBuckets, percentile), getMaxWaitTime());
+	}
+
+	/**
+	 * Returns an upper bound in nanos of the given percentile of hold times, from
+	 * 0 to 100.
+	 *
+	 * @param percentile
+	 * @return
+	 */
+	public long getHoldPercentile(double percentile) {
+		return Math.min(percentile(holdBuckets, percentile), getMaxHoldTime());
+	}
+
+	/**
+	 * Returns the upper bound of the bucket the percentile falls in, or 0 if
+	 * nothing was recorded.
+	 *
+	 * @param buckets
+	 * @param percentile
+	 * @return
+	 */
+	private static long percentile(LongAdder[] buckets, double percentile) {
+		long[] counts = new long[N_BUCKETS];
+		long total = 0;
+		for (int i = 0; i < N_BUCKETS; i++) {
+			counts[i] = buckets[i].sum();
+			total += counts[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100);
+		long seen = 0;
+		for (int i = 0; i < N_BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= Math.max(1, rank)) {
+				return (i == 0) ? 0 : (1L << i) - 1;
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * Return a string representation for LockProfile object, with times in
+	 * micros.
+	 */
+	@Override
+	public String toString() {
+		long nAttempts = getAttempts();
+		return String.format(
+				"attempts = %d, contended = %.1f%%, failed = %d, wait p50/p99/max = %s/%s/%s us, "
+						+ "hold p50/p99/max = %s/%s/%s us",
+				nAttempts, (nAttempts == 0) ? 0.0 : 100.0 * getContended() / nAttempts, getFailures(),
+				micros(getWaitPercentile(50)), micros(getWaitPercentile(99)), micros(getMaxWaitTime()),
+				micros(getHoldPercentile(50)), micros(getHoldPercentile(99)), micros(getMaxHoldTime()));
+	}
+
+	/**
+	 * Formats nanos as micros.
+	 *
+	 * @param nanos
+	 * @return
+	 */
+	private static String micros(long nanos) {
+		return String.format("%.1f", nanos / (double) TimeUnit.MICROSECONDS.toNanos(1));
+	}
+}
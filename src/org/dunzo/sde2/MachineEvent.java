@@ -0,0 +1,262 @@
+package org.dunzo.sde2;
+
+/**
+ * MachineEvent --- Something that happened at the Coffee Machine, published to
+ * the subscribers of it's event stream. Order events carry a snapshot of the
+ * order, stock events the change in quantity of an ingredient and the quantity
+ * left after it.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class MachineEvent {
+	/**
+	 * Type --- Kinds of machine events.
+	 */
+	public enum Type {
+		// An order was admitted to the queue or moved to a new status.
+		ORDER,
+
+		// Ingredients were used up mixing beverages.
+		CONSUMED,
+
+		// Ingredients reserved for an order that was never brewed were put back.
+		RETURNED,
+
+		// Ingredients were added to the stock.
+		REFILLED,
+
+		// Stock was changed by an inventory transaction or an ingredient removed.
+		ADJUSTED,
+
+		// Lots of an ingredient expired and were thrown away.
+		EXPIRED,
+
+		// An ingredient is predicted to run out before a refill could arrive.
+		REFILL_NEEDED
+	}
+
+	private final Type type;
+	private final long timestamp;
+
+	// Set by the publisher before the event is published.
+	private long sequence;
+
+	private final long orderId;
+	private final String clientOrderId;
+	private final String beverageName;
+	private final int outletNo;
+	private final OrderStatus status;
+	private final String message;
+
+	private final String ingredientName;
+	private final int delta;
+	private final int quantity;
+	private final RefillEvent refill;
+
+	/**
+	 * @param type
+	 * @param order
+	 * @param ingredientName
+	 * @param delta
+	 * @param quantity
+	 * @param refill
+	 */
+	private MachineEvent(Type type, Order order, String ingredientName, int delta, int quantity, RefillEvent refill) {
+		this.type = type;
+		this.timestamp = System.currentTimeMillis();
+		this.orderId = (order == null) ? 0 : order.getId();
+		this.clientOrderId = (order == null) ? null : order.getClientOrderId();
+		this.beverageName = (order == null) ? null : order.getBeverage().getName();
+		this.outletNo = (order == null) ? 0 : order.getOutlet().getId();
+		this.status = (order == null) ? null : order.getStatus();
+		this.message = (order == null) ? null : order.getMessage();
+		this.ingredientName = ingredientName;
+		this.delta = delta;
+		this.quantity = quantity;
+		this.refill = refill;
+	}
+
+	/**
+	 * Returns an event with the current status of the order.
+	 *
+	 * @param order
+	 * @return
+	 */
+	public static MachineEvent order(Order order) {
+		return new MachineEvent(Type.ORDER, order, null, 0, 0, null);
+	}
+
+	/**
+	 * Returns an event for a change in quantity of an ingredient.
+	 *
+	 * @param type
+	 * @param ingredientName
+	 * @param delta
+	 * @param quantity
+	 * @return
+	 */
+	public static MachineEvent stock(Type type, String ingredientName, int delta, int quantity) {
+		return new MachineEvent(type, null, ingredientName, delta, quantity, null);
+	}
+
+	/**
+	 * Returns an event for a refill that is due.
+	 *
+	 * @param refill
+	 * @return
+	 */
+	public static MachineEvent refillNeeded(RefillEvent refill) {
+		return new MachineEvent(Type.REFILL_NEEDED, null, refill.getIngredientName(), 0, refill.getQuantity(), refill);
+	}
+
+	/**
+	 * Returns the kind of event.
+	 *
+	 * @return
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Returns time in millis the event happened at.
+	 *
+	 * @return
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Returns the position of the event in the machine's event stream. A
+	 * subscriber sees gaps in it when events were dropped.
+	 *
+	 * @return
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Sets the position of the event in the stream.
+	 *
+	 * @param sequence
+	 */
+	void setSequence(long sequence) {
+		this.sequence = sequence;
+	}
+
+	/**
+	 * Returns id of the order, or 0 for stock events.
+	 *
+	 * @return
+	 */
+	public long getOrderId() {
+		return orderId;
+	}
+
+	/**
+	 * Returns the id the client placed the order with, if any.
+	 *
+	 * @return
+	 */
+	public String getClientOrderId() {
+		return clientOrderId;
+	}
+
+	/**
+	 * Returns the beverage ordered, or null for stock events.
+	 *
+	 * @return
+	 */
+	public String getBeverageName() {
+		return beverageName;
+	}
+
+	/**
+	 * Returns the outlet the order was placed at, or 0 for stock events.
+	 *
+	 * @return
+	 */
+	public int getOutletNo() {
+		return outletNo;
+	}
+
+	/**
+	 * Returns status of the order, or null for stock events.
+	 *
+	 * @return
+	 */
+	public OrderStatus getStatus() {
+		return status;
+	}
+
+	/**
+	 * Returns the reason the order ended up in it's status, if any.
+	 *
+	 * @return
+	 */
+	public String getMessage() {
+		return message;
+	}
+
+	/**
+	 * Returns the ingredient changed, or null for order events.
+	 *
+	 * @return
+	 */
+	public String getIngredientName() {
+		return ingredientName;
+	}
+
+	/**
+	 * Returns the change in quantity of the ingredient.
+	 *
+	 * @return
+	 */
+	public int getDelta() {
+		return delta;
+	}
+
+	/**
+	 * Returns quantity of the ingredient in stock after the change.
+	 *
+	 * @return
+	 */
+	public int getQuantity() {
+		return quantity;
+	}
+
+	/**
+	 * Returns the refill that is due, for refill events.
+	 *
+	 * @return
+	 */
+	public RefillEvent getRefill() {
+		return refill;
+	}
+
+	/**
+	 * Returns the key under which a conflating subscriber keeps only the latest
+	 * event, the order for order events and the ingredient for the rest.
+	 *
+	 * @return
+	 */
+	public String getConflationKey() {
+		if (type == Type.ORDER) {
+			return "order:" + orderId;
+		}
+		return ((type == Type.REFILL_NEEDED) ? "refill:" : "stock:") + ingredientName;
+	}
+
+	@Override
+	public String toString() {
+		if (type == Type.ORDER) {
+			return "MachineEvent [sequence=" + sequence + ", type=" + type + ", orderId=" + orderId + ", beverage="
+					+ beverageName + ", outlet=" + outletNo + ", status=" + status + "]";
+		}
+		return "MachineEvent [sequence=" + sequence + ", type=" + type + ", ingredient=" + ingredientName
+				+ ", delta=" + delta + ", quantity=" + quantity + "]";
+	}
+}
@@ -0,0 +1,442 @@
+package org.dunzo.sde2;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * MachineEventPublisher --- Publishes the events of a Coffee Machine to any no.
+ * of subscribers, each with it's own backpressure.
+ *
+ * Producers never wait. An event is published by claiming the next sequence of
+ * a fixed ring buffer with a single atomic increment and storing the event in
+ * it's slot. A dispatcher thread follows the ring and hands every event to the
+ * bounded buffer of each subscription, and each subscription delivers from it's
+ * buffer on an executor as the subscriber requests more. When a subscriber's
+ * buffer is full, new events are either dropped or conflated into the pending
+ * event for the same order or ingredient, as the subscriber chose. If the
+ * dispatcher itself falls a whole ring behind, the events overwritten are lost
+ * for every subscriber and show up as gaps in the event sequence.
+ *
+ * Nothing is published while there are no subscribers.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class MachineEventPublisher implements Flow.Publisher<MachineEvent>, AutoCloseable {
+	// Buffer of each subscription unless asked otherwise.
+	public final static int DEFAULT_BUFFER_CAPACITY = 1024;
+
+	// Max time in nanos the dispatcher sleeps when the ring is empty. Producers
+	// wake it up as soon as they publish.
+	private final static long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	/**
+	 * Policy --- What a subscription does with new events while it's buffer is
+	 * full.
+	 */
+	public enum Policy {
+		// Drop the new event.
+		DROP,
+
+		// Replace the pending event for the same order or ingredient, so the
+		// subscriber sees the latest state of each. Drop the oldest event if there
+		// is none.
+		CONFLATE
+	}
+
+	private final AtomicReferenceArray<MachineEvent> ring;
+	private final int mask;
+	private final AtomicLong cursor;
+	private final Executor executor;
+	private final CopyOnWriteArrayList<EventSubscription> subscriptions;
+	private final AtomicLong lost;
+
+	private Thread dispatcher;
+	private volatile boolean dispatcherIdle;
+	private volatile boolean closed;
+
+	/**
+	 * EventSubscription --- Buffered events and demand of one subscriber.
+	 */
+	private class EventSubscription implements Flow.Subscription {
+		private final Flow.Subscriber<? super MachineEvent> subscriber;
+		private final Policy policy;
+		private final int capacity;
+		private final Runnable drainTask = this::drain;
+
+		// Guarded by the subscription's lock.
+		private final ArrayDeque<MachineEvent> queue;
+		private final LinkedHashMap<String, MachineEvent> conflated;
+		private boolean completed;
+		private Throwable error;
+
+		private final AtomicLong demand = new AtomicLong();
+		private final AtomicInteger pending = new AtomicInteger();
+		private volatile boolean cancelled;
+
+		/**
+		 * @param subscriber
+		 * @param policy
+		 * @param capacity
+		 */
+		private EventSubscription(Flow.Subscriber<? super MachineEvent> subscriber, Policy policy, int capacity) {
+			this.subscriber = subscriber;
+			this.policy = policy;
+			this.capacity = capacity;
+			this.queue = (policy == Policy.DROP) ? new ArrayDeque<MachineEvent>() : null;
+			this.conflated = (policy == Policy.CONFLATE) ? new LinkedHashMap<String, MachineEvent>() : null;
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				synchronized (this) {
+					error = new IllegalArgumentException("Subscriber must request a positive no. of events!");
+				}
+			} else {
+				demand.getAndAccumulate(n, (current, more) -> (current + more < 0) ? Long.MAX_VALUE : current + more);
+			}
+			signal();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			subscriptions.remove(this);
+		}
+
+		/**
+		 * Buffers an event, applying the policy if the buffer is full.
+		 *
+		 * @param event
+		 */
+		private void offer(MachineEvent event) {
+			synchronized (this) {
+				if (policy == Policy.DROP) {
+					if (queue.size() >= capacity) {
+						return;
+					}
+					queue.add(event);
+				} else {
+					String key = event.getConflationKey();
+					if (conflated.containsKey(key)) {
+						// Keeps the position of the event it replaces.
+						conflated.put(key, event);
+					} else {
+						if (conflated.size() >= capacity) {
+							Iterator<MachineEvent> oldest = conflated.values().iterator();
+							oldest.next();
+							oldest.remove();
+						}
+						conflated.put(key, event);
+					}
+				}
+			}
+			if (demand.get() > 0) {
+				signal();
+			}
+		}
+
+		/**
+		 * Completes the subscription once the events buffered are delivered.
+		 */
+		private void complete() {
+			synchronized (this) {
+				completed = true;
+			}
+			signal();
+		}
+
+		/**
+		 * Takes the next buffered event, or null if there is none.
+		 *
+		 * @return
+		 */
+		private MachineEvent poll() {
+			if (policy == Policy.DROP) {
+				return queue.poll();
+			}
+			Iterator<MachineEvent> oldest = conflated.values().iterator();
+			if (!oldest.hasNext()) {
+				return null;
+			}
+			MachineEvent event = oldest.next();
+			oldest.remove();
+			return event;
+		}
+
+		/**
+		 * Schedules a drain unless one is running, in which case it drains again.
+		 */
+		private void signal() {
+			if (pending.getAndIncrement() == 0) {
+				try {
+					executor.execute(drainTask);
+				} catch (RuntimeException e) {
+					cancel();
+				}
+			}
+		}
+
+		/**
+		 * Delivers buffered events while the subscriber wants more. Runs on one
+		 * thread at a time, so the subscriber is called serially.
+		 */
+		private void drain() {
+			int missed = 1;
+			while (true) {
+				while (!cancelled) {
+					MachineEvent event;
+					Throwable failure;
+					boolean done = false;
+					synchronized (this) {
+						failure = error;
+						event = (failure != null || demand.get() == 0) ? null : poll();
+						if (failure == null && event == null) {
+							done = completed && (policy == Policy.DROP ? queue.isEmpty() : conflated.isEmpty());
+						}
+					}
+					if (failure != null) {
+						cancel();
+						subscriber.onError(failure);
+						return;
+					}
+					if (done) {
+						cancel();
+						subscriber.onComplete();
+						return;
+					}
+					if (event == null) {
+						break;
+					}
+					if (demand.get() != Long.MAX_VALUE) {
+						demand.decrementAndGet();
+					}
+					try {
+						subscriber.onNext(event);
+					} catch (Throwable t) {
+						cancel();
+						subscriber.onError(t);
+						return;
+					}
+				}
+				missed = pending.addAndGet(-missed);
+				if (missed == 0) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Delivers events on threads of it's own, so that a subscriber blocking in
+	 * onNext only holds up itself.
+	 *
+	 * @param ringCapacity
+	 * @throws IllegalArgumentException
+	 */
+	public MachineEventPublisher(int ringCapacity) throws IllegalArgumentException {
+		this(ringCapacity, Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "machine-event-delivery");
+			thread.setDaemon(true);
+			return thread;
+		}));
+	}
+
+	/**
+	 * @param ringCapacity
+	 * @param executor
+	 * @throws IllegalArgumentException
+	 */
+	public MachineEventPublisher(int ringCapacity, Executor executor) throws IllegalArgumentException {
+		if (ringCapacity <= 0 || Integer.bitCount(ringCapacity) != 1) {
+			throw new IllegalArgumentException("Event ring capacity must be a power of 2!");
+		}
+		if (executor == null) {
+			throw new IllegalArgumentException("Executor for delivering events is not defined!");
+		}
+		this.ring = new AtomicReferenceArray<MachineEvent>(ringCapacity);
+		this.mask = ringCapacity - 1;
+		this.cursor = new AtomicLong();
+		this.executor = executor;
+		this.subscriptions = new CopyOnWriteArrayList<EventSubscription>();
+		this.lost = new AtomicLong();
+	}
+
+	/**
+	 * Subscribes with the default buffer, dropping new events while it's full.
+	 */
+	@Override
+	public void subscribe(Flow.Subscriber<? super MachineEvent> subscriber) {
+		subscribe(subscriber, Policy.DROP, DEFAULT_BUFFER_CAPACITY);
+	}
+
+	/**
+	 * Subscribes with a buffer of the given capacity and the policy applied while
+	 * it's full. The subscriber sees events published from about the time it
+	 * subscribed, never earlier ones.
+	 *
+	 * @param subscriber
+	 * @param policy
+	 * @param bufferCapacity
+	 * @throws IllegalArgumentException
+	 */
+	public void subscribe(Flow.Subscriber<? super MachineEvent> subscriber, Policy policy, int bufferCapacity)
+			throws IllegalArgumentException {
+		if (subscriber == null) {
+			throw new NullPointerException("Subscriber is not defined!");
+		}
+		if (policy == null) {
+			throw new IllegalArgumentException("Policy for a full subscriber buffer is not defined!");
+		}
+		if (bufferCapacity <= 0) {
+			throw new IllegalArgumentException("Subscriber buffer capacity must be positive!");
+		}
+		EventSubscription subscription = new EventSubscription(subscriber, policy, bufferCapacity);
+		subscriber.onSubscribe(subscription);
+		synchronized (this) {
+			if (!closed) {
+				startDispatcher();
+				subscriptions.add(subscription);
+				return;
+			}
+		}
+		subscription.complete();
+	}
+
+	/**
+	 * Returns true if anyone is subscribed. Producers check this before building
+	 * an event.
+	 *
+	 * @return
+	 */
+	public boolean hasSubscribers() {
+		return !subscriptions.isEmpty();
+	}
+
+	/**
+	 * Returns the no. of subscribers.
+	 *
+	 * @return
+	 */
+	public int getSubscriberCount() {
+		return subscriptions.size();
+	}
+
+	/**
+	 * Returns the no. of events lost because the dispatcher fell a whole ring
+	 * behind.
+	 *
+	 * @return
+	 */
+	public long getLostCount() {
+		return lost.get();
+	}
+
+	/**
+	 * Publishes an event without waiting, unless nobody is subscribed or the
+	 * publisher is closed.
+	 *
+	 * @param event
+	 */
+	public void publish(MachineEvent event) {
+		if (closed || subscriptions.isEmpty()) {
+			return;
+		}
+		long sequence = cursor.getAndIncrement();
+		event.setSequence(sequence);
+		ring.set((int) (sequence & mask), event);
+		if (dispatcherIdle) {
+			LockSupport.unpark(dispatcher);
+		}
+	}
+
+	/**
+	 * Delivers the events published so far and completes every subscription.
+	 * Events published afterwards are ignored.
+	 */
+	@Override
+	public void close() {
+		Thread running;
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			running = dispatcher;
+		}
+		if (running == null) {
+			return;
+		}
+		LockSupport.unpark(running);
+		try {
+			running.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Starts the dispatcher for the first subscriber. Must be called holding the
+	 * publisher's lock.
+	 */
+	private void startDispatcher() {
+		if (dispatcher == null) {
+			dispatcher = new Thread(this::dispatch, "machine-event-dispatcher");
+			dispatcher.setDaemon(true);
+			dispatcher.start();
+		}
+	}
+
+	/**
+	 * Follows the ring and hands each event to every subscription, till the
+	 * publisher is closed and the ring is drained.
+	 */
+	private void dispatch() {
+		long next = cursor.get();
+		int capacity = mask + 1;
+		while (true) {
+			MachineEvent event = ring.get((int) (next & mask));
+			if (event != null && event.getSequence() == next) {
+				for (EventSubscription subscription : subscriptions) {
+					subscription.offer(event);
+				}
+				next++;
+				continue;
+			}
+			if (event != null && event.getSequence() > next) {
+				// Lapped by the producers, skip to the oldest event still in the ring.
+				long oldest = cursor.get() - capacity;
+				lost.addAndGet(oldest - next);
+				next = oldest;
+				continue;
+			}
+			if (next < cursor.get()) {
+				// A producer claimed the slot but hasn't stored it's event yet.
+				Thread.onSpinWait();
+				continue;
+			}
+			if (closed) {
+				break;
+			}
+			dispatcherIdle = true;
+			if (next == cursor.get() && !closed) {
+				LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+			}
+			dispatcherIdle = false;
+		}
+		for (EventSubscription subscription : subscriptions) {
+			subscription.complete();
+		}
+	}
+}
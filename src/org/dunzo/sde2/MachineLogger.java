@@ -0,0 +1,466 @@
+package org.dunzo.sde2;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * MachineLogger --- Asynchronous logger for the messages of the Coffee Machine,
+ * so that serving orders never waits on the console.
+ *
+ * A message is logged by claiming the next slot of a preallocated ring buffer
+ * and storing it's level, format and arguments in it. A background thread
+ * formats the messages in order and writes them out in batches. Formats use
+ * "{}" for each argument, and arguments are only turned into strings by the
+ * background thread, so they should not change after they are logged. Logging
+ * at a disabled level returns after a single comparison. If the writer falls a
+ * whole ring behind, new messages are dropped and their count is logged once
+ * it catches up.
+ *
+ * The machine's logger writes to the console and lives as long as the JVM.
+ * Loggers of their own can be created for other streams, and closed when done.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public final class MachineLogger implements AutoCloseable {
+	// No. of messages the ring holds.
+	private final static int RING_CAPACITY = 1 << 12;
+
+	// Max time in nanos the writer sleeps when the ring is empty. Loggers wake it
+	// up as soon as they log.
+	private final static long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	// Max time in millis to wait for the writer when flushing.
+	private final static long FLUSH_TIMEOUT = 1000;
+
+	private final static MachineLogger INSTANCE = new MachineLogger(RING_CAPACITY, System.out);
+
+	/**
+	 * Level --- Severity of a message, in increasing order.
+	 */
+	public enum Level {
+		// Details of what the machine is doing.
+		DEBUG,
+
+		// Orders being prepared and changes to the stock.
+		INFO,
+
+		// Orders that could not be served and refills that are due.
+		WARN,
+
+		// Failures of the machine itself.
+		ERROR,
+
+		// Nothing is logged.
+		OFF;
+
+		/**
+		 * Returns the level for a name used in the JSON metadata, e.g. "info".
+		 *
+		 * @param name
+		 * @return
+		 * @throws IllegalArgumentException
+		 */
+		public static Level fromName(String name) throws IllegalArgumentException {
+			if (name == null) {
+				throw new IllegalArgumentException("Log level is not defined!");
+			}
+			return Level.valueOf(name.trim().toUpperCase());
+		}
+	}
+
+	/**
+	 * Entry --- Slot of the ring holding one message.
+	 */
+	private static class Entry {
+		// Sequence of the message stored, set last to publish it.
+		private volatile long sequence = -1;
+		private String format;
+		private Object arg1;
+		private Object arg2;
+		private Object arg3;
+		private int nArgs;
+	}
+
+	private final Entry[] ring;
+	private final int mask;
+	private final PrintStream out;
+	private final Thread writer;
+
+	// Next sequence to claim, and the ones read and written out by the writer.
+	private final AtomicLong claimed;
+	private volatile long consumed;
+	private volatile long written;
+
+	private final AtomicLong dropped;
+	private volatile int threshold;
+	private volatile boolean writerIdle;
+	private volatile boolean closed;
+
+	/**
+	 * @param capacity
+	 * @param out
+	 * @throws IllegalArgumentException
+	 */
+	public MachineLogger(int capacity, PrintStream out) throws IllegalArgumentException {
+		if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("Log ring capacity must be a power of 2!");
+		}
+		if (out == null) {
+			throw new IllegalArgumentException("Stream to write the log to is not defined!");
+		}
+		this.ring = new Entry[capacity];
+		for (int i = 0; i < capacity; i++) {
+			ring[i] = new Entry();
+		}
+		this.mask = capacity - 1;
+		this.out = out;
+		this.claimed = new AtomicLong();
+		this.dropped = new AtomicLong();
+		this.threshold = Level.INFO.ordinal();
+		this.writer = new Thread(this::write, "machine-logger");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Returns the logger of the machine.
+	 *
+	 * @return
+	 */
+	public static MachineLogger get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Returns the lowest level logged.
+	 *
+	 * @return
+	 */
+	public Level getLevel() {
+		return Level.values()[threshold];
+	}
+
+	/**
+	 * Sets the lowest level logged.
+	 *
+	 * @param level
+	 * @throws IllegalArgumentException
+	 */
+	public void setLevel(Level level) throws IllegalArgumentException {
+		if (level == null) {
+			throw new IllegalArgumentException("Log level is not defined!");
+		}
+		this.threshold = closed ? Level.OFF.ordinal() : level.ordinal();
+	}
+
+	/**
+	 * Returns true if messages of the level are logged. Useful to skip building
+	 * arguments that are costly.
+	 *
+	 * @param level
+	 * @return
+	 */
+	public boolean isEnabled(Level level) {
+		return level.ordinal() >= threshold;
+	}
+
+	/**
+	 * Returns the no. of messages dropped because the writer fell behind.
+	 *
+	 * @return
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * Logs a message at debug level.
+	 *
+	 * @param format
+	 */
+	public void debug(String format) {
+		log(Level.DEBUG, format, null, null, null, 0);
+	}
+
+	/**
+	 * Logs a message at debug level with an argument.
+	 *
+	 * @param format
+	 * @param arg1
+	 */
+	public void debug(String format, Object arg1) {
+		log(Level.DEBUG, format, arg1, null, null, 1);
+	}
+
+	/**
+	 * Logs a message at debug level with 2 arguments.
+	 *
+	 * @param format
+	 * @param arg1
+	 * @param arg2
+	 */
+	public void debug(String format, Object arg1, Object arg2) {
+		log(Level.DEBUG, format, arg1, arg2, null, 2);
+	}
+
+	/**
+	 * Logs a message at debug level with 3 arguments.
+	 *
+	 * @param format
+	 * @param arg1
+	 * @param arg2
+	 * @param arg3
+	 */
+	public void debug(String format, Object arg1, Object arg2, Object arg3) {
+		log(Level.DEBUG, format, arg1, arg2, arg3, 3);
+	}
+
+	/**
+	 * Logs a message at info level.
+	 *
+	 * @param format
+	 */
+	public void info(String format) {
+		log(Level.INFO, format, null, null, null, 0);
+	}
+
+	/**
+	 * Logs a message at info level with an argument.
+	 *
+	 * @param format
+	 * @param arg1
+	 */
+	public void info(String format, Object arg1) {
+		log(Level.INFO, format, arg1, null, null, 1);
+	}
+
+	/**
+	 * Logs a message at info level with 2 arguments.
+	 *
+	 * @param format
+	 * @param arg1
+	 * @param arg2
+	 */
+	public void info(String format, Object arg1, Object arg2) {
+		log(Level.INFO, format, arg1, arg2, null, 2);
+	}
+
+	/**
+	 * Logs a message at info level with 3 arguments.
+	 *
+	 * @param format
+	 * @param arg1
+	 * @param arg2
+	 * @param arg3
+	 */
+	public void info(String format, Object arg1, Object arg2, Object arg3) {
+		log(Level.INFO, format, arg1, arg2, arg3, 3);
+	}
+
+	/**
+	 * Logs a message at warn level.
+	 *
+	 * @param format
+	 */
+	public void warn(String format) {
+		log(Level.WARN, format, null, null, null, 0);
+	}
+
+	/**
+	 * Logs a message at warn level with an argument.
+	 *
+	 * @param format
+	 * @param arg1
+	 */
+	public void warn(String format, Object arg1) {
+		log(Level.WARN, format, arg1, null, null, 1);
+	}
+
+	/**
+	 * Logs a message at warn level with 2 arguments.
+	 *
+	 * @param format
+	 * @param arg1
+	 * @param arg2
+	 */
+	public void warn(String format, Object arg1, Object arg2) {
+		log(Level.WARN, format, arg1, arg2, null, 2);
+	}
+
+	/**
+	 * Logs a message at warn level with 3 arguments.
+	 *
+	 * @param format
+	 * @param arg1
+	 * @param arg2
+	 * @param arg3
+	 */
+	public void warn(String format, Object arg1, Object arg2, Object arg3) {
+		log(Level.WARN, format, arg1, arg2, arg3, 3);
+	}
+
+	/**
+	 * Logs a message at error level.
+	 *
+	 * @param format
+	 */
+	public void error(String format) {
+		log(Level.ERROR, format, null, null, null, 0);
+	}
+
+	/**
+	 * Logs a message at error level with an argument.
+	 *
+	 * @param format
+	 * @param arg1
+	 */
+	public void error(String format, Object arg1) {
+		log(Level.ERROR, format, arg1, null, null, 1);
+	}
+
+	/**
+	 * Waits till every message logged so far is written out, so that output
+	 * written directly afterwards comes after them.
+	 */
+	public void flush() {
+		long target = claimed.get();
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FLUSH_TIMEOUT);
+		while (written < target && System.nanoTime() < deadline) {
+			LockSupport.unpark(writer);
+			LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+		}
+	}
+
+	/**
+	 * Writes out the messages logged so far and stops the writer. Messages logged
+	 * afterwards are ignored. The machine's logger cannot be closed.
+	 */
+	@Override
+	public void close() {
+		if (this == INSTANCE) {
+			throw new RuntimeException("The machine's logger cannot be closed!");
+		}
+		threshold = Level.OFF.ordinal();
+		flush();
+		closed = true;
+		LockSupport.unpark(writer);
+		try {
+			writer.join(FLUSH_TIMEOUT);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Stores a message in the next slot of the ring, unless the level is disabled
+	 * or the ring is full.
+	 *
+	 * @param level
+	 * @param format
+	 * @param arg1
+	 * @param arg2
+	 * @param arg3
+	 * @param nArgs
+	 */
+	private void log(Level level, String format, Object arg1, Object arg2, Object arg3, int nArgs) {
+		if (level.ordinal() < threshold) {
+			return;
+		}
+		long sequence;
+		do {
+			sequence = claimed.get();
+			if (sequence - consumed >= ring.length) {
+				dropped.incrementAndGet();
+				return;
+			}
+		} while (!claimed.compareAndSet(sequence, sequence + 1));
+
+		Entry entry = ring[(int) (sequence & mask)];
+		entry.format = format;
+		entry.arg1 = arg1;
+		entry.arg2 = arg2;
+		entry.arg3 = arg3;
+		entry.nArgs = nArgs;
+		entry.sequence = sequence;
+		if (writerIdle) {
+			LockSupport.unpark(writer);
+		}
+	}
+
+	/**
+	 * Formats the messages in the ring in order and writes them out, a batch at
+	 * a time.
+	 */
+	private void write() {
+		StringBuilder batch = new StringBuilder();
+		long next = 0;
+		long reportedDropped = 0;
+		while (true) {
+			Entry entry = ring[(int) (next & mask)];
+			if (entry.sequence == next) {
+				format(batch, entry);
+				entry.format = null;
+				entry.arg1 = null;
+				entry.arg2 = null;
+				entry.arg3 = null;
+				consumed = ++next;
+				if (batch.length() < (1 << 16)) {
+					continue;
+				}
+			}
+			if (next < claimed.get() && batch.length() < (1 << 16)) {
+				// A logger claimed the slot but hasn't stored it's message yet.
+				Thread.onSpinWait();
+				continue;
+			}
+
+			long nDropped = dropped.get();
+			if (nDropped > reportedDropped) {
+				batch.append("Dropped ").append(nDropped - reportedDropped).append(" log messages!\n");
+				reportedDropped = nDropped;
+			}
+			if (batch.length() > 0) {
+				out.print(batch);
+				out.flush();
+				batch.setLength(0);
+			}
+			written = next;
+			if (next < claimed.get()) {
+				continue;
+			}
+			if (closed) {
+				return;
+			}
+
+			writerIdle = true;
+			if (next == claimed.get()) {
+				LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+			}
+			writerIdle = false;
+		}
+	}
+
+	/**
+	 * Appends a message to the batch, with each "{}" in it's format replaced by
+	 * the next argument.
+	 *
+	 * @param batch
+	 * @param entry
+	 */
+	private static void format(StringBuilder batch, Entry entry) {
+		String format = entry.format;
+		int from = 0;
+		for (int i = 0; i < entry.nArgs; i++) {
+			int at = format.indexOf("{}", from);
+			if (at < 0) {
+				break;
+			}
+			batch.append(format, from, at).append((i == 0) ? entry.arg1 : (i == 1) ? entry.arg2 : entry.arg3);
+			from = at + 2;
+		}
+		batch.append(format, from, format.length()).append('\n');
+	}
+}
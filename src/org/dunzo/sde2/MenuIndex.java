@@ -0,0 +1,127 @@
+package org.dunzo.sde2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * MenuIndex --- Precompiled view of the menu of a Coffee Machine. Resolves the
+ * ingredients of every recipe against the stock, marks beverages that can never
+ * be prepared because an ingredient is missing from the machine, and indexes
+ * which beverages depend on each ingredient.
+ *
+ * Orders for a beverage marked unservable are rejected without taking the stock
+ * lock. When an ingredient is registered or removed only the beverages that
+ * depend on it are resolved again. Recipes changed after their beverage was
+ * added are not indexed again till the beverage is added again.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class MenuIndex {
+	private final Map<String, Beverage> beverages;
+	private final Map<String, Ingredient> ingredients;
+
+	// Names of the beverages using each ingredient, including ingredients missing
+	// from the stock.
+	private final ConcurrentHashMap<String, Set<String>> dependents;
+
+	/**
+	 * @param beverages
+	 * @param ingredients
+	 */
+	public MenuIndex(Map<String, Beverage> beverages, Map<String, Ingredient> ingredients) {
+		this.beverages = beverages;
+		this.ingredients = ingredients;
+		this.dependents = new ConcurrentHashMap<String, Set<String>>();
+	}
+
+	/**
+	 * Indexes the ingredients of a beverage and marks whether it can be prepared.
+	 *
+	 * @param beverage
+	 */
+	public void compile(Beverage beverage) {
+		for (String ingredientName : beverage.getRecipe().getIngredients().keySet()) {
+			dependents.computeIfAbsent(ingredientName, name -> ConcurrentHashMap.newKeySet()).add(beverage.getName());
+		}
+		resolve(beverage);
+	}
+
+	/**
+	 * Drops a beverage removed from the machine from the index.
+	 *
+	 * @param beverage
+	 */
+	public void remove(Beverage beverage) {
+		for (String ingredientName : beverage.getRecipe().getIngredients().keySet()) {
+			Set<String> names = dependents.get(ingredientName);
+			if (names != null) {
+				names.remove(beverage.getName());
+			}
+		}
+	}
+
+	/**
+	 * Resolves again the beverages depending on an ingredient that was registered
+	 * or removed.
+	 *
+	 * @param ingredientName
+	 */
+	public void ingredientChanged(String ingredientName) {
+		for (String beverageName : getDependents(ingredientName)) {
+			Beverage beverage = beverages.get(beverageName);
+			if (beverage != null) {
+				resolve(beverage);
+			}
+		}
+	}
+
+	/**
+	 * Returns names of the beverages using the ingredient.
+	 *
+	 * @param ingredientName
+	 * @return
+	 */
+	public Set<String> getDependents(String ingredientName) {
+		Set<String> names = dependents.get(ingredientName);
+		return (names == null) ? Collections.<String>emptySet() : Collections.unmodifiableSet(names);
+	}
+
+	/**
+	 * Returns the beverages that can never be prepared with the reason for each.
+	 *
+	 * @return
+	 */
+	public Map<String, String> getUnservable() {
+		Map<String, String> unservable = new LinkedHashMap<String, String>();
+		for (Beverage beverage : beverages.values()) {
+			if (!beverage.isServable()) {
+				unservable.put(beverage.getName(), beverage.getUnservableReason());
+			}
+		}
+		return unservable;
+	}
+
+	/**
+	 * Marks a beverage unservable if any ingredient of it's recipe is missing from
+	 * the machine.
+	 *
+	 * @param beverage
+	 */
+	private void resolve(Beverage beverage) {
+		List<String> missingIngredients = new ArrayList<String>();
+		for (String ingredientName : beverage.getRecipe().getIngredients().keySet()) {
+			if (!ingredients.containsKey(ingredientName)) {
+				missingIngredients.add(ingredientName);
+			}
+		}
+		beverage.setUnservableReason(missingIngredients.isEmpty() ? null
+				: beverage.getName() + " can never be prepared because ingredient(s) ("
+						+ String.join(", ", missingIngredients) + ") is(are) missing from the machine!");
+	}
+}
@@ -0,0 +1,143 @@
+package org.dunzo.sde2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MultiOrder --- Class representing an order for several cups of the same
+ * beverage. The machine splits the cups across it's outlets, and the order is
+ * complete when every cup is done.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class MultiOrder {
+	private Beverage beverage;
+	private List<Order> orders;
+	private long estimatedMakespan;
+
+	/**
+	 * @param beverage
+	 * @param orders
+	 * @param estimatedMakespan
+	 */
+	public MultiOrder(Beverage beverage, List<Order> orders, long estimatedMakespan) {
+		this.beverage = beverage;
+		this.orders = new ArrayList<Order>(orders);
+		this.estimatedMakespan = estimatedMakespan;
+	}
+
+	/**
+	 * Returns the beverage ordered.
+	 *
+	 * @return
+	 */
+	public Beverage getBeverage() {
+		return beverage;
+	}
+
+	/**
+	 * Returns no. of cups ordered.
+	 *
+	 * @return
+	 */
+	public int getQuantity() {
+		return orders.size();
+	}
+
+	/**
+	 * Returns the order placed for each cup.
+	 *
+	 * @return
+	 */
+	public List<Order> getOrders() {
+		return Collections.unmodifiableList(orders);
+	}
+
+	/**
+	 * Returns the estimate in millis, at the time of the split, of how long it
+	 * takes to finish every cup.
+	 *
+	 * @return
+	 */
+	public long getEstimatedMakespan() {
+		return estimatedMakespan;
+	}
+
+	/**
+	 * Returns no. of cups in the given status.
+	 *
+	 * @param status
+	 * @return
+	 */
+	public int getCount(OrderStatus status) {
+		int count = 0;
+		for (Order order : orders) {
+			if (order.getStatus() == status) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns true if every cup reached a final status.
+	 *
+	 * @return
+	 */
+	public boolean isDone() {
+		for (Order order : orders) {
+			if (!order.getStatus().isFinal()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Waits till every cup reaches a final status or the timeout passes. Returns
+	 * true if every cup is done.
+	 *
+	 * @param timeout
+	 * @param unit
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		for (Order order : orders) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0 || !order.awaitCompletion(remaining, TimeUnit.NANOSECONDS).isFinal()) {
+				return isDone();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Cancels every cup that isn't being brewed yet. Returns no. of cups
+	 * cancelled.
+	 *
+	 * @return
+	 */
+	public int cancel() {
+		int cancelled = 0;
+		for (Order order : orders) {
+			if (order.cancel()) {
+				cancelled++;
+			}
+		}
+		return cancelled;
+	}
+
+	/**
+	 * Return a string representation for MultiOrder object.
+	 */
+	@Override
+	public String toString() {
+		return "MULTI_ORDER(" + beverage.getName() + " x " + orders.size() + ", served = "
+				+ getCount(OrderStatus.SERVED) + ")";
+	}
+}
@@ -0,0 +1,490 @@
+package org.dunzo.sde2;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Order --- Class representing a beverage order placed at an outlet of the
+ * Coffee Machine. Tracks the status of the order from intake till it's served,
+ * rejected or dropped, and serves as a handle to cancel or wait for the order.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class Order {
+	private long id;
+	private Outlet outlet;
+	private Beverage beverage;
+	private OrderPriority priority;
+	private long deadline;
+	private long readyAt;
+	private long timeout;
+	private long createdAt;
+	private String clientOrderId;
+	private volatile OrderStatus status;
+	private volatile String message;
+
+	// Counted down once the order reaches a final status.
+	private final CountDownLatch completion;
+
+	// Time spent in each phase from intake till the order reaches a final status.
+	private final OrderTrace trace;
+
+	// Machine the order was placed at, used to cancel it.
+	private volatile ICoffeeMachine machine;
+
+	// Timer entry of a scheduled order while it waits to be released.
+	volatile TimingWheel.Entry<Order> timer;
+
+	// Sequence no. of the order in the order log being recorded, or -1 if it
+	// isn't recorded.
+	volatile long logSequence = -1;
+
+	// Set while ingredients are reserved for the order and not used up by a brew
+	// yet, so they are returned to stock exactly once if it's never brewed.
+	private final AtomicBoolean reserved = new AtomicBoolean();
+
+	// No. of times the order was passed over for a less urgent one, updated
+	// holding the order queue lock.
+	private int bypassCount;
+
+	// Deadline used for orders that can be served anytime.
+	public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+	// Timeout used for orders that wait for their outlet as long as the outlet
+	// allows.
+	public static final long NO_TIMEOUT = 0;
+
+	// Generate order id using an increasing counter shared by all machines.
+	private static final AtomicLong idCounter = new AtomicLong();
+
+	/**
+	 * @param outlet
+	 * @param beverage
+	 */
+	public Order(Outlet outlet, Beverage beverage) {
+		this(outlet, beverage, OrderPriority.NORMAL, NO_DEADLINE);
+	}
+
+	/**
+	 * @param outlet
+	 * @param beverage
+	 * @param priority
+	 * @param deadline
+	 */
+	public Order(Outlet outlet, Beverage beverage, OrderPriority priority, long deadline) {
+		this.id = idCounter.incrementAndGet();
+		this.outlet = outlet;
+		this.beverage = beverage;
+		this.priority = priority;
+		this.deadline = deadline;
+		this.createdAt = System.currentTimeMillis();
+		this.readyAt = createdAt;
+		this.timeout = NO_TIMEOUT;
+		this.status = OrderStatus.QUEUED;
+		this.completion = new CountDownLatch(1);
+		this.trace = new OrderTrace(this);
+	}
+
+	/**
+	 * Creates an order to be released into the order queue ahead of the given
+	 * time in millis, so that it's ready by then.
+	 *
+	 * @param outlet
+	 * @param beverage
+	 * @param readyAt
+	 * @return
+	 */
+	public static Order scheduled(Outlet outlet, Beverage beverage, long readyAt) {
+		Order order = new Order(outlet, beverage, OrderPriority.HIGH, NO_DEADLINE);
+		order.readyAt = readyAt;
+		order.status = OrderStatus.SCHEDULED;
+		return order;
+	}
+
+	/**
+	 * Returns order id.
+	 *
+	 * @return
+	 */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the trace of the order through the phases of the machine.
+	 *
+	 * @return
+	 */
+	public OrderTrace getTrace() {
+		return trace;
+	}
+
+	/**
+	 * Returns the outlet the order was placed at.
+	 *
+	 * @return
+	 */
+	public Outlet getOutlet() {
+		return outlet;
+	}
+
+	/**
+	 * Returns the beverage ordered.
+	 *
+	 * @return
+	 */
+	public Beverage getBeverage() {
+		return beverage;
+	}
+
+	/**
+	 * Returns time in millis the order's outlet takes to prepare it's beverage.
+	 *
+	 * @return
+	 */
+	public int getPrepareTime() {
+		return outlet.getPrepareTime(beverage);
+	}
+
+	/**
+	 * Returns time in millis the order keeps it's outlet from taking another
+	 * beverage, which is less than the preparation time for pipelined outlets.
+	 *
+	 * @return
+	 */
+	public long getCycleTime() {
+		return outlet.getCycleTime(beverage);
+	}
+
+	/**
+	 * Returns priority class of the order.
+	 *
+	 * @return
+	 */
+	public OrderPriority getPriority() {
+		return priority;
+	}
+
+	/**
+	 * Returns the time in millis by which the order must be picked up, or
+	 * NO_DEADLINE.
+	 *
+	 * @return
+	 */
+	public long getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * Returns the time in millis by which a scheduled order should be ready. For
+	 * other orders it's the time they were placed.
+	 *
+	 * @return
+	 */
+	public long getReadyAt() {
+		return readyAt;
+	}
+
+	/**
+	 * Returns max time in millis the order may wait from intake till it's outlet
+	 * starts brewing it, or NO_TIMEOUT.
+	 *
+	 * @return
+	 */
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Sets max time in millis the order may wait from intake till it's outlet
+	 * starts brewing it.
+	 *
+	 * @param timeout
+	 * @throws IllegalArgumentException
+	 */
+	void setTimeout(long timeout) throws IllegalArgumentException {
+		if (timeout < 0) {
+			throw new IllegalArgumentException("Order timeout cannot be negative!");
+		}
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Returns true if the order has waited longer than it's timeout at the given
+	 * time.
+	 *
+	 * @param now
+	 * @return
+	 */
+	public boolean isTimedOut(long now) {
+		return timeout != NO_TIMEOUT && now - createdAt >= timeout;
+	}
+
+	/**
+	 * Returns millis left before the order times out at the given time, or
+	 * Long.MAX_VALUE if it has no timeout.
+	 *
+	 * @param now
+	 * @return
+	 */
+	public long getRemainingTime(long now) {
+		if (timeout == NO_TIMEOUT) {
+			return Long.MAX_VALUE;
+		}
+		return Math.max(0, createdAt + timeout - now);
+	}
+
+	/**
+	 * Returns the order id given by the client to dedup retries, or null.
+	 *
+	 * @return
+	 */
+	public String getClientOrderId() {
+		return clientOrderId;
+	}
+
+	/**
+	 * Sets the order id given by the client to dedup retries.
+	 *
+	 * @param clientOrderId
+	 */
+	void setClientOrderId(String clientOrderId) {
+		this.clientOrderId = clientOrderId;
+	}
+
+	/**
+	 * Returns true if the order's deadline has passed at the given time.
+	 *
+	 * @param now
+	 * @return
+	 */
+	public boolean isExpired(long now) {
+		return now > deadline;
+	}
+
+	/**
+	 * Returns the time in millis at which the order was placed.
+	 *
+	 * @return
+	 */
+	public long getCreatedAt() {
+		return createdAt;
+	}
+
+	/**
+	 * Returns current status of the order.
+	 *
+	 * @return
+	 */
+	public OrderStatus getStatus() {
+		return status;
+	}
+
+	/**
+	 * Returns the reason for the current status, if any.
+	 *
+	 * @return
+	 */
+	public String getMessage() {
+		return message;
+	}
+
+	/**
+	 * Returns no. of times the order was passed over in the queue for a less
+	 * urgent one.
+	 *
+	 * @return
+	 */
+	public int getBypassCount() {
+		return bypassCount;
+	}
+
+	/**
+	 * Counts one more time the order was passed over in the queue.
+	 */
+	void incrementBypassCount() {
+		bypassCount++;
+	}
+
+	/**
+	 * Sets the machine the order was placed at.
+	 *
+	 * @param machine
+	 */
+	void setMachine(ICoffeeMachine machine) {
+		this.machine = machine;
+	}
+
+	/**
+	 * Cancels the order if it's outlet hasn't started brewing it yet. Ingredients
+	 * already reserved for the order are returned to stock. Returns true if the
+	 * order was cancelled.
+	 *
+	 * @return
+	 */
+	public boolean cancel() {
+		ICoffeeMachine owner = machine;
+		if (owner == null) {
+			return false;
+		}
+		return owner.cancelOrder(this);
+	}
+
+	/**
+	 * Waits till the order reaches a final status or the timeout passes, and
+	 * returns the status at that point.
+	 *
+	 * @param timeout
+	 * @param unit
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public OrderStatus awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+		completion.await(timeout, unit);
+		return status;
+	}
+
+	/**
+	 * Marks ingredients as reserved for the order.
+	 */
+	void reserve() {
+		reserved.set(true);
+	}
+
+	/**
+	 * Checks if ingredients are reserved for the order.
+	 *
+	 * @return
+	 */
+	boolean isReserved() {
+		return reserved.get();
+	}
+
+	/**
+	 * Gives up the reservation of the order. Returns true only for the one caller
+	 * that has to return the ingredients to stock.
+	 *
+	 * @return
+	 */
+	boolean releaseReservation() {
+		return reserved.compareAndSet(true, false);
+	}
+
+	/**
+	 * Moves the order to a new status. Orders in a final status are never updated
+	 * again. The status is announced after the order's monitor is released, and
+	 * ingredients still reserved for the order are returned to stock. Then
+	 * threads waiting for the order are woken up, the trace being finished by
+	 * then, and only then is the order finished with it's machine, so waiters
+	 * never wait for the tracer, the order log or the history.
+	 *
+	 * @param newStatus
+	 * @param newMessage
+	 * @return
+	 */
+	boolean update(OrderStatus newStatus, String newMessage) {
+		return update(null, newStatus, newMessage);
+	}
+
+	/**
+	 * Changes the status of the order holding it's monitor, if it isn't final yet
+	 * and is in the expected status, or any status if none is expected. The trace
+	 * is finished before a final status is set, so whoever reads a final status
+	 * also sees when the order finished.
+	 *
+	 * @param expected
+	 * @param newStatus
+	 * @param newMessage
+	 * @return
+	 */
+	private synchronized boolean transition(OrderStatus expected, OrderStatus newStatus, String newMessage) {
+		if (status.isFinal() || (expected != null && status != expected)) {
+			return false;
+		}
+		if (newStatus.isFinal()) {
+			trace.finish(newStatus);
+		}
+		// Ingredients of an order are used up once it's brewing.
+		if (newStatus == OrderStatus.BREWING) {
+			reserved.set(false);
+		}
+		this.message = newMessage;
+		this.status = newStatus;
+		return true;
+	}
+
+	/**
+	 * Publishes the current status of the order to the event stream of it's
+	 * machine.
+	 */
+	void publish() {
+		ICoffeeMachine owner = machine;
+		if (owner != null) {
+			owner.publishOrder(this);
+		}
+	}
+
+	/**
+	 * Moves the order to a new status only if it's currently in the expected
+	 * status, or any status if none is expected.
+	 *
+	 * @param expected
+	 * @param newStatus
+	 * @param newMessage
+	 * @return
+	 */
+	boolean update(OrderStatus expected, OrderStatus newStatus, String newMessage) {
+		if (!transition(expected, newStatus, newMessage)) {
+			return false;
+		}
+		// Orders are announced as queued once the order queue admits them.
+		if (newStatus != OrderStatus.QUEUED) {
+			publish();
+		}
+		if (newStatus.isFinal()) {
+			ICoffeeMachine owner = machine;
+			if (owner != null) {
+				owner.returnIngredients(this);
+			}
+			completion.countDown();
+			if (owner != null) {
+				owner.finishOrder(this);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Confirm equality between Order objects.
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null || this.getClass() != obj.getClass()) {
+			return false;
+		}
+		Order ord = (Order) obj;
+		return (id == ord.id);
+	}
+
+	/**
+	 * Compute hashCode for Order object based on it's id.
+	 */
+	@Override
+	public int hashCode() {
+		return Long.valueOf(id).hashCode();
+	}
+
+	/**
+	 * Return a string representation for Order object.
+	 */
+	@Override
+	public String toString() {
+		return "ORDER(" + id + ", " + beverage.getName() + ", " + outlet + ", " + status + ")";
+	}
+}
@@ -0,0 +1,209 @@
+package org.dunzo.sde2;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * OrderDedupCache --- Bounded cache of recently placed orders keyed by the
+ * order id given by the client, so that a retried order returns the existing
+ * order instead of being brewed again. Entries expire after a fixed time.
+ *
+ * The cache is set associative with a fixed no. of entries allocated upfront.
+ * Each entry keeps a 64 bit hash of it's client order id next to the id, so
+ * most lookups skip the ids that don't match without comparing them. Ids are
+ * still compared on a hash match, so two ids with the same hash never share an
+ * order. When a set is full, it's entry closest to expiry is replaced. Entries
+ * replaced before they expire are counted, since a retry of such an order is
+ * brewed again, and a cache that evicts them is too small for the order rate.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class OrderDedupCache {
+	// No. of entries in each set, and no. of locks the sets are striped over.
+	private final static int WAYS = 4;
+	private final static int STRIPES = 64;
+
+	// Entries per order expected to be live at a time, so that sets rarely fill
+	// up with live entries.
+	private final static int HEADROOM = 4;
+
+	private final long ttl;
+	private final int setMask;
+
+	private final long[] keyHashes;
+	private final String[] keys;
+	private final long[] expiresAt;
+	private final Order[] orders;
+	private final Object[] locks;
+	private final LongAdder evictions;
+
+	/**
+	 * @param capacity
+	 * @param ttl
+	 * @throws IllegalArgumentException
+	 */
+	public OrderDedupCache(int capacity, long ttl) throws IllegalArgumentException {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Order dedup cache capacity must be positive!");
+		}
+		if (ttl <= 0) {
+			throw new IllegalArgumentException("Order dedup cache expiry time must be positive!");
+		}
+		// Round the no. of sets up to a power of 2 so a set is picked with a mask.
+		int nSets = Integer.highestOneBit(Math.max(1, (capacity + WAYS - 1) / WAYS));
+		if (nSets * WAYS < capacity) {
+			nSets <<= 1;
+		}
+		this.ttl = ttl;
+		this.setMask = nSets - 1;
+		this.keyHashes = new long[nSets * WAYS];
+		this.keys = new String[nSets * WAYS];
+		this.expiresAt = new long[nSets * WAYS];
+		this.orders = new Order[nSets * WAYS];
+		this.locks = new Object[STRIPES];
+		for (int i = 0; i < STRIPES; i++) {
+			locks[i] = new Object();
+		}
+		this.evictions = new LongAdder();
+	}
+
+	/**
+	 * Returns the capacity needed to remember every order placed at the given
+	 * rate per minute for the given time in millis, with room to spare.
+	 *
+	 * @param ordersPerMinute
+	 * @param ttl
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	public static int getCapacityFor(int ordersPerMinute, long ttl) throws IllegalArgumentException {
+		if (ordersPerMinute <= 0) {
+			throw new IllegalArgumentException("Order rate to size the order dedup cache for must be positive!");
+		}
+		if (ttl <= 0) {
+			throw new IllegalArgumentException("Order dedup cache expiry time must be positive!");
+		}
+		double live = Math.ceil((double) ordersPerMinute * ttl / (60 * 1000));
+		return (int) Math.min(Integer.MAX_VALUE / 2, Math.max(1, HEADROOM * live));
+	}
+
+	/**
+	 * Returns max no. of orders the cache holds.
+	 *
+	 * @return
+	 */
+	public int getCapacity() {
+		return orders.length;
+	}
+
+	/**
+	 * Returns time in millis after which a cached order expires.
+	 *
+	 * @return
+	 */
+	public long getTtl() {
+		return ttl;
+	}
+
+	/**
+	 * Returns no. of orders replaced in the cache before they expired.
+	 *
+	 * @return
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Caches the order for the client order id unless a live order is cached for
+	 * it already, in which case that order is returned. Orders that were rejected
+	 * at intake are replaced, since nothing was brewed for them. Returns null if
+	 * the given order was cached.
+	 *
+	 * @param clientOrderId
+	 * @param order
+	 * @param now
+	 * @return
+	 */
+	public Order putIfAbsent(String clientOrderId, Order order, long now) {
+		long hash = hash(clientOrderId);
+		int set = (int) (hash ^ (hash >>> 32)) & setMask;
+		int base = set * WAYS;
+		synchronized (locks[set & (STRIPES - 1)]) {
+			int victim = base;
+			for (int i = base; i < base + WAYS; i++) {
+				boolean live = orders[i] != null && expiresAt[i] > now;
+				if (live && isKey(i, hash, clientOrderId)) {
+					if (orders[i].getStatus() != OrderStatus.REJECTED) {
+						return orders[i];
+					}
+					victim = i;
+					break;
+				}
+				if (!live) {
+					victim = i;
+				} else if (orders[victim] != null && expiresAt[victim] > now && expiresAt[i] < expiresAt[victim]) {
+					victim = i;
+				}
+			}
+			if (orders[victim] != null && expiresAt[victim] > now && !isKey(victim, hash, clientOrderId)) {
+				evictions.increment();
+			}
+			keyHashes[victim] = hash;
+			keys[victim] = clientOrderId;
+			expiresAt[victim] = now + ttl;
+			orders[victim] = order;
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the live order cached for the client order id, or null.
+	 *
+	 * @param clientOrderId
+	 * @param now
+	 * @return
+	 */
+	public Order get(String clientOrderId, long now) {
+		long hash = hash(clientOrderId);
+		int set = (int) (hash ^ (hash >>> 32)) & setMask;
+		int base = set * WAYS;
+		synchronized (locks[set & (STRIPES - 1)]) {
+			for (int i = base; i < base + WAYS; i++) {
+				if (orders[i] != null && expiresAt[i] > now && isKey(i, hash, clientOrderId)) {
+					return orders[i];
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Checks if the entry is cached for the client order id. The hash is compared
+	 * first, so the ids are only compared for likely matches. Must be called
+	 * holding the lock of the entry's set.
+	 *
+	 * @param i
+	 * @param hash
+	 * @param clientOrderId
+	 * @return
+	 */
+	private boolean isKey(int i, long hash, String clientOrderId) {
+		return keyHashes[i] == hash && clientOrderId.equals(keys[i]);
+	}
+
+	/**
+	 * Computes a 64 bit FNV-1a hash of the client order id.
+	 *
+	 * @param clientOrderId
+	 * @return
+	 */
+	private static long hash(String clientOrderId) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < clientOrderId.length(); i++) {
+			hash ^= clientOrderId.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+}
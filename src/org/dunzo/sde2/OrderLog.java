@@ -0,0 +1,361 @@
+package org.dunzo.sde2;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * OrderLog --- Orders placed at a Coffee Machine as recorded by an order log
+ * recorder, read back from it's file to be replayed.
+ *
+ * The file starts with a header of a 4 byte magic, a 1 byte version and the
+ * time in epoch millis the recording started at, followed by records that each
+ * start with a 1 byte type. Numbers in records are unsigned varints, 7 bits a
+ * byte with the high bit set on all but the last byte, so that small numbers
+ * take a single byte. Strings are a varint length followed by UTF-8 bytes.
+ *
+ * BEVERAGE: beverage id, name. Defines the id used for the beverage by the
+ * records after it.
+ *
+ * ORDER: nanos since the previous order, outlet no., beverage id, priority,
+ * deadline in millis from arrival (0 for none), timeout in millis (0 for
+ * none), client order id (empty for none). Takes the next sequence no.
+ *
+ * BATCH: nanos since the previous order, beverage id, no. of cups, priority,
+ * deadline in millis from arrival. Takes a sequence no. for every cup.
+ *
+ * OUTCOME: sequence no., final status of the order.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class OrderLog {
+	final static int MAGIC = 0x434D4F4C;
+	final static byte VERSION = 1;
+
+	// Record types.
+	final static byte TYPE_BEVERAGE = 1;
+	final static byte TYPE_ORDER = 2;
+	final static byte TYPE_BATCH = 3;
+	final static byte TYPE_OUTCOME = 4;
+
+	// Cached since values() copies the array on every call.
+	private final static OrderPriority[] PRIORITIES = OrderPriority.values();
+	private final static OrderStatus[] STATUSES = OrderStatus.values();
+
+	/**
+	 * Entry --- An order or a batch of cups placed at the machine.
+	 */
+	public static class Entry {
+		private final long sequence;
+		private final long arrivedAt;
+		private final int outletNo;
+		private final String beverageName;
+		private final int quantity;
+		private final OrderPriority priority;
+		private final long deadline;
+		private final long timeout;
+		private final String clientOrderId;
+
+		/**
+		 * @param sequence
+		 * @param arrivedAt
+		 * @param outletNo
+		 * @param beverageName
+		 * @param quantity
+		 * @param priority
+		 * @param deadline
+		 * @param timeout
+		 * @param clientOrderId
+		 */
+		private Entry(long sequence, long arrivedAt, int outletNo, String beverageName, int quantity,
+				OrderPriority priority, long deadline, long timeout, String clientOrderId) {
+			this.sequence = sequence;
+			this.arrivedAt = arrivedAt;
+			this.outletNo = outletNo;
+			this.beverageName = beverageName;
+			this.quantity = quantity;
+			this.priority = priority;
+			this.deadline = deadline;
+			this.timeout = timeout;
+			this.clientOrderId = clientOrderId;
+		}
+
+		/**
+		 * Returns the sequence no. of the order, or of the first cup of a batch.
+		 *
+		 * @return
+		 */
+		public long getSequence() {
+			return sequence;
+		}
+
+		/**
+		 * Returns time in nanos since the recording started that the order arrived
+		 * at.
+		 *
+		 * @return
+		 */
+		public long getArrivedAt() {
+			return arrivedAt;
+		}
+
+		/**
+		 * Returns true for a batch of cups split across outlets by the machine.
+		 *
+		 * @return
+		 */
+		public boolean isBatch() {
+			return outletNo == 0;
+		}
+
+		/**
+		 * Returns the outlet the order was placed at, or 0 for a batch.
+		 *
+		 * @return
+		 */
+		public int getOutletNo() {
+			return outletNo;
+		}
+
+		/**
+		 * Returns the beverage ordered.
+		 *
+		 * @return
+		 */
+		public String getBeverageName() {
+			return beverageName;
+		}
+
+		/**
+		 * Returns no. of cups ordered, 1 for a single order.
+		 *
+		 * @return
+		 */
+		public int getQuantity() {
+			return quantity;
+		}
+
+		/**
+		 * Returns priority class of the order.
+		 *
+		 * @return
+		 */
+		public OrderPriority getPriority() {
+			return priority;
+		}
+
+		/**
+		 * Returns millis from arrival by which the order had to be served, or 0 for
+		 * none.
+		 *
+		 * @return
+		 */
+		public long getDeadline() {
+			return deadline;
+		}
+
+		/**
+		 * Returns millis the order could wait for it's outlet, or 0 for no timeout.
+		 *
+		 * @return
+		 */
+		public long getTimeout() {
+			return timeout;
+		}
+
+		/**
+		 * Returns the id the client placed the order with, if any.
+		 *
+		 * @return
+		 */
+		public String getClientOrderId() {
+			return clientOrderId;
+		}
+	}
+
+	private final long startedAt;
+	private final List<Entry> entries;
+	private final OrderStatus[] outcomes;
+
+	/**
+	 * @param startedAt
+	 * @param entries
+	 * @param outcomes
+	 */
+	private OrderLog(long startedAt, List<Entry> entries, OrderStatus[] outcomes) {
+		this.startedAt = startedAt;
+		this.entries = entries;
+		this.outcomes = outcomes;
+	}
+
+	/**
+	 * Reads an order log from it's file. A record cut short at the end of the
+	 * file, e.g. by a crash while recording, is ignored.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static OrderLog read(Path file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException(file + " is not an order log!");
+			}
+			byte version = in.readByte();
+			if (version != VERSION) {
+				throw new IOException("Order log version " + version + " is not supported!");
+			}
+			long startedAt = in.readLong();
+
+			List<String> beverages = new ArrayList<String>();
+			List<Entry> entries = new ArrayList<Entry>();
+			OrderStatus[] outcomes = new OrderStatus[64];
+			long sequence = 0;
+			long arrivedAt = 0;
+			while (true) {
+				int type = in.read();
+				if (type < 0) {
+					break;
+				}
+				try {
+					switch (type) {
+					case TYPE_BEVERAGE:
+						int id = (int) readVarLong(in);
+						String name = readString(in);
+						while (beverages.size() <= id) {
+							beverages.add(null);
+						}
+						beverages.set(id, name);
+						break;
+					case TYPE_ORDER:
+						arrivedAt += readVarLong(in);
+						int outletNo = (int) readVarLong(in);
+						String beverageName = beverages.get((int) readVarLong(in));
+						OrderPriority priority = PRIORITIES[(int) readVarLong(in)];
+						long deadline = readVarLong(in);
+						long timeout = readVarLong(in);
+						String clientOrderId = readString(in);
+						entries.add(new Entry(sequence++, arrivedAt, outletNo, beverageName, 1, priority, deadline,
+								timeout, clientOrderId.isEmpty() ? null : clientOrderId));
+						break;
+					case TYPE_BATCH:
+						arrivedAt += readVarLong(in);
+						String batchBeverage = beverages.get((int) readVarLong(in));
+						int quantity = (int) readVarLong(in);
+						OrderPriority batchPriority = PRIORITIES[(int) readVarLong(in)];
+						long batchDeadline = readVarLong(in);
+						entries.add(new Entry(sequence, arrivedAt, 0, batchBeverage, quantity, batchPriority,
+								batchDeadline, 0, null));
+						sequence += quantity;
+						break;
+					case TYPE_OUTCOME:
+						int of = (int) readVarLong(in);
+						OrderStatus status = STATUSES[(int) readVarLong(in)];
+						if (of >= outcomes.length) {
+							outcomes = Arrays.copyOf(outcomes, Math.max(of + 1, 2 * outcomes.length));
+						}
+						outcomes[of] = status;
+						break;
+					default:
+						throw new IOException("Unknown record type " + type + " in order log " + file + "!");
+					}
+				} catch (EOFException e) {
+					break;
+				}
+			}
+			return new OrderLog(startedAt, entries, Arrays.copyOf(outcomes, (int) sequence));
+		}
+	}
+
+	/**
+	 * Reads an unsigned varint.
+	 *
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	private static long readVarLong(InputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.read();
+			if (b < 0) {
+				throw new EOFException();
+			}
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint in order log!");
+	}
+
+	/**
+	 * Reads a string of a varint length and UTF-8 bytes.
+	 *
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[(int) readVarLong(in)];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Returns time in epoch millis the recording started at.
+	 *
+	 * @return
+	 */
+	public long getStartedAt() {
+		return startedAt;
+	}
+
+	/**
+	 * Returns the orders and batches recorded, in the order they arrived.
+	 *
+	 * @return
+	 */
+	public List<Entry> getEntries() {
+		return Collections.unmodifiableList(entries);
+	}
+
+	/**
+	 * Returns no. of sequence nos. taken, one per order and one per cup of a
+	 * batch.
+	 *
+	 * @return
+	 */
+	public int getOrderCount() {
+		return outcomes.length;
+	}
+
+	/**
+	 * Returns the final status recorded for each sequence no., null where the
+	 * order didn't finish while recording.
+	 *
+	 * @return
+	 */
+	public OrderStatus[] getOutcomes() {
+		return outcomes.clone();
+	}
+
+	/**
+	 * Returns time in nanos from the first order to the last one.
+	 *
+	 * @return
+	 */
+	public long getSpan() {
+		return entries.isEmpty() ? 0 : entries.get(entries.size() - 1).getArrivedAt() - entries.get(0).getArrivedAt();
+	}
+}
@@ -0,0 +1,247 @@
+package org.dunzo.sde2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * OrderLogRecorder --- Records every order placed at a Coffee Machine, and the
+ * status it finished in, to an append-only binary file in the order log
+ * format, so the same stream of orders can be replayed against another build.
+ *
+ * Records are appended to an in-memory buffer under the recorder's monitor,
+ * which takes well under a microsecond, and the buffer is written out whenever
+ * it fills up, on flush and on close. A recording never overwrites an existing
+ * file. If writing fails the recording stops and serving carries on.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class OrderLogRecorder implements AutoCloseable {
+	private final static int BUFFER_SIZE = 1 << 16;
+
+	// Room left in the buffer before a record is appended, enough for any record
+	// but one with a very long string.
+	private final static int MAX_RECORD_SIZE = 1 << 10;
+
+	private final static MachineLogger LOG = MachineLogger.get();
+
+	private final Path file;
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+	private final Map<String, Integer> beverageIds;
+	private final long startNanos;
+	private long lastArrival;
+	private long nextSequence;
+	private boolean closed;
+
+	/**
+	 * @param file
+	 * @throws IOException
+	 */
+	public OrderLogRecorder(Path file) throws IOException {
+		this.file = file;
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		this.beverageIds = new HashMap<String, Integer>();
+		this.startNanos = System.nanoTime();
+		buffer.putInt(OrderLog.MAGIC).put(OrderLog.VERSION).putLong(System.currentTimeMillis());
+	}
+
+	/**
+	 * Returns the file being recorded to.
+	 *
+	 * @return
+	 */
+	public Path getFile() {
+		return file;
+	}
+
+	/**
+	 * Records an order placed at an outlet, and returns it's sequence no., or -1
+	 * if the recording has stopped.
+	 *
+	 * @param order
+	 * @return
+	 */
+	public synchronized long recordOrder(Order order) {
+		String clientOrderId = order.getClientOrderId();
+		byte[] clientId = (clientOrderId == null) ? new byte[0] : clientOrderId.getBytes(StandardCharsets.UTF_8);
+		if (!prepare(clientId.length)) {
+			return -1;
+		}
+		int beverageId = getBeverageId(order.getBeverage().getName());
+		buffer.put(OrderLog.TYPE_ORDER);
+		putArrival();
+		putVarLong(order.getOutlet().getId());
+		putVarLong(beverageId);
+		putVarLong(order.getPriority().ordinal());
+		putVarLong(relativeDeadline(order.getDeadline()));
+		putVarLong(order.getTimeout());
+		putVarLong(clientId.length);
+		buffer.put(clientId);
+		return nextSequence++;
+	}
+
+	/**
+	 * Records a batch of cups split across outlets, and returns the sequence no.
+	 * of it's first cup, or -1 if the recording has stopped. The cups take
+	 * sequence nos. in the order of the orders of the batch.
+	 *
+	 * @param multiOrder
+	 * @param priority
+	 * @param deadline
+	 * @return
+	 */
+	public synchronized long recordBatch(MultiOrder multiOrder, OrderPriority priority, long deadline) {
+		if (!prepare(0)) {
+			return -1;
+		}
+		int beverageId = getBeverageId(multiOrder.getBeverage().getName());
+		buffer.put(OrderLog.TYPE_BATCH);
+		putArrival();
+		putVarLong(beverageId);
+		putVarLong(multiOrder.getQuantity());
+		putVarLong(priority.ordinal());
+		putVarLong(relativeDeadline(deadline));
+		long first = nextSequence;
+		nextSequence += multiOrder.getQuantity();
+		return first;
+	}
+
+	/**
+	 * Records the final status of the order with the given sequence no.
+	 *
+	 * @param sequence
+	 * @param status
+	 */
+	public synchronized void recordOutcome(long sequence, OrderStatus status) {
+		if (!prepare(0)) {
+			return;
+		}
+		buffer.put(OrderLog.TYPE_OUTCOME);
+		putVarLong(sequence);
+		putVarLong(status.ordinal());
+	}
+
+	/**
+	 * Writes out the records buffered so far.
+	 */
+	public synchronized void flush() {
+		if (!closed) {
+			write();
+		}
+	}
+
+	/**
+	 * Writes out the records buffered so far and stops the recording.
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		write();
+		closed = true;
+		try {
+			channel.close();
+		} catch (IOException e) {
+			LOG.error("Failed to close order log {}!", file);
+		}
+	}
+
+	/**
+	 * Makes room in the buffer for a record with a string of the given length.
+	 * Returns false if the recording has stopped.
+	 *
+	 * @param stringLength
+	 * @return
+	 */
+	private boolean prepare(int stringLength) {
+		if (closed) {
+			return false;
+		}
+		if (buffer.remaining() < MAX_RECORD_SIZE + stringLength) {
+			write();
+		}
+		return !closed && buffer.remaining() >= MAX_RECORD_SIZE + stringLength;
+	}
+
+	/**
+	 * Writes the buffer to the file, and stops the recording if that fails.
+	 */
+	private void write() {
+		buffer.flip();
+		try {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} catch (IOException e) {
+			LOG.error("Failed to write order log {}! Recording stopped.", file);
+			closed = true;
+			try {
+				channel.close();
+			} catch (IOException ignored) {
+				// The recording is stopped either way.
+			}
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Returns the id of the beverage, defining it first if it's new.
+	 *
+	 * @param beverageName
+	 * @return
+	 */
+	private int getBeverageId(String beverageName) {
+		Integer id = beverageIds.get(beverageName);
+		if (id == null) {
+			id = beverageIds.size();
+			beverageIds.put(beverageName, id);
+			byte[] name = beverageName.getBytes(StandardCharsets.UTF_8);
+			buffer.put(OrderLog.TYPE_BEVERAGE);
+			putVarLong(id);
+			putVarLong(name.length);
+			buffer.put(name);
+		}
+		return id;
+	}
+
+	/**
+	 * Appends the time since the previous order.
+	 */
+	private void putArrival() {
+		long arrival = System.nanoTime() - startNanos;
+		putVarLong(Math.max(0, arrival - lastArrival));
+		lastArrival = Math.max(lastArrival, arrival);
+	}
+
+	/**
+	 * Returns millis from now till the deadline, at least 1, or 0 for none.
+	 *
+	 * @param deadline
+	 * @return
+	 */
+	private static long relativeDeadline(long deadline) {
+		return (deadline == Order.NO_DEADLINE) ? 0 : Math.max(1, deadline - System.currentTimeMillis());
+	}
+
+	/**
+	 * Appends an unsigned varint.
+	 *
+	 * @param value
+	 */
+	private void putVarLong(long value) {
+		while ((value & ~0x7FL) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+}
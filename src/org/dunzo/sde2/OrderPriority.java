@@ -0,0 +1,33 @@
+package org.dunzo.sde2;
+
+/**
+ * OrderPriority --- Priority classes for orders. Orders of a higher priority are
+ * always prepared before queued orders of a lower priority.
+ * 
+ * @author Atul Shanbhag
+ *
+ */
+public enum OrderPriority {
+	// Orders with a committed pickup time, e.g. mobile pre-orders.
+	HIGH,
+
+	// Regular walk-in orders.
+	NORMAL,
+
+	// Orders that can wait, e.g. refills and staff orders.
+	LOW;
+
+	/**
+	 * Returns the priority for a name, e.g. "high".
+	 * 
+	 * @param name
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	public static OrderPriority fromName(String name) throws IllegalArgumentException {
+		if (name == null) {
+			throw new IllegalArgumentException("Order priority is not defined!");
+		}
+		return OrderPriority.valueOf(name.trim().toUpperCase());
+	}
+}
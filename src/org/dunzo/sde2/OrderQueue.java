@@ -0,0 +1,505 @@
+package org.dunzo.sde2;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * OrderQueue --- Bounded queue of accepted orders waiting for an outlet. Applies
+ * the configured admission policy when the queue is full so that a spike of
+ * orders cannot grow the backlog without limit.
+ * 
+ * Orders wait in a separate lane for each outlet, and are taken from the lane
+ * of an outlet only by the workers of that outlet, so that a busy outlet never
+ * holds up orders for another one. The bound and the admission policy apply to
+ * all the lanes together.
+ * 
+ * Within a lane orders are taken strictly by priority class, and earliest
+ * deadline first within a class. Orders without a deadline are taken in
+ * arrival order after the ones with a deadline. Since the earliest deadline is
+ * always at the head of a class, expired orders are dropped from the head
+ * before taking an order.
+ * 
+ * With a sequencer set, the next order is picked among the most urgent orders
+ * of the class instead of always taking the head, so that scarce stock goes to
+ * the orders that let the most orders be served.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class OrderQueue {
+	private final static MachineLogger LOG = MachineLogger.get();
+
+	private final int capacity;
+	private final AdmissionPolicy policy;
+	private final long blockTimeout;
+	private final Map<Outlet, Lane> lanes;
+	private int count;
+	private OrderSequencer sequencer;
+
+	// No. of queued orders with a timeout, so that timed out orders are only
+	// looked for while there can be any.
+	private int timed;
+
+	// Total time in millis the outlets will be kept busy by all the queued orders.
+	private long queuedWork;
+
+	private final ReentrantLock lock;
+	private final Condition notFull;
+
+	/**
+	 * Lane --- Orders waiting for one outlet, by priority class, and the condition
+	 * the workers of the outlet wait on for an order.
+	 */
+	private static class Lane {
+		private final List<PriorityQueue<Order>> orders;
+		private final Condition notEmpty;
+		private int count;
+
+		/**
+		 * @param notEmpty
+		 */
+		private Lane(Condition notEmpty) {
+			this.orders = newPriorityClasses();
+			this.notEmpty = notEmpty;
+		}
+	}
+
+	/**
+	 * @param capacity
+	 * @param policy
+	 * @param blockTimeout
+	 * @throws IllegalArgumentException
+	 */
+	public OrderQueue(int capacity, AdmissionPolicy policy, long blockTimeout) throws IllegalArgumentException {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Order queue capacity must be positive!");
+		}
+		if (policy == null) {
+			throw new IllegalArgumentException("Admission policy is not defined! Cannot create order queue!");
+		}
+		this.capacity = capacity;
+		this.policy = policy;
+		this.blockTimeout = blockTimeout;
+		this.lanes = new HashMap<Outlet, Lane>();
+		this.lock = new ReentrantLock();
+		this.notFull = lock.newCondition();
+	}
+
+	/**
+	 * Creates one queue per priority class, ordered by deadline and then by order
+	 * id which follows arrival order.
+	 * 
+	 * @return
+	 */
+	private static List<PriorityQueue<Order>> newPriorityClasses() {
+		Comparator<Order> byDeadline = Comparator.comparingLong(Order::getDeadline)
+				.thenComparingLong(Order::getId);
+		OrderPriority[] priorities = OrderPriority.values();
+		List<PriorityQueue<Order>> classes = new ArrayList<PriorityQueue<Order>>(priorities.length);
+		for (int i = 0; i < priorities.length; i++) {
+			classes.add(new PriorityQueue<Order>(byDeadline));
+		}
+		return classes;
+	}
+
+	/**
+	 * Returns the lane of the outlet, creating it on first use. Must be called
+	 * holding the queue lock.
+	 * 
+	 * @param outlet
+	 * @return
+	 */
+	private Lane lane(Outlet outlet) {
+		return lanes.computeIfAbsent(outlet, o -> new Lane(lock.newCondition()));
+	}
+
+	/**
+	 * Returns max no. of orders the queue can hold.
+	 *
+	 * @return
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns the admission policy applied when the queue is full.
+	 *
+	 * @return
+	 */
+	public AdmissionPolicy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Sets the sequencer picking the next order among the most urgent ones, or
+	 * null to always take the most urgent order.
+	 *
+	 * @param sequencer
+	 */
+	public void setSequencer(OrderSequencer sequencer) {
+		lock.lock();
+		try {
+			this.sequencer = sequencer;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns no. of orders waiting in the queue.
+	 *
+	 * @return
+	 */
+	public int size() {
+		lock.lock();
+		try {
+			return count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns no. of orders waiting in the queue for the outlet.
+	 *
+	 * @param outlet
+	 * @return
+	 */
+	public int size(Outlet outlet) {
+		lock.lock();
+		try {
+			Lane lane = lanes.get(outlet);
+			return (lane == null) ? 0 : lane.count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns total time in millis the outlets will be kept busy by all the queued
+	 * orders.
+	 *
+	 * @return
+	 */
+	public long getQueuedWork() {
+		lock.lock();
+		try {
+			return queuedWork;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Adds an order to the queue, applying the admission policy if the queue is
+	 * full. Returns false if the order was not accepted.
+	 *
+	 * @param order
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public boolean offer(Order order) throws InterruptedException {
+		lock.lock();
+		try {
+			if (count >= capacity) {
+				removeExpired(System.currentTimeMillis());
+				removeTimedOut(System.currentTimeMillis());
+			}
+			if (count >= capacity) {
+				switch (policy) {
+				case REJECT_NEW:
+					return false;
+				case DROP_OLDEST:
+					Order dropped = removeOldest();
+					dropped.update(OrderStatus.DROPPED, "Dropped " + dropped.getBeverage().getName() + " at "
+							+ dropped.getOutlet() + " to make room for newer orders!");
+					LOG.warn(dropped.getMessage());
+					break;
+				case BLOCK:
+					long nanos = TimeUnit.MILLISECONDS.toNanos(blockTimeout);
+					while (count >= capacity) {
+						if (nanos <= 0) {
+							return false;
+						}
+						nanos = notFull.awaitNanos(nanos);
+					}
+					break;
+				}
+			}
+			Lane lane = lane(order.getOutlet());
+			lane.orders.get(order.getPriority().ordinal()).add(order);
+			lane.count++;
+			count++;
+			if (order.getTimeout() != Order.NO_TIMEOUT) {
+				timed++;
+			}
+			queuedWork += order.getCycleTime();
+			order.getOutlet().addQueuedWork(order.getCycleTime());
+			// Published before a worker can take the order, so it's seen queued first.
+			order.publish();
+			lane.notEmpty.signal();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes the most urgent order for the outlet from the queue, waiting up to
+	 * the given time for one to arrive. Returns null if no order arrived in time.
+	 *
+	 * @param outlet
+	 * @param timeout
+	 * @param unit
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public Order poll(Outlet outlet, long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			Lane lane = lane(outlet);
+			while (true) {
+				if (lane.count > 0) {
+					removeExpired(lane, System.currentTimeMillis());
+				}
+				if (lane.count > 0) {
+					return removeFirst(lane);
+				}
+				if (nanos <= 0) {
+					return null;
+				}
+				nanos = lane.notEmpty.awaitNanos(nanos);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes a queued order, e.g. when it's cancelled. Returns false if the order
+	 * was not in the queue.
+	 *
+	 * @param order
+	 * @return
+	 */
+	public boolean remove(Order order) {
+		lock.lock();
+		try {
+			Lane lane = lanes.get(order.getOutlet());
+			if (lane == null || !lane.orders.get(order.getPriority().ordinal()).remove(order)) {
+				return false;
+			}
+			removed(order);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes up to the given no. of queued orders for the same beverage at the
+	 * same outlet as the given order, most urgent first, and adds them to the
+	 * given list.
+	 *
+	 * @param order
+	 * @param max
+	 * @param into
+	 * @return
+	 */
+	public int drainMatching(Order order, int max, List<Order> into) {
+		lock.lock();
+		try {
+			int drained = 0;
+			Lane lane = lanes.get(order.getOutlet());
+			if (lane == null) {
+				return 0;
+			}
+			for (PriorityQueue<Order> priorityClass : lane.orders) {
+				if (drained >= max) {
+					break;
+				}
+				List<Order> matches = new ArrayList<Order>();
+				for (Order queued : priorityClass) {
+					if (queued.getBeverage().getName().equals(order.getBeverage().getName())) {
+						matches.add(queued);
+					}
+				}
+				matches.sort(priorityClass.comparator());
+				for (Order match : matches) {
+					if (drained >= max) {
+						break;
+					}
+					priorityClass.remove(match);
+					into.add(taken(match));
+					drained++;
+				}
+			}
+			return drained;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes the head of the highest priority class of the lane that has orders,
+	 * or the order picked by the sequencer among the most urgent orders of that
+	 * class. Must be called holding the queue lock.
+	 *
+	 * @param lane
+	 * @return
+	 */
+	private Order removeFirst(Lane lane) {
+		for (PriorityQueue<Order> priorityClass : lane.orders) {
+			if (priorityClass.isEmpty()) {
+				continue;
+			}
+			if (sequencer == null || priorityClass.size() == 1) {
+				return taken(priorityClass.poll());
+			}
+			int window = Math.min(sequencer.getWindow(), priorityClass.size());
+			List<Order> candidates = new ArrayList<Order>(window);
+			for (int i = 0; i < window; i++) {
+				candidates.add(priorityClass.poll());
+			}
+			Order next = candidates.remove(sequencer.select(candidates));
+			priorityClass.addAll(candidates);
+			return taken(next);
+		}
+		return null;
+	}
+
+	/**
+	 * Removes the order waiting the longest in the lowest priority class that has
+	 * orders, across all the lanes. Must be called holding the queue lock.
+	 *
+	 * @return
+	 */
+	private Order removeOldest() {
+		for (int i = OrderPriority.values().length - 1; i >= 0; i--) {
+			Order oldest = null;
+			for (Lane lane : lanes.values()) {
+				for (Order order : lane.orders.get(i)) {
+					if (oldest == null || order.getId() < oldest.getId()) {
+						oldest = order;
+					}
+				}
+			}
+			if (oldest != null) {
+				lanes.get(oldest.getOutlet()).orders.get(i).remove(oldest);
+				return removed(oldest);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Drops orders of all the lanes whose deadline has already passed. Must be
+	 * called holding the queue lock.
+	 *
+	 * @param now
+	 */
+	private void removeExpired(long now) {
+		for (Lane lane : lanes.values()) {
+			removeExpired(lane, now);
+		}
+	}
+
+	/**
+	 * Drops orders of the lane whose deadline has already passed. They are always
+	 * at the head of their priority class. Must be called holding the queue lock.
+	 *
+	 * @param lane
+	 * @param now
+	 */
+	private void removeExpired(Lane lane, long now) {
+		for (PriorityQueue<Order> priorityClass : lane.orders) {
+			while (!priorityClass.isEmpty() && priorityClass.peek().isExpired(now)) {
+				Order expired = removed(priorityClass.poll());
+				if (expired.update(OrderStatus.EXPIRED, expired.getBeverage().getName() + " at "
+						+ expired.getOutlet() + " expired before it could be prepared!")) {
+					LOG.warn(expired.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drops orders of all the lanes whose timeout has run out while they were
+	 * waiting, and returns how many were dropped. Orders without a timeout are
+	 * never dropped.
+	 *
+	 * @param now
+	 * @return
+	 */
+	public int removeTimedOut(long now) {
+		lock.lock();
+		try {
+			if (timed == 0) {
+				return 0;
+			}
+			List<Order> timedOut = new ArrayList<Order>();
+			for (Lane lane : lanes.values()) {
+				for (PriorityQueue<Order> priorityClass : lane.orders) {
+					for (Order order : priorityClass) {
+						if (order.isTimedOut(now)) {
+							timedOut.add(order);
+						}
+					}
+				}
+			}
+			for (Order order : timedOut) {
+				lanes.get(order.getOutlet()).orders.get(order.getPriority().ordinal()).remove(order);
+				removed(order);
+				if (order.update(OrderStatus.QUEUED, OrderStatus.TIMED_OUT, order.getBeverage().getName() + " at "
+						+ order.getOutlet() + " timed out before it could be prepared!")) {
+					LOG.warn(order.getMessage());
+				}
+			}
+			return timedOut.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Updates the queue bookkeeping for an order just taken off the queue by a
+	 * worker of it's outlet. It's work is moved on to the time the outlet frees up
+	 * before it's dropped from the queued work. Must be called holding the queue
+	 * lock.
+	 *
+	 * @param order
+	 * @return
+	 */
+	private Order taken(Order order) {
+		order.getOutlet().takeQueuedWork(order.getCycleTime());
+		return removed(order);
+	}
+
+	/**
+	 * Updates the queue bookkeeping for an order just removed. Must be called
+	 * holding the queue lock.
+	 *
+	 * @param order
+	 * @return
+	 */
+	private Order removed(Order order) {
+		lanes.get(order.getOutlet()).count--;
+		count--;
+		if (order.getTimeout() != Order.NO_TIMEOUT) {
+			timed--;
+		}
+		queuedWork -= order.getCycleTime();
+		order.getOutlet().addQueuedWork(-order.getCycleTime());
+		notFull.signal();
+		return order;
+	}
+}
@@ -0,0 +1,135 @@
+package org.dunzo.sde2;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OrderScheduler --- Holds orders placed for a fixed time in a timing wheel and
+ * releases each one into the regular serve path of the Coffee Machine early
+ * enough for it to be ready by it's target time.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class OrderScheduler {
+	private final static MachineLogger LOG = MachineLogger.get();
+
+	// Resolution of the wheel in millis, also the extra margin given to each order.
+	private final static long TICK_DURATION = 10;
+	private final static int WHEEL_SIZE = 512;
+	private final static int WHEEL_LEVELS = 4;
+
+	private final CoffeeMachine machine;
+	private final TimingWheel<Order> wheel;
+	private ScheduledExecutorService ticker;
+
+	/**
+	 * @param machine
+	 */
+	public OrderScheduler(CoffeeMachine machine) {
+		this.machine = machine;
+		this.wheel = new TimingWheel<Order>(TICK_DURATION, WHEEL_SIZE, WHEEL_LEVELS, System.currentTimeMillis());
+	}
+
+	/**
+	 * Returns no. of orders waiting to be released.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return wheel.size();
+	}
+
+	/**
+	 * Start turning the wheel.
+	 */
+	public void start() {
+		ticker = Executors.newSingleThreadScheduledExecutor();
+		ticker.scheduleAtFixedRate(this::tick, TICK_DURATION, TICK_DURATION, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stop turning the wheel and return the orders that were never released.
+	 *
+	 * @return
+	 */
+	public List<Order> close() {
+		if (ticker != null) {
+			ticker.shutdownNow();
+			try {
+				ticker.awaitTermination(TICK_DURATION * 10, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return wheel.clear();
+	}
+
+	/**
+	 * Returns the time in millis at which an order should be released to be ready
+	 * by it's target time, given the current load of it's outlet.
+	 *
+	 * @param order
+	 * @return
+	 */
+	private long getReleaseTime(Order order) {
+		long now = System.currentTimeMillis();
+		long waitTime = order.getOutlet().getAvailableAt(now) - now;
+		long leadTime = order.getPrepareTime() + waitTime + TICK_DURATION;
+		return order.getReadyAt() - leadTime;
+	}
+
+	/**
+	 * Schedules an order for release. Orders due right away are released
+	 * immediately.
+	 *
+	 * @param order
+	 */
+	public void schedule(Order order) {
+		TimingWheel.Entry<Order> timer;
+		// Set under the lock of the wheel, so that a cancel sees the timer as soon as
+		// the order is on the wheel.
+		synchronized (wheel) {
+			if (order.getStatus() != OrderStatus.SCHEDULED) {
+				return;
+			}
+			timer = wheel.add(order, getReleaseTime(order));
+			order.timer = timer;
+		}
+		if (timer == null) {
+			machine.releaseOrder(order);
+		}
+	}
+
+	/**
+	 * Removes an order from the wheel before it's released. Returns false if it
+	 * was already released.
+	 *
+	 * @param order
+	 * @return
+	 */
+	public boolean cancel(Order order) {
+		synchronized (wheel) {
+			return wheel.remove(order.timer);
+		}
+	}
+
+	/**
+	 * Releases orders due at the current tick. The release time is computed again
+	 * since the load of the machine may have dropped since the order was placed.
+	 */
+	private void tick() {
+		List<Order> due = wheel.advance(System.currentTimeMillis());
+		for (Order order : due) {
+			try {
+				schedule(order);
+			} catch (RuntimeException e) {
+				// Keep the wheel turning even if one of the released orders fails.
+				order.update(OrderStatus.FAILED, e.getMessage());
+				LOG.warn(e.getMessage());
+			}
+		}
+	}
+}
@@ -0,0 +1,230 @@
+package org.dunzo.sde2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * OrderSequencer --- Picks which of the most urgent queued orders to prepare
+ * next when stock is limited. Looks ahead over a bounded window of orders and
+ * picks the one that leaves enough stock for the most orders (or revenue) in
+ * the rest of the window. The rest of the window is filled greedily with the
+ * orders that need the least of the scarce ingredients (or bring the most
+ * revenue for them) first. An order can be passed over only a bounded no. of
+ * times, so no order waits indefinitely.
+ *
+ * Orders are taken from the queue only once their outlet can start them, so
+ * the stock looked at is the stock the picked order is mixed from.
+ *
+ * Each pick costs O(window^2 * ingredients per recipe), which keeps it cheap
+ * enough to run every time an order is taken from the queue.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class OrderSequencer {
+	/**
+	 * Objective --- What the sequencer maximizes.
+	 */
+	public enum Objective {
+		// No. of orders served.
+		ORDERS,
+
+		// Total price of orders served.
+		REVENUE;
+
+		/**
+		 * Returns the objective for a name, e.g. "revenue".
+		 *
+		 * @param name
+		 * @return
+		 * @throws IllegalArgumentException
+		 */
+		public static Objective fromName(String name) throws IllegalArgumentException {
+			if (name == null) {
+				throw new IllegalArgumentException("Sequencing objective is not defined!");
+			}
+			return Objective.valueOf(name.trim().toUpperCase());
+		}
+	}
+
+	private final int window;
+	private final int maxBypass;
+	private final Objective objective;
+	private final Map<String, Ingredient> stock;
+
+	/**
+	 * @param window
+	 * @param maxBypass
+	 * @param objective
+	 * @param stock
+	 * @throws IllegalArgumentException
+	 */
+	public OrderSequencer(int window, int maxBypass, Objective objective, Map<String, Ingredient> stock)
+			throws IllegalArgumentException {
+		if (window <= 0) {
+			throw new IllegalArgumentException("Sequencing window must be positive!");
+		}
+		if (maxBypass < 0) {
+			throw new IllegalArgumentException("Max no. of times an order can be passed over cannot be negative!");
+		}
+		if (objective == null) {
+			throw new IllegalArgumentException("Sequencing objective is not defined!");
+		}
+		this.window = window;
+		this.maxBypass = maxBypass;
+		this.objective = objective;
+		this.stock = stock;
+	}
+
+	/**
+	 * Returns max no. of orders looked ahead at.
+	 *
+	 * @return
+	 */
+	public int getWindow() {
+		return window;
+	}
+
+	/**
+	 * Returns max no. of times an order can be passed over.
+	 *
+	 * @return
+	 */
+	public int getMaxBypass() {
+		return maxBypass;
+	}
+
+	/**
+	 * Returns what the sequencer maximizes.
+	 *
+	 * @return
+	 */
+	public Objective getObjective() {
+		return objective;
+	}
+
+	/**
+	 * Picks the index of the order to prepare next from the window, given in order
+	 * of urgency. Orders ahead of the picked one are counted as passed over.
+	 *
+	 * @param candidates
+	 * @return
+	 */
+	public int select(List<Order> candidates) {
+		if (candidates.size() <= 1 || candidates.get(0).getBypassCount() >= maxBypass) {
+			return 0;
+		}
+
+		// Snapshot the stock once, the recipes are checked against this copy.
+		List<String> names = new ArrayList<String>();
+		List<int[]> needs = new ArrayList<int[]>(candidates.size());
+		for (Order order : candidates) {
+			for (String ingredientName : order.getBeverage().getRecipe().getIngredients().keySet()) {
+				if (!names.contains(ingredientName)) {
+					names.add(ingredientName);
+				}
+			}
+		}
+		int[] available = new int[names.size()];
+		for (int i = 0; i < available.length; i++) {
+			Ingredient ingredient = stock.get(names.get(i));
+			available[i] = (ingredient == null) ? -1 : ingredient.getQuantity();
+		}
+		for (Order order : candidates) {
+			Map<String, Ingredient> recipe = order.getBeverage().getRecipe().getIngredients();
+			int[] need = new int[available.length];
+			for (int i = 0; i < need.length; i++) {
+				Ingredient ingredient = recipe.get(names.get(i));
+				need[i] = (ingredient == null) ? 0 : ingredient.getQuantity();
+			}
+			needs.add(need);
+		}
+
+		// Fill the rest of the window with the orders that are cheapest for the
+		// objective first, in order of urgency between equally cheap orders.
+		List<Integer> greedy = new ArrayList<Integer>(candidates.size());
+		double[] worth = new double[candidates.size()];
+		for (int o = 0; o < candidates.size(); o++) {
+			greedy.add(o);
+			double cost = 0;
+			for (int i = 0; i < available.length; i++) {
+				cost += (double) needs.get(o)[i] / Math.max(1, available[i]);
+			}
+			worth[o] = value(candidates.get(o)) / Math.max(cost, Double.MIN_NORMAL);
+		}
+		greedy.sort((a, b) -> Double.compare(worth[b], worth[a]));
+
+		// Score each feasible candidate by it's own value plus what the rest of the
+		// window still gets served greedily after it.
+		int best = 0;
+		double bestScore = -1;
+		int[] remaining = new int[available.length];
+		for (int c = 0; c < candidates.size(); c++) {
+			if (!fits(needs.get(c), available)) {
+				continue;
+			}
+			System.arraycopy(available, 0, remaining, 0, available.length);
+			consume(needs.get(c), remaining);
+			double score = value(candidates.get(c));
+			for (int o : greedy) {
+				if (o != c && fits(needs.get(o), remaining)) {
+					consume(needs.get(o), remaining);
+					score += value(candidates.get(o));
+				}
+			}
+			if (score > bestScore) {
+				best = c;
+				bestScore = score;
+			}
+			// An order may only be passed over by orders behind it if none ahead of
+			// them has run out of chances.
+			if (candidates.get(c).getBypassCount() >= maxBypass) {
+				break;
+			}
+		}
+
+		for (int o = 0; o < best; o++) {
+			candidates.get(o).incrementBypassCount();
+		}
+		return best;
+	}
+
+	/**
+	 * Returns the value of serving the order for the objective.
+	 *
+	 * @param order
+	 * @return
+	 */
+	private double value(Order order) {
+		return (objective == Objective.REVENUE) ? order.getBeverage().getPrice() : 1;
+	}
+
+	/**
+	 * Returns true if the available quantities cover the needed ones.
+	 *
+	 * @param need
+	 * @param available
+	 * @return
+	 */
+	private static boolean fits(int[] need, int[] available) {
+		for (int i = 0; i < need.length; i++) {
+			if (need[i] > 0 && need[i] > available[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Takes the needed quantities out of the available ones.
+	 *
+	 * @param need
+	 * @param available
+	 */
+	private static void consume(int[] need, int[] available) {
+		for (int i = 0; i < need.length; i++) {
+			available[i] -= need[i];
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package org.dunzo.sde2;
+
+/**
+ * OrderStatus --- Lifecycle states of an order placed at the Coffee Machine.
+ * 
+ * @author Atul Shanbhag
+ *
+ */
+public enum OrderStatus {
+	// Placed for a fixed time and waiting to be released into the order queue.
+	SCHEDULED,
+
+	// Accepted and waiting in the order queue.
+	QUEUED,
+
+	// Picked up from the queue with it's ingredients reserved, waiting for it's
+	// outlet.
+	PREPARING,
+
+	// Being brewed at it's outlet. Can no longer be cancelled.
+	BREWING,
+
+	// Beverage was prepared and served.
+	SERVED,
+
+	// Order was not accepted by the machine.
+	REJECTED,
+
+	// Order was accepted but dropped from the queue to make room for newer orders.
+	DROPPED,
+
+	// Order was accepted but could not be prepared.
+	FAILED,
+
+	// Order's deadline passed before an outlet could start preparing it.
+	EXPIRED,
+
+	// Order was cancelled before it's outlet started brewing it.
+	CANCELLED,
+
+	// Order's timeout passed before it's outlet started brewing it.
+	TIMED_OUT;
+
+	/**
+	 * Returns true if the order will not change it's state anymore.
+	 * 
+	 * @return
+	 */
+	public boolean isFinal() {
+		return this != SCHEDULED && this != QUEUED && this != PREPARING && this != BREWING;
+	}
+}
@@ -0,0 +1,279 @@
+package org.dunzo.sde2;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OrderTrace --- Timeline of an order through the Coffee Machine, split into
+ * the phases it waits or works in, so that a slow order can be attributed to
+ * the phase it lost time in.
+ *
+ * Each phase is entered by marking the time in nanos, which also ends the
+ * phase before it, and the trace is finished when the order reaches a final
+ * status. Orders rejected or dropped early skip the phases after the one they
+ * ended in. Phases are marked by whichever thread is handling the order at the
+ * time, each handing the order over to the next, so a trace is only read once
+ * it's finished.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class OrderTrace {
+	/**
+	 * Phase --- Phases of an order, in the order they are entered.
+	 */
+	public enum Phase {
+		// From the order being created till it asks for the machine lock.
+		INTAKE,
+
+		// Waiting for the machine lock to validate the stock.
+		LOCK_WAIT,
+
+		// Validating the stock for the beverage, holding the machine lock.
+		VALIDATION,
+
+		// Admission and waiting in the order queue till the outlet has a free slot.
+		QUEUE_WAIT,
+
+		// Reserving ingredients for the order and any orders batched with it.
+		RESERVATION,
+
+		// Waiting for the first stage of the outlet to free up. Orders are only taken
+		// from the queue holding a free slot, so orders are no longer traced here.
+		OUTLET_WAIT,
+
+		// Passing through the stages of the outlet.
+		BREW,
+
+		// From the brew ending till the order is moved to it's final status.
+		COMPLETION;
+
+		// Cached since values() copies the array on every call.
+		private final static Phase[] VALUES = values();
+
+		/**
+		 * Returns all the phases in order.
+		 *
+		 * @return
+		 */
+		public static Phase[] all() {
+			return VALUES;
+		}
+	}
+
+	// Mark value of a phase never entered.
+	private final static long NOT_ENTERED = Long.MIN_VALUE;
+
+	private final long traceId;
+	private final long orderId;
+	private final String beverageName;
+	private final int outletNo;
+
+	// Time in nanos each phase was entered at, and the one the trace finished at.
+	private final long[] marks;
+	private volatile long finishedAt;
+	private volatile OrderStatus status;
+
+	/**
+	 * @param order
+	 */
+	OrderTrace(Order order) {
+		long id;
+		do {
+			id = ThreadLocalRandom.current().nextLong();
+		} while (id == 0);
+		this.traceId = id;
+		this.orderId = order.getId();
+		this.beverageName = order.getBeverage().getName();
+		this.outletNo = order.getOutlet().getId();
+		this.marks = new long[Phase.VALUES.length];
+		for (int i = 1; i < marks.length; i++) {
+			marks[i] = NOT_ENTERED;
+		}
+		marks[Phase.INTAKE.ordinal()] = System.nanoTime();
+		this.finishedAt = NOT_ENTERED;
+	}
+
+	/**
+	 * Marks the order entering a phase, ending the phase before it. A phase
+	 * entered again, e.g. intake for a scheduled order being released, starts
+	 * over. Finished traces are left as they are.
+	 *
+	 * @param phase
+	 */
+	void enter(Phase phase) {
+		if (finishedAt == NOT_ENTERED) {
+			marks[phase.ordinal()] = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Marks the order reaching a final status, ending the last phase entered.
+	 * Returns false if the trace was finished already.
+	 *
+	 * @param finalStatus
+	 * @return
+	 */
+	boolean finish(OrderStatus finalStatus) {
+		if (finishedAt != NOT_ENTERED) {
+			return false;
+		}
+		this.status = finalStatus;
+		this.finishedAt = System.nanoTime();
+		return true;
+	}
+
+	/**
+	 * Returns the random id of the trace, unique for all practical purposes even
+	 * across machines and restarts.
+	 *
+	 * @return
+	 */
+	public long getTraceId() {
+		return traceId;
+	}
+
+	/**
+	 * Returns id of the order traced.
+	 *
+	 * @return
+	 */
+	public long getOrderId() {
+		return orderId;
+	}
+
+	/**
+	 * Returns the beverage ordered.
+	 *
+	 * @return
+	 */
+	public String getBeverageName() {
+		return beverageName;
+	}
+
+	/**
+	 * Returns the outlet the order was placed at.
+	 *
+	 * @return
+	 */
+	public int getOutletNo() {
+		return outletNo;
+	}
+
+	/**
+	 * Returns the final status of the order, or null if it isn't finished yet.
+	 *
+	 * @return
+	 */
+	public OrderStatus getStatus() {
+		return status;
+	}
+
+	/**
+	 * Returns true once the order has reached a final status.
+	 *
+	 * @return
+	 */
+	public boolean isFinished() {
+		return finishedAt != NOT_ENTERED;
+	}
+
+	/**
+	 * Returns true if the order entered the phase.
+	 *
+	 * @param phase
+	 * @return
+	 */
+	public boolean isEntered(Phase phase) {
+		return marks[phase.ordinal()] != NOT_ENTERED;
+	}
+
+	/**
+	 * Returns time in nanos the order spent in a phase, till the next phase it
+	 * entered or till it finished. Returns 0 for phases never entered or still
+	 * going on.
+	 *
+	 * @param phase
+	 * @return
+	 */
+	public long getPhaseTime(Phase phase) {
+		int i = phase.ordinal();
+		if (marks[i] == NOT_ENTERED) {
+			return 0;
+		}
+		for (int j = i + 1; j < marks.length; j++) {
+			if (marks[j] != NOT_ENTERED) {
+				return Math.max(0, marks[j] - marks[i]);
+			}
+		}
+		long end = finishedAt;
+		return (end == NOT_ENTERED) ? 0 : Math.max(0, end - marks[i]);
+	}
+
+	/**
+	 * Returns the value of System.nanoTime() when the order finished, or
+	 * Long.MIN_VALUE if it isn't finished yet.
+	 *
+	 * @return
+	 */
+	public long getFinishedAt() {
+		return finishedAt;
+	}
+
+	/**
+	 * Returns time in nanos from intake till the order finished, or 0 if it isn't
+	 * finished yet.
+	 *
+	 * @return
+	 */
+	public long getTotalTime() {
+		long end = finishedAt;
+		return (end == NOT_ENTERED) ? 0 : Math.max(0, end - marks[Phase.INTAKE.ordinal()]);
+	}
+
+	/**
+	 * Returns the phase the order spent the most time in.
+	 *
+	 * @return
+	 */
+	public Phase getDominantPhase() {
+		Phase dominant = Phase.INTAKE;
+		long longest = -1;
+		for (Phase phase : Phase.VALUES) {
+			long time = getPhaseTime(phase);
+			if (time > longest) {
+				dominant = phase;
+				longest = time;
+			}
+		}
+		return dominant;
+	}
+
+	/**
+	 * Return a string representation for OrderTrace object, with the time spent
+	 * in each phase entered in millis.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("TRACE(").append(String.format("%016x", traceId)).append(", order ").append(orderId).append(", ")
+				.append(beverageName).append(", Outlet ").append(outletNo).append(", ").append(status).append(", ")
+				.append(millis(getTotalTime())).append(" ms)");
+		for (Phase phase : Phase.VALUES) {
+			if (isEntered(phase)) {
+				sb.append(' ').append(phase).append('=').append(millis(getPhaseTime(phase)));
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Formats nanos as millis.
+	 *
+	 * @param nanos
+	 * @return
+	 */
+	static String millis(long nanos) {
+		return String.format("%.3f", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+	}
+}
@@ -0,0 +1,107 @@
+package org.dunzo.sde2;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * OrderTraceEvent --- Flight recorder event committed for every order that
+ * reaches a final status, with the time it spent in each phase of it's trace.
+ * Only recorded when a recording enables "org.dunzo.sde2.OrderTrace", e.g.
+ * with -XX:StartFlightRecording, and costs a single check otherwise.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+@Name("org.dunzo.sde2.OrderTrace")
+@Label("Order Trace")
+@Category("Coffee Machine")
+@Description("Time an order spent in each phase from intake till it's final status")
+@StackTrace(false)
+class OrderTraceEvent extends Event {
+	@Label("Trace Id")
+	long traceId;
+
+	@Label("Order Id")
+	long orderId;
+
+	@Label("Beverage")
+	String beverage;
+
+	@Label("Outlet")
+	int outlet;
+
+	@Label("Status")
+	String status;
+
+	@Label("Dominant Phase")
+	String dominantPhase;
+
+	@Label("Total")
+	@Timespan(Timespan.NANOSECONDS)
+	long total;
+
+	@Label("Intake")
+	@Timespan(Timespan.NANOSECONDS)
+	long intake;
+
+	@Label("Machine Lock Wait")
+	@Timespan(Timespan.NANOSECONDS)
+	long lockWait;
+
+	@Label("Validation")
+	@Timespan(Timespan.NANOSECONDS)
+	long validation;
+
+	@Label("Queue Wait")
+	@Timespan(Timespan.NANOSECONDS)
+	long queueWait;
+
+	@Label("Reservation")
+	@Timespan(Timespan.NANOSECONDS)
+	long reservation;
+
+	@Label("Outlet Wait")
+	@Timespan(Timespan.NANOSECONDS)
+	long outletWait;
+
+	@Label("Brew")
+	@Timespan(Timespan.NANOSECONDS)
+	long brew;
+
+	@Label("Completion")
+	@Timespan(Timespan.NANOSECONDS)
+	long completion;
+
+	/**
+	 * Commits an event for a finished trace if the event is enabled.
+	 *
+	 * @param trace
+	 */
+	static void commit(OrderTrace trace) {
+		OrderTraceEvent event = new OrderTraceEvent();
+		if (!event.isEnabled()) {
+			return;
+		}
+		event.traceId = trace.getTraceId();
+		event.orderId = trace.getOrderId();
+		event.beverage = trace.getBeverageName();
+		event.outlet = trace.getOutletNo();
+		event.status = String.valueOf(trace.getStatus());
+		event.dominantPhase = trace.getDominantPhase().name();
+		event.total = trace.getTotalTime();
+		event.intake = trace.getPhaseTime(OrderTrace.Phase.INTAKE);
+		event.lockWait = trace.getPhaseTime(OrderTrace.Phase.LOCK_WAIT);
+		event.validation = trace.getPhaseTime(OrderTrace.Phase.VALIDATION);
+		event.queueWait = trace.getPhaseTime(OrderTrace.Phase.QUEUE_WAIT);
+		event.reservation = trace.getPhaseTime(OrderTrace.Phase.RESERVATION);
+		event.outletWait = trace.getPhaseTime(OrderTrace.Phase.OUTLET_WAIT);
+		event.brew = trace.getPhaseTime(OrderTrace.Phase.BREW);
+		event.completion = trace.getPhaseTime(OrderTrace.Phase.COMPLETION);
+		event.commit();
+	}
+}
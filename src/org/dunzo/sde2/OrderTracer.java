@@ -0,0 +1,141 @@
+package org.dunzo.sde2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import jdk.jfr.FlightRecorder;
+
+/**
+ * OrderTracer --- Collects the traces of finished orders of a Coffee Machine.
+ * Every trace is committed as a flight recorder event, and a sample of them is
+ * kept in a ring buffer holding the latest traces. Traces slower than a
+ * threshold are always kept, so the tail is never sampled away.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class OrderTracer {
+	// No. of slowest traces shown in the breakdown.
+	private final static int SLOWEST_SHOWN = 5;
+
+	// Load and register the flight recorder event with the tracer, otherwise the
+	// first finished order stalls for it.
+	static {
+		FlightRecorder.register(OrderTraceEvent.class);
+	}
+
+	private final double sampleRate;
+	private final long slowThreshold;
+	private final AtomicReferenceArray<OrderTrace> ring;
+	private final AtomicLong cursor;
+
+	/**
+	 * @param sampleRate
+	 * @param capacity
+	 * @param slowThreshold
+	 * @throws IllegalArgumentException
+	 */
+	public OrderTracer(double sampleRate, int capacity, long slowThreshold) throws IllegalArgumentException {
+		if (sampleRate < 0 || sampleRate > 1) {
+			throw new IllegalArgumentException("Trace sample rate should be between 0 and 1!");
+		}
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Trace buffer capacity should be positive!");
+		}
+		if (slowThreshold < 0) {
+			throw new IllegalArgumentException("Slow trace threshold cannot be negative!");
+		}
+		this.sampleRate = sampleRate;
+		this.slowThreshold = TimeUnit.MILLISECONDS.toNanos(slowThreshold);
+		this.ring = new AtomicReferenceArray<OrderTrace>(capacity);
+		this.cursor = new AtomicLong();
+	}
+
+	/**
+	 * Records the trace of an order that just finished.
+	 *
+	 * @param trace
+	 */
+	void record(OrderTrace trace) {
+		OrderTraceEvent.commit(trace);
+		if (trace.getTotalTime() >= slowThreshold || (sampleRate > 0
+				&& (sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate))) {
+			ring.set((int) (cursor.getAndIncrement() % ring.length()), trace);
+		}
+	}
+
+	/**
+	 * Returns the no. of traces kept so far, including the ones overwritten.
+	 *
+	 * @return
+	 */
+	public long getRecordedCount() {
+		return cursor.get();
+	}
+
+	/**
+	 * Returns the traces in the buffer, oldest first.
+	 *
+	 * @return
+	 */
+	public List<OrderTrace> getTraces() {
+		long end = cursor.get();
+		long start = Math.max(0, end - ring.length());
+		List<OrderTrace> traces = new ArrayList<OrderTrace>((int) (end - start));
+		for (long i = start; i < end; i++) {
+			OrderTrace trace = ring.get((int) (i % ring.length()));
+			if (trace != null) {
+				traces.add(trace);
+			}
+		}
+		return traces;
+	}
+
+	/**
+	 * Displays the median, 99th percentile and max time spent in each phase by
+	 * the traces in the buffer, the share of time each phase takes up in the
+	 * slowest 1% of them, and the slowest traces.
+	 */
+	public void showBreakdown() {
+		List<OrderTrace> traces = getTraces();
+		System.out.println("Order traces = " + traces.size() + " (" + cursor.get() + " kept in total)");
+		if (traces.isEmpty()) {
+			return;
+		}
+		int n = traces.size();
+
+		// The tail is the slowest 1% of the traces, and at least the slowest one.
+		traces.sort((a, b) -> Long.compare(b.getTotalTime(), a.getTotalTime()));
+		int tail = Math.max(1, n / 100);
+		long tailTotal = 0;
+		for (int i = 0; i < tail; i++) {
+			tailTotal += traces.get(i).getTotalTime();
+		}
+
+		long[] times = new long[n];
+		for (OrderTrace.Phase phase : OrderTrace.Phase.all()) {
+			long tailTime = 0;
+			for (int i = 0; i < n; i++) {
+				times[i] = traces.get(i).getPhaseTime(phase);
+				if (i < tail) {
+					tailTime += times[i];
+				}
+			}
+			Arrays.sort(times);
+			System.out.println("\t" + phase + ": p50 = " + OrderTrace.millis(times[n / 2]) + " ms, p99 = "
+					+ OrderTrace.millis(times[(int) (n * 0.99)]) + " ms, max = " + OrderTrace.millis(times[n - 1])
+					+ " ms, tail share = "
+					+ String.format("%.1f", (tailTotal == 0) ? 0.0 : 100.0 * tailTime / tailTotal) + "%");
+		}
+		System.out.println("Slowest order traces");
+		for (int i = 0; i < Math.min(SLOWEST_SHOWN, n); i++) {
+			OrderTrace trace = traces.get(i);
+			System.out.println("\t" + trace + " dominated by " + trace.getDominantPhase());
+		}
+	}
+}
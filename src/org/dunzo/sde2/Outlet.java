@@ -1,32 +1,107 @@
 package org.dunzo.sde2;
 
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Outlet --- Class representing an outlet in the Coffee Machine. Handles mixing
  * recipe ingredients and preparing beverage assigned to it.
  * 
+ * An outlet is a pipeline of stages, e.g. dispense, brew and serve, so that the
+ * next beverage can start in the first stage while the current one is still in
+ * a later stage. An outlet with a single stage prepares one beverage at a time
+ * end to end.
+ * 
  * @author Atul Shanbhag
  *
  */
 public class Outlet {
+	private final static MachineLogger LOG = MachineLogger.get();
+
 	private int id;
 
-	// Keep a lock on the outlet while preparing a beverage.
-	private ReentrantLock lock;
+	// Relative speed of the outlet, e.g. 2.0 prepares beverages in half the time.
+	private double throughputFactor;
+
+	// Stages a beverage passes through in order, each holding a slot per beverage.
+	private List<OutletStage> stages;
+
+	// Max no. of cups of the same beverage brewed together, and the extra share of
+	// the preparation time each cup after the first one adds to the brew.
+	private int batchCapacity;
+	private double extraCupShare;
+
+	// Time in millis the outlet will be kept busy by orders queued for it, and the
+	// time in millis at which it's first stage is expected to take the next order.
+	private final AtomicLong queuedWork = new AtomicLong();
+	private volatile long freeAt;
 
-	// Generate outlet id using a increasing counter.
-	private static int idCounter = 0;
+	// No. of brews in the first stage, not counting slots held by idle workers.
+	private final AtomicInteger brewing = new AtomicInteger();
+
+	// Generate outlet id using a increasing counter, for outlets not numbered by
+	// their machine.
+	private static final AtomicInteger idCounter = new AtomicInteger();
 
 	/**
 	 * 
 	 */
 	public Outlet() {
-		idCounter++;
-		this.id = idCounter;
-		this.lock = new ReentrantLock();
+		this(1.0);
+	}
+
+	/**
+	 * @param throughputFactor
+	 * @throws IllegalArgumentException
+	 */
+	public Outlet(double throughputFactor) throws IllegalArgumentException {
+		this(throughputFactor, null);
+	}
+
+	/**
+	 * @param throughputFactor
+	 * @param stages
+	 * @throws IllegalArgumentException
+	 */
+	public Outlet(double throughputFactor, List<OutletStage> stages) throws IllegalArgumentException {
+		this(idCounter.incrementAndGet(), throughputFactor, stages);
+	}
+
+	/**
+	 * Creates the outlet with the given no. in it's machine, so that every
+	 * machine numbers it's outlets from 1.
+	 * 
+	 * @param id
+	 * @param throughputFactor
+	 * @param stages
+	 * @throws IllegalArgumentException
+	 */
+	public Outlet(int id, double throughputFactor, List<OutletStage> stages) throws IllegalArgumentException {
+		if (!(throughputFactor > 0)) {
+			throw new IllegalArgumentException("Outlet throughput factor must be positive!");
+		}
+		this.id = id;
+		this.throughputFactor = throughputFactor;
+		this.batchCapacity = 1;
+		this.extraCupShare = 1.0;
+		this.stages = new ArrayList<OutletStage>();
+		if (stages == null || stages.isEmpty()) {
+			// Without a pipeline the outlet works on one beverage at a time end to end.
+			this.stages.add(new OutletStage("brew", 1, 1.0));
+		} else {
+			double totalShare = 0;
+			for (OutletStage stage : stages) {
+				this.stages.add(stage.copy());
+				totalShare += stage.getShare();
+			}
+			if (Math.abs(totalShare - 1.0) > 1e-6) {
+				throw new IllegalArgumentException("Shares of the stages of " + this + " must add up to 1!");
+			}
+		}
 	}
 
 	/**
@@ -37,45 +112,299 @@ public class Outlet {
 	}
 
 	/**
-	 * Prepares beverage at outlet given all the ingredients in stock and update
-	 * accordingly if successful. Runs validations on outlet if already being in
-	 * use. Will wait for few seconds to free the outlet before next beverage can be
-	 * prepared else throw an error.
+	 * Returns relative speed of the outlet.
+	 * 
+	 * @return
+	 */
+	public double getThroughputFactor() {
+		return throughputFactor;
+	}
+
+	/**
+	 * Returns max no. of cups of the same beverage brewed together.
+	 * 
+	 * @return
+	 */
+	public int getBatchCapacity() {
+		return batchCapacity;
+	}
+
+	/**
+	 * Returns the extra share of the preparation time each cup after the first
+	 * one adds to a brew.
+	 * 
+	 * @return
+	 */
+	public double getExtraCupShare() {
+		return extraCupShare;
+	}
+
+	/**
+	 * Lets the outlet brew up to the given no. of cups of the same beverage
+	 * together, each cup after the first one adding the given share of the
+	 * preparation time.
+	 * 
+	 * @param batchCapacity
+	 * @param extraCupShare
+	 * @throws IllegalArgumentException
+	 */
+	public void setBatching(int batchCapacity, double extraCupShare) throws IllegalArgumentException {
+		if (batchCapacity <= 0) {
+			throw new IllegalArgumentException("Batch capacity of " + this + " must be positive!");
+		}
+		if (!(extraCupShare >= 0)) {
+			throw new IllegalArgumentException("Extra cup share of " + this + " cannot be negative!");
+		}
+		this.batchCapacity = batchCapacity;
+		this.extraCupShare = extraCupShare;
+	}
+
+	/**
+	 * Adds to the time in millis the outlet will be kept busy by orders queued for
+	 * it.
+	 * 
+	 * @param delta
+	 */
+	void addQueuedWork(long delta) {
+		queuedWork.addAndGet(delta);
+	}
+
+	/**
+	 * Pushes the time at which the outlet frees up by the time in millis an order
+	 * just taken off the queue keeps it busy, so that the outlet doesn't look free
+	 * till the brew of the order starts.
+	 * 
+	 * @param cycleTime
+	 */
+	void takeQueuedWork(long cycleTime) {
+		freeAt = Math.max(System.currentTimeMillis(), freeAt) + cycleTime;
+	}
+
+	/**
+	 * Returns an estimate of the time in millis at which the outlet can start a
+	 * new order, after the orders it's working on and the ones queued for it.
+	 * 
+	 * @param now
+	 * @return
+	 */
+	public long getAvailableAt(long now) {
+		return Math.max(now, freeAt) + queuedWork.get();
+	}
+
+	/**
+	 * Returns stages of the outlet in the order a beverage passes through them.
+	 * 
+	 * @return
+	 */
+	public List<OutletStage> getStages() {
+		return Collections.unmodifiableList(stages);
+	}
+
+	/**
+	 * Returns max no. of beverages the outlet works on at a time across all it's
+	 * stages.
+	 * 
+	 * @return
+	 */
+	public int getCapacity() {
+		int capacity = 0;
+		for (OutletStage stage : stages) {
+			capacity += stage.getCapacity();
+		}
+		return capacity;
+	}
+
+	/**
+	 * Returns the stage with the highest utilization so far, which limits the
+	 * throughput of the outlet.
+	 * 
+	 * @return
+	 */
+	public OutletStage getBottleneckStage() {
+		OutletStage bottleneck = stages.get(0);
+		for (OutletStage stage : stages) {
+			if (stage.getUtilization() > bottleneck.getUtilization()) {
+				bottleneck = stage;
+			}
+		}
+		return bottleneck;
+	}
+
+	/**
+	 * Returns time in millis between successive beverages leaving this outlet
+	 * when it's kept busy, set by the slowest stage for it's capacity.
+	 * 
+	 * @param beverage
+	 * @return
+	 */
+	public long getCycleTime(Beverage beverage) {
+		return getCycleTime(beverage, 1);
+	}
+
+	/**
+	 * Returns time in millis between successive brews of the given no. of cups of
+	 * the beverage leaving this outlet when it's kept busy.
 	 * 
 	 * @param beverage
-	 * @param ingredients
+	 * @param cups
+	 * @return
+	 */
+	public long getCycleTime(Beverage beverage, int cups) {
+		int prepareTime = getPrepareTime(beverage, cups);
+		long cycleTime = 1;
+		for (OutletStage stage : stages) {
+			long stageCycle = (stage.getDuration(prepareTime) + stage.getCapacity() - 1) / stage.getCapacity();
+			cycleTime = Math.max(cycleTime, stageCycle);
+		}
+		return cycleTime;
+	}
+
+	/**
+	 * Returns time in millis this outlet takes to prepare the beverage.
+	 * 
+	 * @param beverage
+	 * @return
+	 */
+	public int getPrepareTime(Beverage beverage) {
+		return Math.max(1, (int) Math.round(beverage.getPrepareTime() / throughputFactor));
+	}
+
+	/**
+	 * Returns time in millis this outlet takes to prepare the given no. of cups of
+	 * the beverage in one brew.
+	 * 
+	 * @param beverage
+	 * @param cups
+	 * @return
+	 */
+	public int getPrepareTime(Beverage beverage, int cups) {
+		return Math.max(1, (int) Math.round(getPrepareTime(beverage) * (1 + extraCupShare * (cups - 1))));
+	}
+
+	/**
+	 * Returns true if every slot of the first stage of the outlet is taken by a
+	 * beverage, so that a new order has to wait for the outlet.
+	 * 
+	 * @return
+	 */
+	public boolean isBusy() {
+		return brewing.get() >= stages.get(0).getCapacity();
+	}
+
+	/**
+	 * Takes a slot in the first stage of the outlet for the next order within the
+	 * given time. Returns false if no slot was free in time.
+	 * 
+	 * @param timeout
+	 * @param unit
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public boolean acquireSlot(long timeout, TimeUnit unit) throws InterruptedException {
+		return stages.get(0).tryEnter(timeout, unit);
+	}
+
+	/**
+	 * Frees a slot in the first stage taken for an order that never came.
+	 */
+	public void releaseSlot() {
+		stages.get(0).abandon();
+	}
+
+	/**
+	 * Prepares the beverage of an order at outlet holding a slot in the first
+	 * stage, once it's ingredients are reserved. Returns true if the beverage was
+	 * prepared.
+	 * 
+	 * @param order
+	 * @return
+	 * @throws IllegalArgumentException
+	 * @throws InterruptedException
+	 */
+	public boolean prepareBeverage(Order order) throws IllegalArgumentException, InterruptedException {
+		if (order == null) {
+			throw new IllegalArgumentException("Order is not defined! Cannot prepare beverage!");
+		}
+		return prepareBeverages(Collections.singletonList(order));
+	}
+
+	/**
+	 * Prepares the beverage of a group of orders for the same beverage at outlet
+	 * in one brew, once their ingredients are reserved. Must be called holding a
+	 * slot in the first stage taken with acquireSlot, which is given up when the
+	 * brew leaves the outlet or if no order is left to brew. Orders brewed are
+	 * moved to BREWING, and the ones cancelled meanwhile are left as they were.
+	 * Returns true if the beverages were prepared.
+	 * 
+	 * @param orders
+	 * @return
 	 * @throws IllegalArgumentException
 	 * @throws InterruptedException
 	 */
-	public void prepareBeverage(Beverage beverage, Map<String, Ingredient> ingredients)
-			throws IllegalArgumentException, InterruptedException {
-		if (beverage == null) {
-			throw new IllegalArgumentException("Beverage is not defined! Cannot prepare beverage!");
+	public boolean prepareBeverages(List<Order> orders) throws IllegalArgumentException, InterruptedException {
+		OutletStage current = stages.get(0);
+		if (orders == null || orders.isEmpty()) {
+			current.abandon();
+			throw new IllegalArgumentException("Orders are not defined! Cannot prepare beverage!");
 		}
-		// Show a warning message if outlet already occupied.
+		if (orders.size() > batchCapacity) {
+			current.abandon();
+			throw new IllegalArgumentException(
+					this + " can prepare at most " + batchCapacity + " beverage(s) in one brew!");
+		}
+		// Orders may have been cancelled right before their brew starts.
+		Beverage beverage = orders.get(0).getBeverage();
 		String beverageName = beverage.getName();
-		if (lock.isLocked()) {
-			System.out.println("Somebody already preparing a beverage at " + this + ".");
-		}
-		// Try to acquire lock on outlet for few seconds before failing out preparing
-		// the beverage on this outlet.
-		int prepareTime = beverage.getPrepareTime();
-		if (lock.tryLock(prepareTime * 2, TimeUnit.MILLISECONDS)) {
-			// Once lock is acquired, mix the ingredients and wait till beverage is prepared
-			// and served.
-			try {
-				System.out.println("Preparing " + beverageName + " at " + this + " (ETA = "
-						+ (double) (prepareTime / 1000) + " seconds).");
-				TimeUnit.MILLISECONDS.sleep(prepareTime);
-			} finally {
-				// Unlock the lock on the outlet so other beverages can be prepared.
-				lock.unlock();
-				System.out.println("Prepared " + beverageName + " at " + this + ".");
+		long now = System.currentTimeMillis();
+		int cups = 0;
+		for (Order order : orders) {
+			if (order.update(OrderStatus.PREPARING, OrderStatus.BREWING, null)) {
+				order.getTrace().enter(OrderTrace.Phase.BREW);
+				cups++;
+			}
+		}
+		if (cups == 0) {
+			current.abandon();
+			return false;
+		}
+		brewing.incrementAndGet();
+		freeAt = now + getCycleTime(beverage, cups);
+		// Pass the beverages through every stage, entering the next stage before
+		// leaving the current one so beverages never overtake each other.
+		String what = (cups > 1) ? cups + " x " + beverageName : beverageName;
+		try {
+			int prepareTime = getPrepareTime(beverage, cups);
+			LOG.info("Preparing {} at {} (ETA = {} seconds).", what, this, prepareTime / 1000.0);
+			for (int i = 0; i < stages.size(); i++) {
+				long enteredAt = System.nanoTime();
+				TimeUnit.MILLISECONDS.sleep(current.getDuration(prepareTime));
+				long finishedAt = System.nanoTime();
+				OutletStage next = (i + 1 < stages.size()) ? stages.get(i + 1) : null;
+				if (next != null) {
+					next.enter();
+				}
+				if (i == 0) {
+					brewing.decrementAndGet();
+				}
+				current.exit(enteredAt, finishedAt);
+				current = next;
+			}
+		} finally {
+			// Free the slot held if preparing was interrupted midway.
+			if (current != null) {
+				if (current == stages.get(0)) {
+					brewing.decrementAndGet();
+				}
+				current.abandon();
+			}
+		}
+		for (Order order : orders) {
+			if (order.getStatus() == OrderStatus.BREWING) {
+				order.getTrace().enter(OrderTrace.Phase.COMPLETION);
 			}
-		} else {
-			System.out
-					.println("Cannot prepare " + beverageName + " in " + this + " right now. Please try again later.");
 		}
+		LOG.info("Prepared {} at {}.", what, this);
+		return true;
 	}
 
 	/**
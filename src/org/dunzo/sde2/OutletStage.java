@@ -0,0 +1,270 @@
+package org.dunzo.sde2;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+/**
+ * OutletStage --- Class representing one stage of an outlet's pipeline, e.g.
+ * dispense, brew or serve. A stage works on up to it's capacity of beverages at
+ * a time and takes a share of the beverage's preparation time. A beverage holds
+ * it's slot in a stage till the next stage has room for it.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class OutletStage {
+	private String name;
+	private int capacity;
+	private double share;
+	private Semaphore slots;
+
+	// Stats for beverages that passed through the stage.
+	private final LongAdder completed;
+	private final LongAdder busyTime;
+	private final LongAdder blockedTime;
+	private final long createdAt;
+
+	// Contention for the slots of the stage.
+	private final LockProfile profile;
+
+	/**
+	 * @param name
+	 * @param capacity
+	 * @param share
+	 * @throws IllegalArgumentException
+	 */
+	public OutletStage(String name, int capacity, double share) throws IllegalArgumentException {
+		if (name == null) {
+			throw new IllegalArgumentException("Outlet stage name is not defined!");
+		}
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Capacity of outlet stage " + name + " must be positive!");
+		}
+		if (!(share > 0 && share <= 1)) {
+			throw new IllegalArgumentException("Share of outlet stage " + name + " must be in (0, 1]!");
+		}
+		this.name = name;
+		this.capacity = capacity;
+		this.share = share;
+		this.slots = new Semaphore(capacity, true);
+		this.completed = new LongAdder();
+		this.busyTime = new LongAdder();
+		this.blockedTime = new LongAdder();
+		this.createdAt = System.nanoTime();
+		this.profile = new LockProfile();
+	}
+
+	/**
+	 * Returns a copy of the stage with the same setup and no stats, for another
+	 * outlet.
+	 *
+	 * @return
+	 */
+	public OutletStage copy() {
+		return new OutletStage(name, capacity, share);
+	}
+
+	/**
+	 * Returns stage name.
+	 *
+	 * @return
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns no. of beverages the stage works on at a time.
+	 *
+	 * @return
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns share of a beverage's preparation time taken by the stage.
+	 *
+	 * @return
+	 */
+	public double getShare() {
+		return share;
+	}
+
+	/**
+	 * Returns time in millis the stage works on a beverage with the given
+	 * preparation time.
+	 *
+	 * @param prepareTime
+	 * @return
+	 */
+	public long getDuration(int prepareTime) {
+		return Math.round(share * prepareTime);
+	}
+
+	/**
+	 * Returns true if all the slots of the stage are taken.
+	 *
+	 * @return
+	 */
+	public boolean isFull() {
+		return slots.availablePermits() == 0;
+	}
+
+	/**
+	 * Tries to take a slot in the stage within the given time.
+	 *
+	 * @param timeout
+	 * @param unit
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public boolean tryEnter(long timeout, TimeUnit unit) throws InterruptedException {
+		return tryEnter(timeout, timeout, unit, () -> true);
+	}
+
+	/**
+	 * Tries to take a slot in the stage within the given time, checking at the
+	 * given interval if the slot is still wanted and giving up early if it isn't.
+	 * The whole wait is profiled as a single attempt.
+	 *
+	 * @param timeout
+	 * @param checkInterval
+	 * @param unit
+	 * @param stillWanted
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public boolean tryEnter(long timeout, long checkInterval, TimeUnit unit, BooleanSupplier stillWanted)
+			throws InterruptedException {
+		if (slots.tryAcquire()) {
+			profile.recordUncontended();
+			return true;
+		}
+		long start = System.nanoTime();
+		long deadline = start + unit.toNanos(timeout);
+		try {
+			while (stillWanted.getAsBoolean()) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					break;
+				}
+				if (slots.tryAcquire(Math.min(remaining, unit.toNanos(checkInterval)), TimeUnit.NANOSECONDS)) {
+					profile.recordAcquired(System.nanoTime() - start);
+					return true;
+				}
+			}
+		} catch (InterruptedException e) {
+			profile.recordFailed(System.nanoTime() - start);
+			throw e;
+		}
+		profile.recordFailed(System.nanoTime() - start);
+		return false;
+	}
+
+	/**
+	 * Waits till a slot in the stage is free and takes it.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void enter() throws InterruptedException {
+		if (slots.tryAcquire()) {
+			profile.recordUncontended();
+			return;
+		}
+		long start = System.nanoTime();
+		try {
+			slots.acquire();
+		} catch (InterruptedException e) {
+			profile.recordFailed(System.nanoTime() - start);
+			throw e;
+		}
+		profile.recordAcquired(System.nanoTime() - start);
+	}
+
+	/**
+	 * Frees a slot taken by a beverage that was never worked on.
+	 */
+	public void abandon() {
+		slots.release();
+	}
+
+	/**
+	 * Frees the slot of a beverage that entered at the given time in nanos and
+	 * finished it's work at the given time, recording how long it was busy and
+	 * how long it then waited for the next stage. The slot counts as held for
+	 * both.
+	 *
+	 * @param enteredAt
+	 * @param finishedAt
+	 */
+	public void exit(long enteredAt, long finishedAt) {
+		long exitedAt = System.nanoTime();
+		completed.increment();
+		busyTime.add(finishedAt - enteredAt);
+		blockedTime.add(exitedAt - finishedAt);
+		profile.recordHold(exitedAt - enteredAt);
+		slots.release();
+	}
+
+	/**
+	 * Returns the contention statistics for the slots of the stage.
+	 *
+	 * @return
+	 */
+	public LockProfile getProfile() {
+		return profile;
+	}
+
+	/**
+	 * Returns no. of beverages that passed through the stage.
+	 *
+	 * @return
+	 */
+	public long getCompleted() {
+		return completed.sum();
+	}
+
+	/**
+	 * Returns beverages per second that passed through the stage since it was
+	 * created.
+	 *
+	 * @return
+	 */
+	public double getThroughput() {
+		double elapsed = (System.nanoTime() - createdAt) / 1e9;
+		return (elapsed > 0) ? completed.sum() / elapsed : 0;
+	}
+
+	/**
+	 * Returns the fraction of time the slots of the stage were working on
+	 * beverages. The stage with the highest utilization is the bottleneck.
+	 *
+	 * @return
+	 */
+	public double getUtilization() {
+		double elapsed = (double) (System.nanoTime() - createdAt) * capacity;
+		return (elapsed > 0) ? busyTime.sum() / elapsed : 0;
+	}
+
+	/**
+	 * Returns the fraction of time the slots of the stage held finished beverages
+	 * waiting for the next stage.
+	 *
+	 * @return
+	 */
+	public double getBlockedRatio() {
+		double elapsed = (double) (System.nanoTime() - createdAt) * capacity;
+		return (elapsed > 0) ? blockedTime.sum() / elapsed : 0;
+	}
+
+	/**
+	 * Return a string representation for OutletStage object.
+	 */
+	@Override
+	public String toString() {
+		return "STAGE(" + name + ", capacity = " + capacity + ", share = " + share + ")";
+	}
+}
@@ -0,0 +1,129 @@
+package org.dunzo.sde2;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ProfiledLock --- Reentrant lock that records it's contention in a lock
+ * profile. Every acquire first tries to barge in, so an uncontended acquire
+ * only costs a counter increment, and the clock is read only when the lock has
+ * to be waited for and when it's taken and finally released. Reentrant
+ * acquires count as attempts, but only the outermost hold is timed.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class ProfiledLock extends ReentrantLock {
+	private static final long serialVersionUID = 1L;
+
+	private final transient LockProfile profile;
+
+	// Time in nanos the owner took the lock at, only touched by the owner.
+	private long acquiredAt;
+
+	/**
+	 * 
+	 */
+	public ProfiledLock() {
+		this.profile = new LockProfile();
+	}
+
+	/**
+	 * Returns the contention statistics of the lock.
+	 *
+	 * @return
+	 */
+	public LockProfile getProfile() {
+		return profile;
+	}
+
+	/**
+	 * Records the lock being taken, after waiting since the given time in nanos.
+	 *
+	 * @param waitingSince
+	 */
+	private void acquired(long waitingSince) {
+		long now = System.nanoTime();
+		profile.recordAcquired(now - waitingSince);
+		if (getHoldCount() == 1) {
+			acquiredAt = now;
+		}
+	}
+
+	/**
+	 * Records the lock being taken at once.
+	 */
+	private void acquiredUncontended() {
+		profile.recordUncontended();
+		if (getHoldCount() == 1) {
+			acquiredAt = System.nanoTime();
+		}
+	}
+
+	@Override
+	public void lock() {
+		if (super.tryLock()) {
+			acquiredUncontended();
+			return;
+		}
+		long start = System.nanoTime();
+		super.lock();
+		acquired(start);
+	}
+
+	@Override
+	public void lockInterruptibly() throws InterruptedException {
+		if (super.tryLock()) {
+			acquiredUncontended();
+			return;
+		}
+		long start = System.nanoTime();
+		try {
+			super.lockInterruptibly();
+		} catch (InterruptedException e) {
+			profile.recordFailed(System.nanoTime() - start);
+			throw e;
+		}
+		acquired(start);
+	}
+
+	@Override
+	public boolean tryLock() {
+		if (super.tryLock()) {
+			acquiredUncontended();
+			return true;
+		}
+		profile.recordFailed(0);
+		return false;
+	}
+
+	@Override
+	public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+		if (super.tryLock()) {
+			acquiredUncontended();
+			return true;
+		}
+		long start = System.nanoTime();
+		boolean locked;
+		try {
+			locked = super.tryLock(timeout, unit);
+		} catch (InterruptedException e) {
+			profile.recordFailed(System.nanoTime() - start);
+			throw e;
+		}
+		if (!locked) {
+			profile.recordFailed(System.nanoTime() - start);
+			return false;
+		}
+		acquired(start);
+		return true;
+	}
+
+	@Override
+	public void unlock() {
+		if (getHoldCount() == 1) {
+			profile.recordHold(System.nanoTime() - acquiredAt);
+		}
+		super.unlock();
+	}
+}
@@ -1,7 +1,7 @@
 package org.dunzo.sde2;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Recipe --- Class representing beverage recipes and their required
@@ -12,15 +12,28 @@ import java.util.Map;
  */
 public class Recipe implements IRecipe {
 	private String name;
-	private final int prepareTime = 5000; // Assumption - all recipes take 5 seconds to prepare
+	private int prepareTime;
 	private Map<String, Ingredient> ingredients;
 
+	// Assumption - recipes take 5 seconds to prepare unless configured otherwise
+	public final static int DEFAULT_PREPARE_TIME = 5000;
+
 	/**
 	 * @param name
 	 */
 	public Recipe(String name) {
+		this(name, DEFAULT_PREPARE_TIME);
+	}
+
+	/**
+	 * @param name
+	 * @param prepareTime
+	 */
+	public Recipe(String name, int prepareTime) {
 		this.name = name;
-		this.ingredients = new HashMap<String, Ingredient>();
+		// Concurrent so that orders can read the recipe while it's being changed.
+		this.ingredients = new ConcurrentHashMap<String, Ingredient>();
+		setPrepareTime(prepareTime);
 	}
 
 	/**
@@ -41,6 +54,32 @@ public class Recipe implements IRecipe {
 		return prepareTime;
 	}
 
+	/**
+	 * Set recipe preparation time in millis.
+	 * 
+	 * @param prepareTime
+	 * @throws IllegalArgumentException
+	 */
+	public void setPrepareTime(int prepareTime) throws IllegalArgumentException {
+		if (prepareTime <= 0) {
+			throw new IllegalArgumentException("Preparation time of " + this + " must be positive!");
+		}
+		this.prepareTime = prepareTime;
+	}
+
+	/**
+	 * Return total quantity of all ingredients in the recipe.
+	 * 
+	 * @return
+	 */
+	public int getTotalQuantity() {
+		int total = 0;
+		for (Ingredient ing : ingredients.values()) {
+			total += ing.getQuantity();
+		}
+		return total;
+	}
+
 	/**
 	 * Return Ingredient object for given ingredient name.
 	 * 
@@ -82,11 +121,9 @@ public class Recipe implements IRecipe {
 		if (ingredient == null) {
 			throw new IllegalArgumentException("Ingredient is not defined! Cannot remove from " + this);
 		}
-		// Validate if ingredient exists in the recipe before attempting to remove.
+		// Validate if ingredient exists in the recipe while removing it.
 		String ingredientName = ingredient.getName();
-		if (this.ingredients.containsKey(ingredient.getName())) {
-			this.ingredients.remove(ingredientName);
-		} else {
+		if (this.ingredients.remove(ingredientName) == null) {
 			throw new IllegalArgumentException(
 					ingredient + " doesn't exist for " + this + "! Cannot remove from " + this);
 		}
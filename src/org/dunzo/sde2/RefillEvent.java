@@ -0,0 +1,98 @@
+package org.dunzo.sde2;
+
+/**
+ * RefillEvent --- Raised when an ingredient is predicted to run out before a
+ * refill ordered now could arrive.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class RefillEvent {
+	private String ingredientName;
+	private int quantity;
+	private double rate;
+	private long timeToEmpty;
+	private long leadTime;
+	private long raisedAt;
+
+	/**
+	 * @param ingredientName
+	 * @param quantity
+	 * @param rate
+	 * @param timeToEmpty
+	 * @param leadTime
+	 * @param raisedAt
+	 */
+	public RefillEvent(String ingredientName, int quantity, double rate, long timeToEmpty, long leadTime,
+			long raisedAt) {
+		this.ingredientName = ingredientName;
+		this.quantity = quantity;
+		this.rate = rate;
+		this.timeToEmpty = timeToEmpty;
+		this.leadTime = leadTime;
+		this.raisedAt = raisedAt;
+	}
+
+	/**
+	 * Returns name of the ingredient running out.
+	 *
+	 * @return
+	 */
+	public String getIngredientName() {
+		return ingredientName;
+	}
+
+	/**
+	 * Returns quantity of the ingredient in stock when the event was raised.
+	 *
+	 * @return
+	 */
+	public int getQuantity() {
+		return quantity;
+	}
+
+	/**
+	 * Returns the forecast consumption of the ingredient per second.
+	 *
+	 * @return
+	 */
+	public double getRate() {
+		return rate;
+	}
+
+	/**
+	 * Returns the predicted time in millis till the ingredient runs out.
+	 *
+	 * @return
+	 */
+	public long getTimeToEmpty() {
+		return timeToEmpty;
+	}
+
+	/**
+	 * Returns the time in millis a refill takes to arrive.
+	 *
+	 * @return
+	 */
+	public long getLeadTime() {
+		return leadTime;
+	}
+
+	/**
+	 * Returns the time in millis at which the event was raised.
+	 *
+	 * @return
+	 */
+	public long getRaisedAt() {
+		return raisedAt;
+	}
+
+	/**
+	 * Return a string representation for RefillEvent object.
+	 */
+	@Override
+	public String toString() {
+		return "REFILL(" + ingredientName + ", quantity = " + quantity + ", empty in "
+				+ String.format("%.1f", timeToEmpty / 1000.0) + " seconds)";
+	}
+}
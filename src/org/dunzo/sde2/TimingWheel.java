@@ -0,0 +1,282 @@
+package org.dunzo.sde2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * TimingWheel --- Hierarchical timing wheel holding items until their
+ * expiration time. Each level has the same no. of buckets, and every bucket of
+ * a level spans a whole rotation of the level below it. Adding and removing an
+ * item is O(1), and items in higher levels are cascaded down to lower levels as
+ * the wheel turns, so a large no. of far away timers stay cheap.
+ *
+ * The wheel is not driven by a thread of it's own. The owner calls advance()
+ * periodically with the current time to collect expired items.
+ *
+ * @author Atul Shanbhag
+ *
+ * @param <T>
+ */
+public class TimingWheel<T> {
+	private final long tickDuration;
+	private final int wheelSize;
+	private final int nLevels;
+
+	// Buckets per level, each bucket is the head of a doubly linked list.
+	private final Entry<T>[][] buckets;
+
+	// Tick duration in millis of every level.
+	private final long[] levelTicks;
+
+	// Current time of the wheel in ticks of the lowest level.
+	private long currentTick;
+	private int size;
+
+	/**
+	 * Entry --- Node holding an item in a bucket of the wheel.
+	 *
+	 * @param <T>
+	 */
+	public static class Entry<T> {
+		private final T item;
+		private final long expiration;
+		private Entry<T> prev;
+		private Entry<T> next;
+		private int level = -1;
+		private int bucket = -1;
+
+		/**
+		 * @param item
+		 * @param expiration
+		 */
+		private Entry(T item, long expiration) {
+			this.item = item;
+			this.expiration = expiration;
+		}
+
+		/**
+		 * Returns the item held by the entry.
+		 *
+		 * @return
+		 */
+		public T getItem() {
+			return item;
+		}
+
+		/**
+		 * Returns the time in millis at which the entry expires.
+		 *
+		 * @return
+		 */
+		public long getExpiration() {
+			return expiration;
+		}
+	}
+
+	/**
+	 * @param tickDuration
+	 * @param wheelSize
+	 * @param nLevels
+	 * @param startTime
+	 * @throws IllegalArgumentException
+	 */
+	@SuppressWarnings("unchecked")
+	public TimingWheel(long tickDuration, int wheelSize, int nLevels, long startTime)
+			throws IllegalArgumentException {
+		if (tickDuration <= 0 || wheelSize <= 1 || nLevels <= 0) {
+			throw new IllegalArgumentException("Timing wheel needs a positive tick, size and no. of levels!");
+		}
+		this.tickDuration = tickDuration;
+		this.wheelSize = wheelSize;
+		this.nLevels = nLevels;
+		this.buckets = (Entry<T>[][]) new Entry<?>[nLevels][wheelSize];
+		this.levelTicks = new long[nLevels];
+		long levelTick = tickDuration;
+		for (int i = 0; i < nLevels; i++) {
+			levelTicks[i] = levelTick;
+			levelTick = Math.multiplyExact(levelTick, wheelSize);
+		}
+		this.currentTick = startTime / tickDuration;
+	}
+
+	/**
+	 * Returns the tick duration in millis of the lowest level.
+	 *
+	 * @return
+	 */
+	public long getTickDuration() {
+		return tickDuration;
+	}
+
+	/**
+	 * Returns no. of items waiting in the wheel.
+	 *
+	 * @return
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Adds an item expiring at the given time. Returns null if the item has
+	 * already expired at the current time of the wheel, in which case the caller
+	 * should handle it right away.
+	 *
+	 * @param item
+	 * @param expiration
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	public synchronized Entry<T> add(T item, long expiration) throws IllegalArgumentException {
+		Entry<T> entry = new Entry<T>(item, expiration);
+		return insert(entry) ? entry : null;
+	}
+
+	/**
+	 * Removes an entry added earlier. Returns false if it has already expired or
+	 * was removed.
+	 *
+	 * @param entry
+	 * @return
+	 */
+	public synchronized boolean remove(Entry<T> entry) {
+		if (entry == null || entry.level < 0) {
+			return false;
+		}
+		unlink(entry);
+		return true;
+	}
+
+	/**
+	 * Moves the wheel forward to the given time and returns all the items that
+	 * expired on the way.
+	 *
+	 * @param now
+	 * @return
+	 */
+	public synchronized List<T> advance(long now) {
+		List<T> expired = new ArrayList<T>();
+		long targetTick = now / tickDuration;
+		while (currentTick < targetTick) {
+			currentTick++;
+			// Cascade higher levels first so their entries land in lower levels before
+			// those are processed for this tick.
+			for (int level = nLevels - 1; level >= 0; level--) {
+				long levelSpan = levelTicks[level] / tickDuration;
+				if (currentTick % levelSpan == 0) {
+					flushBucket(level, (int) ((currentTick / levelSpan) % wheelSize), expired);
+				}
+			}
+		}
+		return expired;
+	}
+
+	/**
+	 * Removes all the items from the wheel, e.g. when it's owner is closed.
+	 *
+	 * @return
+	 */
+	public synchronized List<T> clear() {
+		List<T> items = new ArrayList<T>(size);
+		for (int level = 0; level < nLevels; level++) {
+			for (int bucket = 0; bucket < wheelSize; bucket++) {
+				while (buckets[level][bucket] != null) {
+					Entry<T> entry = buckets[level][bucket];
+					unlink(entry);
+					items.add(entry.item);
+				}
+			}
+		}
+		return items;
+	}
+
+	/**
+	 * Re-inserts all the entries of a bucket, which either expire now or move to a
+	 * lower level.
+	 *
+	 * @param level
+	 * @param bucket
+	 * @param expired
+	 */
+	private void flushBucket(int level, int bucket, List<T> expired) {
+		Entry<T> entry = buckets[level][bucket];
+		buckets[level][bucket] = null;
+		while (entry != null) {
+			Entry<T> next = entry.next;
+			entry.prev = null;
+			entry.next = null;
+			entry.level = -1;
+			entry.bucket = -1;
+			size--;
+			if (!insert(entry)) {
+				expired.add(entry.item);
+			}
+			entry = next;
+		}
+	}
+
+	/**
+	 * Places an entry in the lowest level whose rotation covers it's expiration.
+	 * Returns false if the entry has already expired.
+	 *
+	 * @param entry
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	private boolean insert(Entry<T> entry) throws IllegalArgumentException {
+		long now = currentTick * tickDuration;
+		if (entry.expiration / tickDuration <= currentTick) {
+			return false;
+		}
+		for (int level = 0; level < nLevels; level++) {
+			long levelTick = levelTicks[level];
+			long ticksAway = entry.expiration / levelTick - now / levelTick;
+			if (ticksAway < wheelSize) {
+				link(entry, level, (int) ((entry.expiration / levelTick) % wheelSize));
+				return true;
+			}
+		}
+		throw new IllegalArgumentException("Expiration " + entry.expiration + " is too far away for the timing wheel!");
+	}
+
+	/**
+	 * Links an entry at the head of a bucket.
+	 *
+	 * @param entry
+	 * @param level
+	 * @param bucket
+	 */
+	private void link(Entry<T> entry, int level, int bucket) {
+		Entry<T> head = buckets[level][bucket];
+		entry.next = head;
+		entry.prev = null;
+		if (head != null) {
+			head.prev = entry;
+		}
+		buckets[level][bucket] = entry;
+		entry.level = level;
+		entry.bucket = bucket;
+		size++;
+	}
+
+	/**
+	 * Unlinks an entry from it's bucket.
+	 *
+	 * @param entry
+	 */
+	private void unlink(Entry<T> entry) {
+		if (entry.prev != null) {
+			entry.prev.next = entry.next;
+		} else {
+			buckets[entry.level][entry.bucket] = entry.next;
+		}
+		if (entry.next != null) {
+			entry.next.prev = entry.prev;
+		}
+		entry.prev = null;
+		entry.next = null;
+		entry.level = -1;
+		entry.bucket = -1;
+		size--;
+	}
+}
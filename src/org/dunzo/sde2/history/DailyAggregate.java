@@ -0,0 +1,112 @@
+package org.dunzo.sde2.history;
+
+import java.time.LocalDate;
+
+import org.dunzo.sde2.OrderStatus;
+
+/**
+ * DailyAggregate --- No. of orders of a beverage that ended in each final
+ * status on a day, and the time they took.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class DailyAggregate {
+	private final static OrderStatus[] STATUSES = OrderStatus.values();
+
+	private final LocalDate day;
+	private final String beverageName;
+	private final long[] counts;
+	private final long[] totalLatencies;
+
+	/**
+	 * @param day
+	 * @param beverageName
+	 */
+	DailyAggregate(LocalDate day, String beverageName) {
+		this.day = day;
+		this.beverageName = beverageName;
+		this.counts = new long[STATUSES.length];
+		this.totalLatencies = new long[STATUSES.length];
+	}
+
+	/**
+	 * Adds orders that ended in the status, and the sum of their latencies.
+	 *
+	 * @param status
+	 * @param count
+	 * @param totalLatency
+	 */
+	void add(OrderStatus status, long count, long totalLatency) {
+		counts[status.ordinal()] += count;
+		totalLatencies[status.ordinal()] += totalLatency;
+	}
+
+	/**
+	 * Returns the day.
+	 *
+	 * @return
+	 */
+	public LocalDate getDay() {
+		return day;
+	}
+
+	/**
+	 * Returns the beverage.
+	 *
+	 * @return
+	 */
+	public String getBeverageName() {
+		return beverageName;
+	}
+
+	/**
+	 * Returns no. of orders that ended in the status.
+	 *
+	 * @param status
+	 * @return
+	 */
+	public long getCount(OrderStatus status) {
+		return counts[status.ordinal()];
+	}
+
+	/**
+	 * Returns no. of orders that reached any final status.
+	 *
+	 * @return
+	 */
+	public long getTotal() {
+		long total = 0;
+		for (long count : counts) {
+			total += count;
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the mean time in millis from intake till the final status, over the
+	 * orders that ended in the status, or 0 if there are none.
+	 *
+	 * @param status
+	 * @return
+	 */
+	public double getMeanLatency(OrderStatus status) {
+		long count = counts[status.ordinal()];
+		return (count == 0) ? 0 : (double) totalLatencies[status.ordinal()] / count;
+	}
+
+	/**
+	 * Return a string representation for DailyAggregate object.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(day + " " + beverageName + ": " + getTotal() + " orders");
+		for (OrderStatus status : STATUSES) {
+			if (counts[status.ordinal()] > 0) {
+				sb.append(String.format(", %s = %d (mean %.1f ms)", status, counts[status.ordinal()],
+						getMeanLatency(status)));
+			}
+		}
+		return sb.toString();
+	}
+}
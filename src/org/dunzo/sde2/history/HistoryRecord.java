@@ -0,0 +1,113 @@
+package org.dunzo.sde2.history;
+
+import org.dunzo.sde2.OrderPriority;
+import org.dunzo.sde2.OrderStatus;
+
+/**
+ * HistoryRecord --- An order that reached a final status, as kept by the order
+ * history.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class HistoryRecord {
+	private final long orderId;
+	private final long finishedAt;
+	private final long latency;
+	private final String beverageName;
+	private final int outletNo;
+	private final OrderStatus status;
+	private final OrderPriority priority;
+
+	/**
+	 * @param orderId
+	 * @param finishedAt
+	 * @param latency
+	 * @param beverageName
+	 * @param outletNo
+	 * @param status
+	 * @param priority
+	 */
+	HistoryRecord(long orderId, long finishedAt, long latency, String beverageName, int outletNo, OrderStatus status,
+			OrderPriority priority) {
+		this.orderId = orderId;
+		this.finishedAt = finishedAt;
+		this.latency = latency;
+		this.beverageName = beverageName;
+		this.outletNo = outletNo;
+		this.status = status;
+		this.priority = priority;
+	}
+
+	/**
+	 * Returns id of the order.
+	 *
+	 * @return
+	 */
+	public long getOrderId() {
+		return orderId;
+	}
+
+	/**
+	 * Returns time in epoch millis the order reached it's final status.
+	 *
+	 * @return
+	 */
+	public long getFinishedAt() {
+		return finishedAt;
+	}
+
+	/**
+	 * Returns time in millis from intake of the order till it's final status.
+	 *
+	 * @return
+	 */
+	public long getLatency() {
+		return latency;
+	}
+
+	/**
+	 * Returns the beverage ordered.
+	 *
+	 * @return
+	 */
+	public String getBeverageName() {
+		return beverageName;
+	}
+
+	/**
+	 * Returns the outlet the order was placed at.
+	 *
+	 * @return
+	 */
+	public int getOutletNo() {
+		return outletNo;
+	}
+
+	/**
+	 * Returns final status of the order.
+	 *
+	 * @return
+	 */
+	public OrderStatus getStatus() {
+		return status;
+	}
+
+	/**
+	 * Returns priority class of the order.
+	 *
+	 * @return
+	 */
+	public OrderPriority getPriority() {
+		return priority;
+	}
+
+	/**
+	 * Return a string representation for HistoryRecord object.
+	 */
+	@Override
+	public String toString() {
+		return "HISTORY(" + orderId + ", " + beverageName + " at OUTLET(" + outletNo + "), " + status + " at "
+				+ finishedAt + " in " + latency + " ms)";
+	}
+}
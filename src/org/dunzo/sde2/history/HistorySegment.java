@@ -0,0 +1,560 @@
+package org.dunzo.sde2.history;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.zip.CRC32;
+
+import org.dunzo.sde2.OrderPriority;
+import org.dunzo.sde2.OrderStatus;
+
+/**
+ * HistorySegment --- One segment of the order history on disk: a data file of
+ * blocks of records, an index file with the time range and offset of every
+ * block, and once the segment is sealed an aggregates file with the no. of
+ * orders and total latency per day, beverage and status.
+ *
+ * A block is written for every batch of the history writer, with it's records
+ * sorted by the time they finished. It has a header of the earliest time in the
+ * block, the no. of records, the length of the records and a CRC32 of them.
+ * Each record holds varints for the time since the earliest one, the order id,
+ * the beverage id and the outlet no., a byte each for the status and priority,
+ * and a varint latency in millis. A block is written to the data file before
+ * it's index entry, so a reader never finds an entry for a block not written
+ * yet. Only the history writer appends to a segment.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+class HistorySegment {
+	private final static int BLOCK_HEADER_SIZE = 20;
+	private final static int INDEX_ENTRY_SIZE = 28;
+
+	// Max size of a record: five varints of up to 10 bytes each for 64 bit values,
+	// and the status and priority bytes.
+	private final static int MAX_RECORD_SIZE = 5 * 10 + 2;
+
+	// Cached since values() copies the array on every call.
+	private final static OrderStatus[] STATUSES = OrderStatus.values();
+	private final static OrderPriority[] PRIORITIES = OrderPriority.values();
+
+	private final long id;
+	private final Path dataFile;
+	private final Path indexFile;
+	private final Path aggregatesFile;
+	private final ZoneId zone;
+
+	// Open while the segment is being written to.
+	private FileChannel data;
+	private FileChannel index;
+	private long size;
+
+	// Time range in epoch millis of the records, empty while min > max.
+	private volatile long minTime = Long.MAX_VALUE;
+	private volatile long maxTime = Long.MIN_VALUE;
+
+	// Aggregates of the segment while it's being written to, keyed by day,
+	// beverage id and status. Each value holds the no. of orders and total
+	// latency.
+	private final Map<Long, long[]> aggregates;
+
+	// Set once the aggregates file is written, guarded by the aggregates.
+	private boolean sealed;
+
+	/**
+	 * @param directory
+	 * @param id
+	 * @param zone
+	 */
+	private HistorySegment(Path directory, long id, ZoneId zone) {
+		this.id = id;
+		String name = String.format("%010d", id);
+		this.dataFile = directory.resolve(name + ".dat");
+		this.indexFile = directory.resolve(name + ".idx");
+		this.aggregatesFile = directory.resolve(name + ".agg");
+		this.zone = zone;
+		this.aggregates = new HashMap<Long, long[]>();
+	}
+
+	/**
+	 * Creates a new empty segment to write to.
+	 *
+	 * @param directory
+	 * @param id
+	 * @param zone
+	 * @return
+	 * @throws IOException
+	 */
+	static HistorySegment create(Path directory, long id, ZoneId zone) throws IOException {
+		HistorySegment segment = new HistorySegment(directory, id, zone);
+		segment.data = FileChannel.open(segment.dataFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		segment.index = FileChannel.open(segment.indexFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		return segment;
+	}
+
+	/**
+	 * Opens a segment written earlier. A segment that was never sealed, e.g.
+	 * because the machine crashed, is recovered from it's data file up to the
+	 * last complete block and sealed.
+	 *
+	 * @param directory
+	 * @param id
+	 * @param zone
+	 * @return
+	 * @throws IOException
+	 */
+	static HistorySegment open(Path directory, long id, ZoneId zone) throws IOException {
+		HistorySegment segment = new HistorySegment(directory, id, zone);
+		if (Files.exists(segment.aggregatesFile)) {
+			segment.sealed = true;
+			ByteBuffer entries = ByteBuffer.wrap(Files.readAllBytes(segment.indexFile));
+			while (entries.remaining() >= INDEX_ENTRY_SIZE) {
+				segment.extendRange(entries.getLong(), entries.getLong());
+				entries.getLong();
+				entries.getInt();
+			}
+		} else {
+			segment.recover();
+		}
+		return segment;
+	}
+
+	/**
+	 * Rebuilds the index and aggregates from the complete blocks of the data
+	 * file, drops anything after them, and seals the segment.
+	 *
+	 * @throws IOException
+	 */
+	private void recover() throws IOException {
+		Files.deleteIfExists(indexFile);
+		data = FileChannel.open(dataFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		index = FileChannel.open(indexFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		long offset = 0;
+		ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+		while (true) {
+			ByteBuffer block = readBlock(data, offset, header);
+			if (block == null) {
+				break;
+			}
+			long baseTime = header.getLong(0);
+			int count = header.getInt(8);
+			long blockMax = Long.MIN_VALUE;
+			for (int i = 0; i < count; i++) {
+				long finishedAt = baseTime + getVarLong(block);
+				getVarLong(block);
+				int beverageId = (int) getVarLong(block);
+				getVarLong(block);
+				int status = block.get();
+				block.get();
+				aggregate(finishedAt, beverageId, status, getVarLong(block));
+				blockMax = Math.max(blockMax, finishedAt);
+			}
+			writeIndexEntry(baseTime, blockMax, offset, count);
+			offset += BLOCK_HEADER_SIZE + header.getInt(12);
+		}
+		data.truncate(offset);
+		size = offset;
+		seal();
+	}
+
+	/**
+	 * Returns the id of the segment, segments are written in the order of their
+	 * ids.
+	 *
+	 * @return
+	 */
+	long getId() {
+		return id;
+	}
+
+	/**
+	 * Returns no. of bytes written to the data file.
+	 *
+	 * @return
+	 */
+	long getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns true if the segment has no records.
+	 *
+	 * @return
+	 */
+	boolean isEmpty() {
+		return minTime > maxTime;
+	}
+
+	/**
+	 * Returns true if the segment may have records in the time range from, and
+	 * including, the given time in epoch millis till, and excluding, the other.
+	 *
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	boolean overlaps(long from, long to) {
+		return minTime < to && maxTime >= from;
+	}
+
+	/**
+	 * Appends a batch of records, sorted by the time they finished, as one block
+	 * along with the id of the beverage of each record.
+	 *
+	 * @param batch
+	 * @param beverageIds
+	 * @throws IOException
+	 */
+	void append(List<HistoryRecord> batch, int[] beverageIds) throws IOException {
+		long baseTime = batch.get(0).getFinishedAt();
+		long blockMax = batch.get(batch.size() - 1).getFinishedAt();
+		ByteBuffer block = ByteBuffer.allocate(BLOCK_HEADER_SIZE + batch.size() * MAX_RECORD_SIZE);
+		block.position(BLOCK_HEADER_SIZE);
+		for (int i = 0; i < batch.size(); i++) {
+			HistoryRecord record = batch.get(i);
+			putVarLong(block, record.getFinishedAt() - baseTime);
+			putVarLong(block, record.getOrderId());
+			putVarLong(block, beverageIds[i]);
+			putVarLong(block, record.getOutletNo());
+			block.put((byte) record.getStatus().ordinal());
+			block.put((byte) record.getPriority().ordinal());
+			putVarLong(block, Math.max(0, record.getLatency()));
+		}
+		int length = block.position() - BLOCK_HEADER_SIZE;
+		CRC32 crc = new CRC32();
+		crc.update(block.array(), BLOCK_HEADER_SIZE, length);
+		block.putLong(0, baseTime).putInt(8, batch.size()).putInt(12, length).putInt(16, (int) crc.getValue());
+		block.flip();
+
+		long offset = size;
+		while (block.hasRemaining()) {
+			data.write(block);
+		}
+		size += BLOCK_HEADER_SIZE + length;
+		writeIndexEntry(baseTime, blockMax, offset, batch.size());
+
+		synchronized (aggregates) {
+			for (int i = 0; i < batch.size(); i++) {
+				HistoryRecord record = batch.get(i);
+				aggregate(record.getFinishedAt(), beverageIds[i], record.getStatus().ordinal(),
+						Math.max(0, record.getLatency()));
+			}
+		}
+	}
+
+	/**
+	 * Appends the index entry of a block and widens the time range of the segment.
+	 *
+	 * @param blockMin
+	 * @param blockMax
+	 * @param offset
+	 * @param count
+	 * @throws IOException
+	 */
+	private void writeIndexEntry(long blockMin, long blockMax, long offset, int count) throws IOException {
+		ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+		entry.putLong(blockMin).putLong(blockMax).putLong(offset).putInt(count).flip();
+		while (entry.hasRemaining()) {
+			index.write(entry);
+		}
+		extendRange(blockMin, blockMax);
+	}
+
+	/**
+	 * Widens the time range of the segment to take in a block.
+	 *
+	 * @param blockMin
+	 * @param blockMax
+	 */
+	private void extendRange(long blockMin, long blockMax) {
+		if (blockMin < minTime) {
+			minTime = blockMin;
+		}
+		if (blockMax > maxTime) {
+			maxTime = blockMax;
+		}
+	}
+
+	/**
+	 * Adds a record to the aggregates of it's day, beverage and status.
+	 *
+	 * @param finishedAt
+	 * @param beverageId
+	 * @param status
+	 * @param latency
+	 */
+	private void aggregate(long finishedAt, int beverageId, int status, long latency) {
+		long day = Instant.ofEpochMilli(finishedAt).atZone(zone).toLocalDate().toEpochDay();
+		long[] totals = aggregates.computeIfAbsent((day << 24) | ((long) beverageId << 8) | status,
+				k -> new long[] { day, beverageId, status, 0, 0 });
+		totals[3]++;
+		totals[4] += latency;
+	}
+
+	/**
+	 * Writes out the aggregates and stops writing to the segment.
+	 *
+	 * @throws IOException
+	 */
+	void seal() throws IOException {
+		data.force(true);
+		index.force(true);
+		data.close();
+		index.close();
+		Path tempFile = aggregatesFile.resolveSibling(aggregatesFile.getFileName() + ".tmp");
+		synchronized (aggregates) {
+			try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(tempFile))) {
+				out.writeInt(aggregates.size());
+				for (long[] totals : aggregates.values()) {
+					out.writeLong(totals[0]);
+					out.writeInt((int) totals[1]);
+					out.writeInt((int) totals[2]);
+					out.writeLong(totals[3]);
+					out.writeLong(totals[4]);
+				}
+			}
+			// The aggregates file marks the segment as sealed, so it appears whole or not
+			// at all.
+			Files.move(tempFile, aggregatesFile, StandardCopyOption.ATOMIC_MOVE);
+			sealed = true;
+			aggregates.clear();
+		}
+	}
+
+	/**
+	 * Deletes the files of the segment.
+	 *
+	 * @throws IOException
+	 */
+	void delete() throws IOException {
+		if (data != null && data.isOpen()) {
+			data.close();
+			index.close();
+		}
+		Files.deleteIfExists(dataFile);
+		Files.deleteIfExists(indexFile);
+		Files.deleteIfExists(aggregatesFile);
+	}
+
+	/**
+	 * Passes the records in the time range that match the beverage id and status
+	 * to the consumer, reading only the blocks whose time range overlaps it, and
+	 * returns how many there were. A beverage id of -1 or a null status matches
+	 * every record.
+	 *
+	 * @param from
+	 * @param to
+	 * @param beverageId
+	 * @param status
+	 * @param beverageNames
+	 * @param consumer
+	 * @return
+	 * @throws IOException
+	 */
+	long scan(long from, long to, int beverageId, OrderStatus status, IntFunction<String> beverageNames,
+			Consumer<HistoryRecord> consumer) throws IOException {
+		if (!overlaps(from, to)) {
+			return 0;
+		}
+		ByteBuffer entries = ByteBuffer.wrap(Files.readAllBytes(indexFile));
+		long matched = 0;
+		try (FileChannel channel = FileChannel.open(dataFile, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+			while (entries.remaining() >= INDEX_ENTRY_SIZE) {
+				long blockMin = entries.getLong();
+				long blockMax = entries.getLong();
+				long offset = entries.getLong();
+				entries.getInt();
+				if (blockMin >= to || blockMax < from) {
+					continue;
+				}
+				ByteBuffer block = readBlock(channel, offset, header);
+				if (block == null) {
+					throw new IOException("Order history block at " + offset + " of " + dataFile + " is corrupt!");
+				}
+				long baseTime = header.getLong(0);
+				int count = header.getInt(8);
+				for (int i = 0; i < count; i++) {
+					long finishedAt = baseTime + getVarLong(block);
+					long orderId = getVarLong(block);
+					int recordBeverage = (int) getVarLong(block);
+					int outletNo = (int) getVarLong(block);
+					OrderStatus recordStatus = STATUSES[block.get()];
+					OrderPriority priority = PRIORITIES[block.get()];
+					long latency = getVarLong(block);
+					// Records are sorted within a block, so nothing after this one is in range.
+					if (finishedAt >= to) {
+						break;
+					}
+					if (finishedAt < from || (beverageId >= 0 && recordBeverage != beverageId)
+							|| (status != null && recordStatus != status)) {
+						continue;
+					}
+					consumer.accept(new HistoryRecord(orderId, finishedAt, latency, beverageNames.apply(recordBeverage),
+							outletNo, recordStatus, priority));
+					matched++;
+				}
+			}
+		}
+		return matched;
+	}
+
+	/**
+	 * Adds the aggregates of the segment for the days from and including the
+	 * given epoch day till and including the other to the aggregates keyed by day
+	 * and beverage.
+	 *
+	 * @param fromDay
+	 * @param toDay
+	 * @param beverageNames
+	 * @param result
+	 * @throws IOException
+	 */
+	void addAggregates(long fromDay, long toDay, IntFunction<String> beverageNames,
+			Map<String, DailyAggregate> result)
+			throws IOException {
+		if (isEmpty()) {
+			return;
+		}
+		synchronized (aggregates) {
+			if (!sealed) {
+				for (long[] totals : aggregates.values()) {
+					addAggregate(totals[0], (int) totals[1], (int) totals[2], totals[3], totals[4], fromDay, toDay,
+							beverageNames, result);
+				}
+				return;
+			}
+		}
+		try (DataInputStream in = new DataInputStream(Files.newInputStream(aggregatesFile))) {
+			int n = in.readInt();
+			for (int i = 0; i < n; i++) {
+				addAggregate(in.readLong(), in.readInt(), in.readInt(), in.readLong(), in.readLong(), fromDay, toDay,
+						beverageNames, result);
+			}
+		}
+	}
+
+	/**
+	 * Adds the totals of a day, beverage and status to the aggregates if the day
+	 * is in range.
+	 *
+	 * @param day
+	 * @param beverageId
+	 * @param status
+	 * @param count
+	 * @param totalLatency
+	 * @param fromDay
+	 * @param toDay
+	 * @param beverageNames
+	 * @param result
+	 */
+	private static void addAggregate(long day, int beverageId, int status, long count, long totalLatency,
+			long fromDay, long toDay, IntFunction<String> beverageNames, Map<String, DailyAggregate> result) {
+		if (day < fromDay || day > toDay) {
+			return;
+		}
+		String beverageName = beverageNames.apply(beverageId);
+		result.computeIfAbsent(day + "/" + beverageName,
+				k -> new DailyAggregate(LocalDate.ofEpochDay(day), beverageName))
+				.add(STATUSES[status], count, totalLatency);
+	}
+
+	/**
+	 * Reads the block at the offset into a buffer of it's records, and it's header
+	 * into the header buffer. Returns null if the block is cut short or doesn't
+	 * match it's checksum.
+	 *
+	 * @param channel
+	 * @param offset
+	 * @param header
+	 * @return
+	 * @throws IOException
+	 */
+	private static ByteBuffer readBlock(FileChannel channel, long offset, ByteBuffer header) throws IOException {
+		header.clear();
+		if (!readFully(channel, offset, header)) {
+			return null;
+		}
+		int length = header.getInt(12);
+		if (length < 0 || offset + BLOCK_HEADER_SIZE + length > channel.size()) {
+			return null;
+		}
+		ByteBuffer block = ByteBuffer.allocate(length);
+		if (!readFully(channel, offset + BLOCK_HEADER_SIZE, block)) {
+			return null;
+		}
+		CRC32 crc = new CRC32();
+		crc.update(block.array(), 0, length);
+		if ((int) crc.getValue() != header.getInt(16)) {
+			return null;
+		}
+		block.flip();
+		return block;
+	}
+
+	/**
+	 * Fills the buffer from the channel at the position, and returns false if the
+	 * channel ends first.
+	 *
+	 * @param channel
+	 * @param position
+	 * @param buffer
+	 * @return
+	 * @throws IOException
+	 */
+	private static boolean readFully(FileChannel channel, long position, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				return false;
+			}
+			position += read;
+		}
+		return true;
+	}
+
+	/**
+	 * Appends an unsigned varint.
+	 *
+	 * @param buffer
+	 * @param value
+	 */
+	private static void putVarLong(ByteBuffer buffer, long value) {
+		while ((value & ~0x7FL) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	/**
+	 * Reads an unsigned varint.
+	 *
+	 * @param buffer
+	 * @return
+	 */
+	private static long getVarLong(ByteBuffer buffer) {
+		long value = 0;
+		for (int shift = 0;; shift += 7) {
+			byte b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+	}
+}
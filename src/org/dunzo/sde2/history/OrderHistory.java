@@ -0,0 +1,490 @@
+package org.dunzo.sde2.history;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+import org.dunzo.sde2.MachineLogger;
+import org.dunzo.sde2.Order;
+import org.dunzo.sde2.OrderStatus;
+
+/**
+ * OrderHistory --- Keeps every order that reached a final status in an
+ * append-only store on disk, and answers queries over a time range, e.g. all
+ * hot_coffee served between 8 and 9 am, and for the no. of orders of each
+ * beverage per day.
+ *
+ * Orders are handed to a background writer through a bounded queue, so serving
+ * never waits on the disk. If the writer falls a whole queue behind, new
+ * records are dropped and counted. The writer collects records into batches
+ * and appends each batch as a block to the current segment, which is sealed
+ * once it reaches the segment size and a new one started. The index of a
+ * segment holds the time range of every block, so a query only reads the
+ * blocks that overlap it, one at a time, and daily aggregates are read from
+ * the aggregates of each segment rather than from it's records. Beverage names
+ * are stored once in a dictionary file and referred to by id. Records still
+ * queued are not seen by queries till they are written, see flush().
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class OrderHistory implements AutoCloseable {
+	public final static long DEFAULT_SEGMENT_SIZE = 8 << 20;
+
+	// No. of records queued for the writer, and most records in a block.
+	private final static int QUEUE_CAPACITY = 1 << 16;
+	private final static int MAX_BATCH_SIZE = 1 << 10;
+
+	// Max time in millis the writer waits for a batch to fill up.
+	private final static long LINGER_TIME = 50;
+
+	private final static String DICTIONARY_FILE = "beverages.dict";
+	private final static String SEGMENT_SUFFIX = ".dat";
+
+	private final static MachineLogger LOG = MachineLogger.get();
+
+	private final Path directory;
+	private final long segmentSize;
+	private final ZoneId zone;
+	private final BlockingQueue<HistoryRecord> queue;
+	private final List<HistorySegment> segments;
+	private final Thread writer;
+
+	// Beverage ids, added to only by the writer, and their names by id.
+	private final Map<String, Integer> beverageIds;
+	private volatile String[] beverageNames;
+	private final DataOutputStream dictionary;
+
+	// Segment being written to, only touched by the writer once it's started.
+	private HistorySegment active;
+
+	// No. of records queued, written or dropped by the writer, and dropped
+	// because the queue was full.
+	private final AtomicLong queued;
+	private final AtomicLong processed;
+	private final AtomicLong dropped;
+	private volatile boolean closed;
+
+	/**
+	 * @param directory
+	 * @param segmentSize
+	 * @param zone
+	 * @throws IOException
+	 */
+	private OrderHistory(Path directory, long segmentSize, ZoneId zone) throws IOException {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.zone = zone;
+		this.queue = new ArrayBlockingQueue<HistoryRecord>(QUEUE_CAPACITY);
+		this.segments = new CopyOnWriteArrayList<HistorySegment>();
+		this.beverageIds = new HashMap<String, Integer>();
+		this.queued = new AtomicLong();
+		this.processed = new AtomicLong();
+		this.dropped = new AtomicLong();
+
+		Files.createDirectories(directory);
+		this.dictionary = openDictionary();
+		this.beverageNames = new String[beverageIds.size()];
+		for (Map.Entry<String, Integer> entry : beverageIds.entrySet()) {
+			beverageNames[entry.getValue()] = entry.getKey();
+		}
+		openSegments();
+
+		this.writer = new Thread(this::write, "order-history-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Opens the order history in the directory, creating it if it doesn't exist,
+	 * with the default segment size and days in the default time zone.
+	 *
+	 * @param directory
+	 * @return
+	 * @throws IOException
+	 */
+	public static OrderHistory open(Path directory) throws IOException {
+		return open(directory, DEFAULT_SEGMENT_SIZE, ZoneId.systemDefault());
+	}
+
+	/**
+	 * Opens the order history in the directory, creating it if it doesn't exist.
+	 * Segments are sealed once they reach the given no. of bytes, and daily
+	 * aggregates are for days in the given time zone.
+	 *
+	 * @param directory
+	 * @param segmentSize
+	 * @param zone
+	 * @return
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 */
+	public static OrderHistory open(Path directory, long segmentSize, ZoneId zone)
+			throws IOException, IllegalArgumentException {
+		if (directory == null) {
+			throw new IllegalArgumentException("Order history directory is not defined!");
+		}
+		if (segmentSize <= 0) {
+			throw new IllegalArgumentException("Order history segment size must be positive!");
+		}
+		if (zone == null) {
+			throw new IllegalArgumentException("Time zone of the order history is not defined!");
+		}
+		return new OrderHistory(directory, segmentSize, zone);
+	}
+
+	/**
+	 * Reads the beverage dictionary, dropping an entry cut short at it's end, and
+	 * opens it to add new beverages.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	private DataOutputStream openDictionary() throws IOException {
+		Path file = directory.resolve(DICTIONARY_FILE);
+		long valid = 0;
+		if (Files.exists(file)) {
+			byte[] bytes = Files.readAllBytes(file);
+			try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+				while (true) {
+					String name = in.readUTF();
+					beverageIds.put(name, beverageIds.size());
+					valid = bytes.length - in.available();
+				}
+			} catch (EOFException e) {
+				// The rest of the file, if any, is an entry cut short.
+			}
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+				channel.truncate(valid);
+			}
+		}
+		return new DataOutputStream(
+				Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+	}
+
+	/**
+	 * Opens the segments written earlier, drops the empty ones, and starts a new
+	 * segment to write to.
+	 *
+	 * @throws IOException
+	 */
+	private void openSegments() throws IOException {
+		List<Long> ids = new ArrayList<Long>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				ids.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+			}
+		}
+		ids.sort(Comparator.naturalOrder());
+		long nextId = 0;
+		for (long id : ids) {
+			HistorySegment segment = HistorySegment.open(directory, id, zone);
+			if (segment.isEmpty()) {
+				segment.delete();
+			} else {
+				segments.add(segment);
+			}
+			nextId = id + 1;
+		}
+		active = HistorySegment.create(directory, nextId, zone);
+		segments.add(active);
+	}
+
+	/**
+	 * Queues an order that reached a final status to be written. Never blocks;
+	 * the record is dropped if the writer is a whole queue behind.
+	 *
+	 * @param order
+	 */
+	public void record(Order order) {
+		if (closed) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		HistoryRecord record = new HistoryRecord(order.getId(), now, now - order.getCreatedAt(),
+				order.getBeverage().getName(), order.getOutlet().getId(), order.getStatus(), order.getPriority());
+		if (queue.offer(record)) {
+			queued.incrementAndGet();
+		} else {
+			dropped.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Takes records off the queue in batches and writes them, till the history is
+	 * closed and the queue is empty.
+	 */
+	private void write() {
+		List<HistoryRecord> batch = new ArrayList<HistoryRecord>(MAX_BATCH_SIZE);
+		while (true) {
+			try {
+				HistoryRecord first = queue.poll(LINGER_TIME, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					if (closed) {
+						return;
+					}
+					continue;
+				}
+				batch.add(first);
+				// Give the batch a little time to fill up unless the history is closing.
+				long lingerUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LINGER_TIME);
+				while (batch.size() < MAX_BATCH_SIZE) {
+					queue.drainTo(batch, MAX_BATCH_SIZE - batch.size());
+					long remaining = lingerUntil - System.nanoTime();
+					if (batch.size() >= MAX_BATCH_SIZE || remaining <= 0 || closed) {
+						break;
+					}
+					HistoryRecord next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+					if (next == null) {
+						break;
+					}
+					batch.add(next);
+				}
+			} catch (InterruptedException e) {
+				return;
+			}
+			writeBatch(batch);
+			synchronized (processed) {
+				processed.addAndGet(batch.size());
+				processed.notifyAll();
+			}
+			batch.clear();
+		}
+	}
+
+	/**
+	 * Writes a batch as a block of the active segment, and starts a new segment
+	 * once the active one is full. Records that fail to be written are dropped.
+	 *
+	 * @param batch
+	 */
+	private void writeBatch(List<HistoryRecord> batch) {
+		batch.sort(Comparator.comparingLong(HistoryRecord::getFinishedAt));
+		try {
+			int[] ids = new int[batch.size()];
+			for (int i = 0; i < ids.length; i++) {
+				ids[i] = getBeverageId(batch.get(i).getBeverageName());
+			}
+			active.append(batch, ids);
+			if (active.getSize() >= segmentSize) {
+				active.seal();
+				active = HistorySegment.create(directory, active.getId() + 1, zone);
+				segments.add(active);
+			}
+		} catch (IOException e) {
+			dropped.addAndGet(batch.size());
+			LOG.error("Failed to write orders to the order history at {}! They were dropped.", directory);
+		}
+	}
+
+	/**
+	 * Returns the id of a beverage, adding it to the dictionary if it's new.
+	 *
+	 * @param beverageName
+	 * @return
+	 * @throws IOException
+	 */
+	private int getBeverageId(String beverageName) throws IOException {
+		Integer id = beverageIds.get(beverageName);
+		if (id == null) {
+			// The name is on disk before any block refers to it.
+			dictionary.writeUTF(beverageName);
+			dictionary.flush();
+			id = beverageIds.size();
+			beverageIds.put(beverageName, id);
+			String[] names = Arrays.copyOf(beverageNames, id + 1);
+			names[id] = beverageName;
+			beverageNames = names;
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the name of the beverage with the id.
+	 *
+	 * @param id
+	 * @return
+	 */
+	private String getBeverageName(int id) {
+		return beverageNames[id];
+	}
+
+	/**
+	 * Waits till the records queued so far are written, so that queries see them.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void flush() throws InterruptedException {
+		long target = queued.get();
+		synchronized (processed) {
+			while (processed.get() < target && writer.isAlive()) {
+				processed.wait(LINGER_TIME);
+			}
+		}
+	}
+
+	/**
+	 * Passes every record of the beverage that finished in the status from, and
+	 * including, the given time in epoch millis till, and excluding, the other to
+	 * the consumer, oldest segment first, and returns how many there were. A null
+	 * beverage or status matches every record.
+	 *
+	 * @param from
+	 * @param to
+	 * @param beverageName
+	 * @param status
+	 * @param consumer
+	 * @return
+	 * @throws IOException
+	 */
+	public long query(long from, long to, String beverageName, OrderStatus status, Consumer<HistoryRecord> consumer)
+			throws IOException {
+		int beverageId = -1;
+		if (beverageName != null) {
+			beverageId = Arrays.asList(beverageNames).indexOf(beverageName);
+			if (beverageId < 0) {
+				return 0;
+			}
+		}
+		IntFunction<String> names = this::getBeverageName;
+		long matched = 0;
+		for (HistorySegment segment : segments) {
+			matched += segment.scan(from, to, beverageId, status, names, consumer);
+		}
+		return matched;
+	}
+
+	/**
+	 * Returns the no. of records of the beverage that finished in the status in
+	 * the time range, see query().
+	 *
+	 * @param from
+	 * @param to
+	 * @param beverageName
+	 * @param status
+	 * @return
+	 * @throws IOException
+	 */
+	public long count(long from, long to, String beverageName, OrderStatus status) throws IOException {
+		return query(from, to, beverageName, status, record -> {
+		});
+	}
+
+	/**
+	 * Returns the aggregates of each beverage for each day from the first day till
+	 * and including the last, ordered by day and beverage.
+	 *
+	 * @param fromDay
+	 * @param toDay
+	 * @return
+	 * @throws IOException
+	 */
+	public List<DailyAggregate> getDailyAggregates(LocalDate fromDay, LocalDate toDay) throws IOException {
+		long from = fromDay.atStartOfDay(zone).toInstant().toEpochMilli();
+		long to = toDay.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+		IntFunction<String> names = this::getBeverageName;
+		Map<String, DailyAggregate> aggregates = new TreeMap<String, DailyAggregate>();
+		for (HistorySegment segment : segments) {
+			if (segment.overlaps(from, to)) {
+				segment.addAggregates(fromDay.toEpochDay(), toDay.toEpochDay(), names, aggregates);
+			}
+		}
+		return new ArrayList<DailyAggregate>(aggregates.values());
+	}
+
+	/**
+	 * Returns the directory of the history.
+	 *
+	 * @return
+	 */
+	public Path getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Returns the time zone days are counted in.
+	 *
+	 * @return
+	 */
+	public ZoneId getZone() {
+		return zone;
+	}
+
+	/**
+	 * Returns no. of segments of the history, including the one being written to.
+	 *
+	 * @return
+	 */
+	public int getSegmentCount() {
+		return segments.size();
+	}
+
+	/**
+	 * Returns no. of records queued to be written since the history was opened.
+	 *
+	 * @return
+	 */
+	public long getQueuedCount() {
+		return queued.get();
+	}
+
+	/**
+	 * Returns no. of records dropped because the writer was behind or failed to
+	 * write them.
+	 *
+	 * @return
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * Writes the records still queued, seals the active segment and closes the
+	 * history.
+	 *
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (active.isEmpty()) {
+			segments.remove(active);
+			active.delete();
+		} else {
+			active.seal();
+		}
+		dictionary.close();
+	}
+}
@@ -0,0 +1,144 @@
+package org.dunzo.sde2.server;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * HttpRequest --- Request parsed by the HTTP server. Query parameters and the
+ * fields of a JSON object body are both available as parameters, with the body
+ * taking precedence.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class HttpRequest {
+	private String method;
+	private String path;
+	private Map<String, String> headers;
+	private Map<String, String> params;
+	private String body;
+
+	/**
+	 * @param method
+	 * @param target
+	 * @param headers
+	 * @param body
+	 */
+	public HttpRequest(String method, String target, Map<String, String> headers, String body) {
+		this.method = method;
+		this.headers = headers;
+		this.body = body;
+		this.params = new HashMap<String, String>();
+		int query = target.indexOf('?');
+		this.path = decode((query < 0) ? target : target.substring(0, query));
+		if (query >= 0) {
+			for (String pair : target.substring(query + 1).split("&")) {
+				if (pair.isEmpty()) {
+					continue;
+				}
+				int eq = pair.indexOf('=');
+				String key = decode((eq < 0) ? pair : pair.substring(0, eq));
+				String value = (eq < 0) ? "" : decode(pair.substring(eq + 1));
+				params.put(key, value);
+			}
+		}
+	}
+
+	/**
+	 * Returns the request method, e.g. GET.
+	 *
+	 * @return
+	 */
+	public String getMethod() {
+		return method;
+	}
+
+	/**
+	 * Returns the decoded path without the query.
+	 *
+	 * @return
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * Returns the value of a header, looked up ignoring case, or null.
+	 *
+	 * @param name
+	 * @return
+	 */
+	public String getHeader(String name) {
+		return headers.get(name.toLowerCase());
+	}
+
+	/**
+	 * Returns all the parameters of the request.
+	 *
+	 * @return
+	 */
+	public Map<String, String> getParams() {
+		return Collections.unmodifiableMap(params);
+	}
+
+	/**
+	 * Returns the value of a parameter, or null.
+	 *
+	 * @param name
+	 * @return
+	 */
+	public String getParam(String name) {
+		return params.get(name);
+	}
+
+	/**
+	 * Sets a parameter, e.g. from the body.
+	 *
+	 * @param name
+	 * @param value
+	 */
+	void setParam(String name, String value) {
+		params.put(name, value);
+	}
+
+	/**
+	 * Returns the request body, empty if there is none.
+	 *
+	 * @return
+	 */
+	public String getBody() {
+		return body;
+	}
+
+	/**
+	 * Returns true if the client asked to keep the connection open after the
+	 * response.
+	 *
+	 * @return
+	 */
+	public boolean isKeepAlive() {
+		String connection = getHeader("connection");
+		return (connection == null || !connection.equalsIgnoreCase("close"));
+	}
+
+	/**
+	 * Decodes a URL encoded string.
+	 *
+	 * @param value
+	 * @return
+	 */
+	private static String decode(String value) {
+		return URLDecoder.decode(value, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Return a string representation for HttpRequest object.
+	 */
+	@Override
+	public String toString() {
+		return "HTTP_REQUEST(" + method + " " + path + ")";
+	}
+}
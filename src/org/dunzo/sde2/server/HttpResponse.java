@@ -0,0 +1,123 @@
+package org.dunzo.sde2.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONObject;
+
+/**
+ * HttpResponse --- JSON response written back by the HTTP server.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class HttpResponse {
+	private int status;
+	private String body;
+
+	/**
+	 * @param status
+	 * @param body
+	 */
+	public HttpResponse(int status, String body) {
+		this.status = status;
+		this.body = body;
+	}
+
+	/**
+	 * Returns a response with the JSON object as body.
+	 *
+	 * @param status
+	 * @param json
+	 * @return
+	 */
+	public static HttpResponse json(int status, Object json) {
+		return new HttpResponse(status, json.toString());
+	}
+
+	/**
+	 * Returns an error response with the message in the body.
+	 *
+	 * @param status
+	 * @param message
+	 * @return
+	 */
+	public static HttpResponse error(int status, String message) {
+		return json(status, new JSONObject().put("error", message));
+	}
+
+	/**
+	 * Returns the status code of the response.
+	 *
+	 * @return
+	 */
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * Returns the body of the response.
+	 *
+	 * @return
+	 */
+	public String getBody() {
+		return body;
+	}
+
+	/**
+	 * Encodes the status line, headers and body of the response.
+	 *
+	 * @param keepAlive
+	 * @return
+	 */
+	public ByteBuffer encode(boolean keepAlive) {
+		byte[] content = body.getBytes(StandardCharsets.UTF_8);
+		String head = "HTTP/1.1 " + status + " " + reason(status) + "\r\n"
+				+ "Content-Type: application/json\r\n"
+				+ "Content-Length: " + content.length + "\r\n"
+				+ "Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n\r\n";
+		byte[] headBytes = head.getBytes(StandardCharsets.US_ASCII);
+		ByteBuffer buffer = ByteBuffer.allocate(headBytes.length + content.length);
+		buffer.put(headBytes).put(content).flip();
+		return buffer;
+	}
+
+	/**
+	 * Returns the reason phrase for a status code.
+	 *
+	 * @param status
+	 * @return
+	 */
+	private static String reason(int status) {
+		switch (status) {
+		case 200:
+			return "OK";
+		case 201:
+			return "Created";
+		case 400:
+			return "Bad Request";
+		case 404:
+			return "Not Found";
+		case 405:
+			return "Method Not Allowed";
+		case 409:
+			return "Conflict";
+		case 413:
+			return "Payload Too Large";
+		case 500:
+			return "Internal Server Error";
+		case 503:
+			return "Service Unavailable";
+		default:
+			return (status < 400) ? "OK" : "Error";
+		}
+	}
+
+	/**
+	 * Return a string representation for HttpResponse object.
+	 */
+	@Override
+	public String toString() {
+		return "HTTP_RESPONSE(" + status + ")";
+	}
+}
@@ -0,0 +1,423 @@
+package org.dunzo.sde2.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * HttpServer --- Embedded HTTP/1.1 server driven by a single NIO selector
+ * thread. The event loop accepts connections, reads and parses requests and
+ * writes responses without blocking. Requests are handled on a small bounded
+ * pool, since placing an order may wait briefly for the machine, and the
+ * response is handed back to the event loop to be written.
+ *
+ * Connections are kept alive by default, and requests pipelined on a
+ * connection are answered in order, one at a time.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class HttpServer implements AutoCloseable {
+	// Max size of a request head and body.
+	private final static int MAX_REQUEST_SIZE = 64 * 1024;
+	private final static int INITIAL_BUFFER_SIZE = 4 * 1024;
+
+	// No. of requests waiting for a handler before new ones are turned away.
+	private final static int HANDLER_QUEUE_CAPACITY = 1024;
+
+	private final HttpHandler handler;
+	private final ServerSocketChannel serverChannel;
+	private final Selector selector;
+	private final ThreadPoolExecutor handlers;
+	private final ConcurrentLinkedQueue<Connection> completed;
+	private final Thread eventLoop;
+	private volatile boolean running;
+
+	/**
+	 * HttpHandler --- Handles a parsed request and returns the response.
+	 */
+	@FunctionalInterface
+	public interface HttpHandler {
+		/**
+		 * @param request
+		 * @return
+		 */
+		public HttpResponse handle(HttpRequest request);
+	}
+
+	/**
+	 * Connection --- State of one client connection, only touched by the event
+	 * loop except for the response handed back by a handler.
+	 */
+	private static class Connection {
+		private final SocketChannel channel;
+		private ByteBuffer in = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+		private ByteBuffer out;
+		private boolean busy;
+		private boolean closeAfterWrite;
+
+		// Response of the request being handled, set by the handler thread.
+		private volatile ByteBuffer response;
+		private volatile boolean responseCloses;
+
+		/**
+		 * @param channel
+		 */
+		private Connection(SocketChannel channel) {
+			this.channel = channel;
+		}
+	}
+
+	/**
+	 * @param port
+	 * @param nHandlers
+	 * @param handler
+	 * @throws IOException
+	 */
+	public HttpServer(int port, int nHandlers, HttpHandler handler) throws IOException {
+		if (nHandlers <= 0) {
+			throw new IllegalArgumentException("HTTP server needs a positive no. of handler threads!");
+		}
+		if (handler == null) {
+			throw new IllegalArgumentException("HTTP handler is not defined! Cannot create HTTP server!");
+		}
+		this.handler = handler;
+		this.selector = Selector.open();
+		this.serverChannel = ServerSocketChannel.open();
+		serverChannel.configureBlocking(false);
+		serverChannel.bind(new InetSocketAddress(port));
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		this.handlers = new ThreadPoolExecutor(nHandlers, nHandlers, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(HANDLER_QUEUE_CAPACITY));
+		this.completed = new ConcurrentLinkedQueue<Connection>();
+		this.eventLoop = new Thread(this::runEventLoop, "http-event-loop");
+	}
+
+	/**
+	 * Returns the port the server listens on.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public int getPort() throws IOException {
+		return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+	}
+
+	/**
+	 * Starts the event loop.
+	 */
+	public void start() {
+		running = true;
+		eventLoop.start();
+	}
+
+	/**
+	 * Stops accepting connections, closes the open ones and stops the handlers.
+	 */
+	@Override
+	public void close() {
+		running = false;
+		selector.wakeup();
+		try {
+			eventLoop.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		handlers.shutdownNow();
+	}
+
+	/**
+	 * Selects ready channels and serves them till the server is closed.
+	 */
+	private void runEventLoop() {
+		try {
+			while (running) {
+				selector.select();
+				Connection connection;
+				while ((connection = completed.poll()) != null) {
+					respond(connection);
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					try {
+						if (!key.isValid()) {
+							continue;
+						}
+						if (key.isAcceptable()) {
+							accept();
+						} else if (key.isReadable()) {
+							read(key);
+						} else if (key.isWritable()) {
+							write(key);
+						}
+					} catch (IOException e) {
+						closeConnection(key);
+					}
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			for (SelectionKey key : selector.keys()) {
+				closeConnection(key);
+			}
+			try {
+				selector.close();
+				serverChannel.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Accepts a new connection and waits for it's first request.
+	 *
+	 * @throws IOException
+	 */
+	private void accept() throws IOException {
+		SocketChannel channel = serverChannel.accept();
+		if (channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+	}
+
+	/**
+	 * Reads what the client sent and dispatches a request once it's complete.
+	 *
+	 * @param key
+	 * @throws IOException
+	 */
+	private void read(SelectionKey key) throws IOException {
+		Connection connection = (Connection) key.attachment();
+		if (!connection.in.hasRemaining()) {
+			if (connection.in.capacity() >= MAX_REQUEST_SIZE) {
+				reply(key, connection, HttpResponse.error(413, "Request is too large!"), false);
+				return;
+			}
+			ByteBuffer larger = ByteBuffer.allocate(Math.min(MAX_REQUEST_SIZE, connection.in.capacity() * 2));
+			connection.in.flip();
+			larger.put(connection.in);
+			connection.in = larger;
+		}
+		if (connection.channel.read(connection.in) < 0) {
+			closeConnection(key);
+			return;
+		}
+		dispatch(key, connection);
+	}
+
+	/**
+	 * Parses the next request buffered for the connection, if complete, and hands
+	 * it to a handler.
+	 *
+	 * @param key
+	 * @param connection
+	 */
+	private void dispatch(SelectionKey key, Connection connection) {
+		if (connection.busy) {
+			return;
+		}
+		HttpRequest request;
+		try {
+			request = parse(connection.in);
+		} catch (IllegalArgumentException e) {
+			reply(key, connection, HttpResponse.error(400, e.getMessage()), false);
+			return;
+		}
+		if (request == null) {
+			return;
+		}
+
+		// Stop reading till the response is written, so pipelined requests are
+		// answered in order.
+		connection.busy = true;
+		key.interestOps(0);
+		boolean keepAlive = request.isKeepAlive();
+		try {
+			handlers.execute(() -> {
+				HttpResponse response;
+				try {
+					response = handler.handle(request);
+				} catch (RuntimeException e) {
+					response = HttpResponse.error(500, String.valueOf(e.getMessage()));
+				}
+				connection.response = response.encode(keepAlive);
+				connection.responseCloses = !keepAlive;
+				completed.add(connection);
+				selector.wakeup();
+			});
+		} catch (RejectedExecutionException e) {
+			connection.busy = false;
+			reply(key, connection, HttpResponse.error(503, "Server is overloaded! Please try again later."),
+					keepAlive);
+		}
+	}
+
+	/**
+	 * Starts writing the response handed back by a handler.
+	 *
+	 * @param connection
+	 */
+	private void respond(Connection connection) {
+		SelectionKey key = connection.channel.keyFor(selector);
+		if (key == null || !key.isValid()) {
+			return;
+		}
+		connection.out = connection.response;
+		connection.closeAfterWrite = connection.responseCloses;
+		connection.response = null;
+		key.interestOps(SelectionKey.OP_WRITE);
+	}
+
+	/**
+	 * Writes a response produced on the event loop itself, e.g. an error.
+	 *
+	 * @param key
+	 * @param connection
+	 * @param response
+	 * @param keepAlive
+	 */
+	private void reply(SelectionKey key, Connection connection, HttpResponse response, boolean keepAlive) {
+		connection.busy = true;
+		connection.out = response.encode(keepAlive);
+		connection.closeAfterWrite = !keepAlive;
+		key.interestOps(SelectionKey.OP_WRITE);
+	}
+
+	/**
+	 * Writes as much of the response as the socket takes. Once it's written, the
+	 * next pipelined request is dispatched or the connection waits for more.
+	 *
+	 * @param key
+	 * @throws IOException
+	 */
+	private void write(SelectionKey key) throws IOException {
+		Connection connection = (Connection) key.attachment();
+		connection.channel.write(connection.out);
+		if (connection.out.hasRemaining()) {
+			return;
+		}
+		connection.out = null;
+		if (connection.closeAfterWrite) {
+			closeConnection(key);
+			return;
+		}
+		connection.busy = false;
+		key.interestOps(SelectionKey.OP_READ);
+		dispatch(key, connection);
+	}
+
+	/**
+	 * Closes a connection and cancels it's key.
+	 *
+	 * @param key
+	 */
+	private void closeConnection(SelectionKey key) {
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			// Nothing more to do for a connection that failed to close.
+		}
+	}
+
+	/**
+	 * Parses a complete request from the start of the buffer, which is in write
+	 * mode, and compacts the rest. Returns null if the request isn't complete yet.
+	 *
+	 * @param in
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	private static HttpRequest parse(ByteBuffer in) throws IllegalArgumentException {
+		int headEnd = indexOfHeadEnd(in.array(), in.position());
+		if (headEnd < 0) {
+			return null;
+		}
+		String head = new String(in.array(), 0, headEnd, StandardCharsets.US_ASCII);
+		String[] lines = head.split("\r\n");
+		String[] requestLine = lines[0].split(" ");
+		if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+			throw new IllegalArgumentException("Malformed request line!");
+		}
+		Map<String, String> headers = new HashMap<String, String>();
+		for (int i = 1; i < lines.length; i++) {
+			int colon = lines[i].indexOf(':');
+			if (colon > 0) {
+				headers.put(lines[i].substring(0, colon).trim().toLowerCase(), lines[i].substring(colon + 1).trim());
+			}
+		}
+
+		int contentLength;
+		try {
+			contentLength = Integer.parseInt(headers.getOrDefault("content-length", "0"));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Malformed content length!");
+		}
+		int bodyStart = headEnd + 4;
+		if (contentLength < 0 || bodyStart + contentLength > MAX_REQUEST_SIZE) {
+			throw new IllegalArgumentException("Request is too large!");
+		}
+		if (in.position() < bodyStart + contentLength) {
+			// The buffer grows as the rest of the body arrives.
+			return null;
+		}
+		String body = new String(in.array(), bodyStart, contentLength, StandardCharsets.UTF_8);
+
+		// Keep whatever follows, it's the start of the next pipelined request.
+		in.flip();
+		in.position(bodyStart + contentLength);
+		in.compact();
+
+		HttpRequest request = new HttpRequest(requestLine[0], requestLine[1], headers, body);
+		if (!body.isBlank() && body.trim().startsWith("{")) {
+			try {
+				JSONObject json = new JSONObject(body);
+				for (String name : json.keySet()) {
+					request.setParam(name, String.valueOf(json.get(name)));
+				}
+			} catch (JSONException e) {
+				throw new IllegalArgumentException("Malformed JSON body!");
+			}
+		}
+		return request;
+	}
+
+	/**
+	 * Returns the index of the blank line ending the request head, or -1.
+	 *
+	 * @param bytes
+	 * @param length
+	 * @return
+	 */
+	private static int indexOfHeadEnd(byte[] bytes, int length) {
+		for (int i = 0; i + 3 < length; i++) {
+			if (bytes[i] == '\r' && bytes[i + 1] == '\n' && bytes[i + 2] == '\r' && bytes[i + 3] == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,312 @@
+package org.dunzo.sde2.server;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.dunzo.sde2.Beverage;
+import org.dunzo.sde2.ICoffeeMachine;
+import org.dunzo.sde2.Ingredient;
+import org.dunzo.sde2.LockProfile;
+import org.dunzo.sde2.MultiOrder;
+import org.dunzo.sde2.Order;
+import org.dunzo.sde2.OrderPriority;
+import org.dunzo.sde2.OrderStatus;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * MachineHttpHandler --- Routes HTTP requests to a Coffee Machine.
+ *
+ * POST /orders (outlet, beverage, priority, deadline_ms, timeout_ms,
+ * client_order_id) places an order, POST /orders/batch (beverage, quantity,
+ * priority, deadline_ms) splits several cups across outlets, GET /orders/{id}
+ * returns the status of a recent order, GET /menu lists the beverages, GET
+ * /stock returns a snapshot of the ingredients and GET /stats/locks returns
+ * the contention for the locks of the machine, with times in nanos. Deadlines
+ * are given in millis from now.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class MachineHttpHandler implements HttpServer.HttpHandler {
+	// No. of recently placed orders whose status can be looked up.
+	private final static int RECENT_ORDERS_CAPACITY = 1 << 14;
+
+	private final ICoffeeMachine machine;
+	private final Map<Long, Order> recentOrders;
+
+	/**
+	 * @param machine
+	 */
+	public MachineHttpHandler(ICoffeeMachine machine) {
+		if (machine == null) {
+			throw new IllegalArgumentException("Coffee Machine is not defined! Cannot serve HTTP requests!");
+		}
+		this.machine = machine;
+		this.recentOrders = Collections.synchronizedMap(new LinkedHashMap<Long, Order>() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, Order> eldest) {
+				return size() > RECENT_ORDERS_CAPACITY;
+			}
+		});
+	}
+
+	/**
+	 * Handles a request, mapping invalid input to 400 and a machine that isn't
+	 * running to 503.
+	 */
+	@Override
+	public HttpResponse handle(HttpRequest request) {
+		String method = request.getMethod();
+		String path = request.getPath();
+		try {
+			if (path.equals("/orders")) {
+				return method.equals("POST") ? serve(request) : notAllowed(method, path);
+			}
+			if (path.equals("/orders/batch")) {
+				return method.equals("POST") ? serveBatch(request) : notAllowed(method, path);
+			}
+			if (path.startsWith("/orders/")) {
+				return method.equals("GET") ? getOrder(path.substring("/orders/".length())) : notAllowed(method, path);
+			}
+			if (path.equals("/menu")) {
+				return method.equals("GET") ? getMenu() : notAllowed(method, path);
+			}
+			if (path.equals("/stock")) {
+				return method.equals("GET") ? getStock() : notAllowed(method, path);
+			}
+			if (path.equals("/stats/locks")) {
+				return method.equals("GET") ? getLockStats() : notAllowed(method, path);
+			}
+			return HttpResponse.error(404, "No such resource " + path + "!");
+		} catch (IllegalArgumentException e) {
+			return HttpResponse.error(400, e.getMessage());
+		} catch (RuntimeException e) {
+			return HttpResponse.error(503, e.getMessage());
+		}
+	}
+
+	/**
+	 * Places an order for a beverage at an outlet.
+	 *
+	 * @param request
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	private HttpResponse serve(HttpRequest request) throws IllegalArgumentException {
+		int outletNo = getInt(request, "outlet");
+		String beverageName = getRequired(request, "beverage");
+		OrderPriority priority = getPriority(request);
+		long deadline = getDeadline(request);
+		String timeoutParam = request.getParam("timeout_ms");
+		long timeout = (timeoutParam == null) ? Order.NO_TIMEOUT : getLong(request, "timeout_ms");
+
+		Order order = machine.serveBeverage(request.getParam("client_order_id"), outletNo, beverageName, priority,
+				deadline, timeout);
+		recentOrders.put(order.getId(), order);
+		return HttpResponse.json((order.getStatus() == OrderStatus.REJECTED) ? 409 : 201, toJSON(order));
+	}
+
+	/**
+	 * Places an order for several cups of a beverage split across outlets.
+	 *
+	 * @param request
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	private HttpResponse serveBatch(HttpRequest request) throws IllegalArgumentException {
+		String beverageName = getRequired(request, "beverage");
+		int quantity = getInt(request, "quantity");
+		MultiOrder multiOrder = machine.serveBeverages(beverageName, quantity, getPriority(request),
+				getDeadline(request));
+
+		JSONArray orders = new JSONArray();
+		for (Order order : multiOrder.getOrders()) {
+			recentOrders.put(order.getId(), order);
+			orders.put(toJSON(order));
+		}
+		JSONObject json = new JSONObject().put("beverage", beverageName).put("quantity", quantity)
+				.put("estimated_makespan_ms", multiOrder.getEstimatedMakespan()).put("orders", orders);
+		boolean rejected = multiOrder.getCount(OrderStatus.REJECTED) == quantity;
+		return HttpResponse.json(rejected ? 409 : 201, json);
+	}
+
+	/**
+	 * Returns the status of a recently placed order.
+	 *
+	 * @param id
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	private HttpResponse getOrder(String id) throws IllegalArgumentException {
+		long orderId;
+		try {
+			orderId = Long.parseLong(id);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Order id " + id + " is not a number!");
+		}
+		Order order = recentOrders.get(orderId);
+		if (order == null) {
+			return HttpResponse.error(404, "No recent order with id " + orderId + "!");
+		}
+		return HttpResponse.json(200, toJSON(order));
+	}
+
+	/**
+	 * Returns the beverages served by the machine.
+	 *
+	 * @return
+	 */
+	private HttpResponse getMenu() {
+		JSONArray beverages = new JSONArray();
+		for (Beverage beverage : machine.getMenu()) {
+			JSONObject recipe = new JSONObject();
+			for (Ingredient ingredient : beverage.getRecipe().getIngredients().values()) {
+				recipe.put(ingredient.getName(), ingredient.getQuantity());
+			}
+			JSONObject json = new JSONObject().put("name", beverage.getName()).put("price", beverage.getPrice())
+					.put("prepare_time_ms", beverage.getPrepareTime()).put("servable", beverage.isServable())
+					.put("recipe", recipe);
+			beverages.put(json);
+		}
+		return HttpResponse.json(200, new JSONObject().put("beverages", beverages));
+	}
+
+	/**
+	 * Returns a snapshot of the ingredients in stock.
+	 *
+	 * @return
+	 */
+	private HttpResponse getStock() {
+		return HttpResponse.json(200, new JSONObject().put("ingredients", new JSONObject(machine.getStockSnapshot())));
+	}
+
+	/**
+	 * Returns the contention statistics of every lock of the machine.
+	 *
+	 * @return
+	 */
+	private HttpResponse getLockStats() {
+		JSONObject locks = new JSONObject();
+		for (Map.Entry<String, LockProfile> entry : machine.getLockProfiles().entrySet()) {
+			LockProfile profile = entry.getValue();
+			JSONObject json = new JSONObject().put("attempts", profile.getAttempts())
+					.put("contended", profile.getContended()).put("failed", profile.getFailures())
+					.put("wait_total_ns", profile.getTotalWaitTime()).put("wait_p50_ns", profile.getWaitPercentile(50))
+					.put("wait_p99_ns", profile.getWaitPercentile(99)).put("wait_max_ns", profile.getMaxWaitTime())
+					.put("holds", profile.getHolds()).put("hold_total_ns", profile.getTotalHoldTime())
+					.put("hold_p50_ns", profile.getHoldPercentile(50)).put("hold_p99_ns", profile.getHoldPercentile(99))
+					.put("hold_max_ns", profile.getMaxHoldTime());
+			locks.put(entry.getKey(), json);
+		}
+		return HttpResponse.json(200, new JSONObject().put("locks", locks));
+	}
+
+	/**
+	 * Returns a 405 response for a method not supported on the path.
+	 *
+	 * @param method
+	 * @param path
+	 * @return
+	 */
+	private static HttpResponse notAllowed(String method, String path) {
+		return HttpResponse.error(405, method + " is not supported for " + path + "!");
+	}
+
+	/**
+	 * Returns the JSON representation of an order.
+	 *
+	 * @param order
+	 * @return
+	 */
+	private static JSONObject toJSON(Order order) {
+		JSONObject json = new JSONObject().put("id", order.getId()).put("beverage", order.getBeverage().getName())
+				.put("outlet", order.getOutlet().getId()).put("priority", order.getPriority().name())
+				.put("status", order.getStatus().name());
+		if (order.getClientOrderId() != null) {
+			json.put("client_order_id", order.getClientOrderId());
+		}
+		if (order.getMessage() != null) {
+			json.put("message", order.getMessage());
+		}
+		return json;
+	}
+
+	/**
+	 * Returns the priority of the request, NORMAL if not given.
+	 *
+	 * @param request
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	private static OrderPriority getPriority(HttpRequest request) throws IllegalArgumentException {
+		String priority = request.getParam("priority");
+		return (priority == null) ? OrderPriority.NORMAL : OrderPriority.fromName(priority);
+	}
+
+	/**
+	 * Returns the deadline of the request given in millis from now, or no
+	 * deadline.
+	 *
+	 * @param request
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	private static long getDeadline(HttpRequest request) throws IllegalArgumentException {
+		if (request.getParam("deadline_ms") == null) {
+			return Order.NO_DEADLINE;
+		}
+		return System.currentTimeMillis() + getLong(request, "deadline_ms");
+	}
+
+	/**
+	 * Returns a parameter that must be given.
+	 *
+	 * @param request
+	 * @param name
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	private static String getRequired(HttpRequest request, String name) throws IllegalArgumentException {
+		String value = request.getParam(name);
+		if (value == null || value.isEmpty()) {
+			throw new IllegalArgumentException("Parameter " + name + " is required!");
+		}
+		return value;
+	}
+
+	/**
+	 * Returns an integer parameter that must be given.
+	 *
+	 * @param request
+	 * @param name
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	private static int getInt(HttpRequest request, String name) throws IllegalArgumentException {
+		try {
+			return Integer.parseInt(getRequired(request, name));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Parameter " + name + " must be an integer!");
+		}
+	}
+
+	/**
+	 * Returns a long parameter that must be given.
+	 *
+	 * @param request
+	 * @param name
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	private static long getLong(HttpRequest request, String name) throws IllegalArgumentException {
+		try {
+			return Long.parseLong(getRequired(request, name));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Parameter " + name + " must be an integer!");
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package org.dunzo.sde2.server;
+
+import java.nio.ByteBuffer;
+
+import org.dunzo.sde2.OrderPriority;
+import org.dunzo.sde2.OrderStatus;
+
+/**
+ * OrderProtocol --- Compact binary protocol for placing orders at a Coffee
+ * Machine from a client on the same host.
+ *
+ * Every message is a frame of a 4 byte length followed by that many bytes of
+ * body. A body starts with a 1 byte opcode and an 8 byte request id chosen by
+ * the client, and every response carries the id of it's request. Clients may
+ * pipeline any no. of requests, and responses come back in the order they
+ * complete rather than the order they were sent. All numbers are big endian.
+ *
+ * ORDER request: beverage id (int), outlet no. (int), priority (byte),
+ * deadline in millis from now (int, 0 for none). Response: result (byte),
+ * order status (byte), order id (long), outlet no. (int).
+ *
+ * CATALOG request: no arguments. Response: result (byte), no. of outlets (int),
+ * no. of beverages (int), then for each beverage it's id (int), name length
+ * (short) and UTF-8 name. Beverage ids are interned by the server and never
+ * reused, so a client fetches the catalog once and then sends ints. Outlets are
+ * already numbered from 1.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public final class OrderProtocol {
+	// Opcodes.
+	public final static byte OP_ORDER = 1;
+	public final static byte OP_CATALOG = 2;
+
+	// Results.
+	public final static byte RESULT_OK = 0;
+	public final static byte RESULT_BAD_REQUEST = 1;
+	public final static byte RESULT_UNKNOWN_BEVERAGE = 2;
+	public final static byte RESULT_UNAVAILABLE = 3;
+
+	// Sizes in bytes.
+	public final static int LENGTH_SIZE = 4;
+	public final static int HEADER_SIZE = 1 + 8;
+	public final static int ORDER_REQUEST_SIZE = HEADER_SIZE + 4 + 4 + 1 + 4;
+	public final static int ORDER_RESPONSE_SIZE = HEADER_SIZE + 1 + 1 + 8 + 4;
+	public final static int CATALOG_REQUEST_SIZE = HEADER_SIZE;
+
+	// Max size of a frame body, anything larger is a protocol error.
+	public final static int MAX_FRAME_SIZE = 1 << 20;
+
+	// Cached since values() copies the array on every call.
+	private final static OrderPriority[] PRIORITIES = OrderPriority.values();
+	private final static OrderStatus[] STATUSES = OrderStatus.values();
+
+	private OrderProtocol() {
+	}
+
+	/**
+	 * Writes an order request frame.
+	 *
+	 * @param out
+	 * @param requestId
+	 * @param beverageId
+	 * @param outletNo
+	 * @param priority
+	 * @param deadlineMillis
+	 */
+	public static void putOrder(ByteBuffer out, long requestId, int beverageId, int outletNo, OrderPriority priority,
+			int deadlineMillis) {
+		out.putInt(ORDER_REQUEST_SIZE).put(OP_ORDER).putLong(requestId).putInt(beverageId).putInt(outletNo)
+				.put((byte) priority.ordinal()).putInt(deadlineMillis);
+	}
+
+	/**
+	 * Writes a catalog request frame.
+	 *
+	 * @param out
+	 * @param requestId
+	 */
+	public static void putCatalog(ByteBuffer out, long requestId) {
+		out.putInt(CATALOG_REQUEST_SIZE).put(OP_CATALOG).putLong(requestId);
+	}
+
+	/**
+	 * Writes an order response frame.
+	 *
+	 * @param out
+	 * @param requestId
+	 * @param result
+	 * @param status
+	 * @param orderId
+	 * @param outletNo
+	 */
+	public static void putOrderResponse(ByteBuffer out, long requestId, byte result, OrderStatus status, long orderId,
+			int outletNo) {
+		out.putInt(ORDER_RESPONSE_SIZE).put(OP_ORDER).putLong(requestId).put(result)
+				.put((byte) ((status == null) ? -1 : status.ordinal())).putLong(orderId).putInt(outletNo);
+	}
+
+	/**
+	 * Returns the priority with the given code, or null if there is none.
+	 *
+	 * @param code
+	 * @return
+	 */
+	public static OrderPriority toPriority(byte code) {
+		return (code >= 0 && code < PRIORITIES.length) ? PRIORITIES[code] : null;
+	}
+
+	/**
+	 * Returns the order status with the given code, or null if there is none.
+	 *
+	 * @param code
+	 * @return
+	 */
+	public static OrderStatus toStatus(byte code) {
+		return (code >= 0 && code < STATUSES.length) ? STATUSES[code] : null;
+	}
+
+	/**
+	 * Returns the length of the body of the frame at the buffer's position if the
+	 * whole frame is buffered, else -1. The buffer is in read mode and it's
+	 * position is left unchanged.
+	 *
+	 * @param in
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	public static int completeFrameLength(ByteBuffer in) throws IllegalArgumentException {
+		if (in.remaining() < LENGTH_SIZE) {
+			return -1;
+		}
+		int length = in.getInt(in.position());
+		if (length < HEADER_SIZE || length > MAX_FRAME_SIZE) {
+			throw new IllegalArgumentException("Malformed frame length " + length + "!");
+		}
+		return (in.remaining() - LENGTH_SIZE >= length) ? length : -1;
+	}
+}
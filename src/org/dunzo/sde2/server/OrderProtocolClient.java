@@ -0,0 +1,238 @@
+package org.dunzo.sde2.server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.dunzo.sde2.OrderPriority;
+import org.dunzo.sde2.OrderStatus;
+
+/**
+ * OrderProtocolClient --- Blocking client of the binary order protocol. Orders
+ * are buffered till flushed, so many can be sent in one write, and their
+ * completions are read back one at a time in whatever order they arrive.
+ *
+ * Not thread safe, a client is meant to be owned by one thread. A client
+ * pipelining orders should read their completions before it has more than a
+ * few hundred in flight, or the server stops reading it.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class OrderProtocolClient implements AutoCloseable {
+	private final static int BUFFER_SIZE = 64 * 1024;
+
+	private final SocketChannel channel;
+	private final ByteBuffer out;
+	private ByteBuffer in;
+	private int nOutlets;
+
+	/**
+	 * Completion --- Response to an order, reused across reads.
+	 */
+	public static class Completion {
+		private long requestId;
+		private byte result;
+		private OrderStatus status;
+		private long orderId;
+		private int outletNo;
+
+		/**
+		 * Returns the id of the request the order was sent with.
+		 *
+		 * @return
+		 */
+		public long getRequestId() {
+			return requestId;
+		}
+
+		/**
+		 * Returns the result code of the request.
+		 *
+		 * @return
+		 */
+		public byte getResult() {
+			return result;
+		}
+
+		/**
+		 * Returns status of the order when it was placed, or null if it wasn't.
+		 *
+		 * @return
+		 */
+		public OrderStatus getStatus() {
+			return status;
+		}
+
+		/**
+		 * Returns the id of the order placed, or 0 if it wasn't.
+		 *
+		 * @return
+		 */
+		public long getOrderId() {
+			return orderId;
+		}
+
+		/**
+		 * Returns the outlet the order was placed at.
+		 *
+		 * @return
+		 */
+		public int getOutletNo() {
+			return outletNo;
+		}
+
+		@Override
+		public String toString() {
+			return "Completion [requestId=" + requestId + ", result=" + result + ", status=" + status + ", orderId="
+					+ orderId + ", outletNo=" + outletNo + "]";
+		}
+	}
+
+	/**
+	 * @param socketPath
+	 * @throws IOException
+	 */
+	public OrderProtocolClient(Path socketPath) throws IOException {
+		this.channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+		channel.connect(UnixDomainSocketAddress.of(socketPath));
+		this.out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		this.in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		in.flip();
+	}
+
+	/**
+	 * Returns the no. of outlets, known once the catalog is fetched.
+	 *
+	 * @return
+	 */
+	public int getnOutlets() {
+		return nOutlets;
+	}
+
+	/**
+	 * Fetches the beverages on the menu with their ids. Must not be called with
+	 * orders in flight.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public Map<String, Integer> getCatalog() throws IOException {
+		OrderProtocol.putCatalog(out, 0);
+		flush();
+		int length = readFrame();
+		int start = in.position();
+		if (in.get() != OrderProtocol.OP_CATALOG) {
+			throw new IOException("Expected a catalog response! Orders are still in flight.");
+		}
+		in.getLong();
+		in.get();
+		nOutlets = in.getInt();
+		int nBeverages = in.getInt();
+		Map<String, Integer> catalog = new LinkedHashMap<String, Integer>();
+		for (int i = 0; i < nBeverages; i++) {
+			int id = in.getInt();
+			byte[] name = new byte[in.getShort()];
+			in.get(name);
+			catalog.put(new String(name, StandardCharsets.UTF_8), id);
+		}
+		in.position(start + length);
+		return catalog;
+	}
+
+	/**
+	 * Buffers an order, writing out the buffer first if it's full.
+	 *
+	 * @param requestId
+	 * @param beverageId
+	 * @param outletNo
+	 * @param priority
+	 * @param deadlineMillis
+	 * @throws IOException
+	 */
+	public void sendOrder(long requestId, int beverageId, int outletNo, OrderPriority priority, int deadlineMillis)
+			throws IOException {
+		if (out.remaining() < OrderProtocol.LENGTH_SIZE + OrderProtocol.ORDER_REQUEST_SIZE) {
+			flush();
+		}
+		OrderProtocol.putOrder(out, requestId, beverageId, outletNo, priority, deadlineMillis);
+	}
+
+	/**
+	 * Writes out the buffered requests.
+	 *
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		out.flip();
+		while (out.hasRemaining()) {
+			channel.write(out);
+		}
+		out.clear();
+	}
+
+	/**
+	 * Reads the next order completion into the given one, waiting till it
+	 * arrives.
+	 *
+	 * @param completion
+	 * @throws IOException
+	 */
+	public void readCompletion(Completion completion) throws IOException {
+		int length = readFrame();
+		int start = in.position();
+		if (in.get() != OrderProtocol.OP_ORDER || length != OrderProtocol.ORDER_RESPONSE_SIZE) {
+			throw new IOException("Expected an order response!");
+		}
+		completion.requestId = in.getLong();
+		completion.result = in.get();
+		completion.status = OrderProtocol.toStatus(in.get());
+		completion.orderId = in.getLong();
+		completion.outletNo = in.getInt();
+		in.position(start + length);
+	}
+
+	/**
+	 * Closes the connection.
+	 *
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Reads till a whole frame is buffered, and returns the length of it's body
+	 * with the buffer positioned at the body.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	private int readFrame() throws IOException {
+		int length;
+		while ((length = OrderProtocol.completeFrameLength(in)) < 0) {
+			if (in.remaining() >= OrderProtocol.LENGTH_SIZE
+					&& in.getInt(in.position()) + OrderProtocol.LENGTH_SIZE > in.capacity()) {
+				ByteBuffer larger = ByteBuffer.allocateDirect(in.getInt(in.position()) + OrderProtocol.LENGTH_SIZE);
+				larger.put(in);
+				in = larger;
+			} else {
+				in.compact();
+			}
+			if (channel.read(in) < 0) {
+				throw new EOFException("Order protocol server closed the connection!");
+			}
+			in.flip();
+		}
+		in.position(in.position() + OrderProtocol.LENGTH_SIZE);
+		return length;
+	}
+}
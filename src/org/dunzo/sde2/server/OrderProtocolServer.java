@@ -0,0 +1,537 @@
+package org.dunzo.sde2.server;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.dunzo.sde2.Beverage;
+import org.dunzo.sde2.ICoffeeMachine;
+import org.dunzo.sde2.Order;
+import org.dunzo.sde2.OrderPriority;
+import org.dunzo.sde2.OrderStatus;
+
+/**
+ * OrderProtocolServer --- Serves the binary order protocol over a Unix domain
+ * socket, for clients on the same host sending orders at high rates.
+ *
+ * Like the HTTP server, a single selector thread reads and writes all the
+ * connections and orders are placed on a small bounded pool. Unlike it, a
+ * connection isn't held up by the request being handled. Requests are decoded
+ * straight from the read buffer, every order is placed as soon as it's read,
+ * and it's response is encoded straight into the connection's write buffer as
+ * soon as it's placed, so pipelined orders complete out of order. Each
+ * connection reuses a fixed set of tasks for the orders in flight, so
+ * decoding, dispatching and encoding an order allocate nothing.
+ *
+ * A connection stops being read while it has too many orders in flight or too
+ * many responses the client hasn't read yet.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class OrderProtocolServer implements AutoCloseable {
+	// Max no. of orders of a connection being placed at a time.
+	private final static int MAX_IN_FLIGHT = 256;
+
+	// Connection stops being read once this many bytes of responses are unsent.
+	private final static int OUT_HIGH_WATER = MAX_IN_FLIGHT * (OrderProtocol.LENGTH_SIZE
+			+ OrderProtocol.ORDER_RESPONSE_SIZE);
+
+	private final static int IN_BUFFER_SIZE = 16 * 1024;
+	private final static int MAX_CONNECTIONS = 1024;
+	private final static int HANDLER_QUEUE_CAPACITY = 4096;
+
+	private final ICoffeeMachine machine;
+	private final Path socketPath;
+	private final ServerSocketChannel serverChannel;
+	private final Selector selector;
+	private final ThreadPoolExecutor handlers;
+	private final Thread eventLoop;
+	private volatile boolean running;
+	private int nConnections;
+
+	// Connections with responses to write, each queued at most once.
+	private final ArrayBlockingQueue<Connection> completed;
+
+	// Interned beverage ids, never reused so that clients can cache them.
+	private final ConcurrentHashMap<String, Integer> beverageIds;
+	private volatile String[] beverageNames;
+	private volatile int nBeverageIds;
+
+	/**
+	 * Connection --- State of one client connection. The read buffer and the
+	 * tasks handed out are only touched by the event loop, the rest is guarded
+	 * by the connection's lock.
+	 */
+	private class Connection {
+		private final SocketChannel channel;
+		private final ByteBuffer in = ByteBuffer.allocate(IN_BUFFER_SIZE);
+		private ByteBuffer out = ByteBuffer.allocateDirect(2 * OUT_HIGH_WATER);
+		private final OrderTask[] freeTasks = new OrderTask[MAX_IN_FLIGHT];
+		private int nFreeTasks;
+		private boolean queued;
+		private boolean closed;
+
+		/**
+		 * @param channel
+		 */
+		private Connection(SocketChannel channel) {
+			this.channel = channel;
+			for (int i = 0; i < MAX_IN_FLIGHT; i++) {
+				freeTasks[nFreeTasks++] = new OrderTask(this);
+			}
+		}
+
+		/**
+		 * Encodes the response of a placed order and hands the task back.
+		 *
+		 * @param task
+		 * @param result
+		 * @param status
+		 * @param orderId
+		 * @param outletNo
+		 */
+		private synchronized void complete(OrderTask task, byte result, OrderStatus status, long orderId,
+				int outletNo) {
+			if (!closed) {
+				ensureOutCapacity(OrderProtocol.LENGTH_SIZE + OrderProtocol.ORDER_RESPONSE_SIZE);
+				OrderProtocol.putOrderResponse(out, task.requestId, result, status, orderId, outletNo);
+			}
+			freeTasks[nFreeTasks++] = task;
+			if (!queued && !closed) {
+				queued = true;
+				completed.add(this);
+				selector.wakeup();
+			}
+		}
+
+		/**
+		 * Grows the write buffer to take the given no. of bytes more, only when a
+		 * client isn't reading catalogs it asked for.
+		 *
+		 * @param size
+		 */
+		private void ensureOutCapacity(int size) {
+			if (out.remaining() < size) {
+				ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(2 * out.capacity(), out.position() + size));
+				out.flip();
+				larger.put(out);
+				out = larger;
+			}
+		}
+
+		/**
+		 * Takes a free task for a new order, or returns null if too many are in
+		 * flight.
+		 *
+		 * @return
+		 */
+		private synchronized OrderTask takeTask() {
+			return (nFreeTasks == 0) ? null : freeTasks[--nFreeTasks];
+		}
+	}
+
+	/**
+	 * OrderTask --- Places one order of a connection. Reused for the
+	 * connection's next order once it's response is encoded.
+	 */
+	private class OrderTask implements Runnable {
+		private final Connection connection;
+		private long requestId;
+		private int beverageId;
+		private int outletNo;
+		private byte priority;
+		private int deadlineMillis;
+
+		/**
+		 * @param connection
+		 */
+		private OrderTask(Connection connection) {
+			this.connection = connection;
+		}
+
+		@Override
+		public void run() {
+			String beverageName = getBeverageName(beverageId);
+			OrderPriority orderPriority = OrderProtocol.toPriority(priority);
+			if (beverageName == null) {
+				connection.complete(this, OrderProtocol.RESULT_UNKNOWN_BEVERAGE, null, 0, outletNo);
+				return;
+			}
+			if (orderPriority == null || deadlineMillis < 0) {
+				connection.complete(this, OrderProtocol.RESULT_BAD_REQUEST, null, 0, outletNo);
+				return;
+			}
+			long deadline = (deadlineMillis == 0) ? Order.NO_DEADLINE : System.currentTimeMillis() + deadlineMillis;
+			try {
+				Order order = machine.serveBeverage(outletNo, beverageName, orderPriority, deadline);
+				connection.complete(this, OrderProtocol.RESULT_OK, order.getStatus(), order.getId(), outletNo);
+			} catch (IllegalArgumentException e) {
+				connection.complete(this, OrderProtocol.RESULT_BAD_REQUEST, null, 0, outletNo);
+			} catch (RuntimeException e) {
+				connection.complete(this, OrderProtocol.RESULT_UNAVAILABLE, null, 0, outletNo);
+			}
+		}
+	}
+
+	/**
+	 * @param socketPath
+	 * @param nHandlers
+	 * @param machine
+	 * @throws IOException
+	 */
+	public OrderProtocolServer(Path socketPath, int nHandlers, ICoffeeMachine machine) throws IOException {
+		if (nHandlers <= 0) {
+			throw new IllegalArgumentException("Order protocol server needs a positive no. of handler threads!");
+		}
+		if (machine == null) {
+			throw new IllegalArgumentException("Coffee Machine is not defined! Cannot serve orders!");
+		}
+		this.machine = machine;
+		this.socketPath = socketPath;
+		this.beverageIds = new ConcurrentHashMap<String, Integer>();
+		this.beverageNames = new String[16];
+		for (Beverage beverage : machine.getMenu()) {
+			intern(beverage.getName());
+		}
+
+		// A socket file left behind by a server that didn't close would fail the
+		// bind.
+		Files.deleteIfExists(socketPath);
+		this.selector = Selector.open();
+		this.serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		serverChannel.configureBlocking(false);
+		serverChannel.bind(UnixDomainSocketAddress.of(socketPath));
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		this.handlers = new ThreadPoolExecutor(nHandlers, nHandlers, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(HANDLER_QUEUE_CAPACITY));
+		this.completed = new ArrayBlockingQueue<Connection>(MAX_CONNECTIONS);
+		this.eventLoop = new Thread(this::runEventLoop, "order-protocol-event-loop");
+	}
+
+	/**
+	 * Returns the path of the socket the server listens on.
+	 *
+	 * @return
+	 */
+	public Path getSocketPath() {
+		return socketPath;
+	}
+
+	/**
+	 * Returns the interned id of the beverage, interning it if it's new.
+	 *
+	 * @param beverageName
+	 * @return
+	 */
+	public int getBeverageId(String beverageName) {
+		Integer id = beverageIds.get(beverageName);
+		return (id != null) ? id : intern(beverageName);
+	}
+
+	/**
+	 * Starts the event loop.
+	 */
+	public void start() {
+		running = true;
+		eventLoop.start();
+	}
+
+	/**
+	 * Stops accepting connections, closes the open ones and stops the handlers.
+	 */
+	@Override
+	public void close() {
+		running = false;
+		selector.wakeup();
+		try {
+			eventLoop.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		handlers.shutdownNow();
+		try {
+			Files.deleteIfExists(socketPath);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Interns a beverage name under the next id.
+	 *
+	 * @param beverageName
+	 * @return
+	 */
+	private synchronized int intern(String beverageName) {
+		Integer id = beverageIds.get(beverageName);
+		if (id != null) {
+			return id;
+		}
+		if (nBeverageIds == beverageNames.length) {
+			beverageNames = Arrays.copyOf(beverageNames, 2 * beverageNames.length);
+		}
+		beverageNames[nBeverageIds] = beverageName;
+		beverageIds.put(beverageName, nBeverageIds);
+		return nBeverageIds++;
+	}
+
+	/**
+	 * Returns the name of the beverage with the interned id, or null if there is
+	 * none.
+	 *
+	 * @param beverageId
+	 * @return
+	 */
+	private String getBeverageName(int beverageId) {
+		int n = nBeverageIds;
+		String[] names = beverageNames;
+		return (beverageId >= 0 && beverageId < n) ? names[beverageId] : null;
+	}
+
+	/**
+	 * Selects ready channels and serves them till the server is closed.
+	 */
+	private void runEventLoop() {
+		try {
+			while (running) {
+				selector.select();
+				Connection connection;
+				while ((connection = completed.poll()) != null) {
+					synchronized (connection) {
+						connection.queued = false;
+					}
+					SelectionKey key = connection.channel.keyFor(selector);
+					if (key != null && key.isValid()) {
+						serve(key, connection);
+					}
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept();
+						continue;
+					}
+					Connection conn = (Connection) key.attachment();
+					try {
+						if (key.isReadable() && conn.channel.read(conn.in) < 0) {
+							closeConnection(key);
+							continue;
+						}
+						serve(key, conn);
+					} catch (IOException | IllegalArgumentException e) {
+						closeConnection(key);
+					}
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			for (SelectionKey key : selector.keys()) {
+				closeConnection(key);
+			}
+			try {
+				selector.close();
+				serverChannel.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Accepts a new connection, unless there are too many already.
+	 *
+	 * @throws IOException
+	 */
+	private void accept() throws IOException {
+		SocketChannel channel = serverChannel.accept();
+		if (channel == null) {
+			return;
+		}
+		if (nConnections == MAX_CONNECTIONS) {
+			channel.close();
+			return;
+		}
+		nConnections++;
+		channel.configureBlocking(false);
+		channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+	}
+
+	/**
+	 * Writes what responses the socket takes, dispatches the buffered requests
+	 * the connection has room for, and updates what the connection waits for.
+	 *
+	 * @param key
+	 * @param connection
+	 */
+	private void serve(SelectionKey key, Connection connection) {
+		try {
+			boolean backlogged = write(connection);
+			if (!backlogged) {
+				dispatch(connection);
+				backlogged = write(connection);
+			}
+			synchronized (connection) {
+				int ops = (connection.out.position() > 0) ? SelectionKey.OP_WRITE : 0;
+				if (!backlogged && connection.in.hasRemaining()) {
+					ops |= SelectionKey.OP_READ;
+				}
+				key.interestOps(ops);
+			}
+		} catch (IOException | IllegalArgumentException e) {
+			closeConnection(key);
+		}
+	}
+
+	/**
+	 * Writes as much of the buffered responses as the socket takes. Returns true
+	 * if the client is too far behind in reading them.
+	 *
+	 * @param connection
+	 * @return
+	 * @throws IOException
+	 */
+	private boolean write(Connection connection) throws IOException {
+		synchronized (connection) {
+			if (connection.out.position() > 0) {
+				connection.out.flip();
+				connection.channel.write(connection.out);
+				connection.out.compact();
+			}
+			return connection.out.position() > OUT_HIGH_WATER;
+		}
+	}
+
+	/**
+	 * Decodes the complete requests buffered for the connection and places their
+	 * orders, till it has too many in flight.
+	 *
+	 * @param connection
+	 * @throws IllegalArgumentException
+	 */
+	private void dispatch(Connection connection) throws IllegalArgumentException {
+		ByteBuffer in = connection.in;
+		in.flip();
+		try {
+			while (true) {
+				if (in.remaining() >= OrderProtocol.LENGTH_SIZE
+						&& in.getInt(in.position()) > OrderProtocol.ORDER_REQUEST_SIZE) {
+					throw new IllegalArgumentException("Request is too large!");
+				}
+				int length = OrderProtocol.completeFrameLength(in);
+				if (length < 0) {
+					return;
+				}
+				int start = in.position() + OrderProtocol.LENGTH_SIZE;
+				byte op = in.get(start);
+				long requestId = in.getLong(start + 1);
+				if (op == OrderProtocol.OP_CATALOG && length == OrderProtocol.CATALOG_REQUEST_SIZE) {
+					writeCatalog(connection, requestId);
+				} else if (op == OrderProtocol.OP_ORDER && length == OrderProtocol.ORDER_REQUEST_SIZE) {
+					OrderTask task = connection.takeTask();
+					if (task == null) {
+						return;
+					}
+					int args = start + OrderProtocol.HEADER_SIZE;
+					task.requestId = requestId;
+					task.beverageId = in.getInt(args);
+					task.outletNo = in.getInt(args + 4);
+					task.priority = in.get(args + 8);
+					task.deadlineMillis = in.getInt(args + 9);
+					try {
+						handlers.execute(task);
+					} catch (RejectedExecutionException e) {
+						connection.complete(task, OrderProtocol.RESULT_UNAVAILABLE, null, 0, task.outletNo);
+					}
+				} else {
+					throw new IllegalArgumentException("Unknown request " + op + "!");
+				}
+				in.position(start + length);
+			}
+		} finally {
+			in.compact();
+		}
+	}
+
+	/**
+	 * Encodes the catalog of beverages on the menu with their interned ids.
+	 *
+	 * @param connection
+	 * @param requestId
+	 */
+	private void writeCatalog(Connection connection, long requestId) {
+		int nBeverages = 0;
+		int size = OrderProtocol.HEADER_SIZE + 1 + 4 + 4;
+		for (Beverage beverage : machine.getMenu()) {
+			getBeverageId(beverage.getName());
+			size += 4 + 2 + beverage.getName().getBytes(StandardCharsets.UTF_8).length;
+			nBeverages++;
+		}
+		synchronized (connection) {
+			connection.ensureOutCapacity(OrderProtocol.LENGTH_SIZE + size);
+			ByteBuffer out = connection.out;
+			int lengthAt = out.position();
+			out.putInt(0).put(OrderProtocol.OP_CATALOG).putLong(requestId).put(OrderProtocol.RESULT_OK)
+					.putInt(machine.getnOutlets());
+			int countAt = out.position();
+			out.putInt(0);
+			int written = 0;
+			for (Beverage beverage : machine.getMenu()) {
+				// The menu may have changed since it was sized.
+				byte[] name = beverage.getName().getBytes(StandardCharsets.UTF_8);
+				if (written == nBeverages || out.remaining() < 4 + 2 + name.length) {
+					break;
+				}
+				out.putInt(getBeverageId(beverage.getName())).putShort((short) name.length).put(name);
+				written++;
+			}
+			out.putInt(countAt, written);
+			out.putInt(lengthAt, out.position() - lengthAt - OrderProtocol.LENGTH_SIZE);
+		}
+	}
+
+	/**
+	 * Closes a connection and cancels it's key.
+	 *
+	 * @param key
+	 */
+	private void closeConnection(SelectionKey key) {
+		key.cancel();
+		if (key.attachment() instanceof Connection) {
+			Connection connection = (Connection) key.attachment();
+			synchronized (connection) {
+				if (!connection.closed) {
+					connection.closed = true;
+					nConnections--;
+				}
+			}
+			completed.remove(connection);
+		}
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			// Nothing more to do for a connection that failed to close.
+		}
+	}
+}
@@ -1,5 +1,11 @@
 package org.dunzo.sde2.test;
 
+import java.util.HashMap;
+import java.util.Map;
+
+import org.dunzo.sde2.Beverage;
+import org.dunzo.sde2.ICoffeeMachine;
+import org.dunzo.sde2.Ingredient;
 import org.dunzo.sde2.InputReader;
 import org.json.JSONObject;
 
@@ -23,4 +29,47 @@ public abstract class AbstractTest {
 		inputReader.read();
 		return inputReader.getJsonObj();
 	}
+
+	/**
+	 * Refills the ingredients of the servable beverages so that the stock covers
+	 * the given no. of orders, whichever beverages they are for. Load tests top up
+	 * first so that orders aren't failed for stock after the first few.
+	 *
+	 * @param machine
+	 * @param nOrders
+	 * @throws InterruptedException
+	 */
+	protected void topUpStock(ICoffeeMachine machine, int nOrders) throws InterruptedException {
+		Map<String, Integer> stock = machine.getStockSnapshot();
+		Map<String, Integer> needed = new HashMap<String, Integer>();
+		for (Beverage beverage : machine.getMenu()) {
+			if (!beverage.isServable()) {
+				continue;
+			}
+			for (Ingredient ingredient : beverage.getRecipe().getIngredients().values()) {
+				needed.merge(ingredient.getName(), nOrders * ingredient.getQuantity(), Math::max);
+			}
+		}
+		for (Map.Entry<String, Integer> entry : needed.entrySet()) {
+			int available = stock.getOrDefault(entry.getKey(), 0);
+			if (entry.getValue() > available) {
+				machine.addIngredientQuantity(entry.getKey(), entry.getValue() - available);
+			}
+		}
+	}
+
+	/**
+	 * Prints whether an expectation of the test held, and fails the test if it
+	 * didn't.
+	 *
+	 * @param passed
+	 * @param expectation
+	 * @throws AssertionError
+	 */
+	protected void check(boolean passed, String expectation) throws AssertionError {
+		System.out.println((passed ? "PASSED: " : "FAILED: ") + expectation);
+		if (!passed) {
+			throw new AssertionError(expectation);
+		}
+	}
 }
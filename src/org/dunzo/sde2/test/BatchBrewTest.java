@@ -0,0 +1,83 @@
+package org.dunzo.sde2.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.dunzo.sde2.CoffeeMachine;
+import org.dunzo.sde2.MachineLogger;
+import org.dunzo.sde2.Order;
+import org.dunzo.sde2.OrderStatus;
+import org.dunzo.sde2.OrderTrace;
+import org.json.JSONObject;
+
+/**
+ * Queues three teas and a coffee behind an order being brewed at a single
+ * outlet that brews up to three cups of the same beverage together. Checks that
+ * the teas are brewed as one batch, taking the time of the batch rather than
+ * three brews, that the coffee is brewed on it's own, and that every cup uses
+ * up it's own ingredients.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class BatchBrewTest extends AbstractTest {
+	private final static int PREPARE_TIME = 400;
+	private final static int BATCH_CAPACITY = 3;
+	private final static double EXTRA_CUP_SHARE = 0.5;
+
+	/**
+	 *
+	 */
+	@Override
+	public void run(String filePath) throws InterruptedException {
+		JSONObject jsonObj = loadJSON(filePath);
+		JSONObject machineObj = jsonObj.getJSONObject("machine");
+		machineObj.put("outlets", new JSONObject().put("count_n", 1).put("batch",
+				new JSONObject().put("capacity", BATCH_CAPACITY).put("extra_cup_share", EXTRA_CUP_SHARE)));
+		machineObj.put("brew_time", new JSONObject().put("base_ms", PREPARE_TIME).put("ms_per_unit", 0));
+
+		MachineLogger logger = MachineLogger.get();
+		MachineLogger.Level previousLevel = logger.getLevel();
+		CoffeeMachine machine = new CoffeeMachine("Batch Brew");
+		machine.initializeFromJSON(jsonObj);
+		logger.setLevel(MachineLogger.Level.OFF);
+		machine.start();
+		try {
+			int milk = machine.getStockSnapshot().get("hot_milk");
+			// Everything queues up while the black tea is brewed.
+			Order blocker = machine.serveBeverage(1, "black_tea");
+			List<Order> teas = new ArrayList<Order>();
+			for (int i = 0; i < BATCH_CAPACITY; i++) {
+				teas.add(machine.serveBeverage(1, "hot_tea"));
+			}
+			Order coffee = machine.serveBeverage(1, "hot_coffee");
+			coffee.awaitCompletion(10 * PREPARE_TIME, TimeUnit.MILLISECONDS);
+			for (Order tea : teas) {
+				tea.awaitCompletion(10 * PREPARE_TIME, TimeUnit.MILLISECONDS);
+			}
+
+			long batchTime = Math.round(PREPARE_TIME * (1 + EXTRA_CUP_SHARE * (BATCH_CAPACITY - 1)));
+			check(blocker.getStatus() == OrderStatus.SERVED && coffee.getStatus() == OrderStatus.SERVED
+					&& teas.stream().allMatch(tea -> tea.getStatus() == OrderStatus.SERVED), "Every order is served");
+			long firstFinish = teas.stream().mapToLong(tea -> tea.getTrace().getFinishedAt()).min().getAsLong();
+			long lastFinish = teas.stream().mapToLong(tea -> tea.getTrace().getFinishedAt()).max().getAsLong();
+			check(TimeUnit.NANOSECONDS.toMillis(lastFinish - firstFinish) < PREPARE_TIME / 4,
+					"Teas finish together as one batch");
+			check(teas.stream().allMatch(tea -> {
+				long brew = TimeUnit.NANOSECONDS.toMillis(tea.getTrace().getPhaseTime(OrderTrace.Phase.BREW));
+				return brew >= batchTime && brew < BATCH_CAPACITY * PREPARE_TIME;
+			}), "Batch takes " + batchTime + " ms rather than three brews");
+			long coffeeBrew = TimeUnit.NANOSECONDS.toMillis(coffee.getTrace().getPhaseTime(OrderTrace.Phase.BREW));
+			check(coffeeBrew >= PREPARE_TIME && coffeeBrew < batchTime
+					&& coffee.getTrace().getFinishedAt() > lastFinish, "Coffee is brewed on it's own after the batch");
+			check(machine.getStockSnapshot().get("hot_milk") == milk - BATCH_CAPACITY * 100 - 400,
+					"Every cup uses up it's own ingredients");
+		} finally {
+			machine.close();
+			logger.flush();
+			logger.setLevel(previousLevel);
+		}
+		System.out.println();
+	}
+}
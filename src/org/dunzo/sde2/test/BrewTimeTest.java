@@ -0,0 +1,78 @@
+package org.dunzo.sde2.test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.dunzo.sde2.Beverage;
+import org.dunzo.sde2.CoffeeMachine;
+import org.dunzo.sde2.MachineLogger;
+import org.dunzo.sde2.Order;
+import org.dunzo.sde2.OrderStatus;
+import org.dunzo.sde2.OrderTrace;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Sets up a machine with a brew time model, a recipe with it's own preparation
+ * time and an outlet twice as fast as the other. Checks the preparation time of
+ * every beverage, and that the same beverage brews in half the time at the
+ * faster outlet.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class BrewTimeTest extends AbstractTest {
+	private final static int BASE_TIME = 100;
+	private final static double TIME_PER_UNIT = 0.5;
+	private final static int TEA_PREPARE_TIME = 240;
+
+	/**
+	 *
+	 */
+	@Override
+	public void run(String filePath) throws InterruptedException {
+		JSONObject jsonObj = loadJSON(filePath);
+		JSONObject machineObj = jsonObj.getJSONObject("machine");
+		machineObj.put("outlets",
+				new JSONObject().put("count_n", 2).put("throughput", new JSONArray().put(1.0).put(2.0)));
+		machineObj.put("brew_time", new JSONObject().put("base_ms", BASE_TIME).put("ms_per_unit", TIME_PER_UNIT));
+		machineObj.getJSONObject("beverages").getJSONObject("hot_tea").put("prepare_time_ms", TEA_PREPARE_TIME);
+
+		MachineLogger logger = MachineLogger.get();
+		MachineLogger.Level previousLevel = logger.getLevel();
+		CoffeeMachine machine = new CoffeeMachine("Brew Time");
+		machine.initializeFromJSON(jsonObj);
+		logger.setLevel(MachineLogger.Level.OFF);
+		machine.start();
+		try {
+			Map<String, Integer> prepareTimes = new HashMap<String, Integer>();
+			for (Beverage beverage : machine.getMenu()) {
+				prepareTimes.put(beverage.getName(), beverage.getPrepareTime());
+			}
+			// Coffee holds 610 units of ingredients and black tea 410.
+			check(prepareTimes.get("hot_coffee") == 405 && prepareTimes.get("black_tea") == 305,
+					"Preparation time of a recipe follows it's volume");
+			check(prepareTimes.get("hot_tea") == TEA_PREPARE_TIME,
+					"Preparation time set on a recipe overrides the model");
+
+			Order slow = machine.serveBeverage(1, "hot_tea");
+			Order fast = machine.serveBeverage(2, "hot_tea");
+			check(slow.getPrepareTime() == TEA_PREPARE_TIME && fast.getPrepareTime() == TEA_PREPARE_TIME / 2,
+					"Outlet twice as fast halves the preparation time");
+			slow.awaitCompletion(10 * TEA_PREPARE_TIME, TimeUnit.MILLISECONDS);
+			fast.awaitCompletion(10 * TEA_PREPARE_TIME, TimeUnit.MILLISECONDS);
+			long slowBrew = TimeUnit.NANOSECONDS.toMillis(slow.getTrace().getPhaseTime(OrderTrace.Phase.BREW));
+			long fastBrew = TimeUnit.NANOSECONDS.toMillis(fast.getTrace().getPhaseTime(OrderTrace.Phase.BREW));
+			check(slow.getStatus() == OrderStatus.SERVED && fast.getStatus() == OrderStatus.SERVED,
+					"Both orders are served");
+			check(slowBrew >= TEA_PREPARE_TIME && fastBrew >= TEA_PREPARE_TIME / 2 && fastBrew < TEA_PREPARE_TIME,
+					"Each order brews for it's outlet's preparation time");
+		} finally {
+			machine.close();
+			logger.flush();
+			logger.setLevel(previousLevel);
+		}
+		System.out.println();
+	}
+}
@@ -0,0 +1,109 @@
+package org.dunzo.sde2.test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.dunzo.sde2.Beverage;
+import org.dunzo.sde2.CapacityPlan;
+import org.dunzo.sde2.CapacityPlanner;
+import org.dunzo.sde2.Ingredient;
+import org.dunzo.sde2.Recipe;
+
+/**
+ * Plans a half tea, half coffee mix on a small menu worked out by hand, and
+ * checks the servings, the bottleneck, the refill that unlocks more servings
+ * and that one more of either beverage doesn't fit the stock. Then plans a
+ * random mix on a menu of thousands of beverages and checks that it fits and
+ * is planned within a second.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class CapacityPlanTest extends AbstractTest {
+	private final static int N_BEVERAGES = 5000;
+	private final static int N_INGREDIENTS = 50;
+	private final static int N_RECIPE_INGREDIENTS = 5;
+	private final static long MAX_PLAN_TIME = 1000;
+
+	/**
+	 *
+	 */
+	@Override
+	public void run(String filePath) {
+		// Per serving of the mix: 75 water, 75 milk and 10 sugar. Milk runs out
+		// after 8 servings, sugar after 10 and water after 13.
+		List<Beverage> menu = new ArrayList<Beverage>();
+		menu.add(beverage("tea", "water", 100, "milk", 50, "sugar", 10));
+		menu.add(beverage("coffee", "water", 50, "milk", 100, "sugar", 10));
+		Map<String, Integer> stock = new LinkedHashMap<String, Integer>();
+		stock.put("water", 1000);
+		stock.put("milk", 600);
+		stock.put("sugar", 100);
+		CapacityPlanner planner = new CapacityPlanner(menu, stock);
+		Map<String, Double> mix = new LinkedHashMap<String, Double>();
+		mix.put("tea", 1.0);
+		mix.put("coffee", 1.0);
+		CapacityPlan plan = planner.plan(mix);
+		System.out.println(plan);
+
+		check(plan.getServings().get("tea") == 4 && plan.getServings().get("coffee") == 4,
+				"Mix is planned as 4 teas and 4 coffees");
+		check(plan.getLeftover().get("milk") == 0 && plan.getLeftover().get("water") == 400,
+				"Planned servings use up all the milk and leave 400 water");
+		check(plan.getBottlenecks().equals(List.of("milk")), "Milk is the only bottleneck");
+		check(plan.getUnlockedServings().get("milk") == 2 && plan.getUnlockRefills().get("milk") == 150,
+				"Refilling 150 milk unlocks 2 more servings till sugar runs out");
+		check(planner.getMaxServings().equals(Map.of("tea", 10, "coffee", 6)),
+				"Tea alone is limited by sugar and coffee alone by milk");
+		check(planner.isFeasible(plan.getServings()), "Planned servings fit the stock");
+		check(!planner.isFeasible(Map.of("tea", 5, "coffee", 4)) && !planner.isFeasible(Map.of("tea", 4, "coffee", 5)),
+				"One more of either beverage doesn't fit the stock");
+
+		Random random = new Random(1);
+		menu.clear();
+		stock.clear();
+		mix.clear();
+		for (int i = 0; i < N_INGREDIENTS; i++) {
+			stock.put("ingredient_" + i, 1000000 + random.nextInt(1000000));
+		}
+		for (int b = 0; b < N_BEVERAGES; b++) {
+			Recipe recipe = new Recipe("beverage_" + b);
+			for (int r = 0; r < N_RECIPE_INGREDIENTS; r++) {
+				String ingredientName = "ingredient_" + random.nextInt(N_INGREDIENTS);
+				if (!recipe.getIngredients().containsKey(ingredientName)) {
+					recipe.addIngredient(new Ingredient(ingredientName, 1 + random.nextInt(100)));
+				}
+			}
+			menu.add(new Beverage(recipe.getName(), recipe));
+			mix.put(recipe.getName(), random.nextDouble());
+		}
+		long start = System.nanoTime();
+		planner = new CapacityPlanner(menu, stock);
+		plan = planner.plan(mix);
+		long planTime = (System.nanoTime() - start) / 1000000;
+		System.out.println(String.format("Planned %d servings of %d beverages in %d ms", plan.getTotalServings(),
+				N_BEVERAGES, planTime));
+		check(plan.getTotalServings() > 0 && planner.isFeasible(plan.getServings()),
+				"Planned servings of the large menu fit the stock");
+		check(planTime < MAX_PLAN_TIME, "Large menu is planned within a second");
+		System.out.println();
+	}
+
+	/**
+	 * Creates a beverage from pairs of ingredient names and quantities.
+	 *
+	 * @param name
+	 * @param recipe
+	 * @return
+	 */
+	private static Beverage beverage(String name, Object... recipe) {
+		Recipe r = new Recipe(name);
+		for (int i = 0; i < recipe.length; i += 2) {
+			r.addIngredient(new Ingredient((String) recipe[i], (Integer) recipe[i + 1]));
+		}
+		return new Beverage(name, r);
+	}
+}
@@ -0,0 +1,54 @@
+package org.dunzo.sde2.test;
+
+import org.dunzo.sde2.ConsumptionForecaster;
+import org.dunzo.sde2.RefillEvent;
+
+/**
+ * Feeds a consumption forecaster a steady use of an ingredient at made up
+ * times, and checks that nothing is forecast from the first few orders, that a
+ * refill is raised once when the stock runs low at the steady rate, and that it
+ * is raised again only after a refill.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class ConsumptionForecastTest extends AbstractTest {
+	private final static long INTERVAL = 1000;
+	private final static long LEAD_TIME = 10 * INTERVAL;
+	private final static int USED_PER_INTERVAL = 100;
+
+	/**
+	 *
+	 */
+	@Override
+	public void run(String filePath) throws InterruptedException {
+		ConsumptionForecaster forecaster = new ConsumptionForecaster(INTERVAL, 8, 0.5, LEAD_TIME);
+		int quantity = 2000;
+
+		quantity -= USED_PER_INTERVAL;
+		RefillEvent first = forecaster.record("hot_milk", USED_PER_INTERVAL, quantity, 0);
+		check(first == null && forecaster.getTimeToEmpty("hot_milk", quantity, 0) == Long.MAX_VALUE,
+				"Nothing is forecast from the first order");
+
+		int raised = 0;
+		long now = 0;
+		while (quantity > 500) {
+			now += INTERVAL;
+			quantity -= USED_PER_INTERVAL;
+			if (forecaster.record("hot_milk", USED_PER_INTERVAL, quantity, now) != null) {
+				raised++;
+			}
+		}
+		long timeToEmpty = forecaster.getTimeToEmpty("hot_milk", quantity, now);
+		System.out.println(String.format("%d left at %.1f per second, runs out in %.1f seconds", quantity,
+				forecaster.getRate("hot_milk", now), timeToEmpty / 1000.0));
+		check(timeToEmpty == quantity * INTERVAL / USED_PER_INTERVAL, "Steady rate predicts the time to empty");
+		check(raised == 1, "Refill is raised once when the stock runs low");
+
+		quantity += 10000;
+		check(forecaster.check("hot_milk", quantity, now) == null, "No refill is raised after a refill");
+		quantity = 500;
+		check(forecaster.check("hot_milk", quantity, now) != null, "Refill is raised again once the stock runs low");
+		System.out.println();
+	}
+}
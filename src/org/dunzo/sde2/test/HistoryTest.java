@@ -0,0 +1,115 @@
+package org.dunzo.sde2.test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.dunzo.sde2.CoffeeMachine;
+import org.dunzo.sde2.MachineLogger;
+import org.dunzo.sde2.OrderStatus;
+import org.dunzo.sde2.history.DailyAggregate;
+import org.dunzo.sde2.history.OrderHistory;
+import org.dunzo.sde2.workload.WorkloadGenerator;
+import org.dunzo.sde2.workload.WorkloadReport;
+import org.dunzo.sde2.workload.WorkloadScenario;
+
+/**
+ * Runs a workload scenario file against a Coffee Machine keeping it's order
+ * history in a temporary directory, then reopens the history and queries the
+ * orders of every beverage by status in the time the workload ran, and the
+ * daily aggregates of today. Checks that the history holds as many orders of
+ * every status as the workload report counted.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class HistoryTest extends AbstractTest {
+
+	/**
+	 *
+	 */
+	@Override
+	public void run(String filePath) throws InterruptedException {
+		WorkloadScenario scenario = WorkloadScenario.load(filePath);
+		Path directory = null;
+		try {
+			directory = Files.createTempDirectory(scenario.getName() + "-history-");
+
+			MachineLogger logger = MachineLogger.get();
+			MachineLogger.Level previousLevel = logger.getLevel();
+			CoffeeMachine machine = new CoffeeMachine(scenario.getName());
+			machine.initializeFromJSON(scenario.getMachine());
+			machine.openHistory(directory);
+			logger.setLevel(scenario.getLogLevel());
+			long from = System.currentTimeMillis();
+			machine.start();
+			WorkloadReport report;
+			try {
+				report = new WorkloadGenerator(scenario).run(machine);
+				System.out.println(report);
+			} finally {
+				machine.close();
+				machine.closeHistory();
+				logger.flush();
+				logger.setLevel(previousLevel);
+			}
+			long to = System.currentTimeMillis() + 1;
+
+			try (OrderHistory history = OrderHistory.open(directory)) {
+				System.out.println(String.format("Order history in %d segment(s), %d dropped",
+						history.getSegmentCount(), history.getDroppedCount()));
+				long[] counts = new long[OrderStatus.values().length];
+				for (String beverageName : scenario.getMix().keySet()) {
+					StringBuilder sb = new StringBuilder(beverageName + ":");
+					for (OrderStatus status : OrderStatus.values()) {
+						long start = System.nanoTime();
+						long count = history.count(from, to, beverageName, status);
+						counts[status.ordinal()] += count;
+						if (count > 0) {
+							sb.append(String.format(" %s = %d (%.2f ms)", status, count,
+									(System.nanoTime() - start) / 1e6));
+						}
+					}
+					System.out.println(sb);
+				}
+				for (DailyAggregate aggregate : history.getDailyAggregates(LocalDate.now(history.getZone()),
+						LocalDate.now(history.getZone()))) {
+					System.out.println(aggregate);
+				}
+
+				long total = 0;
+				boolean sameCounts = true;
+				for (OrderStatus status : OrderStatus.values()) {
+					total += counts[status.ordinal()];
+					sameCounts &= counts[status.ordinal()] == report.getCount(status.name());
+				}
+				check(total == report.getOrders(), "History holds every order of the workload");
+				check(sameCounts, "History holds as many orders of every status as the workload report counted");
+			}
+		} catch (IOException e) {
+			check(false, "Order history is written and read back without I/O errors: " + e);
+		} finally {
+			delete(directory);
+		}
+		System.out.println();
+	}
+
+	/**
+	 * Deletes the directory and everything in it.
+	 *
+	 * @param directory
+	 */
+	private static void delete(Path directory) {
+		if (directory == null) {
+			return;
+		}
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
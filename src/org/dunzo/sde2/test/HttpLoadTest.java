@@ -0,0 +1,206 @@
+package org.dunzo.sde2.test;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.dunzo.sde2.Beverage;
+import org.dunzo.sde2.CoffeeMachine;
+import org.dunzo.sde2.server.HttpServer;
+import org.dunzo.sde2.server.MachineHttpHandler;
+import org.json.JSONObject;
+
+/**
+ * Drives the HTTP front-end of a Coffee Machine with concurrent keep-alive
+ * clients sending a mix of order, status, menu and stock requests, and reports
+ * requests per second, latency percentiles and how the orders were answered.
+ * The stock is topped up first to cover every order the clients could place,
+ * so that orders go through the queue rather than failing for stock. Checks
+ * that every request and every order gets a response, that no order is
+ * answered with a server error, and that the stock never runs out.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class HttpLoadTest extends AbstractTest {
+	private final static int N_CLIENTS = 16;
+	private final static int REQUESTS_PER_CLIENT = 2000;
+	private final static int N_HANDLERS = 4;
+
+	/**
+	 *
+	 */
+	@Override
+	public void run(String filePath) throws InterruptedException {
+		JSONObject jsonObj = loadJSON(filePath);
+		CoffeeMachine machine = new CoffeeMachine("Chai Point");
+		machine.initializeFromJSON(jsonObj);
+
+		machine.start();
+		topUpStock(machine, N_CLIENTS * REQUESTS_PER_CLIENT);
+		System.out.println();
+
+		List<String> beverages = new ArrayList<String>();
+		for (Beverage beverage : machine.getMenu()) {
+			if (beverage.isServable()) {
+				beverages.add(beverage.getName());
+			}
+		}
+		int nOutlets = machine.getnOutlets();
+		Map<Integer, LongAdder> orderResponses = new ConcurrentHashMap<Integer, LongAdder>();
+		LongAdder ordersSent = new LongAdder();
+
+		try (HttpServer server = new HttpServer(0, N_HANDLERS, new MachineHttpHandler(machine))) {
+			server.start();
+			int port = server.getPort();
+
+			ExecutorService clients = Executors.newFixedThreadPool(N_CLIENTS);
+			List<Future<long[]>> results = new ArrayList<Future<long[]>>();
+			long start = System.nanoTime();
+			for (int c = 0; c < N_CLIENTS; c++) {
+				final long seed = c;
+				results.add(
+						clients.submit(() -> runClient(port, seed, beverages, nOutlets, ordersSent, orderResponses)));
+			}
+
+			long[] latencies = new long[N_CLIENTS * REQUESTS_PER_CLIENT];
+			int n = 0;
+			for (Future<long[]> result : results) {
+				long[] clientLatencies = result.get();
+				System.arraycopy(clientLatencies, 0, latencies, n, clientLatencies.length);
+				n += clientLatencies.length;
+			}
+			double elapsed = (System.nanoTime() - start) / 1e9;
+			clients.shutdown();
+
+			Arrays.sort(latencies, 0, n);
+			System.out.println("HTTP load test: " + n + " requests from " + N_CLIENTS + " clients in "
+					+ String.format("%.2f", elapsed) + " seconds");
+			System.out.println("\tThroughput = " + String.format("%.0f", n / elapsed) + " requests/second");
+			System.out.println("\tLatency p50 = " + micros(latencies[n / 2]) + ", p99 = "
+					+ micros(latencies[(int) (n * 0.99)]) + ", max = " + micros(latencies[n - 1]));
+			Map<Integer, Long> codes = new TreeMap<Integer, Long>();
+			orderResponses.forEach((code, count) -> codes.put(code, count.sum()));
+			System.out.println("\tOrders answered by status code = " + codes);
+
+			check(n == N_CLIENTS * REQUESTS_PER_CLIENT, "Every request gets a response");
+			check(codes.values().stream().mapToLong(Long::longValue).sum() == ordersSent.sum(),
+					"Every order gets a response");
+			check(codes.containsKey(201) && codes.keySet().stream().allMatch(code -> code < 500),
+					"Orders are accepted or turned away, never answered with a server error");
+			check(machine.getStockSnapshot().values().stream().allMatch(quantity -> quantity > 0),
+					"Stock topped up for the load never runs out");
+		} catch (IOException | ExecutionException e) {
+			check(false, "Every client finishes without errors: " + e);
+		} finally {
+			machine.close();
+		}
+		System.out.println();
+	}
+
+	/**
+	 * Sends requests over one keep-alive connection and returns the latency of
+	 * each in nanos. Counts the orders sent, and the status codes they were
+	 * answered with.
+	 *
+	 * @param port
+	 * @param seed
+	 * @param beverages
+	 * @param nOutlets
+	 * @param ordersSent
+	 * @param orderResponses
+	 * @return
+	 * @throws IOException
+	 */
+	private static long[] runClient(int port, long seed, List<String> beverages, int nOutlets, LongAdder ordersSent,
+			Map<Integer, LongAdder> orderResponses) throws IOException {
+		Random random = new Random(seed);
+		long[] latencies = new long[REQUESTS_PER_CLIENT];
+		try (Socket socket = new Socket()) {
+			socket.setTcpNoDelay(true);
+			socket.connect(new InetSocketAddress("localhost", port));
+			OutputStream out = socket.getOutputStream();
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			for (int i = 0; i < REQUESTS_PER_CLIENT; i++) {
+				String request;
+				int kind = random.nextInt(10);
+				boolean isOrder = kind < 3 && !beverages.isEmpty();
+				if (isOrder) {
+					request = "POST /orders?outlet=" + (1 + random.nextInt(nOutlets)) + "&beverage="
+							+ beverages.get(random.nextInt(beverages.size())) + " HTTP/1.1\r\nHost: localhost\r\n\r\n";
+				} else if (kind < 5) {
+					request = "GET /orders/" + (1 + random.nextInt(100)) + " HTTP/1.1\r\nHost: localhost\r\n\r\n";
+				} else if (kind < 7) {
+					request = "GET /menu HTTP/1.1\r\nHost: localhost\r\n\r\n";
+				} else {
+					request = "GET /stock HTTP/1.1\r\nHost: localhost\r\n\r\n";
+				}
+				if (isOrder) {
+					ordersSent.increment();
+				}
+				long sentAt = System.nanoTime();
+				out.write(request.getBytes(StandardCharsets.US_ASCII));
+				out.flush();
+				int code = readResponse(in);
+				latencies[i] = System.nanoTime() - sentAt;
+				if (isOrder) {
+					orderResponses.computeIfAbsent(code, c -> new LongAdder()).increment();
+				}
+			}
+		}
+		return latencies;
+	}
+
+	/**
+	 * Reads one response and returns it's status code.
+	 *
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	private static int readResponse(InputStream in) throws IOException {
+		StringBuilder head = new StringBuilder();
+		while (head.length() < 4 || !head.substring(head.length() - 4).equals("\r\n\r\n")) {
+			int b = in.read();
+			if (b < 0) {
+				throw new IOException("Connection closed before the response was read!");
+			}
+			head.append((char) b);
+		}
+		int contentLength = 0;
+		for (String line : head.toString().split("\r\n")) {
+			if (line.toLowerCase().startsWith("content-length:")) {
+				contentLength = Integer.parseInt(line.substring("content-length:".length()).trim());
+			}
+		}
+		in.readNBytes(contentLength);
+		return Integer.parseInt(head.substring(9, 12));
+	}
+
+	/**
+	 * Formats nanos as micros.
+	 *
+	 * @param nanos
+	 * @return
+	 */
+	private static String micros(long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos) + " us";
+	}
+}
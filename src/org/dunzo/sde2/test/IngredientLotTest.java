@@ -0,0 +1,87 @@
+package org.dunzo.sde2.test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.dunzo.sde2.CoffeeMachine;
+import org.dunzo.sde2.Ingredient;
+import org.dunzo.sde2.MachineLogger;
+import org.dunzo.sde2.Order;
+import org.dunzo.sde2.OrderStatus;
+import org.json.JSONObject;
+
+/**
+ * Adds lots of milk with different expiries to a Coffee Machine, and checks
+ * that beverages use the lot expiring first, that the sweep throws away a lot
+ * once it expires, and that quantity returned to stock does not go back into a
+ * lot.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class IngredientLotTest extends AbstractTest {
+	private final static long SHORT_EXPIRY = 1000;
+	private final static long LONG_EXPIRY = 60 * 1000;
+	private final static long SWEEP_INTERVAL = 50;
+
+	/**
+	 *
+	 */
+	@Override
+	public void run(String filePath) throws InterruptedException {
+		checkReturnedQuantity();
+
+		JSONObject jsonObj = loadJSON(filePath);
+		JSONObject machineObj = jsonObj.getJSONObject("machine");
+		machineObj.put("outlets", new JSONObject().put("count_n", 1));
+		machineObj.put("expiry_sweep_ms", SWEEP_INTERVAL);
+
+		MachineLogger logger = MachineLogger.get();
+		MachineLogger.Level previousLevel = logger.getLevel();
+		CoffeeMachine machine = new CoffeeMachine("Ingredient Lots");
+		machine.initializeFromJSON(jsonObj);
+		logger.setLevel(MachineLogger.Level.OFF);
+		machine.start();
+		try {
+			long now = System.currentTimeMillis();
+			machine.addIngredientLot("hot_milk", 300, now + SHORT_EXPIRY);
+			machine.addIngredientLot("hot_milk", 200, now + LONG_EXPIRY);
+			int milk = machine.getStockSnapshot().get("hot_milk");
+
+			Order order = machine.serveBeverage(1, "hot_tea");
+			order.awaitCompletion(10, TimeUnit.SECONDS);
+			List<Ingredient.Lot> lots = machine.getIngredientLots("hot_milk");
+			check(order.getStatus() == OrderStatus.SERVED && lots.size() == 2 && lots.get(0).getQuantity() == 200
+					&& lots.get(1).getQuantity() == 200, "Beverage uses milk from the lot expiring first");
+
+			TimeUnit.MILLISECONDS.sleep(SHORT_EXPIRY + 4 * SWEEP_INTERVAL);
+			lots = machine.getIngredientLots("hot_milk");
+			check(lots.size() == 1 && lots.get(0).getExpiresAt() == now + LONG_EXPIRY,
+					"Sweep throws away the lot once it expires");
+			check(machine.getStockSnapshot().get("hot_milk") == milk - 100 - 200,
+					"Expired quantity is taken out of the stock");
+		} finally {
+			machine.close();
+			logger.flush();
+			logger.setLevel(previousLevel);
+		}
+		System.out.println();
+	}
+
+	/**
+	 * Checks that quantity returned to an ingredient with lots is added to the
+	 * quantity that never expires.
+	 */
+	private void checkReturnedQuantity() {
+		long expiresAt = System.currentTimeMillis() + LONG_EXPIRY;
+		Ingredient milk = new Ingredient("hot_milk", 0);
+		milk.addLot(100, expiresAt);
+		milk.consumeQuantity(50);
+		milk.returnQuantity(50);
+		check(milk.getQuantity() == 100 && milk.getLots().get(0).getQuantity() == 50,
+				"Returned quantity does not go back into a lot");
+		milk.consumeQuantity(100);
+		check(milk.getQuantity() == 0 && milk.getLots().isEmpty() && milk.getNextExpiry() == Ingredient.NO_EXPIRY,
+				"Next expiry is cleared once the last lot is used up");
+	}
+}
@@ -0,0 +1,105 @@
+package org.dunzo.sde2.test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dunzo.sde2.CoffeeMachine;
+import org.dunzo.sde2.InventoryTransaction;
+import org.dunzo.sde2.MachineLogger;
+import org.dunzo.sde2.Order;
+import org.dunzo.sde2.OrderStatus;
+import org.json.JSONObject;
+
+/**
+ * Applies inventory transactions to a Coffee Machine. Checks that a refill of
+ * several ingredients and a new ingredient are applied together and make a
+ * beverage servable, that a transaction failing on one ingredient changes
+ * nothing, and that a snapshot of the stock taken while transactions move
+ * quantity between two ingredients never sees one half of a transaction.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class InventoryTransactionTest extends AbstractTest {
+	private final static int N_TRANSFERS = 20000;
+	private final static int TRANSFER = 7;
+
+	/**
+	 *
+	 */
+	@Override
+	public void run(String filePath) throws InterruptedException {
+		JSONObject jsonObj = loadJSON(filePath);
+		JSONObject machineObj = jsonObj.getJSONObject("machine");
+		machineObj.put("brew_time", new JSONObject().put("base_ms", 10).put("ms_per_unit", 0));
+
+		MachineLogger logger = MachineLogger.get();
+		MachineLogger.Level previousLevel = logger.getLevel();
+		CoffeeMachine machine = new CoffeeMachine("Inventory Transaction");
+		machine.initializeFromJSON(jsonObj);
+		logger.setLevel(MachineLogger.Level.OFF);
+		machine.start();
+		try {
+			Map<String, Integer> before = machine.getStockSnapshot();
+			check(machine.getUnservableBeverages().containsKey("green_tea"), "Green tea can't be served at first");
+			machine.applyInventory(new InventoryTransaction().add("hot_milk", 1000).remove("hot_water", 100)
+					.register("green_mixture", 300));
+			Map<String, Integer> after = machine.getStockSnapshot();
+			check(after.get("hot_milk") == before.get("hot_milk") + 1000
+					&& after.get("hot_water") == before.get("hot_water") - 100 && after.get("green_mixture") == 300,
+					"Every change of a transaction is applied");
+			Order greenTea = machine.serveBeverage(1, "green_tea");
+			greenTea.awaitCompletion(1, TimeUnit.SECONDS);
+			check(greenTea.getStatus() == OrderStatus.SERVED, "New ingredient makes green tea servable");
+
+			before = machine.getStockSnapshot();
+			boolean failed = false;
+			try {
+				machine.applyInventory(new InventoryTransaction().add("hot_milk", 1000)
+						.remove("sugar_syrup", before.get("sugar_syrup") + 1));
+			} catch (IllegalArgumentException e) {
+				failed = true;
+			}
+			check(failed && machine.getStockSnapshot().equals(before),
+					"Transaction removing more than is in stock changes nothing");
+			failed = false;
+			try {
+				machine.applyInventory(new InventoryTransaction().add("hot_milk", 1000).register("hot_water", 1));
+			} catch (IllegalArgumentException e) {
+				failed = true;
+			}
+			check(failed && machine.getStockSnapshot().equals(before),
+					"Transaction registering an existing ingredient changes nothing");
+
+			// Move quantity back and forth between two ingredients while snapshots are
+			// taken, their total has to stay the same in every snapshot.
+			int total = before.get("ginger_syrup") + before.get("tea_leaves_syrup");
+			AtomicBoolean done = new AtomicBoolean();
+			AtomicInteger torn = new AtomicInteger();
+			Thread reader = new Thread(() -> {
+				while (!done.get()) {
+					Map<String, Integer> stock = machine.getStockSnapshot();
+					if (stock.get("ginger_syrup") + stock.get("tea_leaves_syrup") != total) {
+						torn.incrementAndGet();
+					}
+				}
+			});
+			reader.start();
+			for (int i = 0; i < N_TRANSFERS; i++) {
+				String from = (i % 2 == 0) ? "ginger_syrup" : "tea_leaves_syrup";
+				String to = (i % 2 == 0) ? "tea_leaves_syrup" : "ginger_syrup";
+				machine.applyInventory(new InventoryTransaction().remove(from, TRANSFER).add(to, TRANSFER));
+			}
+			done.set(true);
+			reader.join();
+			check(torn.get() == 0, "No snapshot sees half of a transaction");
+		} finally {
+			machine.close();
+			logger.flush();
+			logger.setLevel(previousLevel);
+		}
+		System.out.println();
+	}
+}
@@ -0,0 +1,133 @@
+package org.dunzo.sde2.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.dunzo.sde2.CoffeeMachine;
+import org.dunzo.sde2.LockProfile;
+import org.dunzo.sde2.MachineLogger;
+import org.dunzo.sde2.Order;
+import org.dunzo.sde2.OrderStatus;
+import org.dunzo.sde2.ProfiledLock;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Takes a profiled lock at once, reentrantly and while another thread holds it
+ * for a known time, and checks the attempts, waits, give-ups and hold times it
+ * records. Then queues cups on a single outlet of a Coffee Machine with a
+ * dispense and a brew stage, and checks the profiles of the machine lock and of
+ * the brew stage, which every cup but the first has to wait for.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class LockProfileTest extends AbstractTest {
+	private final static int N_UNCONTENDED = 1000;
+	private final static long HOLD_TIME = 50;
+	private final static long TRY_TIMEOUT = 5;
+	private final static long BREW_TIME = 20;
+	private final static int N_CUPS = 4;
+
+	/**
+	 *
+	 */
+	@Override
+	public void run(String filePath) throws InterruptedException {
+		ProfiledLock lock = new ProfiledLock();
+		for (int i = 0; i < N_UNCONTENDED; i++) {
+			lock.lock();
+			lock.unlock();
+		}
+		LockProfile profile = lock.getProfile();
+		check(profile.getAttempts() == N_UNCONTENDED && profile.getContended() == 0
+				&& profile.getHolds() == N_UNCONTENDED && profile.getWaitPercentile(100) == 0,
+				"Uncontended acquires count as attempts without any wait");
+
+		lock = new ProfiledLock();
+		lock.lock();
+		lock.lock();
+		lock.unlock();
+		lock.unlock();
+		profile = lock.getProfile();
+		check(profile.getAttempts() == 2 && profile.getHolds() == 1,
+				"Reentrant acquires count as attempts, but only the outermost hold is timed");
+
+		ProfiledLock heldLock = new ProfiledLock();
+		CountDownLatch held = new CountDownLatch(1);
+		Thread holder = new Thread(() -> {
+			heldLock.lock();
+			try {
+				held.countDown();
+				Thread.sleep(HOLD_TIME);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				heldLock.unlock();
+			}
+		});
+		holder.start();
+		held.await();
+		boolean gotLock = heldLock.tryLock();
+		boolean gotLockInTime = heldLock.tryLock(TRY_TIMEOUT, TimeUnit.MILLISECONDS);
+		heldLock.lock();
+		heldLock.unlock();
+		holder.join();
+		profile = heldLock.getProfile();
+		long holdMillis = TimeUnit.NANOSECONDS.toMillis(profile.getMaxHoldTime());
+		long waitMillis = TimeUnit.NANOSECONDS.toMillis(profile.getMaxWaitTime());
+		check(!gotLock && !gotLockInTime && profile.getFailures() == 2,
+				"Attempts giving up on a held lock count as failures");
+		check(profile.getAttempts() == 4 && profile.getContended() == 3,
+				"Attempts finding the lock held count as contended");
+		check(holdMillis >= HOLD_TIME && profile.getHoldPercentile(100) == profile.getMaxHoldTime(),
+				"Hold time of the holder is recorded (" + holdMillis + " ms)");
+		check(waitMillis >= HOLD_TIME - TRY_TIMEOUT - 1 && waitMillis <= holdMillis,
+				"Wait for the lock till it's released is recorded (" + waitMillis + " ms)");
+		check(profile.getTotalWaitTime() >= TimeUnit.MILLISECONDS.toNanos(TRY_TIMEOUT) + profile.getMaxWaitTime(),
+				"Wait of the timed give-up adds to the total wait");
+
+		JSONObject jsonObj = loadJSON(filePath);
+		JSONObject machineObj = jsonObj.getJSONObject("machine");
+		JSONArray stages = new JSONArray().put(new JSONObject().put("name", "dispense").put("share", 0.1))
+				.put(new JSONObject().put("name", "brew").put("share", 0.9));
+		machineObj.put("outlets", new JSONObject().put("count_n", 1).put("stages", stages));
+		machineObj.put("brew_time", new JSONObject().put("base_ms", BREW_TIME).put("ms_per_unit", 0));
+
+		MachineLogger logger = MachineLogger.get();
+		MachineLogger.Level previousLevel = logger.getLevel();
+		CoffeeMachine machine = new CoffeeMachine("Lock Profile");
+		machine.initializeFromJSON(jsonObj);
+		topUpStock(machine, N_CUPS);
+		logger.setLevel(MachineLogger.Level.OFF);
+		machine.start();
+		try {
+			List<Order> orders = new ArrayList<Order>();
+			for (int i = 0; i < N_CUPS; i++) {
+				orders.add(machine.serveBeverage(1, "hot_tea"));
+			}
+			boolean allServed = true;
+			for (Order order : orders) {
+				allServed &= order.awaitCompletion(N_CUPS * BREW_TIME * 10,
+						TimeUnit.MILLISECONDS) == OrderStatus.SERVED;
+			}
+			Map<String, LockProfile> profiles = machine.getLockProfiles();
+			LockProfile brew = profiles.get("OUTLET(1)/brew");
+			check(allServed && profiles.containsKey("machine") && brew != null,
+					"Machine lists the profiles of it's lock and of every outlet stage " + profiles.keySet());
+			check(profiles.get("machine").getAttempts() >= N_CUPS, "Serving cups takes the machine lock");
+			check(brew.getHolds() == N_CUPS && brew.getContended() > 0 && brew.getMaxWaitTime() > 0,
+					"Cups dispensed while another brews wait for the brew stage");
+			check(TimeUnit.NANOSECONDS.toMillis(brew.getHoldPercentile(50)) >= BREW_TIME / 2,
+					"Brew stage is held for about the brew time (" + brew + ")");
+		} finally {
+			machine.close();
+			logger.flush();
+			logger.setLevel(previousLevel);
+		}
+		System.out.println();
+	}
+}
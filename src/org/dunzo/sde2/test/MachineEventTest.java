@@ -0,0 +1,159 @@
+package org.dunzo.sde2.test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import org.dunzo.sde2.MachineEvent;
+import org.dunzo.sde2.MachineEventPublisher;
+
+/**
+ * Publishes a burst of stock events to subscribers with different backpressure.
+ * Checks that a subscriber with room for the burst gets every event in order,
+ * that a subscriber stuck in onNext holds up nobody else, that a dropping
+ * subscriber that requested nothing keeps only the events that fit it's buffer,
+ * and that a conflating one keeps the latest event of every ingredient.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class MachineEventTest extends AbstractTest {
+	private final static int N_EVENTS = 20000;
+	private final static int N_INGREDIENTS = 4;
+	private final static int BUFFER_CAPACITY = 8;
+
+	/**
+	 * Collector --- Subscriber that keeps the events it's delivered, requesting
+	 * the given no. of them up front.
+	 */
+	private static class Collector implements Flow.Subscriber<MachineEvent> {
+		private final long initialRequest;
+		private final CountDownLatch blocker;
+		private final List<MachineEvent> events = new ArrayList<MachineEvent>();
+		private final CountDownLatch completed = new CountDownLatch(1);
+		private volatile Flow.Subscription subscription;
+
+		/**
+		 * @param initialRequest
+		 * @param blocker
+		 */
+		private Collector(long initialRequest, CountDownLatch blocker) {
+			this.initialRequest = initialRequest;
+			this.blocker = blocker;
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			if (initialRequest > 0) {
+				subscription.request(initialRequest);
+			}
+		}
+
+		@Override
+		public void onNext(MachineEvent event) {
+			synchronized (events) {
+				events.add(event);
+			}
+			if (blocker != null) {
+				try {
+					blocker.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			completed.countDown();
+		}
+
+		@Override
+		public void onComplete() {
+			completed.countDown();
+		}
+
+		/**
+		 * Returns a copy of the events delivered so far.
+		 *
+		 * @return
+		 */
+		private List<MachineEvent> getEvents() {
+			synchronized (events) {
+				return new ArrayList<MachineEvent>(events);
+			}
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public void run(String filePath) throws InterruptedException {
+		CountDownLatch unblock = new CountDownLatch(1);
+		Collector eager = new Collector(Long.MAX_VALUE, null);
+		Collector stuck = new Collector(Long.MAX_VALUE, unblock);
+		Collector dropping = new Collector(0, null);
+		Collector conflating = new Collector(0, null);
+		MachineEventPublisher publisher = new MachineEventPublisher(1 << 16);
+		try {
+			// Buffer of the eager subscriber holds the whole burst.
+			publisher.subscribe(eager, MachineEventPublisher.Policy.DROP, N_EVENTS);
+			publisher.subscribe(stuck, MachineEventPublisher.Policy.DROP, BUFFER_CAPACITY);
+			publisher.subscribe(dropping, MachineEventPublisher.Policy.DROP, BUFFER_CAPACITY);
+			publisher.subscribe(conflating, MachineEventPublisher.Policy.CONFLATE, BUFFER_CAPACITY);
+
+			for (int i = 0; i < N_EVENTS; i++) {
+				publisher.publish(MachineEvent.stock(MachineEvent.Type.ADJUSTED, "ingredient_" + (i % N_INGREDIENTS),
+						-1, i));
+			}
+			long waitUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (eager.getEvents().size() < N_EVENTS && System.nanoTime() < waitUntil) {
+				TimeUnit.MILLISECONDS.sleep(10);
+			}
+
+			List<MachineEvent> events = eager.getEvents();
+			boolean inOrder = events.size() == N_EVENTS;
+			for (int i = 0; inOrder && i < N_EVENTS; i++) {
+				inOrder = events.get(i).getSequence() == i && events.get(i).getQuantity() == i;
+			}
+			check(inOrder && publisher.getLostCount() == 0,
+					"Subscriber with room for the burst gets every event in order, while another is stuck");
+			check(stuck.getEvents().size() == 1, "Stuck subscriber holds up only itself");
+
+			dropping.subscription.request(Long.MAX_VALUE);
+			conflating.subscription.request(Long.MAX_VALUE);
+			publisher.close();
+			unblock.countDown();
+			check(dropping.completed.await(5, TimeUnit.SECONDS) && conflating.completed.await(5, TimeUnit.SECONDS)
+					&& eager.completed.await(5, TimeUnit.SECONDS), "Closing completes every subscriber");
+
+			List<MachineEvent> dropped = dropping.getEvents();
+			boolean firstOnes = dropped.size() == BUFFER_CAPACITY;
+			for (int i = 0; firstOnes && i < BUFFER_CAPACITY; i++) {
+				firstOnes = dropped.get(i).getQuantity() == i;
+			}
+			check(firstOnes, "Dropping subscriber keeps the first " + BUFFER_CAPACITY + " events and drops the rest");
+
+			Map<String, Integer> latest = new HashMap<String, Integer>();
+			for (MachineEvent event : conflating.getEvents()) {
+				latest.put(event.getIngredientName(), event.getQuantity());
+			}
+			boolean conflated = conflating.getEvents().size() == N_INGREDIENTS;
+			for (int k = 0; conflated && k < N_INGREDIENTS; k++) {
+				int last = N_EVENTS - N_INGREDIENTS + k;
+				conflated = latest.get("ingredient_" + (last % N_INGREDIENTS)) == last;
+			}
+			check(conflated, "Conflating subscriber keeps the latest event of every ingredient");
+		} finally {
+			unblock.countDown();
+			publisher.close();
+		}
+		System.out.println();
+	}
+}
@@ -0,0 +1,137 @@
+package org.dunzo.sde2.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.dunzo.sde2.MachineLogger;
+
+/**
+ * Logs to loggers of their own writing to memory. Checks that levels below the
+ * one set are skipped, that arguments are formatted into the messages, that
+ * messages of concurrent threads are all written in the order each thread
+ * logged them, and that while the stream is stuck logging carries on without
+ * waiting, dropping what doesn't fit the ring and reporting the count once the
+ * stream is unstuck.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class MachineLoggerTest extends AbstractTest {
+	private final static int N_THREADS = 4;
+	private final static int MESSAGES_PER_THREAD = 1000;
+	private final static int SMALL_RING = 16;
+	private final static int N_DROPPED = 5;
+
+	/**
+	 * StuckStream --- Output stream that blocks the writer till it's released.
+	 */
+	private static class StuckStream extends OutputStream {
+		private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+		private final CountDownLatch entered = new CountDownLatch(1);
+		private final CountDownLatch released = new CountDownLatch(1);
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			entered.countDown();
+			try {
+				released.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			synchronized (written) {
+				written.write(b, off, len);
+			}
+		}
+
+		/**
+		 * Returns what was written so far.
+		 *
+		 * @return
+		 */
+		private String getWritten() {
+			synchronized (written) {
+				return written.toString(StandardCharsets.UTF_8);
+			}
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public void run(String filePath) throws InterruptedException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (MachineLogger logger = new MachineLogger(1 << 12, new PrintStream(out, true, StandardCharsets.UTF_8))) {
+			logger.setLevel(MachineLogger.Level.WARN);
+			logger.info("Skipped {}!", 1);
+			logger.warn("Refill {} now! {} left.", "hot_milk", 20);
+			logger.error("Failed to write {}!", "order log");
+			logger.flush();
+			String written = out.toString(StandardCharsets.UTF_8);
+			check(written.equals("Refill hot_milk now! 20 left.\nFailed to write order log!\n"),
+					"Only messages at or above the level are written, with their arguments");
+
+			out.reset();
+			logger.setLevel(MachineLogger.Level.INFO);
+			List<Thread> threads = new ArrayList<Thread>();
+			for (int t = 0; t < N_THREADS; t++) {
+				final int thread = t;
+				threads.add(new Thread(() -> {
+					for (int i = 0; i < MESSAGES_PER_THREAD; i++) {
+						logger.info("{} {}", thread, i);
+					}
+				}));
+			}
+			threads.forEach(Thread::start);
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			logger.flush();
+			int[] next = new int[N_THREADS];
+			boolean inOrder = true;
+			for (String line : out.toString(StandardCharsets.UTF_8).split("\n")) {
+				String[] parts = line.split(" ");
+				int thread = Integer.parseInt(parts[0]);
+				inOrder &= Integer.parseInt(parts[1]) == next[thread]++;
+			}
+			for (int t = 0; t < N_THREADS; t++) {
+				inOrder &= next[t] == MESSAGES_PER_THREAD;
+			}
+			check(inOrder && logger.getDroppedCount() == 0,
+					"Every message of concurrent threads is written in the order each thread logged it");
+		}
+
+		StuckStream stuck = new StuckStream();
+		try (MachineLogger logger = new MachineLogger(SMALL_RING,
+				new PrintStream(stuck, true, StandardCharsets.UTF_8))) {
+			logger.info("First");
+			check(stuck.entered.await(1, TimeUnit.SECONDS), "Writer is stuck writing the first message");
+			long start = System.nanoTime();
+			for (int i = 0; i < SMALL_RING + N_DROPPED; i++) {
+				logger.info("Message {}", i);
+			}
+			long logTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			check(logTime < 100 && logger.getDroppedCount() == N_DROPPED,
+					"Logging doesn't wait for a stuck stream, and drops what doesn't fit the ring");
+			stuck.released.countDown();
+			logger.flush();
+			String written = stuck.getWritten();
+			check(written.contains("Message " + (SMALL_RING - 1) + "\n") && !written.contains("Message " + SMALL_RING)
+					&& written.contains("Dropped " + N_DROPPED + " log messages!"),
+					"Messages that fit are written once the stream is unstuck, followed by the count dropped");
+		}
+		System.out.println();
+	}
+}
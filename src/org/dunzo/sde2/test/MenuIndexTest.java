@@ -0,0 +1,79 @@
+package org.dunzo.sde2.test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.dunzo.sde2.Beverage;
+import org.dunzo.sde2.CoffeeMachine;
+import org.dunzo.sde2.Ingredient;
+import org.dunzo.sde2.MachineLogger;
+import org.dunzo.sde2.Order;
+import org.dunzo.sde2.OrderStatus;
+import org.dunzo.sde2.Recipe;
+import org.json.JSONObject;
+
+/**
+ * Loads a machine whose menu has a beverage with an ingredient the machine
+ * doesn't have. Checks that it's flagged at load time with the missing
+ * ingredient, that orders for it are rejected without taking the stock lock,
+ * that registering the ingredient makes it servable, and that a beverage added
+ * later with a missing ingredient is flagged right away.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class MenuIndexTest extends AbstractTest {
+	private final static int N_ORDERS = 1000;
+
+	/**
+	 *
+	 */
+	@Override
+	public void run(String filePath) throws InterruptedException {
+		JSONObject jsonObj = loadJSON(filePath);
+		JSONObject machineObj = jsonObj.getJSONObject("machine");
+		machineObj.put("brew_time", new JSONObject().put("base_ms", 10).put("ms_per_unit", 0));
+
+		MachineLogger logger = MachineLogger.get();
+		MachineLogger.Level previousLevel = logger.getLevel();
+		CoffeeMachine machine = new CoffeeMachine("Menu Index");
+		machine.initializeFromJSON(jsonObj);
+		logger.setLevel(MachineLogger.Level.OFF);
+		machine.start();
+		try {
+			Map<String, String> unservable = machine.getUnservableBeverages();
+			check(unservable.size() == 1 && unservable.containsKey("green_tea")
+					&& unservable.get("green_tea").contains("green_mixture"),
+					"Only green tea is flagged at load time, for it's missing green_mixture");
+
+			long attempts = machine.getLockProfiles().get("machine").getAttempts();
+			boolean allRejected = true;
+			for (int i = 0; i < N_ORDERS; i++) {
+				allRejected &= machine.serveBeverage(1, "green_tea").getStatus() == OrderStatus.REJECTED;
+			}
+			long lockAttempts = machine.getLockProfiles().get("machine").getAttempts() - attempts;
+			check(allRejected, "Orders for green tea are rejected right away");
+			check(lockAttempts < N_ORDERS / 10, "Rejected orders don't take the stock lock (" + lockAttempts
+					+ " lock attempts for " + N_ORDERS + " orders)");
+
+			machine.addIngredient("green_mixture", 300);
+			Order greenTea = machine.serveBeverage(1, "green_tea");
+			greenTea.awaitCompletion(1, TimeUnit.SECONDS);
+			check(machine.getUnservableBeverages().isEmpty() && greenTea.getStatus() == OrderStatus.SERVED,
+					"Registering the missing ingredient makes green tea servable");
+
+			Recipe recipe = new Recipe("masala_tea");
+			recipe.addIngredient(new Ingredient("hot_water", 100));
+			recipe.addIngredient(new Ingredient("cardamom", 5));
+			machine.addBeverage(new Beverage("masala_tea", recipe));
+			unservable = machine.getUnservableBeverages();
+			check(unservable.containsKey("masala_tea") && unservable.get("masala_tea").contains("cardamom"),
+					"Beverage added with a missing ingredient is flagged right away");
+		} finally {
+			machine.close();
+			logger.flush();
+			logger.setLevel(previousLevel);
+		}
+		System.out.println();
+	}
+}
@@ -0,0 +1,85 @@
+package org.dunzo.sde2.test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.dunzo.sde2.CoffeeMachine;
+import org.dunzo.sde2.MachineLogger;
+import org.dunzo.sde2.MultiOrder;
+import org.dunzo.sde2.Order;
+import org.dunzo.sde2.OrderStatus;
+import org.json.JSONObject;
+
+/**
+ * Orders several cups of tea while one of four outlets is busy with a long
+ * brew. Checks that the cups are split evenly across the idle outlets, that
+ * they are all served at those outlets before the busy outlet frees up, and
+ * that a multi-cup order the stock can't cover is rejected as a whole without
+ * using up any ingredients.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class MultiOrderTest extends AbstractTest {
+	private final static int PREPARE_TIME = 300;
+	private final static int LONG_PREPARE_TIME = 2000;
+	private final static int N_OUTLETS = 4;
+	private final static int CUPS_PER_OUTLET = 2;
+
+	/**
+	 *
+	 */
+	@Override
+	public void run(String filePath) throws InterruptedException {
+		JSONObject jsonObj = loadJSON(filePath);
+		JSONObject machineObj = jsonObj.getJSONObject("machine");
+		machineObj.put("outlets", new JSONObject().put("count_n", N_OUTLETS));
+		machineObj.put("brew_time", new JSONObject().put("base_ms", PREPARE_TIME).put("ms_per_unit", 0));
+		machineObj.getJSONObject("beverages").getJSONObject("black_tea").put("prepare_time_ms", LONG_PREPARE_TIME);
+
+		MachineLogger logger = MachineLogger.get();
+		MachineLogger.Level previousLevel = logger.getLevel();
+		CoffeeMachine machine = new CoffeeMachine("Multi Order");
+		machine.initializeFromJSON(jsonObj);
+		logger.setLevel(MachineLogger.Level.OFF);
+		machine.start();
+		try {
+			// The busy outlet counts as busy from the moment the order is queued, whether
+			// or not it's brew has started yet.
+			Order busy = machine.serveBeverage(1, "black_tea");
+			int nCups = (N_OUTLETS - 1) * CUPS_PER_OUTLET;
+			MultiOrder teas = machine.serveBeverages("hot_tea", nCups);
+			Map<Integer, Integer> cupsByOutlet = new HashMap<Integer, Integer>();
+			for (Order order : teas.getOrders()) {
+				cupsByOutlet.merge(order.getOutlet().getId(), 1, Integer::sum);
+			}
+			check(!cupsByOutlet.containsKey(1), "No cup is sent to the busy outlet");
+			check(cupsByOutlet.size() == N_OUTLETS - 1
+					&& cupsByOutlet.values().stream().allMatch(cups -> cups == CUPS_PER_OUTLET),
+					"Cups are split evenly across the idle outlets");
+			check(teas.getEstimatedMakespan() >= CUPS_PER_OUTLET * PREPARE_TIME
+					&& teas.getEstimatedMakespan() < (CUPS_PER_OUTLET + 1) * PREPARE_TIME,
+					"Estimated makespan is two brews");
+
+			teas.awaitCompletion(10 * LONG_PREPARE_TIME, TimeUnit.MILLISECONDS);
+			check(teas.getCount(OrderStatus.SERVED) == nCups, "Every cup is served");
+			check(busy.awaitCompletion(10 * LONG_PREPARE_TIME, TimeUnit.MILLISECONDS) == OrderStatus.SERVED
+					&& teas.getOrders().stream()
+							.allMatch(order -> order.getTrace().getOutletNo() != 1
+									&& order.getTrace().getFinishedAt() < busy.getTrace().getFinishedAt()),
+					"Every cup is served at an idle outlet before the busy outlet frees up");
+
+			Map<String, Integer> stock = machine.getStockSnapshot();
+			int tooMany = stock.get("hot_milk") / 400 + 1;
+			MultiOrder coffees = machine.serveBeverages("hot_coffee", tooMany);
+			check(coffees.getCount(OrderStatus.REJECTED) == tooMany && machine.getStockSnapshot().equals(stock),
+					"Cups the stock can't cover are rejected as a whole");
+		} finally {
+			machine.close();
+			logger.flush();
+			logger.setLevel(previousLevel);
+		}
+		System.out.println();
+	}
+}
@@ -0,0 +1,89 @@
+package org.dunzo.sde2.test;
+
+import java.util.concurrent.TimeUnit;
+
+import org.dunzo.sde2.Beverage;
+import org.dunzo.sde2.CoffeeMachine;
+import org.dunzo.sde2.MachineLogger;
+import org.dunzo.sde2.Order;
+import org.dunzo.sde2.OrderDedupCache;
+import org.dunzo.sde2.OrderStatus;
+import org.dunzo.sde2.Outlet;
+import org.dunzo.sde2.Recipe;
+import org.json.JSONObject;
+
+/**
+ * Retries an order with the same client order id and checks that it's brewed
+ * once, then fills dedup caches of different sizes and checks that orders
+ * forgotten before their expiry are counted, and that a cache sized for the
+ * order rate hardly forgets any.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class OrderDedupTest extends AbstractTest {
+	private final static long TTL = 60 * 1000;
+	private final static int ORDERS_PER_MINUTE = 30000;
+
+	/**
+	 *
+	 */
+	@Override
+	public void run(String filePath) throws InterruptedException {
+		JSONObject jsonObj = loadJSON(filePath);
+		MachineLogger logger = MachineLogger.get();
+		MachineLogger.Level previousLevel = logger.getLevel();
+		CoffeeMachine machine = new CoffeeMachine("Order Dedup");
+		machine.initializeFromJSON(jsonObj);
+		logger.setLevel(MachineLogger.Level.OFF);
+		machine.start();
+		try {
+			int milk = machine.getStockSnapshot().get("hot_milk");
+			Order order = machine.serveBeverage("client-order-1", 1, "hot_tea");
+			Order retry = machine.serveBeverage("client-order-1", 1, "hot_tea");
+			order.awaitCompletion(10, TimeUnit.SECONDS);
+			check(retry == order && order.getStatus() == OrderStatus.SERVED
+					&& machine.getStockSnapshot().get("hot_milk") == milk - 100, "Retried order is brewed once");
+			check(machine.getDedupEvictions() == 0, "Default dedup cache forgets no order");
+		} finally {
+			machine.close();
+			logger.flush();
+			logger.setLevel(previousLevel);
+		}
+
+		OrderDedupCache small = new OrderDedupCache(16, TTL);
+		fill(small, "small-", 200, 0);
+		check(small.getEvictions() >= 200 - small.getCapacity(), "Orders forgotten before their expiry are counted");
+
+		OrderDedupCache expiring = new OrderDedupCache(16, TTL);
+		fill(expiring, "first-", expiring.getCapacity(), 0);
+		fill(expiring, "second-", expiring.getCapacity(), TTL);
+		check(expiring.getEvictions() == 0, "Orders replaced after their expiry are not counted");
+
+		OrderDedupCache sized = new OrderDedupCache(OrderDedupCache.getCapacityFor(ORDERS_PER_MINUTE, TTL), TTL);
+		int nOrders = (int) (ORDERS_PER_MINUTE * TTL / (60 * 1000));
+		fill(sized, "sized-", nOrders, 0);
+		System.out.println(String.format("Cache of %d sized for %d orders per minute forgot %d of %d orders",
+				sized.getCapacity(), ORDERS_PER_MINUTE, sized.getEvictions(), nOrders));
+		check(sized.getEvictions() < nOrders / 100, "Cache sized for the order rate forgets under 1% of orders");
+		check(sized.get("sized-0", TTL - 1) != null, "Order placed first is still remembered till it's expiry");
+		System.out.println();
+	}
+
+	/**
+	 * Caches the given no. of orders with client ids of the given prefix, placed
+	 * at the given time. The same order is cached for every id since only the
+	 * ids matter to the cache.
+	 *
+	 * @param cache
+	 * @param prefix
+	 * @param nOrders
+	 * @param now
+	 */
+	private static void fill(OrderDedupCache cache, String prefix, int nOrders, long now) {
+		Order order = new Order(new Outlet(), new Beverage("hot_tea", new Recipe("hot_tea")));
+		for (int i = 0; i < nOrders; i++) {
+			cache.putIfAbsent(prefix + i, order, now);
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package org.dunzo.sde2.test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.dunzo.sde2.CoffeeMachine;
+import org.dunzo.sde2.MachineLogger;
+import org.dunzo.sde2.OrderLog;
+import org.dunzo.sde2.OrderStatus;
+import org.dunzo.sde2.workload.OrderLogReplay;
+import org.dunzo.sde2.workload.WorkloadGenerator;
+import org.dunzo.sde2.workload.WorkloadReport;
+import org.dunzo.sde2.workload.WorkloadScenario;
+import org.json.JSONObject;
+
+/**
+ * Records the orders of a workload scenario file to an order log, then replays
+ * the log against fresh Coffee Machines of the scenario at the original pacing
+ * and at max speed, and compares the outcomes and throughput of the runs. Set
+ * the system property replay.log to replay an order log recorded earlier
+ * instead. Checks that every recorded order is replayed without errors, and
+ * that replaying a calm run of the scenario, whose outcomes don't depend on
+ * timing, serves and rejects as many orders as were recorded.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class OrderLogReplayTest extends AbstractTest {
+	// Arrival rates of the scenario are divided by this for the calm run, so that
+	// no order is turned away for load.
+	private final static double CALM = 10;
+
+	/**
+	 *
+	 */
+	@Override
+	public void run(String filePath) throws InterruptedException {
+		WorkloadScenario scenario = WorkloadScenario.load(filePath);
+		try {
+			String logPath = System.getProperty("replay.log");
+			Path file = (logPath != null) ? Path.of(logPath) : record(scenario);
+			OrderLog log = OrderLog.read(file);
+			System.out.println(String.format("Read %d orders over %.2f seconds from %s", log.getOrderCount(),
+					log.getSpan() / 1e9, file));
+
+			OrderLogReplay.Result original = new OrderLogReplay(log, scenario.getMachine(),
+					OrderLogReplay.Pacing.ORIGINAL, scenario.getnClients()).run();
+			System.out.println(original.getReport());
+			System.out.println(original.compareOutcomes(log));
+
+			OrderLogReplay.Result maxSpeed = new OrderLogReplay(log, scenario.getMachine(),
+					OrderLogReplay.Pacing.MAX_SPEED, scenario.getnClients()).run();
+			System.out.println(maxSpeed.getReport());
+			System.out.println(maxSpeed.compareOutcomes(original));
+			System.out.println(maxSpeed.getReport().compareWith(original.getReport().toJSON()));
+
+			check(isComplete(original, log), "Every recorded order is replayed at the original pacing without errors");
+			check(isComplete(maxSpeed, log), "Every recorded order is replayed at max speed without errors");
+			if (logPath == null) {
+				Files.delete(file);
+			}
+
+			// Outcomes under load depend on timing, so the counts are compared for a calm
+			// run of the scenario.
+			WorkloadScenario calm = WorkloadScenario.fromJSON(calm(loadJSON(filePath)));
+			Path calmFile = record(calm);
+			OrderLog calmLog = OrderLog.read(calmFile);
+			WorkloadReport replayed = new OrderLogReplay(calmLog, calm.getMachine(), OrderLogReplay.Pacing.ORIGINAL,
+					calm.getnClients()).run().getReport();
+			System.out.println(replayed);
+			Map<String, Long> recorded = new HashMap<String, Long>();
+			for (OrderStatus outcome : calmLog.getOutcomes()) {
+				if (outcome != null) {
+					recorded.merge(outcome.name(), 1L, Long::sum);
+				}
+			}
+			long served = recorded.getOrDefault(OrderStatus.SERVED.name(), 0L);
+			long rejected = recorded.getOrDefault(OrderStatus.REJECTED.name(), 0L);
+			check(served > 0 && replayed.getCount(OrderStatus.SERVED.name()) == served
+					&& replayed.getCount(OrderStatus.REJECTED.name()) == rejected,
+					"Replay of a calm run serves and rejects as many orders as were recorded");
+			Files.delete(calmFile);
+		} catch (IOException e) {
+			check(false, "Order logs are recorded and read without I/O errors: " + e);
+		}
+		System.out.println();
+	}
+
+	/**
+	 * Checks if every order of the log was replayed and finished without errors.
+	 *
+	 * @param result
+	 * @param log
+	 * @return
+	 */
+	private static boolean isComplete(OrderLogReplay.Result result, OrderLog log) {
+		WorkloadReport report = result.getReport();
+		return report.getOrders() == log.getOrderCount() && report.getCount(WorkloadGenerator.ERROR) == 0
+				&& report.getCount(WorkloadGenerator.UNFINISHED) == 0;
+	}
+
+	/**
+	 * Turns a scenario file into the calm run of it's scenario. Arrival rates are
+	 * divided by CALM, and orders get no timeout or deadline.
+	 *
+	 * @param jsonObj
+	 * @return
+	 */
+	private static JSONObject calm(JSONObject jsonObj) {
+		JSONObject scenarioObj = jsonObj.getJSONObject("scenario");
+		scenarioObj.put("name", scenarioObj.optString("name", "workload") + "_calm");
+		JSONObject arrivals = scenarioObj.optJSONObject("arrivals");
+		if (arrivals != null) {
+			for (String rate : new String[] { "rate", "burst_rate" }) {
+				if (arrivals.has(rate)) {
+					arrivals.put(rate, arrivals.getDouble(rate) / CALM);
+				}
+			}
+		}
+		scenarioObj.remove("timeout_ms");
+		scenarioObj.remove("deadline_ms");
+		return jsonObj;
+	}
+
+	/**
+	 * Runs the scenario against a machine recording it's orders, and returns the
+	 * order log.
+	 *
+	 * @param scenario
+	 * @return
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private static Path record(WorkloadScenario scenario) throws IOException, InterruptedException {
+		Path file = Files.createTempFile(scenario.getName() + "-", ".orderlog");
+		Files.delete(file);
+
+		MachineLogger logger = MachineLogger.get();
+		MachineLogger.Level previousLevel = logger.getLevel();
+		CoffeeMachine machine = new CoffeeMachine(scenario.getName());
+		machine.initializeFromJSON(scenario.getMachine());
+		logger.setLevel(scenario.getLogLevel());
+		machine.start();
+		machine.startRecording(file);
+		try {
+			WorkloadReport report = new WorkloadGenerator(scenario).run(machine);
+			System.out.println();
+			System.out.println(report);
+		} finally {
+			machine.close();
+			logger.flush();
+			logger.setLevel(previousLevel);
+		}
+		return file;
+	}
+}
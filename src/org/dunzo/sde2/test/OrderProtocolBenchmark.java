@@ -0,0 +1,270 @@
+package org.dunzo.sde2.test;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.dunzo.sde2.Beverage;
+
+import org.dunzo.sde2.CoffeeMachine;
+import org.dunzo.sde2.OrderPriority;
+import org.dunzo.sde2.OrderStatus;
+import org.dunzo.sde2.server.OrderProtocol;
+import org.dunzo.sde2.server.HttpServer;
+import org.dunzo.sde2.server.MachineHttpHandler;
+import org.dunzo.sde2.server.OrderProtocolClient;
+import org.dunzo.sde2.server.OrderProtocolServer;
+import org.json.JSONObject;
+
+/**
+ * Places the same no. of orders at a Coffee Machine over the HTTP front-end,
+ * one request at a time per connection, and over the binary protocol on a Unix
+ * domain socket, pipelined, and compares their throughput and latency, and how
+ * many orders each got accepted. The stock is topped up first to cover every
+ * order of both runs, so that orders go through the queue rather than failing
+ * for stock.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class OrderProtocolBenchmark extends AbstractTest {
+	private final static int N_CLIENTS = 8;
+	private final static int ORDERS_PER_CLIENT = 2000;
+	private final static int PIPELINE_DEPTH = 64;
+	private final static int N_HANDLERS = 4;
+
+	/**
+	 * Client --- Places orders over one connection, counts the ones accepted and
+	 * returns the latency of each in nanos.
+	 */
+	@FunctionalInterface
+	private interface Client {
+		/**
+		 * @param seed
+		 * @param accepted
+		 * @return
+		 * @throws IOException
+		 */
+		public long[] run(long seed, LongAdder accepted) throws IOException;
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public void run(String filePath) throws InterruptedException {
+		JSONObject jsonObj = loadJSON(filePath);
+		CoffeeMachine machine = new CoffeeMachine("Chai Point");
+		machine.initializeFromJSON(jsonObj);
+
+		machine.start();
+		topUpStock(machine, 2 * N_CLIENTS * ORDERS_PER_CLIENT);
+		System.out.println();
+
+		int nOutlets = machine.getnOutlets();
+		Set<String> servable = new TreeSet<String>();
+		for (Beverage beverage : machine.getMenu()) {
+			if (beverage.isServable()) {
+				servable.add(beverage.getName());
+			}
+		}
+		Path socketPath = Path.of(System.getProperty("java.io.tmpdir"), "coffee-machine-" + ProcessHandle.current().pid()
+				+ ".sock");
+		try (HttpServer httpServer = new HttpServer(0, N_HANDLERS, new MachineHttpHandler(machine));
+				OrderProtocolServer protocolServer = new OrderProtocolServer(socketPath, N_HANDLERS, machine)) {
+			httpServer.start();
+			protocolServer.start();
+			int port = httpServer.getPort();
+
+			List<String> beverages = new ArrayList<String>(servable);
+			int[] beverageIds;
+			try (OrderProtocolClient client = new OrderProtocolClient(socketPath)) {
+				Map<String, Integer> catalog = client.getCatalog();
+				beverageIds = beverages.stream().mapToInt(catalog::get).toArray();
+			}
+
+			String[] results = new String[2];
+			results[0] = benchmark("HTTP",
+					(seed, accepted) -> runHttpClient(port, seed, beverages, nOutlets, accepted));
+			results[1] = benchmark("Unix socket",
+					(seed, accepted) -> runProtocolClient(socketPath, seed, beverageIds, nOutlets, accepted));
+			System.out.println();
+			for (String result : results) {
+				System.out.println(result);
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		System.out.println();
+
+		machine.close();
+		System.out.println();
+	}
+
+	/**
+	 * Runs the clients concurrently and returns a summary of their throughput,
+	 * latency and the orders accepted.
+	 *
+	 * @param name
+	 * @param client
+	 * @return
+	 * @throws Exception
+	 */
+	private static String benchmark(String name, Client client) throws Exception {
+		ExecutorService clients = Executors.newFixedThreadPool(N_CLIENTS);
+		List<Future<long[]>> results = new ArrayList<Future<long[]>>();
+		LongAdder accepted = new LongAdder();
+		long start = System.nanoTime();
+		for (int c = 0; c < N_CLIENTS; c++) {
+			final long seed = c;
+			results.add(clients.submit((Callable<long[]>) () -> client.run(seed, accepted)));
+		}
+
+		long[] latencies = new long[N_CLIENTS * ORDERS_PER_CLIENT];
+		int n = 0;
+		for (Future<long[]> result : results) {
+			long[] clientLatencies = result.get();
+			System.arraycopy(clientLatencies, 0, latencies, n, clientLatencies.length);
+			n += clientLatencies.length;
+		}
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		clients.shutdown();
+
+		Arrays.sort(latencies, 0, n);
+		return name + ": " + n + " orders from " + N_CLIENTS + " clients in " + String.format("%.2f", elapsed)
+				+ " seconds\n\tThroughput = " + String.format("%.0f", n / elapsed) + " orders/second\n\tLatency p50 = "
+				+ micros(latencies[n / 2]) + ", p99 = " + micros(latencies[(int) (n * 0.99)]) + ", max = "
+				+ micros(latencies[n - 1]) + "\n\tAccepted = " + accepted.sum() + " orders";
+	}
+
+	/**
+	 * Places orders over HTTP, waiting for each response before the next order.
+	 *
+	 * @param port
+	 * @param seed
+	 * @param beverages
+	 * @param nOutlets
+	 * @param accepted
+	 * @return
+	 * @throws IOException
+	 */
+	private static long[] runHttpClient(int port, long seed, List<String> beverages, int nOutlets,
+			LongAdder accepted) throws IOException {
+		Random random = new Random(seed);
+		long[] latencies = new long[ORDERS_PER_CLIENT];
+		try (Socket socket = new Socket()) {
+			socket.setTcpNoDelay(true);
+			socket.connect(new InetSocketAddress("localhost", port));
+			OutputStream out = socket.getOutputStream();
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			for (int i = 0; i < ORDERS_PER_CLIENT; i++) {
+				String request = "POST /orders?outlet=" + (1 + random.nextInt(nOutlets)) + "&beverage="
+						+ beverages.get(random.nextInt(beverages.size())) + " HTTP/1.1\r\nHost: localhost\r\n\r\n";
+				long sentAt = System.nanoTime();
+				out.write(request.getBytes(StandardCharsets.US_ASCII));
+				out.flush();
+				if (readHttpResponse(in) == 201) {
+					accepted.increment();
+				}
+				latencies[i] = System.nanoTime() - sentAt;
+			}
+		}
+		return latencies;
+	}
+
+	/**
+	 * Places orders over the binary protocol, a pipeline of them per write, and
+	 * matches their completions by request id.
+	 *
+	 * @param socketPath
+	 * @param seed
+	 * @param beverageIds
+	 * @param nOutlets
+	 * @param accepted
+	 * @return
+	 * @throws IOException
+	 */
+	private static long[] runProtocolClient(Path socketPath, long seed, int[] beverageIds, int nOutlets,
+			LongAdder accepted) throws IOException {
+		Random random = new Random(seed);
+		long[] latencies = new long[ORDERS_PER_CLIENT];
+		long[] sentAt = new long[ORDERS_PER_CLIENT];
+		OrderProtocolClient.Completion completion = new OrderProtocolClient.Completion();
+		try (OrderProtocolClient client = new OrderProtocolClient(socketPath)) {
+			for (int i = 0; i < ORDERS_PER_CLIENT; i += PIPELINE_DEPTH) {
+				int depth = Math.min(PIPELINE_DEPTH, ORDERS_PER_CLIENT - i);
+				long now = System.nanoTime();
+				for (int j = i; j < i + depth; j++) {
+					sentAt[j] = now;
+					client.sendOrder(j, beverageIds[random.nextInt(beverageIds.length)], 1 + random.nextInt(nOutlets),
+							OrderPriority.NORMAL, 0);
+				}
+				client.flush();
+				for (int j = 0; j < depth; j++) {
+					client.readCompletion(completion);
+					int requestId = (int) completion.getRequestId();
+					latencies[requestId] = System.nanoTime() - sentAt[requestId];
+					if (completion.getResult() == OrderProtocol.RESULT_OK
+							&& completion.getStatus() != OrderStatus.REJECTED) {
+						accepted.increment();
+					}
+				}
+			}
+		}
+		return latencies;
+	}
+
+	/**
+	 * Reads one HTTP response and returns it's status code.
+	 *
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	private static int readHttpResponse(InputStream in) throws IOException {
+		StringBuilder head = new StringBuilder();
+		while (head.length() < 4 || !head.substring(head.length() - 4).equals("\r\n\r\n")) {
+			int b = in.read();
+			if (b < 0) {
+				throw new IOException("Connection closed before the response was read!");
+			}
+			head.append((char) b);
+		}
+		int contentLength = 0;
+		for (String line : head.toString().split("\r\n")) {
+			if (line.toLowerCase().startsWith("content-length:")) {
+				contentLength = Integer.parseInt(line.substring("content-length:".length()).trim());
+			}
+		}
+		in.readNBytes(contentLength);
+		return Integer.parseInt(head.substring(9, 12));
+	}
+
+	/**
+	 * Formats nanos as micros.
+	 *
+	 * @param nanos
+	 * @return
+	 */
+	private static String micros(long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos) + " us";
+	}
+}
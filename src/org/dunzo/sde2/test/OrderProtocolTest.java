@@ -0,0 +1,90 @@
+package org.dunzo.sde2.test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.dunzo.sde2.CoffeeMachine;
+import org.dunzo.sde2.MachineLogger;
+import org.dunzo.sde2.OrderPriority;
+import org.dunzo.sde2.OrderStatus;
+import org.dunzo.sde2.server.OrderProtocol;
+import org.dunzo.sde2.server.OrderProtocolClient;
+import org.dunzo.sde2.server.OrderProtocolServer;
+import org.json.JSONObject;
+
+/**
+ * Pipelines an order that has to wait for room in a full order queue and two
+ * bad requests over one connection of the binary protocol. Checks that the bad
+ * requests are answered first, and that the waiting order is still answered
+ * with it's own request id once the queue has room.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class OrderProtocolTest extends AbstractTest {
+	private final static int BREW_TIME = 300;
+	private final static int N_HANDLERS = 4;
+
+	/**
+	 *
+	 */
+	@Override
+	public void run(String filePath) throws InterruptedException {
+		JSONObject jsonObj = loadJSON(filePath);
+		JSONObject machineObj = jsonObj.getJSONObject("machine");
+		machineObj.put("outlets", new JSONObject().put("count_n", 1));
+		machineObj.put("brew_time", new JSONObject().put("base_ms", BREW_TIME).put("ms_per_unit", 0));
+		machineObj.put("admission", new JSONObject().put("queue_capacity", 1).put("policy", "block")
+				.put("block_timeout_ms", 10 * BREW_TIME));
+
+		MachineLogger logger = MachineLogger.get();
+		MachineLogger.Level previousLevel = logger.getLevel();
+		CoffeeMachine machine = new CoffeeMachine("Order Protocol");
+		machine.initializeFromJSON(jsonObj);
+		logger.setLevel(MachineLogger.Level.OFF);
+		machine.start();
+		Path socketPath = Path.of(System.getProperty("java.io.tmpdir"),
+				"coffee-machine-test-" + ProcessHandle.current().pid() + ".sock");
+		try (OrderProtocolServer server = new OrderProtocolServer(socketPath, N_HANDLERS, machine);
+				OrderProtocolClient client = new OrderProtocolClient(socketPath)) {
+			server.start();
+			Map<String, Integer> catalog = client.getCatalog();
+
+			// One order is brewed and one fills the queue, so the next one blocks.
+			machine.serveBeverage(1, "black_tea");
+			machine.serveBeverage(1, "black_tea");
+			client.sendOrder(0, catalog.get("hot_tea"), 1, OrderPriority.NORMAL, 0);
+			client.sendOrder(1, Integer.MAX_VALUE, 1, OrderPriority.NORMAL, 0);
+			client.sendOrder(2, catalog.get("hot_tea"), 1, OrderPriority.NORMAL, -1);
+			client.flush();
+
+			List<OrderProtocolClient.Completion> completions = new ArrayList<OrderProtocolClient.Completion>();
+			for (int i = 0; i < 3; i++) {
+				OrderProtocolClient.Completion completion = new OrderProtocolClient.Completion();
+				client.readCompletion(completion);
+				completions.add(completion);
+			}
+			check(completions.get(0).getRequestId() != 0 && completions.get(1).getRequestId() != 0,
+					"Bad requests sent after the blocked order are answered before it");
+			check(completions.stream().anyMatch(c -> c.getRequestId() == 1
+					&& c.getResult() == OrderProtocol.RESULT_UNKNOWN_BEVERAGE)
+					&& completions.stream().anyMatch(c -> c.getRequestId() == 2
+							&& c.getResult() == OrderProtocol.RESULT_BAD_REQUEST),
+					"Each bad request is answered with it's own request id and result");
+			OrderProtocolClient.Completion blocked = completions.get(2);
+			check(blocked.getRequestId() == 0 && blocked.getResult() == OrderProtocol.RESULT_OK
+					&& blocked.getStatus() == OrderStatus.QUEUED && blocked.getOrderId() > 0,
+					"Blocked order is answered last, queued once the queue has room");
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			machine.close();
+			logger.flush();
+			logger.setLevel(previousLevel);
+		}
+		System.out.println();
+	}
+}
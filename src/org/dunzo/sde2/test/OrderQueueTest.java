@@ -0,0 +1,76 @@
+package org.dunzo.sde2.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.dunzo.sde2.CoffeeMachine;
+import org.dunzo.sde2.MachineLogger;
+import org.dunzo.sde2.Order;
+import org.dunzo.sde2.OrderPriority;
+import org.dunzo.sde2.OrderStatus;
+import org.json.JSONObject;
+
+/**
+ * Queues orders of every priority class and with different deadlines behind an
+ * order being brewed at a single outlet, and checks that the outlet serves them
+ * by priority class and earliest deadline first, and drops the order whose
+ * deadline passes while it waits.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class OrderQueueTest extends AbstractTest {
+	private final static int BREW_TIME = 200;
+
+	/**
+	 *
+	 */
+	@Override
+	public void run(String filePath) throws InterruptedException {
+		JSONObject jsonObj = loadJSON(filePath);
+		JSONObject machineObj = jsonObj.getJSONObject("machine");
+		machineObj.put("outlets", new JSONObject().put("count_n", 1));
+		machineObj.put("brew_time", new JSONObject().put("base_ms", BREW_TIME).put("ms_per_unit", 0));
+
+		MachineLogger logger = MachineLogger.get();
+		MachineLogger.Level previousLevel = logger.getLevel();
+		CoffeeMachine machine = new CoffeeMachine("Order Queue");
+		machine.initializeFromJSON(jsonObj);
+		logger.setLevel(MachineLogger.Level.OFF);
+		machine.start();
+		try {
+			Order brewing = machine.serveBeverage(1, "hot_tea");
+			TimeUnit.MILLISECONDS.sleep(BREW_TIME / 4);
+			long now = System.currentTimeMillis();
+			Order low = machine.serveBeverage(1, "hot_tea", OrderPriority.LOW, Order.NO_DEADLINE);
+			Order late = machine.serveBeverage(1, "hot_tea", OrderPriority.NORMAL, now + 20 * BREW_TIME);
+			Order soon = machine.serveBeverage(1, "hot_tea", OrderPriority.NORMAL, now + 10 * BREW_TIME);
+			Order doomed = machine.serveBeverage(1, "hot_tea", OrderPriority.NORMAL, now + BREW_TIME / 2);
+			Order high = machine.serveBeverage(1, "hot_tea", OrderPriority.HIGH, Order.NO_DEADLINE);
+
+			List<Order> expected = Arrays.asList(brewing, high, soon, late, low);
+			for (Order order : expected) {
+				order.awaitCompletion(20 * BREW_TIME, TimeUnit.MILLISECONDS);
+			}
+			doomed.awaitCompletion(20 * BREW_TIME, TimeUnit.MILLISECONDS);
+
+			List<Order> served = new ArrayList<Order>(expected);
+			served.sort((a, b) -> Long.compare(a.getTrace().getFinishedAt(), b.getTrace().getFinishedAt()));
+			boolean allServed = true;
+			for (Order order : served) {
+				allServed &= (order.getStatus() == OrderStatus.SERVED);
+			}
+			check(allServed, "Every order with time to spare is served");
+			check(served.equals(expected), "Orders are served by priority class and earliest deadline first");
+			check(doomed.getStatus() == OrderStatus.EXPIRED,
+					"Order whose deadline passed while queued is dropped instead of served");
+		} finally {
+			machine.close();
+			logger.flush();
+			logger.setLevel(previousLevel);
+		}
+		System.out.println();
+	}
+}
@@ -0,0 +1,89 @@
+package org.dunzo.sde2.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.dunzo.sde2.CoffeeMachine;
+import org.dunzo.sde2.MachineLogger;
+import org.dunzo.sde2.Order;
+import org.dunzo.sde2.OrderSequencer;
+import org.dunzo.sde2.OrderStatus;
+import org.json.JSONObject;
+
+/**
+ * Queues a coffee and a few teas behind orders keeping a single outlet busy,
+ * with too little milk for all of them, once in the order they arrived and
+ * once sequenced by stock. Checks that sequencing serves the teas first and
+ * serves more orders from the same milk.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class OrderSequencerTest extends AbstractTest {
+	private final static int BREW_TIME = 200;
+	private final static int MILK = 500;
+	private final static int N_TEAS = 5;
+	private final static int N_BLOCKERS = 2;
+
+	/**
+	 *
+	 */
+	@Override
+	public void run(String filePath) throws InterruptedException {
+		int inOrder = serve(filePath, 0);
+		int sequenced = serve(filePath, 2 * N_TEAS);
+		check(inOrder == 2, "In order of arrival the coffee leaves milk for only one tea");
+		check(sequenced == N_TEAS, "Sequenced by stock every tea is served before the coffee");
+		check(sequenced > inOrder, "Sequencing serves more orders from the same milk");
+		System.out.println();
+	}
+
+	/**
+	 * Serves a coffee and the teas behind black teas on a machine sequencing
+	 * over the given window, and returns the no. of milk orders served.
+	 *
+	 * @param filePath
+	 * @param window
+	 * @return
+	 * @throws InterruptedException
+	 */
+	private int serve(String filePath, int window) throws InterruptedException {
+		JSONObject jsonObj = loadJSON(filePath);
+		JSONObject machineObj = jsonObj.getJSONObject("machine");
+		machineObj.put("outlets", new JSONObject().put("count_n", 1));
+		machineObj.put("brew_time", new JSONObject().put("base_ms", BREW_TIME).put("ms_per_unit", 0));
+		machineObj.getJSONObject("total_items_quantity").put("hot_milk", MILK);
+
+		MachineLogger logger = MachineLogger.get();
+		MachineLogger.Level previousLevel = logger.getLevel();
+		CoffeeMachine machine = new CoffeeMachine("Order Sequencer");
+		machine.initializeFromJSON(jsonObj);
+		machine.setSequencing(window, N_TEAS, OrderSequencer.Objective.ORDERS);
+		logger.setLevel(MachineLogger.Level.OFF);
+		machine.start();
+		try {
+			// Everything queues up while the black teas keep the outlet busy.
+			for (int i = 0; i < N_BLOCKERS; i++) {
+				machine.serveBeverage(1, "black_tea");
+			}
+			List<Order> orders = new ArrayList<Order>();
+			orders.add(machine.serveBeverage(1, "hot_coffee"));
+			for (int i = 0; i < N_TEAS; i++) {
+				orders.add(machine.serveBeverage(1, "hot_tea"));
+			}
+			int nServed = 0;
+			for (Order order : orders) {
+				order.awaitCompletion(10 * (N_BLOCKERS + 1 + N_TEAS) * BREW_TIME, TimeUnit.MILLISECONDS);
+				if (order.getStatus() == OrderStatus.SERVED) {
+					nServed++;
+				}
+			}
+			return nServed;
+		} finally {
+			machine.close();
+			logger.flush();
+			logger.setLevel(previousLevel);
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package org.dunzo.sde2.test;
+
+import java.util.concurrent.TimeUnit;
+
+import org.dunzo.sde2.CoffeeMachine;
+import org.dunzo.sde2.MachineLogger;
+import org.dunzo.sde2.Order;
+import org.dunzo.sde2.OrderPriority;
+import org.dunzo.sde2.OrderStatus;
+import org.json.JSONObject;
+
+/**
+ * Queues orders with and without a timeout behind an order being brewed at a
+ * single outlet, and cancels one of them. Checks that the order with a timeout
+ * times out while the outlet is still busy, that the order without a timeout
+ * is served however long it waits, that cancelling a queued order returns the
+ * ingredients reserved for it, and that only the served orders use up
+ * ingredients.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class OrderTimeoutTest extends AbstractTest {
+	private final static int BREW_TIME = 1000;
+	private final static long TIMEOUT = BREW_TIME / 10;
+
+	/**
+	 *
+	 */
+	@Override
+	public void run(String filePath) throws InterruptedException {
+		JSONObject jsonObj = loadJSON(filePath);
+		JSONObject machineObj = jsonObj.getJSONObject("machine");
+		machineObj.put("outlets", new JSONObject().put("count_n", 1));
+		machineObj.put("brew_time", new JSONObject().put("base_ms", BREW_TIME).put("ms_per_unit", 0));
+
+		MachineLogger logger = MachineLogger.get();
+		MachineLogger.Level previousLevel = logger.getLevel();
+		CoffeeMachine machine = new CoffeeMachine("Order Timeout");
+		machine.initializeFromJSON(jsonObj);
+		logger.setLevel(MachineLogger.Level.OFF);
+		machine.start();
+		try {
+			int milk = machine.getStockSnapshot().get("hot_milk");
+			Order brewing = machine.serveBeverage(1, "hot_tea");
+			// Queue the other orders only once the outlet is busy brewing the first one.
+			for (int i = 0; i < BREW_TIME && brewing.getStatus() != OrderStatus.BREWING; i++) {
+				TimeUnit.MILLISECONDS.sleep(1);
+			}
+			Order impatient = machine.serveBeverage(1, "hot_tea", OrderPriority.HIGH, Order.NO_DEADLINE, TIMEOUT);
+			Order patient = machine.serveBeverage(1, "hot_tea", OrderPriority.NORMAL, Order.NO_DEADLINE,
+					Order.NO_TIMEOUT);
+			Order cancelled = machine.serveBeverage(1, "hot_tea");
+
+			int reserved = machine.getStockSnapshot().get("hot_milk");
+			check(reserved == milk - 4 * 100, "Queued orders hold their ingredients");
+			check(machine.cancelOrder(cancelled) && cancelled.getStatus() == OrderStatus.CANCELLED,
+					"Queued order is cancelled right away");
+			check(machine.getStockSnapshot().get("hot_milk") == reserved + 100,
+					"Cancelled order returns it's ingredients to stock");
+			check(impatient.awaitCompletion(10 * BREW_TIME, TimeUnit.MILLISECONDS) == OrderStatus.TIMED_OUT,
+					"Order with a timeout times out");
+			check(brewing.awaitCompletion(10 * BREW_TIME, TimeUnit.MILLISECONDS) == OrderStatus.SERVED
+					&& impatient.getTrace().getFinishedAt() < brewing.getTrace().getFinishedAt(),
+					"Order with a timeout times out while the outlet is still busy");
+
+			patient.awaitCompletion(10 * BREW_TIME, TimeUnit.MILLISECONDS);
+			check(patient.getStatus() == OrderStatus.SERVED,
+					"Order without a timeout is served after waiting longer than twice the brew");
+			check(!machine.cancelOrder(patient), "Served order cannot be cancelled");
+			check(machine.getStockSnapshot().get("hot_milk") == milk - 2 * 100,
+					"Only the served orders used up ingredients");
+		} finally {
+			machine.close();
+			logger.flush();
+			logger.setLevel(previousLevel);
+		}
+		System.out.println();
+	}
+}
@@ -0,0 +1,76 @@
+package org.dunzo.sde2.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.dunzo.sde2.CoffeeMachine;
+import org.dunzo.sde2.MachineLogger;
+import org.dunzo.sde2.Order;
+import org.dunzo.sde2.OrderStatus;
+import org.json.JSONObject;
+
+/**
+ * Queues a few orders at a busy outlet of a two outlet Coffee Machine and then
+ * one at the idle outlet, and checks that the idle outlet starts right away,
+ * that ingredients are only reserved once an outlet starts an order, and that
+ * orders without a timeout wait for their outlet as long as it takes.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class OutletDispatchTest extends AbstractTest {
+	private final static int BREW_TIME = 300;
+	private final static int QUEUED_ORDERS = 3;
+
+	/**
+	 *
+	 */
+	@Override
+	public void run(String filePath) throws InterruptedException {
+		JSONObject jsonObj = loadJSON(filePath);
+		JSONObject machineObj = jsonObj.getJSONObject("machine");
+		machineObj.put("outlets", new JSONObject().put("count_n", 2));
+		machineObj.put("brew_time", new JSONObject().put("base_ms", BREW_TIME).put("ms_per_unit", 0));
+
+		MachineLogger logger = MachineLogger.get();
+		MachineLogger.Level previousLevel = logger.getLevel();
+		CoffeeMachine machine = new CoffeeMachine("Outlet Dispatch");
+		machine.initializeFromJSON(jsonObj);
+		logger.setLevel(MachineLogger.Level.OFF);
+		machine.start();
+		try {
+			int milk = machine.getStockSnapshot().get("hot_milk");
+			List<Order> busyOrders = new ArrayList<Order>();
+			for (int i = 0; i < QUEUED_ORDERS; i++) {
+				busyOrders.add(machine.serveBeverage(1, "hot_tea"));
+			}
+			TimeUnit.MILLISECONDS.sleep(BREW_TIME / 3);
+			check(machine.getStockSnapshot().get("hot_milk") == milk - QUEUED_ORDERS * 100,
+					"Ingredients are reserved for every order as soon as it's admitted");
+			check(machine.getEstimatedWaitTime(1) > machine.getEstimatedWaitTime(2),
+					"Estimated wait of the busy outlet is longer than of the idle one");
+
+			Order idleOrder = machine.serveBeverage(2, "hot_tea");
+			idleOrder.awaitCompletion(10 * BREW_TIME, TimeUnit.MILLISECONDS);
+			long idleTime = TimeUnit.NANOSECONDS.toMillis(idleOrder.getTrace().getTotalTime());
+			System.out.println(String.format("Order at the idle outlet served in %d ms", idleTime));
+			check(idleOrder.getStatus() == OrderStatus.SERVED && idleTime < 2 * BREW_TIME,
+					"Order at the idle outlet is not held up by the busy outlet");
+
+			for (Order order : busyOrders) {
+				order.awaitCompletion(10 * BREW_TIME, TimeUnit.MILLISECONDS);
+			}
+			boolean allServed = true;
+			for (Order order : busyOrders) {
+				allServed &= (order.getStatus() == OrderStatus.SERVED);
+			}
+			check(allServed, "Orders without a timeout wait for the busy outlet till they are served");
+		} finally {
+			machine.close();
+			logger.flush();
+			logger.setLevel(previousLevel);
+		}
+		System.out.println();
+	}
+}
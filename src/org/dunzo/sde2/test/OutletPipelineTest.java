@@ -0,0 +1,79 @@
+package org.dunzo.sde2.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.dunzo.sde2.CoffeeMachine;
+import org.dunzo.sde2.MachineLogger;
+import org.dunzo.sde2.Order;
+import org.dunzo.sde2.OrderStatus;
+import org.dunzo.sde2.OrderTrace;
+import org.dunzo.sde2.Outlet;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Serves a few orders at a single outlet split into dispense, brew and serve
+ * stages, brew taking half the preparation time. Checks that a new order enters
+ * the outlet every brew stage rather than every preparation, so the orders are
+ * served in well under the time it takes to prepare them one after the other,
+ * while each order still passes through all the stages.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class OutletPipelineTest extends AbstractTest {
+	private final static int PREPARE_TIME = 400;
+	private final static int N_ORDERS = 4;
+
+	/**
+	 *
+	 */
+	@Override
+	public void run(String filePath) throws InterruptedException {
+		JSONObject jsonObj = loadJSON(filePath);
+		JSONObject machineObj = jsonObj.getJSONObject("machine");
+		JSONArray stages = new JSONArray().put(new JSONObject().put("name", "dispense").put("share", 0.25))
+				.put(new JSONObject().put("name", "brew").put("share", 0.5))
+				.put(new JSONObject().put("name", "serve").put("share", 0.25));
+		machineObj.put("outlets", new JSONObject().put("count_n", 1).put("stages", stages));
+		machineObj.put("brew_time", new JSONObject().put("base_ms", PREPARE_TIME).put("ms_per_unit", 0));
+
+		MachineLogger logger = MachineLogger.get();
+		MachineLogger.Level previousLevel = logger.getLevel();
+		CoffeeMachine machine = new CoffeeMachine("Outlet Pipeline");
+		machine.initializeFromJSON(jsonObj);
+		logger.setLevel(MachineLogger.Level.OFF);
+		machine.start();
+		try {
+			long start = System.nanoTime();
+			List<Order> orders = new ArrayList<Order>();
+			for (int i = 0; i < N_ORDERS; i++) {
+				orders.add(machine.serveBeverage(1, "hot_tea"));
+			}
+			for (Order order : orders) {
+				order.awaitCompletion(2 * N_ORDERS * PREPARE_TIME, TimeUnit.MILLISECONDS);
+			}
+			long makespan = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+			Outlet outlet = orders.get(0).getOutlet();
+			check(orders.get(0).getCycleTime() == PREPARE_TIME / 2,
+					"Outlet takes a new order every brew stage, half the preparation time");
+			check(orders.stream().allMatch(order -> order.getStatus() == OrderStatus.SERVED), "Every order is served");
+			check(orders.stream().allMatch(order -> TimeUnit.NANOSECONDS
+					.toMillis(order.getTrace().getPhaseTime(OrderTrace.Phase.BREW)) >= PREPARE_TIME),
+					"Every order still passes through all the stages");
+			long pipelined = PREPARE_TIME + (N_ORDERS - 1) * PREPARE_TIME / 2;
+			check(makespan >= pipelined && makespan < N_ORDERS * PREPARE_TIME,
+					"Orders overlap in the outlet, served in " + makespan + " ms rather than "
+							+ (N_ORDERS * PREPARE_TIME) + " ms");
+			check(outlet.getBottleneckStage().getName().equals("brew"), "Brew stage is the bottleneck");
+		} finally {
+			machine.close();
+			logger.flush();
+			logger.setLevel(previousLevel);
+		}
+		System.out.println();
+	}
+}
@@ -0,0 +1,156 @@
+package org.dunzo.sde2.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dunzo.sde2.Beverage;
+import org.dunzo.sde2.CoffeeMachine;
+import org.dunzo.sde2.Ingredient;
+import org.dunzo.sde2.MachineLogger;
+import org.dunzo.sde2.Order;
+import org.dunzo.sde2.OrderStatus;
+import org.dunzo.sde2.Recipe;
+import org.json.JSONObject;
+
+/**
+ * Changes the beverages and ingredients of a Coffee Machine while it serves.
+ * Checks that only one of several concurrent adds of the same beverage wins,
+ * that orders and menu listings carry on without errors while beverages come
+ * and go, and that removing an ingredient makes the beverages using it
+ * unservable till it's added back.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class RegistryTest extends AbstractTest {
+	private final static int N_THREADS = 8;
+	private final static int N_CHANGES = 2000;
+
+	/**
+	 *
+	 */
+	@Override
+	public void run(String filePath) throws InterruptedException {
+		JSONObject jsonObj = loadJSON(filePath);
+		JSONObject machineObj = jsonObj.getJSONObject("machine");
+		machineObj.put("brew_time", new JSONObject().put("base_ms", 1).put("ms_per_unit", 0));
+
+		MachineLogger logger = MachineLogger.get();
+		MachineLogger.Level previousLevel = logger.getLevel();
+		CoffeeMachine machine = new CoffeeMachine("Registry");
+		machine.initializeFromJSON(jsonObj);
+		logger.setLevel(MachineLogger.Level.OFF);
+		machine.start();
+		ExecutorService threads = Executors.newFixedThreadPool(N_THREADS);
+		try {
+			List<Future<Boolean>> adds = new ArrayList<Future<Boolean>>();
+			for (int t = 0; t < N_THREADS; t++) {
+				adds.add(threads.submit(() -> {
+					try {
+						machine.addBeverage(beverage("masala_tea"));
+						return true;
+					} catch (IllegalArgumentException e) {
+						return false;
+					}
+				}));
+			}
+			int nAdded = 0;
+			for (Future<Boolean> add : adds) {
+				nAdded += getQuietly(add) ? 1 : 0;
+			}
+			check(nAdded == 1, "Only one of " + N_THREADS + " concurrent adds of the same beverage wins");
+
+			// Add and remove beverages while other threads serve and list the menu.
+			AtomicBoolean done = new AtomicBoolean();
+			AtomicInteger errors = new AtomicInteger();
+			List<Future<?>> users = new ArrayList<Future<?>>();
+			for (int t = 0; t < N_THREADS - 1; t++) {
+				final int outletNo = 1 + t % machine.getnOutlets();
+				users.add(threads.submit(() -> {
+					while (!done.get()) {
+						try {
+							for (Beverage beverage : machine.getMenu()) {
+								if (beverage.getRecipe() == null) {
+									errors.incrementAndGet();
+								}
+							}
+							Order order = machine.serveBeverage(outletNo, "hot_tea");
+							order.awaitCompletion(1, TimeUnit.SECONDS);
+							if (order.getStatus() != OrderStatus.SERVED && order.getStatus() != OrderStatus.REJECTED) {
+								errors.incrementAndGet();
+							}
+						} catch (RuntimeException | InterruptedException e) {
+							errors.incrementAndGet();
+						}
+					}
+				}));
+			}
+			for (int i = 0; i < N_CHANGES; i++) {
+				machine.addBeverage(beverage("special_" + i));
+				machine.removeBeverage("special_" + i);
+			}
+			done.set(true);
+			for (Future<?> user : users) {
+				getQuietly(user);
+			}
+			check(errors.get() == 0, "Orders and menu listings carry on while beverages come and go");
+
+			int ginger = machine.getStockSnapshot().get("ginger_syrup");
+			machine.removeIngredient("ginger_syrup");
+			Order withoutGinger = machine.serveBeverage(1, "hot_tea");
+			withoutGinger.awaitCompletion(1, TimeUnit.SECONDS);
+			check(machine.getUnservableBeverages().containsKey("hot_tea")
+					&& withoutGinger.getStatus() != OrderStatus.SERVED,
+					"Removing an ingredient makes the beverages using it unservable");
+			machine.addIngredient("ginger_syrup", ginger);
+			Order withGinger = machine.serveBeverage(1, "hot_tea");
+			withGinger.awaitCompletion(1, TimeUnit.SECONDS);
+			check(!machine.getUnservableBeverages().containsKey("hot_tea")
+					&& withGinger.getStatus() == OrderStatus.SERVED,
+					"Adding the ingredient back makes them servable again");
+		} finally {
+			threads.shutdownNow();
+			machine.close();
+			logger.flush();
+			logger.setLevel(previousLevel);
+		}
+		System.out.println();
+	}
+
+	/**
+	 * Creates a beverage made of ingredients the machine has.
+	 *
+	 * @param name
+	 * @return
+	 */
+	private static Beverage beverage(String name) {
+		Recipe recipe = new Recipe(name);
+		recipe.addIngredient(new Ingredient("hot_water", 100));
+		recipe.addIngredient(new Ingredient("tea_leaves_syrup", 10));
+		return new Beverage(name, recipe);
+	}
+
+	/**
+	 * Returns the result of a task, failing the test if the task threw.
+	 *
+	 * @param <T>
+	 * @param future
+	 * @return
+	 * @throws InterruptedException
+	 */
+	private <T> T getQuietly(Future<T> future) throws InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			check(false, "Task ran without throwing: " + e.getCause());
+			return null;
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package org.dunzo.sde2.test;
+
+import java.util.concurrent.TimeUnit;
+
+import org.dunzo.sde2.workload.WorkloadGenerator;
+import org.dunzo.sde2.workload.WorkloadReport;
+import org.dunzo.sde2.workload.WorkloadScenario;
+import org.json.JSONObject;
+
+/**
+ * Runs a workload scenario file at many times it's arrival rate with a short
+ * drain time, so that orders are still open when the report is made, and
+ * checks that those orders count as unfinished without skewing the latencies
+ * of the report.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class WorkloadReportTest extends AbstractTest {
+	private final static double OVERLOAD = 20;
+	private final static long DRAIN_TIME = 100;
+
+	// Time the report may take to be made after the drain time runs out.
+	private final static long REPORT_SLACK = 1000;
+
+	/**
+	 *
+	 */
+	@Override
+	public void run(String filePath) throws InterruptedException {
+		JSONObject jsonObj = loadJSON(filePath);
+		JSONObject scenarioObj = jsonObj.getJSONObject("scenario");
+		JSONObject arrivals = scenarioObj.getJSONObject("arrivals");
+		arrivals.put("rate", arrivals.getDouble("rate") * OVERLOAD);
+		scenarioObj.put("drain_ms", DRAIN_TIME);
+
+		WorkloadScenario scenario = WorkloadScenario.fromJSON(jsonObj);
+		WorkloadReport report = new WorkloadGenerator(scenario).run();
+		System.out.println();
+		System.out.println(report);
+
+		long counted = 0;
+		for (long count : report.getStatusCounts().values()) {
+			counted += count;
+		}
+		check(counted == report.getOrders(), "Every order is counted once");
+		long bound = TimeUnit.MILLISECONDS.toNanos(scenario.getDuration() + DRAIN_TIME + REPORT_SLACK);
+		check(report.getCompletionLatency(99) <= bound, "p99 of completion stays below the drain time");
+		check(report.getCompletionLatency(100) <= bound, "Max completion stays below the drain time");
+		System.out.println();
+	}
+}
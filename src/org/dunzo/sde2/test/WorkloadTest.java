@@ -0,0 +1,60 @@
+package org.dunzo.sde2.test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.dunzo.sde2.OrderStatus;
+import org.dunzo.sde2.workload.WorkloadGenerator;
+import org.dunzo.sde2.workload.WorkloadReport;
+import org.dunzo.sde2.workload.WorkloadScenario;
+import org.json.JSONObject;
+
+/**
+ * Runs a workload scenario file against a fresh Coffee Machine, prints the
+ * report, and checks that every order placed finished and was counted once,
+ * without errors. Set the system property workload.report to save the report as JSON,
+ * and workload.baseline to a report saved by an earlier build to compare with
+ * it.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class WorkloadTest extends AbstractTest {
+
+	/**
+	 *
+	 */
+	@Override
+	public void run(String filePath) throws InterruptedException {
+		WorkloadScenario scenario = WorkloadScenario.load(filePath);
+		WorkloadReport report = new WorkloadGenerator(scenario).run();
+		System.out.println();
+		System.out.println(report);
+
+		long counted = 0;
+		for (long count : report.getStatusCounts().values()) {
+			counted += count;
+		}
+		check(report.getOrders() > 0 && counted == report.getOrders(), "Every order placed is counted once");
+		check(report.getCount(WorkloadGenerator.ERROR) == 0, "No order fails with an error");
+		check(report.getCount(WorkloadGenerator.UNFINISHED) == 0, "Every order finishes before the drain time");
+		check(report.getCount(OrderStatus.SERVED.name()) > 0, "Orders are served");
+
+		try {
+			String baselinePath = System.getProperty("workload.baseline");
+			if (baselinePath != null) {
+				System.out.println(report.compareWith(loadJSON(baselinePath)));
+			}
+			String reportPath = System.getProperty("workload.report");
+			if (reportPath != null) {
+				Files.write(Path.of(reportPath), report.toJSON().toString(2).getBytes(StandardCharsets.UTF_8));
+				System.out.println("Saved workload report to " + reportPath);
+			}
+		} catch (IOException e) {
+			check(false, "Workload report is compared and saved without I/O errors: " + e);
+		}
+		System.out.println();
+	}
+}
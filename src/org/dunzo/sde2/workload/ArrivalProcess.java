@@ -0,0 +1,224 @@
+package org.dunzo.sde2.workload;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * ArrivalProcess --- Times at which orders arrive during a workload, as an
+ * offset in nanos from the start of the workload.
+ *
+ * Poisson arrivals come at a constant mean rate with exponential gaps between
+ * them. Bursty arrivals are Poisson at a base rate, switching to a burst rate
+ * for the first part of every period, with bursts lined up across all clients
+ * so that they hit the machine at once. Fixed arrivals come at exactly the same
+ * gap, like a scripted test.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class ArrivalProcess {
+	private final static long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	/**
+	 * Type --- Kinds of arrival processes.
+	 */
+	public enum Type {
+		POISSON,
+		BURSTY,
+		FIXED;
+
+		/**
+		 * Returns the type for a name used in scenario files, e.g. "poisson".
+		 *
+		 * @param name
+		 * @return
+		 * @throws IllegalArgumentException
+		 */
+		public static Type fromName(String name) throws IllegalArgumentException {
+			if (name == null) {
+				throw new IllegalArgumentException("Arrival process is not defined!");
+			}
+			return Type.valueOf(name.trim().toUpperCase());
+		}
+	}
+
+	private final Type type;
+
+	// Arrivals per second, outside and inside bursts.
+	private final double rate;
+	private final double burstRate;
+
+	// Length of a burst and of the period it repeats at, in nanos.
+	private final long burstLength;
+	private final long period;
+
+	/**
+	 * @param type
+	 * @param rate
+	 * @param burstRate
+	 * @param burstLength
+	 * @param period
+	 * @throws IllegalArgumentException
+	 */
+	private ArrivalProcess(Type type, double rate, double burstRate, long burstLength, long period)
+			throws IllegalArgumentException {
+		if (rate < 0 || burstRate < 0 || Math.max(rate, burstRate) <= 0) {
+			throw new IllegalArgumentException("Arrival rate must be positive!");
+		}
+		if (type == Type.BURSTY && (burstLength <= 0 || period < burstLength)) {
+			throw new IllegalArgumentException("Bursts must be positive and no longer than their period!");
+		}
+		this.type = type;
+		this.rate = rate;
+		this.burstRate = burstRate;
+		this.burstLength = burstLength;
+		this.period = period;
+	}
+
+	/**
+	 * Returns arrivals at a constant mean rate per second.
+	 *
+	 * @param rate
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	public static ArrivalProcess poisson(double rate) throws IllegalArgumentException {
+		return new ArrivalProcess(Type.POISSON, rate, rate, 0, 0);
+	}
+
+	/**
+	 * Returns arrivals at a base rate per second, going up to the burst rate for
+	 * the given millis at the start of every period.
+	 *
+	 * @param rate
+	 * @param burstRate
+	 * @param burstMillis
+	 * @param periodMillis
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	public static ArrivalProcess bursty(double rate, double burstRate, long burstMillis, long periodMillis)
+			throws IllegalArgumentException {
+		return new ArrivalProcess(Type.BURSTY, rate, burstRate, TimeUnit.MILLISECONDS.toNanos(burstMillis),
+				TimeUnit.MILLISECONDS.toNanos(periodMillis));
+	}
+
+	/**
+	 * Returns arrivals at exactly the given rate per second.
+	 *
+	 * @param rate
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	public static ArrivalProcess fixed(double rate) throws IllegalArgumentException {
+		return new ArrivalProcess(Type.FIXED, rate, rate, 0, 0);
+	}
+
+	/**
+	 * Parses an arrival process from a scenario file, e.g. {"process": "bursty",
+	 * "rate": 50, "burst_rate": 500, "burst_ms": 200, "period_ms": 1000}.
+	 *
+	 * @param json
+	 * @return
+	 * @throws IllegalArgumentException
+	 * @throws JSONException
+	 */
+	public static ArrivalProcess fromJSON(JSONObject json) throws IllegalArgumentException, JSONException {
+		if (json == null) {
+			throw new IllegalArgumentException("Arrivals are not defined for the workload!");
+		}
+		Type type = Type.fromName(json.optString("process", "poisson"));
+		double rate = json.getDouble("rate");
+		switch (type) {
+		case BURSTY:
+			return bursty(rate, json.getDouble("burst_rate"), json.getLong("burst_ms"), json.getLong("period_ms"));
+		case FIXED:
+			return fixed(rate);
+		default:
+			return poisson(rate);
+		}
+	}
+
+	/**
+	 * Returns the same kind of arrivals at 1/n of the rate, for each of n clients
+	 * sharing the load.
+	 *
+	 * @param n
+	 * @return
+	 */
+	public ArrivalProcess split(int n) {
+		return new ArrivalProcess(type, rate / n, burstRate / n, burstLength, period);
+	}
+
+	/**
+	 * Returns the kind of arrivals.
+	 *
+	 * @return
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Returns arrivals per second at the given offset in nanos.
+	 *
+	 * @param at
+	 * @return
+	 */
+	public double getRate(long at) {
+		if (type == Type.BURSTY && at % period < burstLength) {
+			return burstRate;
+		}
+		return rate;
+	}
+
+	/**
+	 * Returns the mean no. of arrivals per second.
+	 *
+	 * @return
+	 */
+	public double getMeanRate() {
+		if (type == Type.BURSTY) {
+			return (burstRate * burstLength + rate * (period - burstLength)) / period;
+		}
+		return rate;
+	}
+
+	/**
+	 * Returns the offset in nanos of the arrival after the one at the given
+	 * offset. Bursty arrivals are drawn at the highest rate and thinned down to
+	 * the rate at the time they fall at.
+	 *
+	 * @param at
+	 * @param random
+	 * @return
+	 */
+	public long nextArrival(long at, Random random) {
+		if (type == Type.FIXED) {
+			return at + (long) (NANOS_PER_SECOND / rate);
+		}
+		double maxRate = Math.max(rate, burstRate);
+		long next = at;
+		while (true) {
+			next += (long) (-Math.log(1 - random.nextDouble()) / maxRate * NANOS_PER_SECOND);
+			if (type == Type.POISSON || random.nextDouble() * maxRate < getRate(next)) {
+				return next;
+			}
+		}
+	}
+
+	/**
+	 * Return a string representation for ArrivalProcess object.
+	 */
+	@Override
+	public String toString() {
+		if (type == Type.BURSTY) {
+			return String.format("BURSTY(%.1f/s, %.1f/s for %d ms every %d ms)", rate, burstRate,
+					TimeUnit.NANOSECONDS.toMillis(burstLength), TimeUnit.NANOSECONDS.toMillis(period));
+		}
+		return String.format("%s(%.1f/s)", type, rate);
+	}
+}
@@ -0,0 +1,295 @@
+package org.dunzo.sde2.workload;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.dunzo.sde2.CoffeeMachine;
+import org.dunzo.sde2.MachineLogger;
+import org.dunzo.sde2.MultiOrder;
+import org.dunzo.sde2.Order;
+import org.dunzo.sde2.OrderLog;
+import org.dunzo.sde2.OrderStatus;
+import org.json.JSONObject;
+
+/**
+ * OrderLogReplay --- Feeds the orders of a recorded order log into a freshly
+ * set up Coffee Machine, either at the pacing they were recorded at or as fast
+ * as the machine takes them, and compares the outcomes and throughput with the
+ * recording or with another replay.
+ *
+ * Orders are dealt out to the feeders in the order they were recorded, so
+ * orders placed one after the other in the recording are placed concurrently
+ * by different feeders. Deadlines are replayed relative to the time an order is
+ * placed. Every cup of a batch gets it's own outcome, in the order the machine
+ * split the batch in.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class OrderLogReplay {
+	private final static long DEFAULT_DRAIN_TIME = 30 * 1000;
+
+	/**
+	 * Pacing --- How fast the recorded orders are placed.
+	 */
+	public enum Pacing {
+		ORIGINAL,
+		MAX_SPEED;
+	}
+
+	/**
+	 * Result --- The report of a replay and the outcome of every recorded order.
+	 */
+	public static class Result {
+		private final WorkloadReport report;
+		private final String[] outcomes;
+
+		/**
+		 * @param report
+		 * @param outcomes
+		 */
+		private Result(WorkloadReport report, String[] outcomes) {
+			this.report = report;
+			this.outcomes = outcomes;
+		}
+
+		/**
+		 * Returns the report of the replay.
+		 *
+		 * @return
+		 */
+		public WorkloadReport getReport() {
+			return report;
+		}
+
+		/**
+		 * Returns the final status of each recorded order by sequence no., or ERROR
+		 * or UNFINISHED, and null for the orders deduped as retries.
+		 *
+		 * @return
+		 */
+		public String[] getOutcomes() {
+			return outcomes.clone();
+		}
+
+		/**
+		 * Returns how the outcomes of the replay differ from the outcomes recorded
+		 * in the order log.
+		 *
+		 * @param log
+		 * @return
+		 */
+		public String compareOutcomes(OrderLog log) {
+			OrderStatus[] recorded = log.getOutcomes();
+			String[] baseline = new String[recorded.length];
+			for (int i = 0; i < recorded.length; i++) {
+				baseline[i] = (recorded[i] == null) ? null : recorded[i].name();
+			}
+			return compareOutcomes("recording", baseline);
+		}
+
+		/**
+		 * Returns how the outcomes of the replay differ from the outcomes of another
+		 * replay of the same order log.
+		 *
+		 * @param other
+		 * @return
+		 */
+		public String compareOutcomes(Result other) {
+			return compareOutcomes(other.report.getName(), other.outcomes);
+		}
+
+		/**
+		 * Returns the fraction of orders with an outcome on both sides that ended the
+		 * same, and the no. of orders for every change of outcome.
+		 *
+		 * @param baselineName
+		 * @param baseline
+		 * @return
+		 */
+		private String compareOutcomes(String baselineName, String[] baseline) {
+			int nCompared = 0;
+			int nSame = 0;
+			Map<String, Long> changes = new TreeMap<String, Long>();
+			for (int i = 0; i < Math.min(baseline.length, outcomes.length); i++) {
+				if (baseline[i] == null || outcomes[i] == null) {
+					continue;
+				}
+				nCompared++;
+				if (baseline[i].equals(outcomes[i])) {
+					nSame++;
+				} else {
+					changes.merge(baseline[i] + " -> " + outcomes[i], 1L, Long::sum);
+				}
+			}
+			StringBuilder sb = new StringBuilder();
+			sb.append(String.format("Outcomes of %s compared with %s: %d of %d orders the same (%.1f%%)",
+					report.getName(), baselineName, nSame, nCompared,
+					(nCompared == 0) ? 100.0 : 100.0 * nSame / nCompared));
+			for (Map.Entry<String, Long> change : changes.entrySet()) {
+				sb.append(String.format("%n\t%s: %d", change.getKey(), change.getValue()));
+			}
+			return sb.toString();
+		}
+	}
+
+	private final OrderLog log;
+	private final JSONObject machine;
+	private final Pacing pacing;
+	private final int nFeeders;
+
+	/**
+	 * @param log
+	 * @param machine
+	 * @param pacing
+	 * @param nFeeders
+	 * @throws IllegalArgumentException
+	 */
+	public OrderLogReplay(OrderLog log, JSONObject machine, Pacing pacing, int nFeeders)
+			throws IllegalArgumentException {
+		if (log == null) {
+			throw new IllegalArgumentException("Order log to replay is not defined!");
+		}
+		if (machine == null) {
+			throw new IllegalArgumentException("Coffee Machine to replay the order log on is not defined!");
+		}
+		if (pacing == null) {
+			throw new IllegalArgumentException("Pacing of the replay is not defined!");
+		}
+		if (nFeeders <= 0) {
+			throw new IllegalArgumentException("Replay needs at least one feeder!");
+		}
+		this.log = log;
+		this.machine = machine;
+		this.pacing = pacing;
+		this.nFeeders = nFeeders;
+	}
+
+	/**
+	 * Sets up a new machine, replays the order log against it with logging off,
+	 * and turns it off.
+	 *
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public Result run() throws InterruptedException {
+		MachineLogger logger = MachineLogger.get();
+		MachineLogger.Level previousLevel = logger.getLevel();
+		String name = "replay " + pacing.name().toLowerCase();
+		CoffeeMachine coffeeMachine = new CoffeeMachine(name);
+		coffeeMachine.initializeFromJSON(machine);
+		logger.setLevel(MachineLogger.Level.OFF);
+		coffeeMachine.start();
+		try {
+			List<OrderLog.Entry> entries = log.getEntries();
+			ExecutorService feeders = Executors.newFixedThreadPool(nFeeders);
+			List<Future<List<PlacedOrder>>> results = new ArrayList<Future<List<PlacedOrder>>>();
+			long first = entries.isEmpty() ? 0 : entries.get(0).getArrivedAt();
+			long start = System.nanoTime();
+			for (int f = 0; f < nFeeders; f++) {
+				final int feeder = f;
+				results.add(feeders.submit(
+						(Callable<List<PlacedOrder>>) () -> feed(coffeeMachine, entries, feeder, first, start)));
+			}
+
+			List<List<PlacedOrder>> fed = new ArrayList<List<PlacedOrder>>();
+			try {
+				for (Future<List<PlacedOrder>> result : results) {
+					fed.add(result.get());
+				}
+			} catch (ExecutionException e) {
+				throw new RuntimeException("Replay feeder failed! " + e.getCause().getMessage(), e.getCause());
+			} finally {
+				feeders.shutdownNow();
+			}
+			long placedFor = System.nanoTime() - start;
+
+			// Put the orders of all feeders back in the order of their sequence nos.
+			List<PlacedOrder> placed = new ArrayList<PlacedOrder>();
+			int[] next = new int[nFeeders];
+			for (int i = 0; i < entries.size(); i++) {
+				List<PlacedOrder> cups = fed.get(i % nFeeders);
+				for (int cup = 0; cup < entries.get(i).getQuantity(); cup++) {
+					placed.add(cups.get(next[i % nFeeders]++));
+				}
+			}
+
+			PlacedOrder.drain(placed, DEFAULT_DRAIN_TIME);
+			// Retries deduped to an earlier order don't have an outcome of their own.
+			String[] outcomes = new String[placed.size()];
+			Set<Order> seen = Collections.newSetFromMap(new IdentityHashMap<Order, Boolean>());
+			for (int i = 0; i < outcomes.length; i++) {
+				Order order = placed.get(i).getOrder();
+				outcomes[i] = (order != null && !seen.add(order)) ? null : placed.get(i).getOutcome();
+			}
+			String arrivals = String.format("REPLAY(%d orders recorded over %.2f seconds)", log.getOrderCount(),
+					log.getSpan() / (double) TimeUnit.SECONDS.toNanos(1));
+			return new Result(PlacedOrder.report(name, nFeeders, arrivals, coffeeMachine, placed, start, placedFor),
+					outcomes);
+		} finally {
+			coffeeMachine.close();
+			logger.flush();
+			logger.setLevel(previousLevel);
+		}
+	}
+
+	/**
+	 * Places every n-th order of the log for one of n feeders, waiting for the
+	 * time it was recorded at unless replaying at max speed.
+	 *
+	 * @param coffeeMachine
+	 * @param entries
+	 * @param feeder
+	 * @param first
+	 * @param start
+	 * @return
+	 */
+	private List<PlacedOrder> feed(CoffeeMachine coffeeMachine, List<OrderLog.Entry> entries, int feeder, long first,
+			long start) {
+		List<PlacedOrder> placed = new ArrayList<PlacedOrder>();
+		for (int i = feeder; i < entries.size() && !Thread.currentThread().isInterrupted(); i += nFeeders) {
+			OrderLog.Entry entry = entries.get(i);
+			long dueAt = System.nanoTime();
+			if (pacing == Pacing.ORIGINAL) {
+				dueAt = start + entry.getArrivedAt() - first;
+				for (long wait = dueAt - System.nanoTime(); wait > 0; wait = dueAt - System.nanoTime()) {
+					LockSupport.parkNanos(wait);
+				}
+			}
+			long deadline = (entry.getDeadline() == 0) ? Order.NO_DEADLINE
+					: System.currentTimeMillis() + entry.getDeadline();
+			try {
+				if (entry.isBatch()) {
+					MultiOrder multiOrder = coffeeMachine.serveBeverages(entry.getBeverageName(), entry.getQuantity(),
+							entry.getPriority(), deadline);
+					long placedAt = System.nanoTime();
+					for (Order order : multiOrder.getOrders()) {
+						placed.add(new PlacedOrder(dueAt, placedAt, order, null));
+					}
+				} else {
+					Order order = coffeeMachine.serveBeverage(entry.getClientOrderId(), entry.getOutletNo(),
+							entry.getBeverageName(), entry.getPriority(), deadline, entry.getTimeout());
+					placed.add(new PlacedOrder(dueAt, System.nanoTime(), order, null));
+				}
+			} catch (RuntimeException e) {
+				long placedAt = System.nanoTime();
+				for (int cup = 0; cup < entry.getQuantity(); cup++) {
+					placed.add(new PlacedOrder(dueAt, placedAt, null, e.getMessage()));
+				}
+			}
+		}
+		return placed;
+	}
+}
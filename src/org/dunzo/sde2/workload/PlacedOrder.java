@@ -0,0 +1,182 @@
+package org.dunzo.sde2.workload;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.dunzo.sde2.Beverage;
+import org.dunzo.sde2.ICoffeeMachine;
+import org.dunzo.sde2.Order;
+import org.dunzo.sde2.OrderStatus;
+import org.dunzo.sde2.OrderTrace;
+
+/**
+ * PlacedOrder --- An order placed at a Coffee Machine by a workload, or the
+ * error the machine refused it with, and the time it was due to be placed.
+ * Orders placed by a workload are summed up into a workload report.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+class PlacedOrder {
+	// Statuses reported for orders the machine threw on, and for orders still
+	// open after draining.
+	final static String ERROR = "ERROR";
+	final static String UNFINISHED = "UNFINISHED";
+
+	private final long dueAt;
+	private final long placedAt;
+	private final Order order;
+	private final String error;
+
+	/**
+	 * @param dueAt
+	 * @param placedAt
+	 * @param order
+	 * @param error
+	 */
+	PlacedOrder(long dueAt, long placedAt, Order order, String error) {
+		this.dueAt = dueAt;
+		this.placedAt = placedAt;
+		this.order = order;
+		this.error = error;
+	}
+
+	/**
+	 * Returns the order placed, or null if the machine refused it with an error.
+	 *
+	 * @return
+	 */
+	Order getOrder() {
+		return order;
+	}
+
+	/**
+	 * Returns the final status of the order, or ERROR or UNFINISHED. An order
+	 * only counts as finished once it's trace is, so that it always has a finish
+	 * time.
+	 *
+	 * @return
+	 */
+	String getOutcome() {
+		if (order == null) {
+			return ERROR;
+		}
+		OrderTrace trace = order.getTrace();
+		return trace.isFinished() ? trace.getStatus().name() : UNFINISHED;
+	}
+
+	/**
+	 * Waits for the orders still open till the drain time in millis runs out.
+	 *
+	 * @param placed
+	 * @param drainTime
+	 * @throws InterruptedException
+	 */
+	static void drain(List<PlacedOrder> placed, long drainTime) throws InterruptedException {
+		long drainDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainTime);
+		for (PlacedOrder p : placed) {
+			if (p.order != null) {
+				p.order.awaitCompletion(Math.max(0, drainDeadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+			}
+		}
+	}
+
+	/**
+	 * Counts the orders by status and reason and collects their latencies into a
+	 * report.
+	 *
+	 * @param name
+	 * @param nClients
+	 * @param arrivals
+	 * @param machine
+	 * @param placed
+	 * @param start
+	 * @param placedFor
+	 * @return
+	 */
+	static WorkloadReport report(String name, int nClients, String arrivals, ICoffeeMachine machine,
+			List<PlacedOrder> placed, long start, long placedFor) {
+		Map<String, Long> statuses = new LinkedHashMap<String, Long>();
+		for (OrderStatus status : OrderStatus.values()) {
+			if (status.isFinal()) {
+				statuses.put(status.name(), 0L);
+			}
+		}
+		Map<String, Long> reasons = new TreeMap<String, Long>();
+		Map<String, String> normalized = new HashMap<String, String>();
+		List<String> names = getNames(machine);
+
+		long[] placementLatencies = new long[placed.size()];
+		long[] completionLatencies = new long[placed.size()];
+		int nCompleted = 0;
+		long end = start + placedFor;
+		for (int i = 0; i < placed.size(); i++) {
+			PlacedOrder p = placed.get(i);
+			placementLatencies[i] = p.placedAt - p.dueAt;
+			String status = p.getOutcome();
+			String message = p.error;
+			if (p.order != null) {
+				message = p.order.getMessage();
+				// Orders still open after draining have no finish time to count.
+				OrderTrace trace = p.order.getTrace();
+				if (trace.isFinished()) {
+					long finishedAt = trace.getFinishedAt();
+					end = Math.max(end, finishedAt);
+					if (trace.getStatus() == OrderStatus.SERVED) {
+						completionLatencies[nCompleted++] = finishedAt - p.dueAt;
+					}
+				}
+			}
+			statuses.merge(status, 1L, Long::sum);
+			if (!status.equals(OrderStatus.SERVED.name())) {
+				String reason = status + ((message == null) ? ""
+						: ": " + normalized.computeIfAbsent(message, m -> normalize(m, names)));
+				reasons.merge(reason, 1L, Long::sum);
+			}
+		}
+		long[] completed = new long[nCompleted];
+		System.arraycopy(completionLatencies, 0, completed, 0, nCompleted);
+		return new WorkloadReport(name, nClients, arrivals, placedFor, end - start, statuses, reasons,
+				placementLatencies, completed);
+	}
+
+	/**
+	 * Returns the names of beverages and ingredients of the machine, longest
+	 * first so that no name is replaced inside a longer one.
+	 *
+	 * @param machine
+	 * @return
+	 */
+	private static List<String> getNames(ICoffeeMachine machine) {
+		List<String> names = new ArrayList<String>();
+		for (Beverage beverage : machine.getMenu()) {
+			names.add(beverage.getName());
+		}
+		names.addAll(machine.getStockSnapshot().keySet());
+		names.sort(Comparator.comparingInt(String::length).reversed());
+		return names;
+	}
+
+	/**
+	 * Turns the message an order ended with into a reason shared by all orders
+	 * failing the same way, by replacing the names of beverages, ingredients and
+	 * outlets and any numbers in it.
+	 *
+	 * @param message
+	 * @param names
+	 * @return
+	 */
+	private static String normalize(String message, List<String> names) {
+		String reason = message;
+		for (String name : names) {
+			reason = reason.replace(name, "*");
+		}
+		return reason.replaceAll("OUTLET\\(\\d+\\)", "OUTLET(*)").replaceAll("\\d+(\\.\\d+)?", "#");
+	}
+}
@@ -0,0 +1,202 @@
+package org.dunzo.sde2.workload;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.dunzo.sde2.CoffeeMachine;
+import org.dunzo.sde2.ICoffeeMachine;
+import org.dunzo.sde2.MachineLogger;
+import org.dunzo.sde2.Order;
+import org.dunzo.sde2.OrderPriority;
+
+/**
+ * WorkloadGenerator --- Drives a Coffee Machine with the load of a workload
+ * scenario and reports how it held up.
+ *
+ * Every client places orders at the times drawn from it's share of the
+ * arrival process, whether or not the machine kept up with the orders before,
+ * so a slow machine shows up as latency rather than as fewer orders. Latencies
+ * are measured from the time an order was due to be placed: placement latency
+ * till the machine accepted or refused it, and completion latency till a
+ * served order was done. Once the clients stop, orders still open are given
+ * the drain time of the scenario to finish.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class WorkloadGenerator {
+	// Statuses reported for orders the machine threw on, and for orders still
+	// open after draining.
+	public final static String ERROR = PlacedOrder.ERROR;
+	public final static String UNFINISHED = PlacedOrder.UNFINISHED;
+
+	private final WorkloadScenario scenario;
+
+	/**
+	 * @param scenario
+	 * @throws IllegalArgumentException
+	 */
+	public WorkloadGenerator(WorkloadScenario scenario) throws IllegalArgumentException {
+		if (scenario == null) {
+			throw new IllegalArgumentException("Workload scenario is not defined!");
+		}
+		this.scenario = scenario;
+	}
+
+	/**
+	 * Sets up the machine of the scenario, runs the workload against it and turns
+	 * it off. The machine logs at the level of the scenario meanwhile.
+	 *
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public WorkloadReport run() throws InterruptedException {
+		MachineLogger log = MachineLogger.get();
+		MachineLogger.Level previousLevel = log.getLevel();
+		CoffeeMachine machine = new CoffeeMachine(scenario.getName());
+		machine.initializeFromJSON(scenario.getMachine());
+		log.setLevel(scenario.getLogLevel());
+		machine.start();
+		try {
+			return run(machine);
+		} finally {
+			machine.close();
+			log.flush();
+			log.setLevel(previousLevel);
+		}
+	}
+
+	/**
+	 * Runs the workload against a machine that is already turned on, and leaves
+	 * it on.
+	 *
+	 * @param machine
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public WorkloadReport run(ICoffeeMachine machine) throws InterruptedException {
+		int nClients = scenario.getnClients();
+		ArrivalProcess arrivals = scenario.getArrivals().split(nClients);
+		ExecutorService clients = Executors.newFixedThreadPool(nClients);
+		List<Future<List<PlacedOrder>>> results = new ArrayList<Future<List<PlacedOrder>>>();
+		long start = System.nanoTime();
+		for (int c = 0; c < nClients; c++) {
+			final Random random = new Random(scenario.getSeed() * 31 + c);
+			results.add(clients.submit((Callable<List<PlacedOrder>>) () -> runClient(machine, arrivals, random, start)));
+		}
+
+		List<PlacedOrder> placed = new ArrayList<PlacedOrder>();
+		try {
+			for (Future<List<PlacedOrder>> result : results) {
+				placed.addAll(result.get());
+			}
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Workload client failed! " + e.getCause().getMessage(), e.getCause());
+		} finally {
+			clients.shutdownNow();
+		}
+		long placedFor = System.nanoTime() - start;
+
+		// Give orders still open the drain time to finish.
+		PlacedOrder.drain(placed, scenario.getDrainTime());
+		return PlacedOrder.report(scenario.getName(), nClients, scenario.getArrivals().toString(), machine, placed,
+				start, placedFor);
+	}
+
+	/**
+	 * Places orders at the times drawn from the arrival process till the duration
+	 * of the workload is over.
+	 *
+	 * @param machine
+	 * @param arrivals
+	 * @param random
+	 * @param start
+	 * @return
+	 */
+	private List<PlacedOrder> runClient(ICoffeeMachine machine, ArrivalProcess arrivals, Random random, long start) {
+		String[] beverages = scenario.getMix().keySet().toArray(new String[0]);
+		double[] beverageWeights = cumulative(scenario.getMix().values());
+		OrderPriority[] priorities = scenario.getPriorities().keySet().toArray(new OrderPriority[0]);
+		double[] priorityWeights = cumulative(scenario.getPriorities().values());
+		double[] outletWeights = scenario.getOutletWeights();
+		if (outletWeights != null) {
+			List<Double> weights = new ArrayList<Double>();
+			for (double weight : outletWeights) {
+				weights.add(weight);
+			}
+			outletWeights = cumulative(weights);
+		}
+		int nOutlets = machine.getnOutlets();
+		long duration = TimeUnit.MILLISECONDS.toNanos(scenario.getDuration());
+
+		List<PlacedOrder> placed = new ArrayList<PlacedOrder>();
+		long next = arrivals.nextArrival(0, random);
+		while (next < duration && !Thread.currentThread().isInterrupted()) {
+			long dueAt = start + next;
+			for (long wait = dueAt - System.nanoTime(); wait > 0; wait = dueAt - System.nanoTime()) {
+				LockSupport.parkNanos(wait);
+			}
+			String beverageName = beverages[pick(beverageWeights, random)];
+			int outletNo = (outletWeights == null) ? 1 + random.nextInt(nOutlets) : 1 + pick(outletWeights, random);
+			OrderPriority priority = priorities[pick(priorityWeights, random)];
+			long deadline = (scenario.getDeadline() == 0) ? Order.NO_DEADLINE
+					: System.currentTimeMillis() + scenario.getDeadline();
+			try {
+				Order order = machine.serveBeverage(null, outletNo, beverageName, priority, deadline,
+						scenario.getTimeout());
+				placed.add(new PlacedOrder(dueAt, System.nanoTime(), order, null));
+			} catch (RuntimeException e) {
+				placed.add(new PlacedOrder(dueAt, System.nanoTime(), null, e.getMessage()));
+			}
+			next = arrivals.nextArrival(next, random);
+		}
+		return placed;
+	}
+
+	/**
+	 * Returns the running totals of the weights.
+	 *
+	 * @param weights
+	 * @return
+	 */
+	private static double[] cumulative(Iterable<Double> weights) {
+		List<Double> totals = new ArrayList<Double>();
+		double total = 0;
+		for (double weight : weights) {
+			total += weight;
+			totals.add(total);
+		}
+		double[] cumulative = new double[totals.size()];
+		for (int i = 0; i < cumulative.length; i++) {
+			cumulative[i] = totals.get(i);
+		}
+		return cumulative;
+	}
+
+	/**
+	 * Returns the index of a random pick with the given running totals of
+	 * weights.
+	 *
+	 * @param cumulative
+	 * @param random
+	 * @return
+	 */
+	private static int pick(double[] cumulative, Random random) {
+		double r = random.nextDouble() * cumulative[cumulative.length - 1];
+		for (int i = 0; i < cumulative.length - 1; i++) {
+			if (r < cumulative[i]) {
+				return i;
+			}
+		}
+		return cumulative.length - 1;
+	}
+}
@@ -0,0 +1,331 @@
+package org.dunzo.sde2.workload;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.dunzo.sde2.OrderStatus;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * WorkloadReport --- How a Coffee Machine held up under a workload: the orders
+ * placed, how many ended in each status and for what reason, the throughput of
+ * served orders, and percentiles of placement and completion latency. A report
+ * can be saved as JSON and compared with the report of an earlier build for the
+ * same scenario.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class WorkloadReport {
+	// Percentiles reported for latencies.
+	private final static double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+	private final String name;
+	private final int nClients;
+	private final String arrivals;
+	private final long placedFor;
+	private final long elapsed;
+	private final Map<String, Long> statuses;
+	private final Map<String, Long> reasons;
+	private final long[] placementLatencies;
+	private final long[] completionLatencies;
+
+	/**
+	 * @param name
+	 * @param nClients
+	 * @param arrivals
+	 * @param placedFor
+	 * @param elapsed
+	 * @param statuses
+	 * @param reasons
+	 * @param placementLatencies
+	 * @param completionLatencies
+	 */
+	WorkloadReport(String name, int nClients, String arrivals, long placedFor, long elapsed,
+			Map<String, Long> statuses, Map<String, Long> reasons, long[] placementLatencies,
+			long[] completionLatencies) {
+		this.name = name;
+		this.nClients = nClients;
+		this.arrivals = arrivals;
+		this.placedFor = placedFor;
+		this.elapsed = elapsed;
+		this.statuses = statuses;
+		this.reasons = reasons;
+		this.placementLatencies = placementLatencies;
+		this.completionLatencies = completionLatencies;
+		Arrays.sort(placementLatencies);
+		Arrays.sort(completionLatencies);
+	}
+
+	/**
+	 * Returns name of the scenario run.
+	 *
+	 * @return
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns no. of orders placed, including the ones refused with an error.
+	 *
+	 * @return
+	 */
+	public int getOrders() {
+		return placementLatencies.length;
+	}
+
+	/**
+	 * Returns no. of orders that ended in the status, or as an error or
+	 * unfinished.
+	 *
+	 * @param status
+	 * @return
+	 */
+	public long getCount(String status) {
+		return statuses.getOrDefault(status, 0L);
+	}
+
+	/**
+	 * Returns no. of orders ending in each status, or as an error or unfinished.
+	 *
+	 * @return
+	 */
+	public Map<String, Long> getStatusCounts() {
+		return Collections.unmodifiableMap(statuses);
+	}
+
+	/**
+	 * Returns no. of orders that were not served for each reason.
+	 *
+	 * @return
+	 */
+	public Map<String, Long> getReasonCounts() {
+		return Collections.unmodifiableMap(reasons);
+	}
+
+	/**
+	 * Returns orders placed per second while the clients were placing them.
+	 *
+	 * @return
+	 */
+	public double getOfferedRate() {
+		return getOrders() / seconds(placedFor);
+	}
+
+	/**
+	 * Returns orders served per second, from the start of the workload till the
+	 * last order finished.
+	 *
+	 * @return
+	 */
+	public double getThroughput() {
+		return getCount(OrderStatus.SERVED.name()) / seconds(elapsed);
+	}
+
+	/**
+	 * Returns the fraction of orders that were not served.
+	 *
+	 * @return
+	 */
+	public double getUnservedRate() {
+		return (getOrders() == 0) ? 0 : 1 - (double) getCount(OrderStatus.SERVED.name()) / getOrders();
+	}
+
+	/**
+	 * Returns the given percentile, from 0 to 100, of the time in nanos from an
+	 * order being due till the machine accepted or refused it.
+	 *
+	 * @param percentile
+	 * @return
+	 */
+	public long getPlacementLatency(double percentile) {
+		return percentile(placementLatencies, percentile);
+	}
+
+	/**
+	 * Returns the given percentile, from 0 to 100, of the time in nanos from an
+	 * order being due till it was served, over the served orders.
+	 *
+	 * @param percentile
+	 * @return
+	 */
+	public long getCompletionLatency(double percentile) {
+		return percentile(completionLatencies, percentile);
+	}
+
+	/**
+	 * Returns the value at the percentile of sorted values, or 0 if there are
+	 * none.
+	 *
+	 * @param sorted
+	 * @param percentile
+	 * @return
+	 */
+	private static long percentile(long[] sorted, double percentile) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		int index = (int) Math.ceil(sorted.length * percentile / 100) - 1;
+		return sorted[Math.min(sorted.length - 1, Math.max(0, index))];
+	}
+
+	/**
+	 * Returns the report as JSON, with latencies in micros.
+	 *
+	 * @return
+	 * @throws JSONException
+	 */
+	public JSONObject toJSON() throws JSONException {
+		JSONObject placement = new JSONObject();
+		JSONObject completion = new JSONObject();
+		for (double p : PERCENTILES) {
+			placement.put(label(p), micros(getPlacementLatency(p)));
+			completion.put(label(p), micros(getCompletionLatency(p)));
+		}
+		placement.put("max", micros(getPlacementLatency(100)));
+		completion.put("max", micros(getCompletionLatency(100)));
+		return new JSONObject().put("name", name).put("clients", nClients).put("arrivals", arrivals)
+				.put("orders", getOrders()).put("offered_rate", getOfferedRate()).put("throughput", getThroughput())
+				.put("unserved_rate", getUnservedRate()).put("statuses", new JSONObject(statuses))
+				.put("reasons", new JSONObject(reasons)).put("placement_latency_us", placement)
+				.put("completion_latency_us", completion);
+	}
+
+	/**
+	 * Returns how this report differs from an earlier report of the same
+	 * scenario saved as JSON, for the headline numbers.
+	 *
+	 * @param baseline
+	 * @return
+	 * @throws JSONException
+	 */
+	public String compareWith(JSONObject baseline) throws JSONException {
+		JSONObject current = toJSON();
+		StringBuilder sb = new StringBuilder("Compared with baseline of " + baseline.optString("name", "?"));
+		appendChange(sb, "throughput", baseline.getDouble("throughput"), current.getDouble("throughput"));
+		appendChange(sb, "unserved rate", baseline.getDouble("unserved_rate"), current.getDouble("unserved_rate"));
+		for (String kind : new String[] { "placement_latency_us", "completion_latency_us" }) {
+			JSONObject before = baseline.getJSONObject(kind);
+			JSONObject after = current.getJSONObject(kind);
+			for (String key : after.keySet().stream().sorted(WorkloadReport::compareLabels).toArray(String[]::new)) {
+				if (before.has(key)) {
+					appendChange(sb, kind.replace("_us", "").replace('_', ' ') + " " + key, before.getDouble(key),
+							after.getDouble(key));
+				}
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Orders percentile labels by percentile, with the max last.
+	 *
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	private static int compareLabels(String a, String b) {
+		double x = a.equals("max") ? 101 : Double.parseDouble(a.substring(1));
+		double y = b.equals("max") ? 101 : Double.parseDouble(b.substring(1));
+		return Double.compare(x, y);
+	}
+
+	/**
+	 * Appends a line with the value before and after and the relative change.
+	 *
+	 * @param sb
+	 * @param what
+	 * @param before
+	 * @param after
+	 */
+	private static void appendChange(StringBuilder sb, String what, double before, double after) {
+		String change = (before == 0) ? "n/a" : String.format("%+.1f%%", 100 * (after - before) / before);
+		sb.append(String.format("%n\t%s: %.3f -> %.3f (%s)", what, before, after, change));
+	}
+
+	/**
+	 * Return a string representation for WorkloadReport object.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("Workload %s: %d orders from %d clients with %s arrivals in %.2f seconds", name,
+				getOrders(), nClients, arrivals, seconds(placedFor)));
+		sb.append(String.format("%n\tOffered = %.1f orders/second, served = %.1f orders/second, unserved = %.1f%%",
+				getOfferedRate(), getThroughput(), 100 * getUnservedRate()));
+		Map<String, Long> nonZero = new LinkedHashMap<String, Long>();
+		for (Map.Entry<String, Long> entry : statuses.entrySet()) {
+			if (entry.getValue() > 0) {
+				nonZero.put(entry.getKey(), entry.getValue());
+			}
+		}
+		sb.append("\n\tStatuses = ").append(nonZero);
+		for (Map.Entry<String, Long> entry : reasons.entrySet()) {
+			sb.append(String.format("%n\t\t%5.1f%% %s", 100.0 * entry.getValue() / getOrders(), entry.getKey()));
+		}
+		sb.append("\n\tPlacement latency ").append(latencies(placementLatencies));
+		sb.append("\n\tCompletion latency ").append(latencies(completionLatencies));
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the reported percentiles and max of sorted latencies in millis.
+	 *
+	 * @param sorted
+	 * @return
+	 */
+	private static String latencies(long[] sorted) {
+		StringBuilder sb = new StringBuilder();
+		for (double p : PERCENTILES) {
+			sb.append(label(p)).append(" = ").append(String.format("%.3f", millis(percentile(sorted, p))))
+					.append(" ms, ");
+		}
+		return sb.append("max = ").append(String.format("%.3f", millis(percentile(sorted, 100)))).append(" ms")
+				.toString();
+	}
+
+	/**
+	 * Returns the label of a percentile, e.g. "p99.9".
+	 *
+	 * @param percentile
+	 * @return
+	 */
+	private static String label(double percentile) {
+		return (percentile == Math.rint(percentile)) ? "p" + (long) percentile : "p" + percentile;
+	}
+
+	/**
+	 * Converts nanos to seconds, and never to 0.
+	 *
+	 * @param nanos
+	 * @return
+	 */
+	private static double seconds(long nanos) {
+		return Math.max(1, nanos) / (double) TimeUnit.SECONDS.toNanos(1);
+	}
+
+	/**
+	 * Converts nanos to millis.
+	 *
+	 * @param nanos
+	 * @return
+	 */
+	private static double millis(long nanos) {
+		return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	/**
+	 * Converts nanos to micros.
+	 *
+	 * @param nanos
+	 * @return
+	 */
+	private static double micros(long nanos) {
+		return nanos / (double) TimeUnit.MICROSECONDS.toNanos(1);
+	}
+}
@@ -0,0 +1,296 @@
+package org.dunzo.sde2.workload;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.dunzo.sde2.InputReader;
+import org.dunzo.sde2.MachineLogger;
+import org.dunzo.sde2.OrderPriority;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * WorkloadScenario --- Load to put on a Coffee Machine, read from a scenario
+ * file so the same load can be replayed against every build.
+ *
+ * A scenario names the machine to load, either inline under "machine" in the
+ * same format as the machine input files or as a path under "machine_file",
+ * and sets the no. of clients, how long they place orders for, how orders
+ * arrive, a weighted mix of beverages, and optionally weights for outlets and
+ * priorities, a deadline and a timeout for every order. Orders go to a random
+ * outlet when no outlet weights are given. The seed makes the orders placed
+ * the same in every run, though not their timing.
+ *
+ * @author Atul Shanbhag
+ *
+ */
+public class WorkloadScenario {
+	private final static long DEFAULT_DRAIN_TIME = 30 * 1000;
+
+	private final String name;
+	private final JSONObject machine;
+	private final long seed;
+	private final int nClients;
+	private final long duration;
+	private final long drainTime;
+	private final ArrivalProcess arrivals;
+	private final Map<String, Double> mix;
+	private final double[] outletWeights;
+	private final Map<OrderPriority, Double> priorities;
+	private final long deadline;
+	private final long timeout;
+	private final MachineLogger.Level logLevel;
+
+	/**
+	 * @param json
+	 * @throws IllegalArgumentException
+	 * @throws JSONException
+	 */
+	private WorkloadScenario(JSONObject json) throws IllegalArgumentException, JSONException {
+		this.name = json.optString("name", "workload");
+		this.machine = loadMachine(json);
+		this.seed = json.optLong("seed", 0);
+		this.nClients = json.optInt("clients", 1);
+		this.duration = json.getLong("duration_ms");
+		this.drainTime = json.optLong("drain_ms", DEFAULT_DRAIN_TIME);
+		this.arrivals = ArrivalProcess.fromJSON(json.optJSONObject("arrivals"));
+		this.mix = parseWeights(json.optJSONObject("mix"));
+		if (mix.isEmpty()) {
+			throw new IllegalArgumentException("Beverage mix of workload " + name + " is empty!");
+		}
+
+		JSONArray outletsArr = json.optJSONArray("outlet_weights");
+		if (outletsArr != null) {
+			this.outletWeights = new double[outletsArr.length()];
+			for (int i = 0; i < outletWeights.length; i++) {
+				outletWeights[i] = outletsArr.getDouble(i);
+			}
+		} else {
+			this.outletWeights = null;
+		}
+
+		this.priorities = new LinkedHashMap<OrderPriority, Double>();
+		for (Map.Entry<String, Double> entry : parseWeights(json.optJSONObject("priorities")).entrySet()) {
+			priorities.put(OrderPriority.fromName(entry.getKey()), entry.getValue());
+		}
+		if (priorities.isEmpty()) {
+			priorities.put(OrderPriority.NORMAL, 1.0);
+		}
+
+		this.deadline = json.optLong("deadline_ms", 0);
+		this.timeout = json.optLong("timeout_ms", 0);
+		this.logLevel = MachineLogger.Level.fromName(json.optString("log_level", "off"));
+
+		if (nClients <= 0) {
+			throw new IllegalArgumentException("Workload " + name + " needs at least one client!");
+		}
+		if (duration <= 0 || drainTime < 0 || deadline < 0 || timeout < 0) {
+			throw new IllegalArgumentException("Times of workload " + name + " cannot be negative!");
+		}
+	}
+
+	/**
+	 * Reads a scenario from a scenario file.
+	 *
+	 * @param filePath
+	 * @return
+	 * @throws IllegalArgumentException
+	 * @throws JSONException
+	 */
+	public static WorkloadScenario load(String filePath) throws IllegalArgumentException, JSONException {
+		InputReader inputReader = new InputReader(filePath);
+		inputReader.read();
+		if (inputReader.getJsonObj() == null) {
+			throw new IllegalArgumentException("Cannot read workload scenario from " + filePath + "!");
+		}
+		return fromJSON(inputReader.getJsonObj());
+	}
+
+	/**
+	 * Parses a scenario from the "scenario" object of a scenario file.
+	 *
+	 * @param jsonObj
+	 * @return
+	 * @throws IllegalArgumentException
+	 * @throws JSONException
+	 */
+	public static WorkloadScenario fromJSON(JSONObject jsonObj) throws IllegalArgumentException, JSONException {
+		if (jsonObj == null) {
+			throw new IllegalArgumentException("Workload scenario is not defined!");
+		}
+		return new WorkloadScenario(jsonObj.getJSONObject("scenario"));
+	}
+
+	/**
+	 * Returns the input JSON of the machine to load, inline or from it's file.
+	 *
+	 * @param json
+	 * @return
+	 * @throws IllegalArgumentException
+	 * @throws JSONException
+	 */
+	private static JSONObject loadMachine(JSONObject json) throws IllegalArgumentException, JSONException {
+		JSONObject machine = json.optJSONObject("machine");
+		if (machine != null) {
+			return new JSONObject().put("machine", machine);
+		}
+		String machineFile = json.optString("machine_file", null);
+		if (machineFile == null) {
+			throw new IllegalArgumentException("Workload scenario must define a machine or a machine file!");
+		}
+		InputReader inputReader = new InputReader(machineFile);
+		inputReader.read();
+		if (inputReader.getJsonObj() == null) {
+			throw new IllegalArgumentException("Cannot read Coffee Machine from " + machineFile + "!");
+		}
+		return inputReader.getJsonObj();
+	}
+
+	/**
+	 * Parses positive weights keyed by name, keeping their order.
+	 *
+	 * @param json
+	 * @return
+	 * @throws IllegalArgumentException
+	 * @throws JSONException
+	 */
+	private static Map<String, Double> parseWeights(JSONObject json) throws IllegalArgumentException, JSONException {
+		Map<String, Double> weights = new LinkedHashMap<String, Double>();
+		if (json == null) {
+			return weights;
+		}
+		Iterator<String> keys = json.keys();
+		while (keys.hasNext()) {
+			String key = keys.next();
+			double weight = json.getDouble(key);
+			if (!(weight > 0)) {
+				throw new IllegalArgumentException("Weight of " + key + " must be positive!");
+			}
+			weights.put(key, weight);
+		}
+		return weights;
+	}
+
+	/**
+	 * Returns name of the scenario.
+	 *
+	 * @return
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the input JSON of the machine to load.
+	 *
+	 * @return
+	 */
+	public JSONObject getMachine() {
+		return machine;
+	}
+
+	/**
+	 * Returns the seed the orders are drawn with.
+	 *
+	 * @return
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Returns no. of clients placing orders concurrently.
+	 *
+	 * @return
+	 */
+	public int getnClients() {
+		return nClients;
+	}
+
+	/**
+	 * Returns time in millis the clients place orders for.
+	 *
+	 * @return
+	 */
+	public long getDuration() {
+		return duration;
+	}
+
+	/**
+	 * Returns max time in millis to wait for orders still open once the clients
+	 * stop.
+	 *
+	 * @return
+	 */
+	public long getDrainTime() {
+		return drainTime;
+	}
+
+	/**
+	 * Returns how orders arrive, summed over all clients.
+	 *
+	 * @return
+	 */
+	public ArrivalProcess getArrivals() {
+		return arrivals;
+	}
+
+	/**
+	 * Returns the weight of each beverage in the mix.
+	 *
+	 * @return
+	 */
+	public Map<String, Double> getMix() {
+		return Collections.unmodifiableMap(mix);
+	}
+
+	/**
+	 * Returns the weight of each outlet from outlet 1 on, or null if orders go to
+	 * a random outlet.
+	 *
+	 * @return
+	 */
+	public double[] getOutletWeights() {
+		return (outletWeights == null) ? null : outletWeights.clone();
+	}
+
+	/**
+	 * Returns the weight of each priority class.
+	 *
+	 * @return
+	 */
+	public Map<OrderPriority, Double> getPriorities() {
+		return Collections.unmodifiableMap(priorities);
+	}
+
+	/**
+	 * Returns millis from placing an order by which it must be served, or 0 for
+	 * none.
+	 *
+	 * @return
+	 */
+	public long getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * Returns millis an order may wait for it's outlet, or 0 for no timeout.
+	 *
+	 * @return
+	 */
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Returns the level the machine logs at during the workload.
+	 *
+	 * @return
+	 */
+	public MachineLogger.Level getLogLevel() {
+		return logLevel;
+	}
+}